@@ -0,0 +1,30 @@
+package nl.siegmann.epublib.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, which reports the allocation rate and the gc activity per benchmark.
+ * 
+ * Takes the same arguments as the JMH command line, for instance:
+ * <pre>
+ * mvn -P benchmarks package
+ * java -jar epublib-benchmarks/target/benchmarks.jar ReadBenchmark -p chapters=10000
+ * </pre>
+ * 
+ * @author paul
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,470 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Author;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.DcmesElement;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.epub.EpubWriter;
+import nl.siegmann.epublib.service.MediatypeService;
+
+/**
+ * Generates books of any size for load and scaling tests.
+ * 
+ * The books are built with the Book, Resources and TableOfContents api and written with the EpubWriter.
+ * The contents of every resource are generated from the seed when they are read, so they are not kept in memory:
+ * the heap needed to write a book depends on the number of resources, not on their size.
+ * The same seed and settings always give the same resources with the same contents.
+ * 
+ * Every chapter is in the spine and in the table of contents.
+ * The table of contents is filled in reading order: every entry gets up to tocFanOut children,
+ * until tocDepth is reached. The top level can have any number of entries.
+ * Chapter n shows image n modulo the number of images and plays audio n modulo the number of audio files,
+ * the fonts are used by the style sheet.
+ * 
+ * Can be run from the command line:
+ * <pre>
+ * java -cp benchmarks.jar nl.siegmann.epublib.benchmarks.BookGenerator book.epub chapters=50000 chapterSize=40000 images=1000 imageSize=500000
+ * </pre>
+ * 
+ * @author paul
+ *
+ */
+public class BookGenerator {
+
+	private static final String[] WORDS = new String[] {
+		"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+		"eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim",
+		"ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip",
+		"ex", "ea", "commodo", "consequat", "duis", "aute", "irure", "in", "reprehenderit", "voluptate",
+		"velit", "esse", "cillum", "fugiat", "nulla", "pariatur", "excepteur", "sint", "occaecat", "cupidatat"
+	};
+
+	private static final byte[] JPEG_HEADER = new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+	private static final byte[] WOFF_HEADER = new byte[] {'w', 'O', 'F', 'F'};
+	private static final byte[] MP3_HEADER = new byte[] {'I', 'D', '3', 3};
+
+	private long seed = 0;
+	private int chapters = 10;
+	private int chapterSize = 20000;
+	private int tocDepth = 1;
+	private int tocFanOut = 10;
+	private int images = 0;
+	private int imageSize = 100000;
+	private int fonts = 0;
+	private int fontSize = 50000;
+	private int audioFiles = 0;
+	private int audioSize = 1000000;
+
+	/**
+	 * Generates the book.
+	 * 
+	 * @return
+	 */
+	public Book generate() {
+		Book book = new Book();
+		DcmesElement title = new DcmesElement();
+		title.setValue("Generated book " + seed);
+		book.getMetadata().addTitle(title);
+		book.getMetadata().addAuthor(new Author("Book", "Generator"));
+		book.getMetadata().addIdentifier(new Identifier(Identifier.Scheme.UUID, new UUID(seed, chapters).toString()));
+
+		for (int i = 0; i < images; i++) {
+			book.addResource(new BinaryResource("image" + i, "images/image" + i + ".jpg", MediatypeService.JPG, createSeed(1, i), imageSize, JPEG_HEADER));
+		}
+		for (int i = 0; i < fonts; i++) {
+			book.addResource(new BinaryResource("font" + i, "fonts/font" + i + ".woff", MediatypeService.WOFF, createSeed(2, i), fontSize, WOFF_HEADER));
+		}
+		for (int i = 0; i < audioFiles; i++) {
+			book.addResource(new BinaryResource("audio" + i, "audio/audio" + i + ".mp3", MediatypeService.MP3, createSeed(3, i), audioSize, MP3_HEADER));
+		}
+		book.addResource(new Resource("css", createStyleSheet(), "css/style.css", MediatypeService.CSS));
+
+		// the TOCReferences that can still get children, with their depth
+		List<TOCReference> parents = new ArrayList<TOCReference>();
+		List<Integer> depths = new ArrayList<Integer>();
+		for (int i = 1; i <= chapters; i++) {
+			String chapterTitle = "Chapter " + i;
+			String image = images > 0 ? "../images/image" + (i % images) + ".jpg" : null;
+			String audio = audioFiles > 0 ? "../audio/audio" + (i % audioFiles) + ".mp3" : null;
+			Resource chapter = new ChapterResource("chapter" + i, "text/chapter" + i + ".xhtml", createSeed(0, i), chapterSize, chapterTitle, image, audio);
+			book.addResource(chapter);
+			book.getSpine().addResource(chapter);
+
+			TOCReference tocReference = new TOCReference(chapterTitle, chapter);
+			while (! parents.isEmpty() && parents.get(parents.size() - 1).getChildren().size() >= tocFanOut) {
+				parents.remove(parents.size() - 1);
+				depths.remove(depths.size() - 1);
+			}
+			int depth = 1;
+			if (parents.isEmpty()) {
+				book.getTableOfContents().getTocReferences().add(tocReference);
+			} else {
+				parents.get(parents.size() - 1).getChildren().add(tocReference);
+				depth = depths.get(depths.size() - 1) + 1;
+			}
+			if (depth < tocDepth) {
+				parents.add(tocReference);
+				depths.add(depth);
+			}
+		}
+		return book;
+	}
+
+	/**
+	 * Generates the book and writes it to the given file.
+	 * 
+	 * @param file
+	 * @param version
+	 * @throws IOException
+	 */
+	public void write(File file, Version version) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+		try {
+			write(out, version);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Generates the book and writes it to the given OutputStream.
+	 * 
+	 * @param out
+	 * @param version
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, Version version) throws IOException {
+		new EpubWriter().write(generate(), out, version);
+	}
+
+	private long createSeed(int type, int index) {
+		return new Random(seed * 31 + type).nextLong() ^ (index * 0x9E3779B97F4A7C15L);
+	}
+
+	private byte[] createStyleSheet() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < fonts; i++) {
+			result.append("@font-face { font-family: font").append(i).append("; src: url(../fonts/font").append(i).append(".woff); }\n");
+		}
+		result.append("body { font-family: ").append(fonts > 0 ? "font0, " : "").append("serif; }\n");
+		return toBytes(result.toString());
+	}
+
+	private static byte[] toBytes(String value) {
+		try {
+			return value.getBytes(Constants.CHARACTER_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * An xhtml chapter with paragraphs of random words, of exactly the given size
+	 * or the size of just the head and the title if that is larger.
+	 */
+	private static class ChapterResource extends GeneratedResource {
+
+		private static final long serialVersionUID = 4937102826571406164L;
+		private static final int PARAGRAPH_WORDS = 60;
+
+		private final int size;
+		private final String image;
+		private final String audio;
+
+		public ChapterResource(String id, String href, long seed, int size, String title, String image, String audio) {
+			super(id, href, MediatypeService.XHTML, seed);
+			this.size = size;
+			this.image = image;
+			this.audio = audio;
+			setTitle(title);
+		}
+
+		private byte[] createHeader() {
+			StringBuilder result = new StringBuilder();
+			result.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			result.append("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>").append(getTitle()).append("</title>");
+			result.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"../css/style.css\"/></head>\n");
+			result.append("<body>\n<h1>").append(getTitle()).append("</h1>\n");
+			if (image != null) {
+				result.append("<p><img src=\"").append(image).append("\" alt=\"").append(getTitle()).append("\"/></p>\n");
+			}
+			if (audio != null) {
+				result.append("<p><audio src=\"").append(audio).append("\" controls=\"controls\"/></p>\n");
+			}
+			return toBytes(result.toString());
+		}
+
+		private static byte[] createFooter() {
+			return toBytes("</body></html>\n");
+		}
+
+		@Override
+		protected long getGeneratedSize() {
+			return Math.max(size, createHeader().length + createFooter().length);
+		}
+
+		@Override
+		protected InputStream createInputStream() {
+			final Random random = createRandom();
+			final byte[] header = createHeader();
+			final byte[] footer = createFooter();
+			return new ChunkedInputStream() {
+
+				private int state = 0;
+				private long remaining = getGeneratedSize() - header.length - footer.length;
+
+				@Override
+				protected byte[] nextChunk() {
+					switch (state) {
+						case 0:
+							state = 1;
+							return header;
+						case 1:
+							byte[] paragraph = createParagraph(random);
+							if (paragraph.length <= remaining) {
+								remaining -= paragraph.length;
+								return paragraph;
+							}
+							// fill up to the exact size with whitespace
+							state = 2;
+							byte[] padding = new byte[(int) remaining];
+							for (int i = 0; i < padding.length; i++) {
+								padding[i] = (i % 80 == 79) ? (byte) '\n' : (byte) ' ';
+							}
+							remaining = 0;
+							return padding;
+						case 2:
+							state = 3;
+							return footer;
+						default:
+							return null;
+					}
+				}
+			};
+		}
+
+		private static byte[] createParagraph(Random random) {
+			StringBuilder result = new StringBuilder(PARAGRAPH_WORDS * 8);
+			result.append("<p>");
+			for (int i = 0; i < PARAGRAPH_WORDS; i++) {
+				if (i > 0) {
+					result.append(' ');
+				}
+				result.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			result.append(".</p>\n");
+			return toBytes(result.toString());
+		}
+	}
+
+	/**
+	 * Random bytes after the given header, like the contents of compressed images, fonts and audio.
+	 */
+	private static class BinaryResource extends GeneratedResource {
+
+		private static final long serialVersionUID = -2330817652707519958L;
+		private static final int CHUNK_SIZE = 16 * 1024;
+
+		private final long size;
+		private final byte[] header;
+
+		public BinaryResource(String id, String href, MediaTypeProperty mediaTypeProperty, long seed, long size, byte[] header) {
+			super(id, href, mediaTypeProperty, seed);
+			this.size = size;
+			this.header = header;
+		}
+
+		@Override
+		protected long getGeneratedSize() {
+			return Math.max(size, header.length);
+		}
+
+		@Override
+		protected InputStream createInputStream() {
+			final Random random = createRandom();
+			return new ChunkedInputStream() {
+
+				private boolean headerDone = false;
+				private long remaining = getGeneratedSize() - header.length;
+
+				@Override
+				protected byte[] nextChunk() {
+					if (! headerDone) {
+						headerDone = true;
+						return header;
+					}
+					if (remaining <= 0) {
+						return null;
+					}
+					byte[] result = new byte[(int) Math.min(CHUNK_SIZE, remaining)];
+					random.nextBytes(result);
+					remaining -= result.length;
+					return result;
+				}
+			};
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: BookGenerator <file> [seed=..] [version=2|3] [chapters=..] [chapterSize=..] [tocDepth=..] [tocFanOut=..]"
+					+ " [images=..] [imageSize=..] [fonts=..] [fontSize=..] [audioFiles=..] [audioSize=..]");
+			return;
+		}
+		BookGenerator bookGenerator = new BookGenerator();
+		Version version = Version.V2;
+		for (int i = 1; i < args.length; i++) {
+			String[] option = args[i].split("=", 2);
+			if (option.length != 2) {
+				throw new IllegalArgumentException("Expected name=value instead of " + args[i]);
+			}
+			String name = option[0];
+			String value = option[1];
+			if ("version".equals(name)) {
+				version = "3".equals(value) ? Version.V3 : Version.V2;
+			} else if ("seed".equals(name)) {
+				bookGenerator.setSeed(Long.parseLong(value));
+			} else if ("chapters".equals(name)) {
+				bookGenerator.setChapters(Integer.parseInt(value));
+			} else if ("chapterSize".equals(name)) {
+				bookGenerator.setChapterSize(Integer.parseInt(value));
+			} else if ("tocDepth".equals(name)) {
+				bookGenerator.setTocDepth(Integer.parseInt(value));
+			} else if ("tocFanOut".equals(name)) {
+				bookGenerator.setTocFanOut(Integer.parseInt(value));
+			} else if ("images".equals(name)) {
+				bookGenerator.setImages(Integer.parseInt(value));
+			} else if ("imageSize".equals(name)) {
+				bookGenerator.setImageSize(Integer.parseInt(value));
+			} else if ("fonts".equals(name)) {
+				bookGenerator.setFonts(Integer.parseInt(value));
+			} else if ("fontSize".equals(name)) {
+				bookGenerator.setFontSize(Integer.parseInt(value));
+			} else if ("audioFiles".equals(name)) {
+				bookGenerator.setAudioFiles(Integer.parseInt(value));
+			} else if ("audioSize".equals(name)) {
+				bookGenerator.setAudioSize(Integer.parseInt(value));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		bookGenerator.write(new File(args[0]), version);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * The number of chapters, 10 by default.
+	 */
+	public int getChapters() {
+		return chapters;
+	}
+
+	public void setChapters(int chapters) {
+		this.chapters = chapters;
+	}
+
+	/**
+	 * The size of every chapter in bytes.
+	 */
+	public int getChapterSize() {
+		return chapterSize;
+	}
+
+	public void setChapterSize(int chapterSize) {
+		this.chapterSize = chapterSize;
+	}
+
+	/**
+	 * The maximum depth of the table of contents, 1 by default.
+	 */
+	public int getTocDepth() {
+		return tocDepth;
+	}
+
+	public void setTocDepth(int tocDepth) {
+		this.tocDepth = tocDepth;
+	}
+
+	/**
+	 * The maximum number of children of a TOCReference.
+	 */
+	public int getTocFanOut() {
+		return tocFanOut;
+	}
+
+	public void setTocFanOut(int tocFanOut) {
+		this.tocFanOut = tocFanOut;
+	}
+
+	public int getImages() {
+		return images;
+	}
+
+	public void setImages(int images) {
+		this.images = images;
+	}
+
+	public int getImageSize() {
+		return imageSize;
+	}
+
+	public void setImageSize(int imageSize) {
+		this.imageSize = imageSize;
+	}
+
+	public int getFonts() {
+		return fonts;
+	}
+
+	public void setFonts(int fonts) {
+		this.fonts = fonts;
+	}
+
+	public int getFontSize() {
+		return fontSize;
+	}
+
+	public void setFontSize(int fontSize) {
+		this.fontSize = fontSize;
+	}
+
+	public int getAudioFiles() {
+		return audioFiles;
+	}
+
+	public void setAudioFiles(int audioFiles) {
+		this.audioFiles = audioFiles;
+	}
+
+	public int getAudioSize() {
+		return audioSize;
+	}
+
+	public void setAudioSize(int audioSize) {
+		this.audioSize = audioSize;
+	}
+}
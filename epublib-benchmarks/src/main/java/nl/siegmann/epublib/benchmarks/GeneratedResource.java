@@ -0,0 +1,147 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.IOUtil;
+
+/**
+ * A resource whose contents are generated every time they are read, instead of being kept in memory.
+ * 
+ * The contents only depend on the seed and the settings the resource was created with,
+ * so reading the resource twice gives the same bytes.
+ * 
+ * @author paul
+ *
+ */
+public abstract class GeneratedResource extends Resource {
+
+	private static final long serialVersionUID = -4720337465214633286L;
+
+	private final long seed;
+
+	public GeneratedResource(String id, String href, MediaTypeProperty mediaTypeProperty, long seed) {
+		super(id, null, href, mediaTypeProperty);
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * A new Random that starts with this resource's seed.
+	 */
+	protected Random createRandom() {
+		return new Random(seed);
+	}
+
+	/**
+	 * Generates the contents of this resource.
+	 */
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (data != null) {
+			return super.getInputStream();
+		}
+		return createInputStream();
+	}
+
+	/**
+	 * Generates the contents of this resource as a byte[].
+	 * 
+	 * The result is not kept, so generating a large book does not fill up the heap.
+	 */
+	@Override
+	public byte[] getData() throws IOException {
+		if (data != null) {
+			return data;
+		}
+		InputStream in = createInputStream();
+		try {
+			return IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public boolean isInitialized() {
+		return data != null;
+	}
+
+	@Override
+	public void close() {
+		// nothing is kept in memory
+	}
+
+	@Override
+	public long getSize() {
+		if (data != null) {
+			return data.length;
+		}
+		return getGeneratedSize();
+	}
+
+	/**
+	 * The number of bytes createInputStream() gives.
+	 */
+	protected abstract long getGeneratedSize();
+
+	protected abstract InputStream createInputStream();
+
+	/**
+	 * An InputStream that is filled one chunk at a time.
+	 */
+	protected static abstract class ChunkedInputStream extends InputStream {
+
+		private byte[] chunk = new byte[0];
+		private int chunkPos = 0;
+		private boolean finished = false;
+
+		/**
+		 * The next part of the contents.
+		 * 
+		 * @return null at the end of the contents
+		 */
+		protected abstract byte[] nextChunk();
+
+		private boolean fill() {
+			while (! finished && chunkPos >= chunk.length) {
+				byte[] next = nextChunk();
+				if (next == null) {
+					finished = true;
+				} else {
+					chunk = next;
+					chunkPos = 0;
+				}
+			}
+			return ! finished;
+		}
+
+		@Override
+		public int read() {
+			if (! fill()) {
+				return -1;
+			}
+			return chunk[chunkPos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (! fill()) {
+				return -1;
+			}
+			int result = Math.min(len, chunk.length - chunkPos);
+			System.arraycopy(chunk, chunkPos, b, off, result);
+			chunkPos += result;
+			return result;
+		}
+	}
+}
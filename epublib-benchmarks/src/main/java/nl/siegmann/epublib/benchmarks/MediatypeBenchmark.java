@@ -0,0 +1,44 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.service.MediatypeService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Determining the MediaType of a file from its name.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MediatypeBenchmark {
+
+	private final String[] fileNames = new String[] {
+			"OEBPS/text/chapter1.xhtml", "OEBPS/text/chapter2.HTML", "OEBPS/images/cover.jpeg",
+			"OEBPS/images/figure1.png", "OEBPS/fonts/serif.woff", "OEBPS/styles/main.css",
+			"OEBPS/toc.ncx", "OEBPS/audio/track1.mp3", "OEBPS/unknown.bin", "META-INF/container.xml"
+	};
+
+	@Benchmark
+	public void determineMediaType(Blackhole blackhole) {
+		for (String fileName: fileNames) {
+			blackhole.consume(MediatypeService.determineMediaType(fileName));
+		}
+	}
+}
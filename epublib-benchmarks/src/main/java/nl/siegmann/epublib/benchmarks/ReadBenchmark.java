@@ -0,0 +1,90 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.LazyResource;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.epub.EpubReader;
+import nl.siegmann.epublib.service.MediatypeService;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading an epub from memory and lazily from a file.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	@Param({"10", "1000"})
+	public int chapters;
+
+	@Param({"20000"})
+	public int chapterSize;
+
+	private byte[] epubData;
+	private File epubFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BookGenerator bookGenerator = new BookGenerator();
+		bookGenerator.setChapters(chapters);
+		bookGenerator.setChapterSize(chapterSize);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bookGenerator.write(out, Version.V2);
+		epubData = out.toByteArray();
+		epubFile = File.createTempFile("epublib-benchmark", ".epub");
+		FileUtils.writeByteArrayToFile(epubFile, epubData);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(epubFile);
+	}
+
+	@Benchmark
+	public Book readEpub() throws IOException {
+		return new EpubReader().readEpub(new ByteArrayInputStream(epubData));
+	}
+
+	@Benchmark
+	public Book readEpubLazy() throws IOException {
+		Book book = new EpubReader().readEpubLazy(epubFile.getAbsolutePath(), Constants.CHARACTER_ENCODING, Arrays.asList(MediatypeService.mediatypes));
+		// the lazy resources keep the file open
+		for (Resource resource: book.getResources().getAll()) {
+			if (resource instanceof LazyResource) {
+				((LazyResource) resource).getZipArchive().close();
+				break;
+			}
+		}
+		return book;
+	}
+}
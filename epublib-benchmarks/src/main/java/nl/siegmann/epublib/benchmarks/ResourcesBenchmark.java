@@ -0,0 +1,59 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.Resources;
+import nl.siegmann.epublib.service.MediatypeService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adding resources to Resources, which gives every resource a unique id and href.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourcesBenchmark {
+
+	private static final byte[] NO_DATA = new byte[0];
+
+	@Param({"1000", "100000"})
+	public int resources;
+
+	private String[] hrefs;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		hrefs = new String[resources];
+		for (int i = 0; i < resources; i++) {
+			hrefs[i] = "text/chapter" + i + ".html";
+		}
+	}
+
+	@Benchmark
+	public Resources add() {
+		Resources result = new Resources();
+		for (String href: hrefs) {
+			result.add(new Resource(null, NO_DATA, href, MediatypeService.XHTML));
+		}
+		return result;
+	}
+}
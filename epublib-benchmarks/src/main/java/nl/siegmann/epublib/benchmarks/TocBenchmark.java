@@ -0,0 +1,89 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.epub.EpubReader;
+import nl.siegmann.epublib.epub.NCXDocument;
+import nl.siegmann.epublib.epub.NavDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and creating the ncx and nav documents.
+ * The documents are read with the streaming readers and as DOM.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TocBenchmark {
+
+	@Param({"100", "10000"})
+	public int tocReferences;
+
+	@Param({"1", "3"})
+	public int tocDepth;
+
+	@Param({"true", "false"})
+	public boolean streaming;
+
+	private Book book;
+	private Resource ncxResource;
+	private Resource navResource;
+	private EpubReader epubReader;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BookGenerator bookGenerator = new BookGenerator();
+		bookGenerator.setChapters(tocReferences);
+		bookGenerator.setChapterSize(100);
+		bookGenerator.setTocDepth(tocDepth);
+		book = bookGenerator.generate();
+		ncxResource = NCXDocument.createNCXResource(book);
+		navResource = NavDocument.createNavResource(book);
+		book.getSpine().setTocResource(ncxResource);
+		epubReader = new EpubReader();
+		epubReader.setStreamingTocReader(streaming);
+	}
+
+	@Benchmark
+	public Resource readNCX() {
+		return NCXDocument.read(book, epubReader);
+	}
+
+	@Benchmark
+	public Resource createNCXResource() throws IOException {
+		return NCXDocument.createNCXResource(book);
+	}
+
+	@Benchmark
+	public List<TOCReference> readNav() {
+		return NavDocument.read(navResource, book, epubReader);
+	}
+
+	@Benchmark
+	public Resource createNavResource() throws IOException {
+		return NavDocument.createNavResource(book);
+	}
+}
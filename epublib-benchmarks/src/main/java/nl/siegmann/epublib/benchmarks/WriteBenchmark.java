@@ -0,0 +1,87 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.epub.EpubWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing an epub 2 and epub 3 book.
+ * The output is counted and thrown away, so only the writer itself is measured.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+	@Param({"10", "1000"})
+	public int chapters;
+
+	@Param({"20000"})
+	public int chapterSize;
+
+	private Book book;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BookGenerator bookGenerator = new BookGenerator();
+		bookGenerator.setChapters(chapters);
+		bookGenerator.setChapterSize(chapterSize);
+		book = bookGenerator.generate();
+		// keep the generated contents in memory, so generating them is not measured
+		for (Resource resource: book.getResources().getAll()) {
+			resource.setData(resource.getData());
+		}
+	}
+
+	@Benchmark
+	public long writeEpub2() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		new EpubWriter().write(book, out);
+		return out.count;
+	}
+
+	@Benchmark
+	public long writeEpub3() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		new EpubWriter().writeEpub3(book, out);
+		return out.count;
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+
+		long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.epub.EpubProcessorSupport;
+import nl.siegmann.epublib.epub.NCXDocument;
+import nl.siegmann.epublib.epub.impl.Epub3PackageDocumentWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Writing the package document and the ncx document with the kxml2 serializer
+ * and with the serializer that encodes UTF-8 straight into a byte buffer, indented and compact.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlSerializerBenchmark {
+
+	private static final String FEATURE_INDENT_OUTPUT = "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+	@Param({"100", "10000"})
+	public int chapters;
+
+	@Param({"kxml", "utf8"})
+	public String serializer;
+
+	@Param({"true", "false"})
+	public boolean indent;
+
+	private Book book;
+	private ByteArrayOutputStream out;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BookGenerator bookGenerator = new BookGenerator();
+		bookGenerator.setChapters(chapters);
+		bookGenerator.setChapterSize(100);
+		book = bookGenerator.generate();
+		book.getSpine().setTocResource(NCXDocument.createNCXResource(book));
+		out = new ByteArrayOutputStream();
+	}
+
+	@Benchmark
+	public int writePackageDocument() throws IOException {
+		out.reset();
+		new Epub3PackageDocumentWriter(book, createXmlSerializer()).write();
+		return out.size();
+	}
+
+	@Benchmark
+	public int writeNCXDocument() throws IOException {
+		out.reset();
+		XmlSerializer xmlSerializer = createXmlSerializer();
+		NCXDocument.write(xmlSerializer, book);
+		xmlSerializer.flush();
+		return out.size();
+	}
+
+	private XmlSerializer createXmlSerializer() throws IOException {
+		if ("kxml".equals(serializer)) {
+			XmlSerializer result = EpubProcessorSupport.createXmlSerializer(new OutputStreamWriter(out, Constants.CHARACTER_ENCODING));
+			result.setFeature(FEATURE_INDENT_OUTPUT, indent);
+			return result;
+		}
+		return EpubProcessorSupport.createXmlSerializer(out, indent);
+	}
+}
@@ -0,0 +1,60 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nl.siegmann.epublib.util.commons.io.XmlStreamReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Detecting the encoding of an xhtml document and reading it as characters.
+ * 
+ * @author paul
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlStreamReaderBenchmark {
+
+	@Param({"2000", "200000"})
+	public int documentSize;
+
+	private byte[] document;
+	private final char[] buffer = new char[8192];
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		BookGenerator bookGenerator = new BookGenerator();
+		bookGenerator.setChapters(1);
+		bookGenerator.setChapterSize(documentSize);
+		document = bookGenerator.generate().getSpine().getResource(0).getData();
+	}
+
+	@Benchmark
+	public long read() throws IOException {
+		XmlStreamReader reader = new XmlStreamReader(new ByteArrayInputStream(document));
+		long result = 0;
+		for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+			result += read;
+		}
+		reader.close();
+		return result;
+	}
+}
@@ -0,0 +1,86 @@
+package nl.siegmann.epublib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.epub.EpubReader;
+import nl.siegmann.epublib.service.MediatypeService;
+
+public class BookGeneratorTest extends TestCase {
+
+	public void testSameSeedSameBook() throws Exception {
+		BookGenerator bookGenerator = createBookGenerator();
+		Book book1 = bookGenerator.generate();
+		Book book2 = bookGenerator.generate();
+		assertEquals(book1.getResources().size(), book2.getResources().size());
+		for (Resource resource: book1.getResources().getAll()) {
+			assertTrue(resource.getHref(), Arrays.equals(resource.getData(), book2.getResources().getByHref(resource.getHref()).getData()));
+		}
+		bookGenerator.setSeed(2);
+		Book book3 = bookGenerator.generate();
+		assertFalse(Arrays.equals(book1.getSpine().getResource(0).getData(), book3.getSpine().getResource(0).getData()));
+	}
+
+	public void testSizes() throws Exception {
+		Book book = createBookGenerator().generate();
+		assertEquals(25, book.getSpine().size());
+		assertEquals(3, book.getResources().getResourcesByMediaType(MediatypeService.JPG).size());
+		assertEquals(2, book.getResources().getResourcesByMediaType(MediatypeService.WOFF).size());
+		assertEquals(1, book.getResources().getResourcesByMediaType(MediatypeService.MP3).size());
+		for (Resource resource: book.getResources().getAll()) {
+			if (resource instanceof GeneratedResource) {
+				assertEquals(resource.getHref(), resource.getSize(), resource.getData().length);
+			}
+		}
+		assertEquals(5000, book.getSpine().getResource(0).getSize());
+		assertEquals(20000, book.getResources().getByHref("images/image0.jpg").getSize());
+	}
+
+	public void testTableOfContents() throws Exception {
+		Book book = createBookGenerator().generate();
+		assertEquals(25, book.getTableOfContents().size());
+		assertEquals(3, book.getTableOfContents().calculateDepth());
+		List<TOCReference> topLevel = book.getTableOfContents().getTocReferences();
+		// every top level entry has 1 + 3 + 9 chapters
+		assertEquals(2, topLevel.size());
+		assertEquals("Chapter 14", topLevel.get(1).getTitle());
+		assertEquals("Chapter 1", topLevel.get(0).getTitle());
+		assertEquals("Chapter 2", topLevel.get(0).getChildren().get(0).getTitle());
+		assertEquals("Chapter 3", topLevel.get(0).getChildren().get(0).getChildren().get(0).getTitle());
+		assertEquals(3, topLevel.get(0).getChildren().size());
+		assertEquals(3, topLevel.get(0).getChildren().get(0).getChildren().size());
+	}
+
+	public void testWrite() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		createBookGenerator().write(out, Version.V3);
+		Book book = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(25, book.getSpine().size());
+		assertEquals(25, book.getTableOfContents().size());
+		assertEquals("Generated book 1", book.getMetadata().getFirstTitle().getValue());
+		assertTrue(Arrays.equals(createBookGenerator().generate().getSpine().getResource(3).getData(), book.getSpine().getResource(3).getData()));
+	}
+
+	private static BookGenerator createBookGenerator() {
+		BookGenerator result = new BookGenerator();
+		result.setSeed(1);
+		result.setChapters(25);
+		result.setChapterSize(5000);
+		result.setTocDepth(3);
+		result.setTocFanOut(3);
+		result.setImages(3);
+		result.setImageSize(20000);
+		result.setFonts(2);
+		result.setFontSize(1000);
+		result.setAudioFiles(1);
+		result.setAudioSize(3000);
+		return result;
+	}
+}
@@ -313,6 +313,7 @@ public class Book implements Serializable {
     private String uniqueId = "";
     private String packageId;
     private String zipPath;
+    private boolean frozen = false;
 	
 	/**
 	 * Adds the resource to the table of contents of the book as a child section of the given parentSection
@@ -324,6 +325,7 @@ public class Book implements Serializable {
 	 */
 	public TOCReference addSection(TOCReference parentSection, String sectionTitle,
 			Resource resource) {
+		checkNotFrozen();
 		getResources().add(resource);
 		if (spine.findFirstResourceById(resource.getId()) < 0)  {
 			spine.addSpineReference(new SpineReference(resource));
@@ -333,6 +335,7 @@ public class Book implements Serializable {
 	}
 
 	public void generateSpineFromTableOfContents() {
+		checkNotFrozen();
 		Spine spine = new Spine(tableOfContents);
 		
 		// in case the tocResource was already found and assigned
@@ -349,6 +352,7 @@ public class Book implements Serializable {
 	 * @return
 	 */
 	public TOCReference addSection(String title, Resource resource) {
+		checkNotFrozen();
 		getResources().add(resource);
 		TOCReference tocReference = tableOfContents.addTOCReference(new TOCReference(title, resource));
 		if (spine.findFirstResourceById(resource.getId()) < 0)  {
@@ -368,6 +372,7 @@ public class Book implements Serializable {
 		return metadata;
 	}
 	public void setMetadata(Metadata metadata) {
+		checkNotFrozen();
 		this.metadata = metadata;
 	}
 
@@ -376,15 +381,18 @@ public class Book implements Serializable {
     }
 
     public void setVersion(Version version) {
+        checkNotFrozen();
         this.version = version;
     }
 
     public void setResources(Resources resources) {
+        checkNotFrozen();
 		this.resources = resources;
 	}
 
 
 	public Resource addResource(Resource resource) {
+		checkNotFrozen();
         Resource result = resources.add(resource);
         addManifestItem(result, null);
         return result;
@@ -411,6 +419,7 @@ public class Book implements Serializable {
 
 
 	public void setSpine(Spine spine) {
+		checkNotFrozen();
 		this.spine = spine;
 	}
 
@@ -426,6 +435,7 @@ public class Book implements Serializable {
 
 
 	public void setTableOfContents(TableOfContents tableOfContents) {
+		checkNotFrozen();
 		this.tableOfContents = tableOfContents;
 	}
 	
@@ -445,6 +455,7 @@ public class Book implements Serializable {
 	
 	
 	public void setCoverPage(Resource coverPage) {
+		checkNotFrozen();
 		if (coverPage == null) {
 			return;
 		}
@@ -475,6 +486,7 @@ public class Book implements Serializable {
 	}
 
 	public void setCoverImage(Resource coverImage) {
+		checkNotFrozen();
 		if (coverImage == null) {
 			return;
 		}
@@ -495,8 +507,12 @@ public class Book implements Serializable {
 	}
 
     public void addManifestItem(Resource resource, ManifestItemProperties properties) {
-        if (manifest.getManifestItemByHref(resource.getHref()) == null) {
-            manifest.addReference(new ManifestItemReference(resource, properties));
+        checkNotFrozen();
+        // the manifest is locked, so resources can be added from many threads when the resources are ConcurrentResources
+        synchronized (manifest) {
+            if (manifest.getManifestItemByHref(resource.getHref()) == null) {
+                manifest.addReference(new ManifestItemReference(resource, properties));
+            }
         }
     }
 
@@ -544,6 +560,7 @@ public class Book implements Serializable {
     }
 
     public void setManifest(Manifest manifest) {
+        checkNotFrozen();
         this.manifest = manifest;
     }
 
@@ -552,10 +569,12 @@ public class Book implements Serializable {
 	}
 	
 	public void setOpfResource(Resource opfResource) {
+		checkNotFrozen();
 		this.opfResource = opfResource;
 	}
 	
 	public void setNcxResource(Resource ncxResource) {
+		checkNotFrozen();
 		this.ncxResource = ncxResource;
 	}
 
@@ -568,6 +587,7 @@ public class Book implements Serializable {
     }
 
     public void setNavResource(Resource navResource) {
+        checkNotFrozen();
         this.navResource = navResource;
     }
 
@@ -576,6 +596,7 @@ public class Book implements Serializable {
     }
 
     public void setBindings(Bindings bindings) {
+        checkNotFrozen();
         this.bindings = bindings;
     }
 
@@ -584,6 +605,7 @@ public class Book implements Serializable {
     }
 
     public void setUniqueId(String uniqueId) {
+        checkNotFrozen();
         this.uniqueId = uniqueId;
     }
 
@@ -592,6 +614,7 @@ public class Book implements Serializable {
     }
 
     public void setPackageId(String packageId) {
+        checkNotFrozen();
         this.packageId = packageId;
     }
 
@@ -600,7 +623,51 @@ public class Book implements Serializable {
     }
 
     public void setZipPath(String zipPath) {
+        checkNotFrozen();
         this.zipPath = zipPath;
     }
-}
 
+	/**
+	 * Makes the book read-only, so that one copy of it can be read by many threads at once without locking.
+	 *
+	 * The resources, spine, table of contents, guide and manifest are frozen together with the book:
+	 * their indexes are built right away, their setters throw an IllegalStateException
+	 * and the lists and maps they return can not be changed.
+	 * The metadata and bindings have no indexes, they must not be changed once the book is frozen.
+	 *
+	 * The book is frozen in place, the resource data is not copied.
+	 * Hand the frozen book to other threads the usual safe ways, for instance through a final or volatile field,
+	 * a concurrent collection or an ExecutorService.
+	 *
+	 * The EpubWriter generates the table of contents without adding it to the book, so a frozen book can be written too.
+	 *
+	 * @return this book
+	 */
+	public Book freeze() {
+		if (frozen) {
+			return this;
+		}
+		resources.freeze();
+		spine.freeze();
+		tableOfContents.freeze();
+		guide.freeze();
+		manifest.freeze();
+		for (Resource resource: new Resource[] {opfResource, ncxResource, navResource, coverImage}) {
+			if (resource != null) {
+				resource.freeze();
+			}
+		}
+		frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("The book is frozen");
+		}
+	}
+}
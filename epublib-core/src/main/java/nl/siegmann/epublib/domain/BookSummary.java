@@ -0,0 +1,136 @@
+package nl.siegmann.epublib.domain;
+
+import java.io.Serializable;
+
+import nl.siegmann.epublib.util.StringUtil;
+
+/**
+ * A lightweight view of an epub: its metadata and some facts about its contents.
+ *
+ * Created by reading only the container and the package document of an epub,
+ * without loading any of the content documents, images or fonts.
+ *
+ * @see nl.siegmann.epublib.epub.EpubReader#readBookSummary(String, boolean)
+ *
+ * @author paul
+ *
+ */
+public class BookSummary implements Serializable {
+
+	private static final long serialVersionUID = -1587623651264871354L;
+
+	private Metadata metadata = new Metadata();
+	private Version version = Version.V2;
+	private String uniqueId;
+	private String packageHref;
+	private String coverPageHref;
+	private String coverImageHref;
+	private Resource coverImage;
+	private int spineSize;
+
+	public Metadata getMetadata() {
+		return metadata;
+	}
+
+	public void setMetadata(Metadata metadata) {
+		this.metadata = metadata;
+	}
+
+	public Version getVersion() {
+		return version;
+	}
+
+	public void setVersion(Version version) {
+		this.version = version;
+	}
+
+	/**
+	 * The id of the identifier that is the book's unique identifier.
+	 *
+	 * @return
+	 */
+	public String getUniqueId() {
+		return uniqueId;
+	}
+
+	public void setUniqueId(String uniqueId) {
+		this.uniqueId = uniqueId;
+	}
+
+	/**
+	 * The location of the package document within the epub. Example: "OEBPS/content.opf".
+	 *
+	 * @return
+	 */
+	public String getPackageHref() {
+		return packageHref;
+	}
+
+	public void setPackageHref(String packageHref) {
+		this.packageHref = packageHref;
+	}
+
+	/**
+	 * The href of the cover page, relative to the package document.
+	 *
+	 * @return null if the package document does not mention a cover page.
+	 */
+	public String getCoverPageHref() {
+		return coverPageHref;
+	}
+
+	public void setCoverPageHref(String coverPageHref) {
+		this.coverPageHref = coverPageHref;
+	}
+
+	/**
+	 * The href of the cover image, relative to the package document.
+	 *
+	 * @return null if the package document does not mention a cover image.
+	 */
+	public String getCoverImageHref() {
+		return coverImageHref;
+	}
+
+	public void setCoverImageHref(String coverImageHref) {
+		this.coverImageHref = coverImageHref;
+	}
+
+	/**
+	 * The cover image.
+	 *
+	 * @return null if the cover image was not requested or not found.
+	 */
+	public Resource getCoverImage() {
+		return coverImage;
+	}
+
+	public void setCoverImage(Resource coverImage) {
+		this.coverImage = coverImage;
+	}
+
+	/**
+	 * The number of sections in the spine.
+	 *
+	 * @return
+	 */
+	public int getSpineSize() {
+		return spineSize;
+	}
+
+	public void setSpineSize(int spineSize) {
+		this.spineSize = spineSize;
+	}
+
+	public DcmesElement getTitle() {
+		return metadata.getFirstTitle();
+	}
+
+	public String toString() {
+		return StringUtil.toString("title", getTitle(),
+				"version", version,
+				"packageHref", packageHref,
+				"coverImageHref", coverImageHref,
+				"spineSize", spineSize);
+	}
+}
@@ -0,0 +1,342 @@
+package nl.siegmann.epublib.domain;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.util.StringUtil;
+
+/**
+ * Resources that can be added, looked up and removed by many threads at once, for assembling a book in parallel.
+ *
+ * The resources are kept by href and by id in ConcurrentHashMaps.
+ * Hrefs and ids are reserved with putIfAbsent, so two threads never give out the same one
+ * and adding a resource does not lock the other threads out.
+ * Generated hrefs and ids are numbered by counters shared by all threads.
+ *
+ * To fill a book from many threads, give it ConcurrentResources using Book.setResources before adding to it,
+ * then add the resources with Book.addResource.
+ * The spine and table of contents are not thread-safe, they should be filled by one thread.
+ *
+ * Unlike Resources, the lookups by MediaType go through all resources
+ * and the Map from getResourceMap can not be changed.
+ * Replacing all resources with set is not atomic.
+ *
+ * @see nl.siegmann.epublib.domain.Resources
+ *
+ * @author paul
+ *
+ */
+public class ConcurrentResources extends Resources {
+
+	private static final long serialVersionUID = -4472583625640129315L;
+
+	private final ConcurrentMap<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+	private final ConcurrentMap<String, Resource> resourcesById = new ConcurrentHashMap<String, Resource>();
+	private final AtomicInteger lastId = new AtomicInteger(1);
+	private final AtomicInteger lastHref = new AtomicInteger(1);
+	private final AtomicInteger nrDuplicateIds = new AtomicInteger(0);
+
+	/**
+	 * Adds a resource to the resources.
+	 *
+	 * Gives the resource a unique href if it has none, and a unique id if its id is blank or taken.
+	 * A resource with the same href as the given one is replaced.
+	 *
+	 * @param resource
+	 * @return
+	 */
+	@Override
+	public Resource add(Resource resource) {
+		checkNotFrozen();
+		putResource(resource);
+		resource.setId(reserveId(resource));
+		resource.addOwner(this);
+		return resource;
+	}
+
+	/**
+	 * Checks the id of the given resource and changes it to a unique identifier if it isn't one already.
+	 *
+	 * @param resource
+	 */
+	@Override
+	public void fixResourceId(Resource resource) {
+		checkNotFrozen();
+		String resourceId = reserveId(resource);
+		resource.setId(resourceId);
+		if (resources.get(resource.getHref()) != resource) {
+			// only the ids of the resources in here are reserved
+			resourcesById.remove(resourceId, resource);
+		}
+	}
+
+	private String reserveId(Resource resource) {
+		String resourceId = resource.getId();
+		if (StringUtil.isBlank(resourceId)) {
+			resourceId = StringUtil.substringBeforeLast(resource.getHref(), '.');
+			resourceId = StringUtil.substringAfterLast(resourceId, '/');
+		}
+		resourceId = makeValidId(resourceId, resource);
+		if (StringUtil.isNotBlank(resourceId) && tryReserveId(resourceId, resource)) {
+			return resourceId;
+		}
+		String prefix = getResourceItemPrefix(resource);
+		do {
+			resourceId = prefix + lastId.getAndIncrement();
+		} while (! tryReserveId(resourceId, resource));
+		return resourceId;
+	}
+
+	private boolean tryReserveId(String resourceId, Resource resource) {
+		Resource previous = resourcesById.putIfAbsent(resourceId, resource);
+		return previous == null || previous == resource;
+	}
+
+	/**
+	 * Stores the resource under its href, or under a new href if it has none.
+	 */
+	private void putResource(Resource resource) {
+		if (StringUtil.isNotBlank(resource.getHref())) {
+			Resource previous = resources.put(resource.getHref(), resource);
+			if (previous != null && previous != resource) {
+				unindex(previous);
+			}
+			return;
+		}
+		if (resource.getMediaTypeProperty() == null) {
+			throw new IllegalArgumentException("Resource must have either a MediaTypeProperties or a href");
+		}
+		while (true) {
+			String href = createHref(resource.getMediaTypeProperty(), lastHref.getAndIncrement());
+			if (resources.containsKey(href)) {
+				continue;
+			}
+			resource.setHref(href);
+			if (resources.putIfAbsent(href, resource) == null) {
+				return;
+			}
+		}
+	}
+
+	private void indexId(Resource resource, String id) {
+		if (StringUtil.isBlank(id)) {
+			return;
+		}
+		if (! tryReserveId(id, resource)) {
+			nrDuplicateIds.incrementAndGet();
+		}
+	}
+
+	private void unindex(Resource resource) {
+		resource.removeOwner(this);
+		unindexId(resource, resource.getId());
+	}
+
+	private void unindexId(Resource resource, String id) {
+		if (StringUtil.isBlank(id) || ! resourcesById.remove(id, resource)) {
+			return;
+		}
+		if (nrDuplicateIds.get() <= 0) {
+			return;
+		}
+		// another resource with the same id takes its place
+		for (Resource otherResource: resources.values()) {
+			if (otherResource != resource && id.equals(otherResource.getId())
+					&& resourcesById.putIfAbsent(id, otherResource) == null) {
+				nrDuplicateIds.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public Resource getById(String id) {
+		if (StringUtil.isBlank(id)) {
+			return null;
+		}
+		return resourcesById.get(id);
+	}
+
+	@Override
+	public Resource remove(String href) {
+		checkNotFrozen();
+		if (href == null) {
+			return null;
+		}
+		Resource result = resources.remove(href);
+		if (result != null) {
+			unindex(result);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return resources.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return resources.size();
+	}
+
+	/**
+	 * The resources by href.
+	 *
+	 * @return a Map that can not be changed.
+	 */
+	@Override
+	public Map<String, Resource> getResourceMap() {
+		return Collections.unmodifiableMap(resources);
+	}
+
+	@Override
+	public Collection<Resource> getAll() {
+		return Collections.unmodifiableCollection(resources.values());
+	}
+
+	@Override
+	public Collection<String> getAllHrefs() {
+		return Collections.unmodifiableSet(resources.keySet());
+	}
+
+	@Override
+	public boolean containsByHref(String href) {
+		return getByHref(href) != null;
+	}
+
+	@Override
+	public Resource getByHref(String href) {
+		if (StringUtil.isBlank(href)) {
+			return null;
+		}
+		return resources.get(StringUtil.substringBefore(href, Constants.FRAGMENT_SEPARATOR_CHAR));
+	}
+
+	@Override
+	public void set(Collection<Resource> resources) {
+		checkNotFrozen();
+		// copied first, the given resources may be those of getAll()
+		List<Resource> newResources = new ArrayList<Resource>(resources);
+		clearResources();
+		addAll(newResources);
+	}
+
+	/**
+	 * Adds all resources from the given Collection of resources, keeping their ids.
+	 *
+	 * @param resources
+	 */
+	@Override
+	public void addAll(Collection<Resource> resources) {
+		checkNotFrozen();
+		for (Resource resource: resources) {
+			putResource(resource);
+			indexId(resource, resource.getId());
+			resource.addOwner(this);
+		}
+	}
+
+	@Override
+	public void set(Map<String, Resource> resources) {
+		checkNotFrozen();
+		// copied first, the given map may be the one of getResourceMap()
+		Map<String, Resource> newResources = new HashMap<String, Resource>(resources);
+		clearResources();
+		for (Map.Entry<String, Resource> entry: newResources.entrySet()) {
+			Resource previous = this.resources.put(entry.getKey(), entry.getValue());
+			if (previous != null && previous != entry.getValue()) {
+				unindex(previous);
+			}
+			indexId(entry.getValue(), entry.getValue().getId());
+			entry.getValue().addOwner(this);
+		}
+	}
+
+	private void clearResources() {
+		for (Resource resource: resources.values()) {
+			resource.removeOwner(this);
+		}
+		resources.clear();
+		resourcesById.clear();
+		nrDuplicateIds.set(0);
+	}
+
+	@Override
+	public Resource findFirstResourceByMediaType(MediaTypeProperty mediaTypeProperty) {
+		return findFirstResourceByMediaType(resources.values(), mediaTypeProperty);
+	}
+
+	@Override
+	public List<Resource> getResourcesByMediaType(MediaTypeProperty mediaTypeProperty) {
+		List<Resource> result = new ArrayList<Resource>();
+		if (mediaTypeProperty == null) {
+			return result;
+		}
+		for (Resource resource: resources.values()) {
+			if (resource.getMediaTypeProperty() == mediaTypeProperty) {
+				result.add(resource);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<Resource> getResourcesByMediaTypes(MediaTypeProperty[] mediaTypeProperties) {
+		List<Resource> result = new ArrayList<Resource>();
+		if (mediaTypeProperties == null) {
+			return result;
+		}
+		List<MediaTypeProperty> mediaTypePropertiesList = Arrays.asList(mediaTypeProperties);
+		for (Resource resource: resources.values()) {
+			if (mediaTypePropertiesList.contains(resource.getMediaTypeProperty())) {
+				result.add(resource);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	void freeze() {
+		if (isFrozen()) {
+			return;
+		}
+		super.freeze();
+		for (Resource resource: resources.values()) {
+			resource.freeze();
+		}
+	}
+
+	@Override
+	void resourceIdChanged(Resource resource, String oldId) {
+		if (resources.get(resource.getHref()) != resource) {
+			return;
+		}
+		unindexId(resource, oldId);
+		indexId(resource, resource.getId());
+	}
+
+	@Override
+	void resourceMediaTypeChanged(Resource resource, MediaTypeProperty oldMediaTypeProperty) {
+		// the MediaTypes are not indexed
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// the owners of a resource are not serialized
+		for (Resource resource: resources.values()) {
+			resource.addOwner(this);
+		}
+	}
+}
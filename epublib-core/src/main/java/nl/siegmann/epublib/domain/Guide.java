@@ -2,6 +2,7 @@ package nl.siegmann.epublib.domain;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -12,6 +13,8 @@ import java.util.List;
  * 
  * The only part of this that is heavily used is the cover page.
  * 
+ * A frozen guide can not be changed.
+ * 
  * @author paul
  *
  */
@@ -29,12 +32,14 @@ public class Guide implements Serializable {
 	private static final int COVERPAGE_UNITIALIZED = -2;
 	
 	private int coverPageIndex = -1;
+	private boolean frozen = false;
 	
 	public List<GuideReference> getReferences() {
 		return references;
 	}
 
 	public void setReferences(List<GuideReference> references) {
+		checkNotFrozen();
 		this.references = references;
 		uncheckCoverPage();
 	}
@@ -52,6 +57,7 @@ public class Guide implements Serializable {
 	}
 	
 	public int setCoverReference(GuideReference guideReference) {
+		checkNotFrozen();
 		if (coverPageIndex >= 0) {
 			references.set(coverPageIndex, guideReference);
 		} else {
@@ -100,11 +106,48 @@ public class Guide implements Serializable {
 	
 
 	public ResourceReference addReference(GuideReference reference) {
+		checkNotFrozen();
 		this.references.add(reference);
 		uncheckCoverPage();
 		return reference;
 	}
 
+	/**
+	 * Whether the guide is part of a frozen book.
+	 *
+	 * @see Book#freeze()
+	 *
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Looks up the cover page and makes the guide and its resources read-only.
+	 * The list of references can not be changed from now on.
+	 */
+	// package
+	void freeze() {
+		if (frozen) {
+			return;
+		}
+		references = Collections.unmodifiableList(references);
+		checkCoverPage();
+		for (GuideReference guideReference: references) {
+			if (guideReference.getResource() != null) {
+				guideReference.getResource().freeze();
+			}
+		}
+		frozen = true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("The guide is frozen");
+		}
+	}
+
 	/**
 	 * A list of all GuideReferences that have the given referenceTypeName (ignoring case).
 	 * 
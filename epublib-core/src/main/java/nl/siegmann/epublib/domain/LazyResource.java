@@ -0,0 +1,200 @@
+package nl.siegmann.epublib.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+
+/**
+ * A Resource whose data stays in the epub file until it is needed.
+ *
+ * The resource knows the position and sizes of its entry in the zip file,
+ * so the data is inflated straight from the epub when it is needed.
+ * Nothing is extracted to disk.
+ *
+ * The loaded data is kept in a ResourceDataCache, which can be shared with other lazy resources.
+ * Threads that need the data at the same time share a single read of it.
+ *
+ * @see nl.siegmann.epublib.util.zip.ZipArchive
+ * @see nl.siegmann.epublib.domain.ResourceDataCache
+ *
+ * @author paul
+ *
+ */
+public class LazyResource extends Resource {
+
+	private static final long serialVersionUID = 6134950316380218513L;
+
+	private final ZipArchive zipArchive;
+	private final ZipArchiveEntry zipEntry;
+	private transient ResourceDataCache dataCache;
+
+	/**
+	 * Creates a Lazy resource, by not actually loading the data for this entry.
+	 *
+	 * @param zipArchive the epub file this resource is read from
+	 * @param zipEntry the resource's entry in the zipArchive
+	 * @param href The resource's href within the epub.
+	 */
+	public LazyResource(ZipArchive zipArchive, ZipArchiveEntry zipEntry, String href) {
+		this(zipArchive, zipEntry, href, null);
+	}
+
+	/**
+	 * Creates a Lazy resource, by not actually loading the data for this entry.
+	 *
+	 * @param zipArchive the epub file this resource is read from
+	 * @param zipEntry the resource's entry in the zipArchive
+	 * @param href The resource's href within the epub.
+	 * @param dataCache the cache for the loaded data. If null the default cache is used.
+	 */
+	public LazyResource(ZipArchive zipArchive, ZipArchiveEntry zipEntry, String href, ResourceDataCache dataCache) {
+		super(null, null, href, MediatypeService.determineMediaType(href));
+		this.zipArchive = zipArchive;
+		this.zipEntry = zipEntry;
+		this.dataCache = dataCache;
+		setSourceZipEntry(zipArchive, zipEntry);
+	}
+
+	public ZipArchive getZipArchive() {
+		return zipArchive;
+	}
+
+	public ZipArchiveEntry getZipEntry() {
+		return zipEntry;
+	}
+
+	/**
+	 * The cache that keeps the loaded data.
+	 *
+	 * @return
+	 */
+	public ResourceDataCache getDataCache() {
+		ResourceDataCache result = dataCache;
+		if (result == null) {
+			result = ResourceDataCache.getDefault();
+		}
+		return result;
+	}
+
+	/**
+	 * The contents of the resource as a byte[]
+	 *
+	 * The data is read from the epub file if it is not in the cache.
+	 * If another thread is already reading it, this thread waits for that read instead of reading it again.
+	 *
+	 * @return The contents of the resource
+	 */
+	public byte[] getData() throws IOException {
+		byte[] result = data;
+		if (result != null) {
+			return result;
+		}
+		RunnableFuture<byte[]> load = getDataCache().load(zipEntry, new DataLoader());
+		load.run();
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading " + getHref());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Error loading " + getHref(), e.getCause());
+		}
+	}
+
+	/**
+	 * The contents of the resource, read from the epub file by the given executor if it is not in the cache.
+	 *
+	 * Callers that ask for the data while it is being read get the same future.
+	 *
+	 * @param executor
+	 * @return
+	 */
+	public Future<byte[]> getDataAsync(Executor executor) {
+		byte[] result = data;
+		if (result != null) {
+			return ResourceDataCache.loaded(result);
+		}
+		RunnableFuture<byte[]> load = getDataCache().load(zipEntry, new DataLoader());
+		if (! load.isDone()) {
+			executor.execute(load);
+		}
+		return load;
+	}
+
+	/**
+	 * Reads the contents of the resource from the epub file, without keeping it in memory.
+	 *
+	 * @return The contents of the resource
+	 * @throws IOException
+	 */
+	protected byte[] readData() throws IOException {
+		InputStream in = zipArchive.getInputStream(zipEntry);
+		try {
+			return IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the contents of the Resource as an InputStream.
+	 *
+	 * If the data is not in the cache it is streamed from the epub file without being cached.
+	 */
+	public InputStream getInputStream() throws IOException {
+		byte[] currentData = data;
+		if (currentData == null) {
+			currentData = getDataCache().get(zipEntry);
+		}
+		if (currentData != null) {
+			return new ByteArrayInputStream(currentData);
+		}
+		return zipArchive.getInputStream(zipEntry);
+	}
+
+	/**
+	 * Removes the loaded data from the cache.
+	 *
+	 * It will be read from the epub file again when needed.
+	 * Data that was set using setData(byte[]) is kept.
+	 */
+	public void close() {
+		getDataCache().remove(zipEntry);
+	}
+
+	public boolean isInitialized() {
+		return data != null || getDataCache().contains(zipEntry);
+	}
+
+	public long getSize() {
+		byte[] currentData = data;
+		if (currentData != null) {
+			return currentData.length;
+		}
+		return zipEntry.getSize();
+	}
+
+	private class DataLoader implements Callable<byte[]> {
+
+		public byte[] call() throws IOException {
+			return readData();
+		}
+	}
+}
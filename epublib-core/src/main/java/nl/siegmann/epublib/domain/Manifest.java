@@ -6,6 +6,9 @@ import java.util.*;
 /**
  * represents the manifest in the package document
  *
+ * The references can be added and looked up by many threads at once.
+ * A frozen manifest can not be changed.
+ *
  * @author LinQ
  * @version 2013-05-23
  */
@@ -13,20 +16,28 @@ public class Manifest implements Serializable {
     private String id;
     private Map<String , ManifestItemReference> references = new HashMap<String, ManifestItemReference>();
     private Resources resources = new Resources();
+    private boolean frozen = false;
 
     public String getId() {
         return id;
     }
 
     public void setId(String id) {
+        checkNotFrozen();
         this.id = id;
     }
 
-    public Collection<ManifestItemReference> getReferences() {
-        return references.values();
+    /**
+     * A copy of the references, so it can be iterated while other threads add references.
+     *
+     * @return
+     */
+    public synchronized Collection<ManifestItemReference> getReferences() {
+        return new ArrayList<ManifestItemReference>(references.values());
     }
 
-    public ManifestItemReference addReference(ManifestItemReference reference) {
+    public synchronized ManifestItemReference addReference(ManifestItemReference reference) {
+        checkNotFrozen();
         references.put(reference.getResourceId(), reference);
         if (!resources.containsByHref(reference.getResource().getHref())) {
             resources.add(reference.getResource());
@@ -34,15 +45,46 @@ public class Manifest implements Serializable {
         return reference;
     }
 
-    public ManifestItemReference removeManifestItem(String href) {
+    public synchronized ManifestItemReference removeManifestItem(String href) {
+        checkNotFrozen();
         return references.remove(href);
     }
 
-    public ManifestItemReference getManifestItemByHref(String href) {
+    public synchronized ManifestItemReference getManifestItemByHref(String href) {
         return references.get(href);
     }
 
     public Resources getResources() {
         return resources;
     }
+
+    /**
+     * Whether the manifest is part of a frozen book.
+     *
+     * @see Book#freeze()
+     *
+     * @return
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Makes the manifest and its resources read-only.
+     */
+    // package
+    synchronized void freeze() {
+        if (frozen) {
+            return;
+        }
+        references = Collections.unmodifiableMap(references);
+        resources.freeze();
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("The manifest is frozen");
+        }
+    }
 }
@@ -1,6 +1,10 @@
 package nl.siegmann.epublib.domain;
 
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -13,6 +17,8 @@ import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.IOUtil;
 import nl.siegmann.epublib.util.StringUtil;
 import nl.siegmann.epublib.util.commons.io.XmlStreamReader;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
 
 /**
  * Represents a resource that is part of the epub.
@@ -32,10 +38,23 @@ public class Resource implements Serializable {
 	private String href;
 	private MediaTypeProperty mediaTypeProperty;
 	private String inputEncoding = Constants.CHARACTER_ENCODING;
-	private byte[] data;
+	protected byte[] data;
 		
 	private String fileName;
 	private long cachedSize;
+
+	/**
+	 * The Resources, Spines and TableOfContents this resource is part of.
+	 * They are told about changes of the href, id and MediaType, so they can keep their indexes up to date.
+	 */
+	private transient List<WeakReference<Object>> owners;
+
+	/**
+	 * The zip entry the data was read from, as long as the data was not changed.
+	 */
+	private ZipArchive sourceZipArchive;
+	private ZipArchiveEntry sourceZipEntry;
+	private boolean frozen = false;
 	
 	/**
 	 * Creates an empty Resource with the given href.
@@ -211,10 +230,10 @@ public class Resource implements Serializable {
 	/**
 	 * Tells this resource to release its cached data.
 	 * 
-	 * If this resource was not lazy-loaded, this is a no-op.
+	 * If this resource was not lazy-loaded or is frozen, this is a no-op.
 	 */
 	public void close() {
-		if ( this.fileName != null ) {
+		if ( this.fileName != null && ! frozen ) {
 			this.data = null;
 		}
 	}
@@ -226,7 +245,42 @@ public class Resource implements Serializable {
 	 * @param data
 	 */
 	public void setData(byte[] data) {
+		checkNotFrozen();
 		this.data = data;
+		this.sourceZipArchive = null;
+		this.sourceZipEntry = null;
+	}
+
+	/**
+	 * The zip file this resource's data was read from.
+	 *
+	 * @return null if the data was not read from a zip file or was changed using setData(byte[]).
+	 */
+	public ZipArchive getSourceZipArchive() {
+		return sourceZipArchive;
+	}
+
+	/**
+	 * The entry in the source zip file this resource's data was read from.
+	 *
+	 * The EpubWriter copies the compressed data of this entry instead of compressing the resource again.
+	 *
+	 * @return null if the data was not read from a zip file or was changed using setData(byte[]).
+	 */
+	public ZipArchiveEntry getSourceZipEntry() {
+		return sourceZipEntry;
+	}
+
+	/**
+	 * Sets the zip entry this resource's data was read from.
+	 *
+	 * @param zipArchive
+	 * @param zipEntry
+	 */
+	public void setSourceZipEntry(ZipArchive zipArchive, ZipArchiveEntry zipEntry) {
+		checkNotFrozen();
+		this.sourceZipArchive = zipArchive;
+		this.sourceZipEntry = zipEntry;
 	}
 	
 	/**
@@ -266,7 +320,18 @@ public class Resource implements Serializable {
 	 * @param id
 	 */
 	public void setId(String id) {
+		checkNotFrozen();
+		String oldId = this.id;
 		this.id = id;
+		if (! StringUtil.equals(oldId, id)) {
+			for (Object owner: getOwners()) {
+				if (owner instanceof Resources) {
+					((Resources) owner).resourceIdChanged(this, oldId);
+				} else if (owner instanceof Spine) {
+					((Spine) owner).resourceChanged();
+				}
+			}
+		}
 	}
 	
 	/**
@@ -298,7 +363,18 @@ public class Resource implements Serializable {
 	 * @param href
 	 */
 	public void setHref(String href) {
+		checkNotFrozen();
+		String oldHref = this.href;
 		this.href = href;
+		if (! StringUtil.equals(oldHref, href)) {
+			for (Object owner: getOwners()) {
+				if (owner instanceof Spine) {
+					((Spine) owner).resourceChanged();
+				} else if (owner instanceof TableOfContents) {
+					((TableOfContents) owner).resourceChanged();
+				}
+			}
+		}
 	}
 
 	/**
@@ -317,6 +393,7 @@ public class Resource implements Serializable {
 	 * @param encoding
 	 */
 	public void setInputEncoding(String encoding) {
+		checkNotFrozen();
 		this.inputEncoding = encoding;
 	}
 	
@@ -362,10 +439,98 @@ public class Resource implements Serializable {
 	}
 	
 	public void setMediaTypeProperty(MediaTypeProperty mediaTypeProperty) {
+		checkNotFrozen();
+		MediaTypeProperty oldMediaTypeProperty = this.mediaTypeProperty;
 		this.mediaTypeProperty = mediaTypeProperty;
+		if (oldMediaTypeProperty != mediaTypeProperty) {
+			for (Object owner: getOwners()) {
+				if (owner instanceof Resources) {
+					((Resources) owner).resourceMediaTypeChanged(this, oldMediaTypeProperty);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether the resource is part of a frozen book.
+	 *
+	 * @see Book#freeze()
+	 *
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Makes the resource read-only, its setters throw an IllegalStateException from now on.
+	 */
+	// package
+	void freeze() {
+		frozen = true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Resource " + href + " is frozen");
+		}
+	}
+
+	/**
+	 * The owners are guarded by the resource's own lock, the indexes of several spines and tables of contents may be built at the same time.
+	 */
+	// package
+	synchronized void addOwner(Object newOwner) {
+		if (owners == null) {
+			owners = new ArrayList<WeakReference<Object>>(1);
+		}
+		for (int i = owners.size() - 1; i >= 0; i--) {
+			Object owner = owners.get(i).get();
+			if (owner == newOwner) {
+				return;
+			}
+			if (owner == null) {
+				owners.remove(i);
+			}
+		}
+		owners.add(new WeakReference<Object>(newOwner));
+	}
+
+	// package
+	synchronized void removeOwner(Object oldOwner) {
+		if (owners == null) {
+			return;
+		}
+		for (int i = owners.size() - 1; i >= 0; i--) {
+			Object owner = owners.get(i).get();
+			if (owner == oldOwner || owner == null) {
+				owners.remove(i);
+			}
+		}
+		if (owners.isEmpty()) {
+			owners = null;
+		}
+	}
+
+	/**
+	 * A copy of the owners, so they can be notified outside of the lock.
+	 */
+	private synchronized List<Object> getOwners() {
+		if (owners == null) {
+			return Collections.emptyList();
+		}
+		List<Object> result = new ArrayList<Object>(owners.size());
+		for (WeakReference<Object> ownerReference: owners) {
+			Object owner = ownerReference.get();
+			if (owner != null) {
+				result.add(owner);
+			}
+		}
+		return result;
 	}
 
 	public void setTitle(String title) {
+		checkNotFrozen();
 		this.title = title;
 	}
 
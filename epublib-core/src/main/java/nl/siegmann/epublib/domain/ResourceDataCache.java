@@ -0,0 +1,399 @@
+package nl.siegmann.epublib.domain;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+
+import nl.siegmann.epublib.util.StringUtil;
+
+/**
+ * A size-bounded cache for the data of lazy loaded resources.
+ *
+ * Keeps the most recently used data up to a maximum number of bytes.
+ * Data that no longer fits is evicted, least recently used first.
+ * If soft references are enabled the evicted data is kept as long as the garbage collector allows,
+ * so that memory that is not needed elsewhere is still used.
+ *
+ * A cache can be shared by all the lazy resources of a book or of the whole process,
+ * see EpubReader.setResourceDataCache(ResourceDataCache) and ResourceDataCache.getDefault().
+ *
+ * The hit, miss and eviction counters help to choose the size of the cache.
+ *
+ * Loads of the same data that run at the same time are merged, see load(Object, Callable).
+ *
+ * This class is thread-safe.
+ *
+ * @see nl.siegmann.epublib.domain.LazyResource
+ *
+ * @author paul
+ *
+ */
+public class ResourceDataCache {
+
+	/**
+	 * The maximum size of the default cache: 16 MB.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+	private static volatile ResourceDataCache defaultCache = new ResourceDataCache(DEFAULT_MAX_SIZE, true);
+
+	private final LinkedHashMap<Object, byte[]> entries = new LinkedHashMap<Object, byte[]>(16, 0.75f, true);
+	private final Map<Object, SoftValue> softEntries = new HashMap<Object, SoftValue>();
+	private final ReferenceQueue<byte[]> referenceQueue = new ReferenceQueue<byte[]>();
+	private final Map<Object, Load> loads = new HashMap<Object, Load>();
+	private final boolean useSoftReferences;
+	private long maxSize;
+	private long currentSize = 0;
+	private long hitCount = 0;
+	private long softHitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long loadCount = 0;
+	private long sharedLoadCount = 0;
+
+	/**
+	 * Creates a cache that keeps at most maxSize bytes, without a soft reference fallback.
+	 *
+	 * @param maxSize
+	 */
+	public ResourceDataCache(long maxSize) {
+		this(maxSize, false);
+	}
+
+	/**
+	 * Creates a cache that keeps at most maxSize bytes.
+	 *
+	 * @param maxSize the maximum number of bytes that is strongly referenced by the cache.
+	 * @param useSoftReferences whether to keep evicted data as long as the garbage collector allows.
+	 */
+	public ResourceDataCache(long maxSize, boolean useSoftReferences) {
+		this.maxSize = maxSize;
+		this.useSoftReferences = useSoftReferences;
+	}
+
+	/**
+	 * The cache used by lazy resources for which no cache was specified.
+	 *
+	 * @return
+	 */
+	public static ResourceDataCache getDefault() {
+		return defaultCache;
+	}
+
+	public static void setDefault(ResourceDataCache resourceDataCache) {
+		defaultCache = resourceDataCache;
+	}
+
+	/**
+	 * Gets the data stored under the given key.
+	 *
+	 * @param key
+	 * @return null if not found
+	 */
+	public synchronized byte[] get(Object key) {
+		byte[] result = entries.get(key);
+		if (result != null) {
+			hitCount++;
+			return result;
+		}
+		if (useSoftReferences) {
+			expungeClearedReferences();
+			SoftValue softValue = softEntries.get(key);
+			result = softValue == null ? null : softValue.get();
+			if (result != null) {
+				softHitCount++;
+				softEntries.remove(key);
+				store(key, result);
+				return result;
+			}
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Gets the data stored under the given key, loading it if it is not there.
+	 *
+	 * Only one load per key runs at a time: while the data is being loaded, every caller gets the same future,
+	 * so that the data is read once however many threads ask for it.
+	 * The loaded data is stored in the cache before the future completes.
+	 *
+	 * The returned future must be run by the caller, or handed to an Executor.
+	 * Running it more than once is harmless, it loads the data only the first time.
+	 *
+	 * @param key
+	 * @param loader reads the data if it is not in the cache.
+	 * @return a future that is already done if the data was found.
+	 */
+	public synchronized RunnableFuture<byte[]> load(Object key, Callable<byte[]> loader) {
+		byte[] data = get(key);
+		if (data != null) {
+			return loaded(data);
+		}
+		Load result = loads.get(key);
+		if (result != null) {
+			sharedLoadCount++;
+			return result;
+		}
+		result = new Load(key, loader);
+		loads.put(key, result);
+		loadCount++;
+		return result;
+	}
+
+	/**
+	 * A future that is done and has the given data as its result.
+	 *
+	 * @param data
+	 * @return
+	 */
+	// package
+	static RunnableFuture<byte[]> loaded(final byte[] data) {
+		FutureTask<byte[]> result = new FutureTask<byte[]>(new Callable<byte[]>() {
+
+			public byte[] call() {
+				return data;
+			}
+		});
+		result.run();
+		return result;
+	}
+
+	/**
+	 * Whether data is stored under the given key.
+	 * Does not count as a hit or a miss.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized boolean contains(Object key) {
+		if (entries.containsKey(key)) {
+			return true;
+		}
+		SoftValue softValue = softEntries.get(key);
+		return softValue != null && softValue.get() != null;
+	}
+
+	/**
+	 * Stores the data under the given key, evicting the least recently used data if needed.
+	 *
+	 * @param key
+	 * @param data
+	 */
+	public synchronized void put(Object key, byte[] data) {
+		remove(key);
+		store(key, data);
+	}
+
+	/**
+	 * Removes the data stored under the given key.
+	 * A load of the key that is running is not stored when it finishes.
+	 *
+	 * @param key
+	 */
+	public synchronized void remove(Object key) {
+		loads.remove(key);
+		byte[] previous = entries.remove(key);
+		if (previous != null) {
+			currentSize -= previous.length;
+		}
+		softEntries.remove(key);
+	}
+
+	/**
+	 * Removes all data, loads that are running are not stored when they finish.
+	 */
+	public synchronized void clear() {
+		loads.clear();
+		entries.clear();
+		softEntries.clear();
+		currentSize = 0;
+	}
+
+	private void store(Object key, byte[] data) {
+		if (data.length > maxSize) {
+			keepSoftly(key, data);
+			return;
+		}
+		entries.put(key, data);
+		currentSize += data.length;
+		evict();
+	}
+
+	private void evict() {
+		for (Iterator<Map.Entry<Object, byte[]>> iter = entries.entrySet().iterator(); currentSize > maxSize && iter.hasNext();) {
+			Map.Entry<Object, byte[]> entry = iter.next();
+			iter.remove();
+			currentSize -= entry.getValue().length;
+			evictionCount++;
+			keepSoftly(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void keepSoftly(Object key, byte[] data) {
+		if (useSoftReferences) {
+			expungeClearedReferences();
+			softEntries.put(key, new SoftValue(key, data, referenceQueue));
+		}
+	}
+
+	private void expungeClearedReferences() {
+		for (SoftValue softValue = (SoftValue) referenceQueue.poll(); softValue != null; softValue = (SoftValue) referenceQueue.poll()) {
+			if (softEntries.get(softValue.key) == softValue) {
+				softEntries.remove(softValue.key);
+			}
+		}
+	}
+
+	/**
+	 * The maximum number of bytes that is strongly referenced by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * The number of bytes that is currently strongly referenced by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getCurrentSize() {
+		return currentSize;
+	}
+
+	/**
+	 * The number of entries that is currently strongly referenced by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * The number of lookups that were answered from the cache, including the soft hits.
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return hitCount + softHitCount;
+	}
+
+	/**
+	 * The number of lookups that were answered by data that had been evicted,
+	 * but was still softly reachable.
+	 *
+	 * @return
+	 */
+	public synchronized long getSoftHitCount() {
+		return softHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * The number of entries that were evicted to stay within the maximum size.
+	 *
+	 * @return
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * The number of loads that were started because the data was neither in the cache nor being loaded.
+	 *
+	 * @return
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+	/**
+	 * The number of times a load that was already running was shared instead of loading the data again.
+	 *
+	 * @return
+	 */
+	public synchronized long getSharedLoadCount() {
+		return sharedLoadCount;
+	}
+
+	public synchronized void resetStatistics() {
+		hitCount = 0;
+		softHitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+		loadCount = 0;
+		sharedLoadCount = 0;
+	}
+
+	public synchronized String toString() {
+		return StringUtil.toString("maxSize", maxSize,
+				"currentSize", currentSize,
+				"entries", entries.size(),
+				"hits", hitCount + softHitCount,
+				"softHits", softHitCount,
+				"misses", missCount,
+				"evictions", evictionCount,
+				"loads", loadCount,
+				"sharedLoads", sharedLoadCount);
+	}
+
+	/**
+	 * A running load, it stores the data in the cache when it is loaded and is forgotten when it is done.
+	 */
+	private class Load extends FutureTask<byte[]> {
+
+		private final Object key;
+
+		public Load(Object key, Callable<byte[]> loader) {
+			super(loader);
+			this.key = key;
+		}
+
+		@Override
+		protected void set(byte[] data) {
+			synchronized (ResourceDataCache.this) {
+				// put also forgets this load
+				if (loads.get(key) == this) {
+					put(key, data);
+				}
+			}
+			super.set(data);
+		}
+
+		@Override
+		protected void done() {
+			synchronized (ResourceDataCache.this) {
+				if (loads.get(key) == this) {
+					loads.remove(key);
+				}
+			}
+		}
+	}
+
+	private static class SoftValue extends SoftReference<byte[]> {
+
+		private final Object key;
+
+		public SoftValue(Object key, byte[] data, ReferenceQueue<byte[]> referenceQueue) {
+			super(data, referenceQueue);
+			this.key = key;
+		}
+	}
+}
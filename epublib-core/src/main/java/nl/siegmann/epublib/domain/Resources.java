@@ -4,6 +4,8 @@ import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.StringUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -11,6 +13,12 @@ import java.util.*;
  * All the resources that make up the book.
  * XHTML files, images and epub xml documents must be here.
  * 
+ * The resources are stored by href, with indexes by id and by MediaType.
+ * The indexes follow changes of the resources' ids and MediaTypes.
+ * A resource stays stored under the href it had when it was added.
+ * 
+ * Resources that are frozen can not be changed and can be read by many threads at once.
+ * 
  * @author paul
  *
  */
@@ -25,6 +33,13 @@ public class Resources implements Serializable {
 	private int lastId = 1;
 	
 	private Map<String, Resource> resources = new HashMap<String, Resource>();
+	private boolean frozen = false;
+
+	// the indexes, built when first needed
+	private transient Map<String, Resource> resourcesById;
+	private transient Map<MediaTypeProperty, List<Resource>> resourcesByMediaType;
+	private transient Map<Resource, Boolean> indexedResources;
+	private transient int nrDuplicateIds;
 	
 	/**
 	 * Adds a resource to the resources.
@@ -35,9 +50,10 @@ public class Resources implements Serializable {
 	 * @return
 	 */
 	public Resource add(Resource resource) {
+		checkNotFrozen();
 		fixResourceHref(resource);
 		fixResourceId(resource);
-		this.resources.put(resource.getHref(), resource);
+		putResource(resource);
 		return resource;
 	}
 
@@ -47,6 +63,7 @@ public class Resources implements Serializable {
 	 * @param resource
 	 */
 	public void fixResourceId(Resource resource) {
+		checkNotFrozen();
 		String  resourceId = resource.getId();
 		
 		// first try and create a unique id based on the resource's href
@@ -70,14 +87,16 @@ public class Resources implements Serializable {
 	 * @param resource
 	 * @return
 	 */
-	private String makeValidId(String resourceId, Resource resource) {
+	// package
+	static String makeValidId(String resourceId, Resource resource) {
 		if (StringUtil.isNotBlank(resourceId) && ! Character.isJavaIdentifierStart(resourceId.charAt(0))) {
 			resourceId = getResourceItemPrefix(resource) + resourceId;
 		}
 		return resourceId;
 	}
 	
-	private String getResourceItemPrefix(Resource resource) {
+	// package
+	static String getResourceItemPrefix(Resource resource) {
 		String result;
 		if (MediatypeService.isBitmapImage(resource.getMediaTypeProperty())) {
 			result = IMAGE_PREFIX;
@@ -118,15 +137,7 @@ public class Resources implements Serializable {
 	 * @return
 	 */
 	public boolean containsId(String id) {
-		if (StringUtil.isBlank(id)) {
-			return false;
-		}
-		for (Resource resource: resources.values()) {
-			if (id.equals(resource.getId())) {
-				return true;
-			}
-		}
-		return false;
+		return getById(id) != null;
 	}
 	
 	/**
@@ -139,12 +150,8 @@ public class Resources implements Serializable {
 		if (StringUtil.isBlank(id)) {
 			return null;
 		}
-		for (Resource resource: resources.values()) {
-			if (id.equals(resource.getId())) {
-				return resource;
-			}
-		}
-		return null;
+		ensureIndexes();
+		return resourcesById.get(id);
 	}
 	
 	/**
@@ -154,7 +161,12 @@ public class Resources implements Serializable {
 	 * @return the removed resource, null if not found
 	 */
 	public Resource remove(String href) {
-		return resources.remove(href);
+		checkNotFrozen();
+		Resource result = resources.remove(href);
+		if (result != null && resourcesById != null) {
+			unindex(result);
+		}
+		return result;
 	}
 	
 	private void fixResourceHref(Resource resource) {
@@ -175,7 +187,8 @@ public class Resources implements Serializable {
 		}
 	}
 	
-	private String createHref(MediaTypeProperty mediaTypeProperty, int counter) {
+	// package
+	static String createHref(MediaTypeProperty mediaTypeProperty, int counter) {
 		if(MediatypeService.isBitmapImage(mediaTypeProperty)) {
 			return "image_" + counter + mediaTypeProperty.getDefaultExtension();
 		} else {
@@ -200,14 +213,16 @@ public class Resources implements Serializable {
 	 * The resources that make up this book.
 	 * Resources can be xhtml pages, images, xml documents, etc.
 	 * 
-	 * @return
+	 * Changes made through the Map are seen by the indexes.
+	 * 
+	 * @return a Map that can not be changed if the resources are frozen.
 	 */
 	public Map<String, Resource> getResourceMap() {
-		return resources;
+		return new ResourceMap();
 	}
 	
 	public Collection<Resource> getAll() {
-		return resources.values();
+		return getResourceMap().values();
 	}
 	
 	
@@ -229,8 +244,11 @@ public class Resources implements Serializable {
 	 * @param resources
 	 */
 	public void set(Collection<Resource> resources) {
-		this.resources.clear();
-		addAll(resources);
+		checkNotFrozen();
+		// copied first, the given resources may be those of getAll()
+		List<Resource> newResources = new ArrayList<Resource>(resources);
+		clearResources();
+		addAll(newResources);
 	}
 	
 	/**
@@ -239,9 +257,10 @@ public class Resources implements Serializable {
 	 * @param resources
 	 */
 	public void addAll(Collection<Resource> resources) {
+		checkNotFrozen();
 		for(Resource resource: resources) {
 			fixResourceHref(resource);
-			this.resources.put(resource.getHref(), resource);
+			putResource(resource);
 		}
 	}
 
@@ -251,7 +270,11 @@ public class Resources implements Serializable {
 	 * @param resources A map with as keys the resources href and as values the Resources
 	 */
 	public void set(Map<String, Resource> resources) {
-		this.resources = new HashMap<String, Resource>(resources);
+		checkNotFrozen();
+		// copied first, the given map may be the one of getResourceMap()
+		Map<String, Resource> newResources = new HashMap<String, Resource>(resources);
+		clearResources();
+		this.resources = newResources;
 	}
 	
 	
@@ -296,7 +319,12 @@ public class Resources implements Serializable {
 	 * @return
 	 */
 	public Resource findFirstResourceByMediaType(MediaTypeProperty mediaTypeProperty) {
-		return findFirstResourceByMediaType(resources.values(), mediaTypeProperty);
+		ensureIndexes();
+		List<Resource> mediaTypeResources = resourcesByMediaType.get(mediaTypeProperty);
+		if (mediaTypeResources == null || mediaTypeResources.isEmpty()) {
+			return null;
+		}
+		return mediaTypeResources.get(0);
 	}
 	
 	/**
@@ -327,10 +355,10 @@ public class Resources implements Serializable {
 		if (mediaTypeProperty == null) {
 			return result;
 		}
-		for (Resource resource: getAll()) {
-			if (resource.getMediaTypeProperty() == mediaTypeProperty) {
-				result.add(resource);
-			}
+		ensureIndexes();
+		List<Resource> mediaTypeResources = resourcesByMediaType.get(mediaTypeProperty);
+		if (mediaTypeResources != null) {
+			result.addAll(mediaTypeResources);
 		}
 		return result;
 	}
@@ -350,9 +378,10 @@ public class Resources implements Serializable {
 		// this is the fastest way of doing this according to 
 		// http://stackoverflow.com/questions/1128723/in-java-how-can-i-test-if-an-array-contains-a-certain-value
 		List<MediaTypeProperty> mediaTypesListProperties = Arrays.asList(mediaTypePropertieses);
-		for (Resource resource: getAll()) {
-			if (mediaTypesListProperties.contains(resource.getMediaTypeProperty())) {
-				result.add(resource);
+		ensureIndexes();
+		for (Map.Entry<MediaTypeProperty, List<Resource>> entry: resourcesByMediaType.entrySet()) {
+			if (mediaTypesListProperties.contains(entry.getKey())) {
+				result.addAll(entry.getValue());
 			}
 		}
 		return result;
@@ -360,6 +389,298 @@ public class Resources implements Serializable {
 
 
 	public Collection<String> getAllHrefs() {
-		return resources.keySet();
+		return getResourceMap().keySet();
+	}
+
+	/**
+	 * Whether the resources are part of a frozen book.
+	 *
+	 * @see Book#freeze()
+	 *
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Builds the indexes and makes the resources and every resource in it read-only.
+	 */
+	// package
+	void freeze() {
+		if (frozen) {
+			return;
+		}
+		resources = Collections.unmodifiableMap(resources);
+		ensureIndexes();
+		for (Resource resource: resources.values()) {
+			resource.freeze();
+		}
+		frozen = true;
+	}
+
+	// package
+	void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("The resources are frozen");
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (frozen) {
+			// the indexes are not serialized
+			ensureIndexes();
+		}
+	}
+
+	private void putResource(Resource resource) {
+		Resource previous = resources.put(resource.getHref(), resource);
+		if (resourcesById == null) {
+			return;
+		}
+		if (previous != null && previous != resource) {
+			unindex(previous);
+		}
+		index(resource);
+	}
+
+	private void clearResources() {
+		for (Resource resource: resources.values()) {
+			resource.removeOwner(this);
+		}
+		resources.clear();
+		dropIndexes();
+	}
+
+	/**
+	 * Drops the indexes, they are built again when next needed.
+	 */
+	private void dropIndexes() {
+		resourcesById = null;
+		resourcesByMediaType = null;
+		indexedResources = null;
+	}
+
+	/**
+	 * Builds the indexes if they do not exist yet.
+	 * The resources of a MediaType are indexed in the order they were added.
+	 */
+	private void ensureIndexes() {
+		if (resourcesById != null) {
+			return;
+		}
+		resourcesById = new HashMap<String, Resource>();
+		resourcesByMediaType = new LinkedHashMap<MediaTypeProperty, List<Resource>>();
+		indexedResources = new IdentityHashMap<Resource, Boolean>();
+		nrDuplicateIds = 0;
+		for (Resource resource: resources.values()) {
+			index(resource);
+		}
+	}
+
+	private void index(Resource resource) {
+		if (indexedResources.put(resource, Boolean.TRUE) != null) {
+			return;
+		}
+		resource.addOwner(this);
+		indexId(resource, resource.getId());
+		indexMediaType(resource, resource.getMediaTypeProperty());
+	}
+
+	private void unindex(Resource resource) {
+		if (indexedResources.remove(resource) == null) {
+			return;
+		}
+		resource.removeOwner(this);
+		unindexId(resource, resource.getId());
+		unindexMediaType(resource, resource.getMediaTypeProperty());
+	}
+
+	private void indexId(Resource resource, String id) {
+		if (StringUtil.isBlank(id)) {
+			return;
+		}
+		if (resourcesById.get(id) == null) {
+			resourcesById.put(id, resource);
+		} else {
+			nrDuplicateIds++;
+		}
+	}
+
+	private void unindexId(Resource resource, String id) {
+		if (StringUtil.isBlank(id)) {
+			return;
+		}
+		if (resourcesById.get(id) != resource) {
+			nrDuplicateIds--;
+			return;
+		}
+		resourcesById.remove(id);
+		if (nrDuplicateIds == 0) {
+			return;
+		}
+		// another resource with the same id takes its place
+		for (Resource otherResource: resources.values()) {
+			if (otherResource != resource && id.equals(otherResource.getId())
+					&& indexedResources.containsKey(otherResource)) {
+				resourcesById.put(id, otherResource);
+				nrDuplicateIds--;
+				return;
+			}
+		}
+	}
+
+	private void indexMediaType(Resource resource, MediaTypeProperty mediaTypeProperty) {
+		List<Resource> mediaTypeResources = resourcesByMediaType.get(mediaTypeProperty);
+		if (mediaTypeResources == null) {
+			mediaTypeResources = new ArrayList<Resource>();
+			resourcesByMediaType.put(mediaTypeProperty, mediaTypeResources);
+		}
+		mediaTypeResources.add(resource);
+	}
+
+	private void unindexMediaType(Resource resource, MediaTypeProperty mediaTypeProperty) {
+		List<Resource> mediaTypeResources = resourcesByMediaType.get(mediaTypeProperty);
+		if (mediaTypeResources == null) {
+			return;
+		}
+		// by identity, Resource.equals compares the hrefs
+		for (Iterator<Resource> iter = mediaTypeResources.iterator(); iter.hasNext();) {
+			if (iter.next() == resource) {
+				iter.remove();
+				break;
+			}
+		}
+		if (mediaTypeResources.isEmpty()) {
+			resourcesByMediaType.remove(mediaTypeProperty);
+		}
+	}
+
+	// package
+	void resourceIdChanged(Resource resource, String oldId) {
+		if (indexedResources == null || ! indexedResources.containsKey(resource)) {
+			return;
+		}
+		unindexId(resource, oldId);
+		indexId(resource, resource.getId());
+	}
+
+	// package
+	void resourceMediaTypeChanged(Resource resource, MediaTypeProperty oldMediaTypeProperty) {
+		if (indexedResources == null || ! indexedResources.containsKey(resource)) {
+			return;
+		}
+		unindexMediaType(resource, oldMediaTypeProperty);
+		indexMediaType(resource, resource.getMediaTypeProperty());
+	}
+
+	/**
+	 * The resources by href.
+	 * Changes made through it drop the indexes.
+	 */
+	private class ResourceMap extends AbstractMap<String, Resource> {
+
+		@Override
+		public int size() {
+			return resources.size();
+		}
+
+		@Override
+		public boolean containsKey(Object href) {
+			return resources.containsKey(href);
+		}
+
+		@Override
+		public Resource get(Object href) {
+			return resources.get(href);
+		}
+
+		@Override
+		public Resource put(String href, Resource resource) {
+			Resource result = resources.put(href, resource);
+			dropIndexes();
+			return result;
+		}
+
+		@Override
+		public Resource remove(Object href) {
+			if (! resources.containsKey(href)) {
+				return null;
+			}
+			Resource result = resources.remove(href);
+			dropIndexes();
+			return result;
+		}
+
+		@Override
+		public void clear() {
+			resources.clear();
+			dropIndexes();
+		}
+
+		@Override
+		public Set<Map.Entry<String, Resource>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Resource>>() {
+
+				@Override
+				public int size() {
+					return resources.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Resource>> iterator() {
+					final Iterator<Map.Entry<String, Resource>> iter = resources.entrySet().iterator();
+					return new Iterator<Map.Entry<String, Resource>>() {
+
+						public boolean hasNext() {
+							return iter.hasNext();
+						}
+
+						public Map.Entry<String, Resource> next() {
+							return new ResourceEntry(iter.next());
+						}
+
+						public void remove() {
+							iter.remove();
+							dropIndexes();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	private class ResourceEntry implements Map.Entry<String, Resource> {
+
+		private final Map.Entry<String, Resource> entry;
+
+		public ResourceEntry(Map.Entry<String, Resource> entry) {
+			this.entry = entry;
+		}
+
+		public String getKey() {
+			return entry.getKey();
+		}
+
+		public Resource getValue() {
+			return entry.getValue();
+		}
+
+		public Resource setValue(Resource resource) {
+			Resource result = entry.setValue(resource);
+			dropIndexes();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return entry.equals(other);
+		}
+
+		@Override
+		public int hashCode() {
+			return entry.hashCode();
+		}
 	}
 }
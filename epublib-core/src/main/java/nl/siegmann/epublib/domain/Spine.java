@@ -3,7 +3,10 @@ package nl.siegmann.epublib.domain;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import nl.siegmann.epublib.util.StringUtil;
 
@@ -11,6 +14,14 @@ import nl.siegmann.epublib.util.StringUtil;
  * The spine sections are the sections of the book in the order in which the book should be read.
  * 
  * This contrasts with the Table of Contents sections which is an index into the Book's sections.
+ * 
+ * The positions of the resources are looked up through an index by href and by id.
+ * The index follows changes made through the Spine, changes to the size of the list of spineReferences
+ * and changes of the href and id of the resources in it.
+ * Replacing the resource of a SpineReference that is already in the spine is not noticed,
+ * use setSpineReferences after doing so.
+ *
+ * A frozen spine can not be changed, its index is built when it is frozen.
  *
  * @see nl.siegmann.epublib.domain.TableOfContents
  * 
@@ -27,6 +38,8 @@ public class Spine implements Serializable {
     private PageProgressionDirection direction;
 	private Resource tocResource;
 	private List<SpineReference> spineReferences;
+	private transient volatile SpineIndex index;
+	private boolean frozen = false;
 
 	public Spine() {
 		this(new ArrayList<SpineReference>());
@@ -57,7 +70,9 @@ public class Spine implements Serializable {
 		return spineReferences;
 	}
 	public void setSpineReferences(List<SpineReference> spineReferences) {
+		checkNotFrozen();
 		this.spineReferences = spineReferences;
+		this.index = null;
 	}
 
 	/**
@@ -86,14 +101,12 @@ public class Spine implements Serializable {
 		if (StringUtil.isBlank(resourceId)) {
 			return -1;
 		}
-		
-		for (int i = 0; i < spineReferences.size(); i++) {
-			SpineReference spineReference = spineReferences.get(i);
-			if (resourceId.equals(spineReference.getResourceId())) {
-				return i;
-			}
+		SpineIndex currentIndex = getIndex();
+		Integer result = currentIndex.positionsById.get(resourceId);
+		if (result == null ? isStale(currentIndex) : ! resourceId.equals(getResourceId(result))) {
+			result = createIndex().positionsById.get(resourceId);
 		}
-		return -1;
+		return result == null ? -1 : result;
 	}
 	
 	/**
@@ -103,10 +116,17 @@ public class Spine implements Serializable {
 	 * @return
 	 */
 	public SpineReference addSpineReference(SpineReference spineReference) {
+		checkNotFrozen();
 		if (spineReferences == null) {
 			this.spineReferences = new ArrayList<SpineReference>();
 		}
 		spineReferences.add(spineReference);
+		SpineIndex currentIndex = index;
+		if (currentIndex != null && currentIndex.spineReferences == spineReferences
+				&& currentIndex.size == spineReferences.size() - 1) {
+			// keep the index up to date instead of rebuilding it, so building a spine one resource at a time stays fast
+			currentIndex.add(spineReference, spineReferences.size() - 1, this);
+		}
 		return spineReference;
 	}
 
@@ -137,6 +157,7 @@ public class Spine implements Serializable {
 	 * @param tocResource
 	 */
 	public void setTocResource(Resource tocResource) {
+		checkNotFrozen();
 		this.tocResource = tocResource;
 	}
 
@@ -171,28 +192,116 @@ public class Spine implements Serializable {
 	 * 
 	 */
 	public int getResourceIndex(String resourceHref) {
-		int result = -1;
 		if (StringUtil.isBlank(resourceHref)) {
-			return result;
+			return -1;
 		}
+		SpineIndex currentIndex = getIndex();
+		Integer result = currentIndex.positionsByHref.get(resourceHref);
+		if (result == null ? isStale(currentIndex) : ! resourceHref.equals(getResourceHref(result))) {
+			result = createIndex().positionsByHref.get(resourceHref);
+		}
+		return result == null ? -1 : result;
+	}
+
+	private String getResourceHref(int position) {
+		Resource resource = getResource(position);
+		return resource == null ? null : resource.getHref();
+	}
+
+	private String getResourceId(int position) {
+		if (position < 0 || position >= spineReferences.size()) {
+			return null;
+		}
+		return spineReferences.get(position).getResourceId();
+	}
+
+	private SpineIndex getIndex() {
+		SpineIndex result = index;
+		if (result == null || result.spineReferences != spineReferences || result.size != spineReferences.size()) {
+			result = createIndex();
+		}
+		return result;
+	}
+
+	private synchronized SpineIndex createIndex() {
+		SpineIndex result = new SpineIndex(spineReferences);
 		for (int i = 0; i < spineReferences.size(); i++) {
-			if (resourceHref.equals(spineReferences.get(i).getResource().getHref())) {
-				result = i;
-				break;
-			}
+			result.add(spineReferences.get(i), i, this);
 		}
+		index = result;
 		return result;
 	}
 
+	/**
+	 * Whether a resource changed since the given index was built.
+	 * A miss can not be checked against the spine itself like a hit.
+	 */
+	private boolean isStale(SpineIndex currentIndex) {
+		return index != currentIndex;
+	}
+
+	/**
+	 * Called by the resources in the spine when their href or id changed.
+	 * Waits for an index that is being built, so the change is not lost when that index is stored.
+	 */
+	// package
+	synchronized void resourceChanged() {
+		index = null;
+	}
+
 	public boolean isEmpty() {
 		return spineReferences.isEmpty();
 	}
 
+	/**
+	 * Whether the spine is part of a frozen book.
+	 *
+	 * @see Book#freeze()
+	 *
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Builds the index and makes the spine and its resources read-only.
+	 * The list of spineReferences can not be changed from now on.
+	 */
+	// package
+	void freeze() {
+		if (frozen) {
+			return;
+		}
+		if (spineReferences == null) {
+			spineReferences = Collections.emptyList();
+		} else {
+			spineReferences = Collections.unmodifiableList(spineReferences);
+		}
+		createIndex();
+		for (SpineReference spineReference: spineReferences) {
+			if (spineReference.getResource() != null) {
+				spineReference.getResource().freeze();
+			}
+		}
+		if (tocResource != null) {
+			tocResource.freeze();
+		}
+		frozen = true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("The spine is frozen");
+		}
+	}
+
     public String getId() {
         return id;
     }
 
     public void setId(String id) {
+        checkNotFrozen();
         this.id = id;
     }
 
@@ -201,6 +310,37 @@ public class Spine implements Serializable {
     }
 
     public void setDirection(PageProgressionDirection direction) {
+        checkNotFrozen();
         this.direction = direction;
     }
+
+	/**
+	 * The first position of every href and id in the spine.
+	 */
+	private static class SpineIndex {
+
+		final List<SpineReference> spineReferences;
+		final Map<String, Integer> positionsByHref = new HashMap<String, Integer>();
+		final Map<String, Integer> positionsById = new HashMap<String, Integer>();
+		int size = 0;
+
+		public SpineIndex(List<SpineReference> spineReferences) {
+			this.spineReferences = spineReferences;
+		}
+
+		public void add(SpineReference spineReference, int position, Spine spine) {
+			size++;
+			Resource resource = spineReference.getResource();
+			if (resource == null) {
+				return;
+			}
+			resource.addOwner(spine);
+			if (resource.getHref() != null && ! positionsByHref.containsKey(resource.getHref())) {
+				positionsByHref.put(resource.getHref(), position);
+			}
+			if (resource.getId() != null && ! positionsById.containsKey(resource.getId())) {
+				positionsById.put(resource.getId(), position);
+			}
+		}
+	}
 }
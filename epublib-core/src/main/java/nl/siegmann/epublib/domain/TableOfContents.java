@@ -3,10 +3,15 @@ package nl.siegmann.epublib.domain;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import nl.siegmann.epublib.util.StringUtil;
+
 /**
  * The table of contents of the book.
  * The TableOfContents is a tree structure at the root it is a list of TOCReferences, each if which may have as children another list of TOCReferences.
@@ -16,6 +21,13 @@ import java.util.Set;
  * 
  * See the spine for the complete list of sections in the order in which they should be read.
  * 
+ * The TOCReferences pointing to a resource are looked up through an index by href.
+ * The index follows changes made through the TableOfContents, changes to the number of top level TOCReferences
+ * and changes of the href of the resources in it.
+ * Changes made directly to the children of TOCReferences are not noticed, use setTocReferences after doing so.
+ * 
+ * A frozen table of contents can not be changed, its index is built when it is frozen.
+ * 
  * @see nl.siegmann.epublib.domain.Spine
  * 
  * @author paul
@@ -33,6 +45,8 @@ public class TableOfContents implements Serializable {
     private String title;
 	
 	private List<TOCReference> tocReferences;
+	private transient volatile TOCIndex index;
+	private boolean frozen = false;
 
 	public TableOfContents() {
 		this(new ArrayList<TOCReference>());
@@ -47,7 +61,9 @@ public class TableOfContents implements Serializable {
 	}
 
 	public void setTocReferences(List<TOCReference> tocReferences) {
+		checkNotFrozen();
 		this.tocReferences = tocReferences;
+		this.index = null;
 	}
 	
 	/**
@@ -103,6 +119,7 @@ public class TableOfContents implements Serializable {
 	 * @return
 	 */
 	public TOCReference addSection(Resource resource, String[] pathElements) {
+		checkNotFrozen();
 		if (pathElements == null || pathElements.length == 0) {
 			return null;
 		}
@@ -118,6 +135,7 @@ public class TableOfContents implements Serializable {
 			currentTocReferences = result.getChildren();
 		}
 		result.setResource(resource);
+		index = null;
 		return result;
 	}
 		
@@ -138,6 +156,7 @@ public class TableOfContents implements Serializable {
 	 * @return
 	 */
 	public TOCReference addSection(Resource resource, int[] pathElements, String sectionTitlePrefix, String sectionNumberSeparator) {
+		checkNotFrozen();
 		if (pathElements == null || pathElements.length == 0) {
 			return null;
 		}
@@ -157,6 +176,7 @@ public class TableOfContents implements Serializable {
 			currentTocReferences = result.getChildren();
 		}
 		result.setResource(resource);
+		index = null;
 		return result;
 	}
 	
@@ -186,12 +206,133 @@ public class TableOfContents implements Serializable {
 	}
 
 	public TOCReference addTOCReference(TOCReference tocReference) {
+		checkNotFrozen();
 		if (tocReferences == null) {
 			tocReferences = new ArrayList<TOCReference>();
 		}
 		tocReferences.add(tocReference);
+		index = null;
 		return tocReference;
 	}
+
+	/**
+	 * The path from the top level down to the first TOCReference that points to the given resource.
+	 * 
+	 * @see #getTocReferencePath(String)
+	 * 
+	 * @param resource
+	 * @return an empty list if not found.
+	 */
+	public List<TOCReference> getTocReferencePath(Resource resource) {
+		if (resource == null) {
+			return Collections.emptyList();
+		}
+		return getTocReferencePath(resource.getHref());
+	}
+
+	/**
+	 * The path from the top level down to the first TOCReference that points to a resource with the given href.
+	 * 
+	 * The first element is a top level TOCReference, every next element is a child of the previous one
+	 * and the last element is the TOCReference that points to the resource.
+	 * The TOCReferences are searched in the order in which they appear in the table of contents.
+	 * 
+	 * @param resourceHref
+	 * @return an empty list if not found.
+	 */
+	public List<TOCReference> getTocReferencePath(String resourceHref) {
+		if (StringUtil.isBlank(resourceHref)) {
+			return Collections.emptyList();
+		}
+		TOCIndex currentIndex = index;
+		if (currentIndex == null || currentIndex.tocReferences != tocReferences || currentIndex.size != tocReferences.size()) {
+			currentIndex = createIndex();
+		}
+		int[] positions = currentIndex.positionsByHref.get(resourceHref);
+		List<TOCReference> result = getTocReferences(positions, resourceHref);
+		if (positions == null ? index != currentIndex : result == null) {
+			// a miss is stale when a resource changed since the index was built, a hit when it no longer leads to the href
+			positions = createIndex().positionsByHref.get(resourceHref);
+			result = getTocReferences(positions, resourceHref);
+		}
+		if (result == null) {
+			return Collections.emptyList();
+		}
+		return result;
+	}
+
+	/**
+	 * The TOCReferences at the given positions.
+	 * 
+	 * @return null if the positions do not lead to a TOCReference to a resource with the given href.
+	 */
+	private List<TOCReference> getTocReferences(int[] positions, String resourceHref) {
+		if (positions == null) {
+			return null;
+		}
+		List<TOCReference> result = new ArrayList<TOCReference>(positions.length);
+		List<TOCReference> currentTocReferences = tocReferences;
+		for (int position: positions) {
+			if (currentTocReferences == null || position >= currentTocReferences.size()) {
+				return null;
+			}
+			TOCReference tocReference = currentTocReferences.get(position);
+			result.add(tocReference);
+			currentTocReferences = tocReference.getChildren();
+		}
+		Resource resource = result.get(result.size() - 1).getResource();
+		if (resource == null || ! resourceHref.equals(resource.getHref())) {
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Walks the table of contents depth first without recursion, so the depth of the table of contents does not matter.
+	 */
+	private synchronized TOCIndex createIndex() {
+		TOCIndex result = new TOCIndex(tocReferences);
+		List<List<TOCReference>> levels = new ArrayList<List<TOCReference>>();
+		List<Integer> positions = new ArrayList<Integer>();
+		levels.add(tocReferences);
+		positions.add(0);
+		while (! levels.isEmpty()) {
+			int depth = levels.size() - 1;
+			List<TOCReference> level = levels.get(depth);
+			int position = positions.get(depth);
+			if (level == null || position >= level.size()) {
+				levels.remove(depth);
+				positions.remove(depth);
+				continue;
+			}
+			positions.set(depth, position + 1);
+			TOCReference tocReference = level.get(position);
+			Resource resource = tocReference.getResource();
+			if (resource != null) {
+				resource.addOwner(this);
+				if (resource.getHref() != null && ! result.positionsByHref.containsKey(resource.getHref())) {
+					int[] path = new int[positions.size()];
+					for (int i = 0; i < path.length; i++) {
+						path[i] = positions.get(i) - 1;
+					}
+					result.positionsByHref.put(resource.getHref(), path);
+				}
+			}
+			levels.add(tocReference.getChildren());
+			positions.add(0);
+		}
+		index = result;
+		return result;
+	}
+
+	/**
+	 * Called by the resources in the table of contents when their href changed.
+	 * Waits for an index that is being built, so the change is not lost when that index is stored.
+	 */
+	// package
+	synchronized void resourceChanged() {
+		index = null;
+	}
 	
 	/**
 	 * All unique references (unique by href) in the order in which they are referenced to in the table of contents.
@@ -254,6 +395,68 @@ public class TableOfContents implements Serializable {
     }
 
     public void setTitle(String title) {
+        checkNotFrozen();
         this.title = title;
     }
+
+	/**
+	 * Whether the table of contents is part of a frozen book.
+	 *
+	 * @see Book#freeze()
+	 *
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Builds the index and makes the table of contents and its resources read-only.
+	 * The lists of TOCReferences and of their children can not be changed from now on.
+	 */
+	// package
+	void freeze() {
+		if (frozen) {
+			return;
+		}
+		if (tocReferences == null) {
+			tocReferences = Collections.emptyList();
+		} else {
+			tocReferences = Collections.unmodifiableList(tocReferences);
+		}
+		List<TOCReference> pending = new ArrayList<TOCReference>(tocReferences);
+		while (! pending.isEmpty()) {
+			TOCReference tocReference = pending.remove(pending.size() - 1);
+			if (tocReference.getResource() != null) {
+				tocReference.getResource().freeze();
+			}
+			if (tocReference.getChildren() != null) {
+				pending.addAll(tocReference.getChildren());
+				tocReference.setChildren(Collections.unmodifiableList(tocReference.getChildren()));
+			}
+		}
+		createIndex();
+		frozen = true;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("The table of contents is frozen");
+		}
+	}
+
+	/**
+	 * Per href the positions leading to the first TOCReference that points to it.
+	 */
+	private static class TOCIndex {
+
+		final List<TOCReference> tocReferences;
+		final int size;
+		final Map<String, int[]> positionsByHref = new HashMap<String, int[]>();
+
+		public TOCIndex(List<TOCReference> tocReferences) {
+			this.tocReferences = tocReferences;
+			this.size = tocReferences.size();
+		}
+	}
 }
@@ -0,0 +1,473 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.CompressedEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveWriter;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An epub file whose size and entry offsets are known before it is written.
+ *
+ * The size can be sent before the epub file is written, for instance as the Content-Length of a http response,
+ * and any range of the epub file can be written on its own, for instance to resume a download.
+ * Only the data of the entries that lies in the range is read.
+ *
+ * The compressed size of every entry has to be known in advance, so:
+ * the mimetype, container, table of contents, nav document and package document are compressed in memory when the plan is created;
+ * resources in memory are compressed in memory as well;
+ * unchanged resources read from a zip file are copied from their source entry;
+ * other resources are stored uncompressed, they are read once to calculate their crc and read again when they are written.
+ *
+ * The resources of the book must not change between creating and writing the plan.
+ * A plan can be written any number of times, from several threads at once.
+ *
+ * @see EpubWriter#plan(nl.siegmann.epublib.domain.Book, nl.siegmann.epublib.domain.Version)
+ *
+ * @author paul
+ *
+ */
+public class ArchivePlan {
+
+	private static final Logger log = LoggerFactory.getLogger(ArchivePlan.class);
+
+	private final List<Entry> entries;
+	private final long time;
+	private final long size;
+
+	private ArchivePlan(List<Entry> entries, long time) throws IOException {
+		this.entries = Collections.unmodifiableList(entries);
+		this.time = time;
+		ZipArchiveWriter zipWriter = new ZipArchiveWriter(new NullOutputStream());
+		zipWriter.setTime(time);
+		for (Entry entry: entries) {
+			entry.offset = zipWriter.getPosition();
+			zipWriter.skip(entry.name, entry.method, entry.crc, entry.size, entry.compressedSize);
+			entry.dataOffset = zipWriter.getPosition() - entry.compressedSize;
+		}
+		zipWriter.finish();
+		this.size = zipWriter.getPosition();
+	}
+
+	/**
+	 * The exact size of the epub file in bytes.
+	 *
+	 * @return
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * The last modification time of all entries.
+	 *
+	 * @return
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * The entries in the order in which they are written.
+	 *
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Writes the whole epub file. The OutputStream is not closed.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		write(out, 0, size);
+	}
+
+	/**
+	 * Writes length bytes of the epub file, starting at the given offset. The OutputStream is not closed.
+	 *
+	 * @param out
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, long offset, long length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > size) {
+			throw new IllegalArgumentException("Range of " + length + " bytes at " + offset + " is outside the epub file of " + size + " bytes");
+		}
+		long end = offset + length;
+		RangeOutputStream rangeOut = new RangeOutputStream(out, offset, end);
+		ZipArchiveWriter zipWriter = new ZipArchiveWriter(rangeOut);
+		zipWriter.setTime(time);
+		for (Entry entry: entries) {
+			if (entry.dataOffset + entry.compressedSize <= offset || entry.offset >= end) {
+				zipWriter.skip(entry.name, entry.method, entry.crc, entry.size, entry.compressedSize);
+				rangeOut.position = zipWriter.getPosition();
+				continue;
+			}
+			InputStream in = entry.getCompressedData(Math.max(0, offset - entry.dataOffset), Math.min(entry.compressedSize, end - entry.dataOffset));
+			try {
+				zipWriter.write(entry.name, entry.method, entry.crc, entry.size, entry.compressedSize, in);
+			} finally {
+				in.close();
+			}
+		}
+		zipWriter.finish();
+		out.flush();
+	}
+
+	/**
+	 * An entry of the epub file.
+	 */
+	public static class Entry {
+
+		private final String name;
+		private final int method;
+		private final long crc;
+		private final long size;
+		private final long compressedSize;
+		private final CompressedEntry compressedEntry;
+		private final Resource resource;
+		private final ZipArchiveEntry sourceEntry;
+		private long offset;
+		private long dataOffset;
+
+		private Entry(CompressedEntry compressedEntry) {
+			this(compressedEntry.getName(), compressedEntry.getMethod(), compressedEntry.getCrc(), compressedEntry.getSize(), compressedEntry.getCompressedSize(), compressedEntry, null, null);
+		}
+
+		private Entry(String name, int method, long crc, long size, long compressedSize, CompressedEntry compressedEntry, Resource resource, ZipArchiveEntry sourceEntry) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.compressedSize = compressedSize;
+			this.compressedEntry = compressedEntry;
+			this.resource = resource;
+			this.sourceEntry = sourceEntry;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return ZipEntry.STORED or ZipEntry.DEFLATED
+		 */
+		public int getMethod() {
+			return method;
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+
+		/**
+		 * The size of the uncompressed data.
+		 *
+		 * @return
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * The size of the data in the epub file.
+		 *
+		 * @return
+		 */
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * The offset of the local header of the entry in the epub file.
+		 *
+		 * @return
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * The offset of the data of the entry in the epub file.
+		 *
+		 * @return
+		 */
+		public long getDataOffset() {
+			return dataOffset;
+		}
+
+		/**
+		 * The compressed data of the entry, of which only the bytes from up to to are read.
+		 * The other bytes are replaced by zeros, they fall outside the range that is written.
+		 */
+		private InputStream getCompressedData(long from, long to) throws IOException {
+			InputStream result = null;
+			if (from >= to) {
+				// only the local header lies in the range
+			} else if (compressedEntry != null) {
+				result = new ByteArrayInputStream(compressedEntry.getData(), 0, (int) compressedSize);
+			} else if (sourceEntry != null) {
+				result = resource.getSourceZipArchive().getRawInputStream(sourceEntry);
+			} else {
+				result = resource.getInputStream();
+			}
+			return new RangeInputStream(result, from, to, compressedSize);
+		}
+	}
+
+	/**
+	 * Collects the entries of a plan, they are compressed when the plan is built.
+	 */
+	// package
+	static class Builder implements EntrySink {
+
+		private final CompressionPolicy compressionPolicy;
+		private final boolean copyCompressedEntries;
+		private final List<PendingEntry> pendingEntries = new ArrayList<PendingEntry>();
+		private final Map<Integer, Deflater> deflaters = new HashMap<Integer, Deflater>();
+
+		public Builder(CompressionPolicy compressionPolicy, boolean copyCompressedEntries) {
+			this.compressionPolicy = compressionPolicy;
+			this.copyCompressedEntries = copyCompressedEntries;
+		}
+
+		/**
+		 * Adds an entry that is already compressed.
+		 *
+		 * @param entry
+		 */
+		public void add(CompressedEntry entry) {
+			pendingEntries.add(new PendingEntry(entry.getName(), entry));
+		}
+
+		public void add(String name, Resource resource) {
+			pendingEntries.add(new PendingEntry(name, resource));
+		}
+
+		public void add(String name, byte[] data) {
+			pendingEntries.add(new PendingEntry(name, data));
+		}
+
+		/**
+		 * Compresses the entries that need it and calculates their offsets.
+		 *
+		 * @param time the last modification time of all entries.
+		 * @return
+		 * @throws IOException
+		 */
+		public ArchivePlan build(long time) throws IOException {
+			List<Entry> entries = new ArrayList<Entry>(pendingEntries.size());
+			try {
+				for (PendingEntry pendingEntry: pendingEntries) {
+					Entry entry;
+					try {
+						entry = createEntry(pendingEntry.name, pendingEntry.source);
+					} catch (Exception e) {
+						log.error(e.getMessage(), e);
+						continue;
+					}
+					entries.add(entry);
+				}
+			} finally {
+				for (Deflater deflater: deflaters.values()) {
+					deflater.end();
+				}
+				deflaters.clear();
+			}
+			return new ArchivePlan(entries, time);
+		}
+
+		private Entry createEntry(String name, Object source) throws IOException {
+			if (source instanceof CompressedEntry) {
+				return new Entry((CompressedEntry) source);
+			}
+			if (source instanceof byte[]) {
+				return new Entry(compress(name, (byte[]) source, compressionPolicy.getDefaultLevel()));
+			}
+			Resource resource = (Resource) source;
+			if (resource instanceof DocumentResource && ! resource.isInitialized()) {
+				// generated documents are not sampled, that would generate them twice
+				return new Entry(compress(name, resource.getData(), compressionPolicy.getLevel(resource.getMediaTypeProperty())));
+			}
+			int level = compressionPolicy.getLevel(resource);
+			ZipArchiveEntry sourceEntry = copyCompressedEntries ? CompressionPipeline.getUnchangedSourceEntry(resource, level) : null;
+			if (sourceEntry != null) {
+				return new Entry(name, sourceEntry.getMethod(), sourceEntry.getCrc(), sourceEntry.getSize(), sourceEntry.getCompressedSize(), null, resource, sourceEntry);
+			}
+			if (resource.isInitialized()) {
+				return new Entry(compress(name, resource.getData(), level));
+			}
+			// the compressed size of a resource that is not in memory is only known if it is stored
+			CRC32 crc = new CRC32();
+			long size = 0;
+			InputStream in = resource.getInputStream();
+			try {
+				byte[] buffer = new byte[IOUtil.IO_COPY_BUFFER_SIZE];
+				for (int nrRead = in.read(buffer); nrRead >= 0; nrRead = in.read(buffer)) {
+					crc.update(buffer, 0, nrRead);
+					size += nrRead;
+				}
+			} finally {
+				in.close();
+			}
+			return new Entry(name, ZipEntry.STORED, crc.getValue(), size, size, null, resource, null);
+		}
+
+		private CompressedEntry compress(String name, byte[] data, int level) throws IOException {
+			if (level == CompressionPolicy.STORED) {
+				return CompressedEntry.stored(name, data);
+			}
+			Deflater deflater = deflaters.get(level);
+			if (deflater == null) {
+				deflater = new Deflater(level, true);
+				deflaters.put(level, deflater);
+			}
+			return CompressedEntry.deflate(name, new ByteArrayInputStream(data), deflater, data.length);
+		}
+	}
+
+	/**
+	 * The name of an entry with its source: a CompressedEntry, the data or a Resource.
+	 */
+	private static class PendingEntry {
+
+		final String name;
+		final Object source;
+
+		public PendingEntry(String name, Object source) {
+			this.name = name;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Passes on only the bytes between from and to.
+	 */
+	private static class RangeOutputStream extends FilterOutputStream {
+
+		private final long from;
+		private final long to;
+		long position = 0;
+
+		public RangeOutputStream(OutputStream out, long from, long to) {
+			super(out);
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (position >= from && position < to) {
+				out.write(b);
+			}
+			position++;
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			long start = Math.max(position, from);
+			long end = Math.min(position + length, to);
+			if (start < end) {
+				out.write(buffer, offset + (int) (start - position), (int) (end - start));
+			}
+			position += length;
+		}
+	}
+
+	/**
+	 * Reads only the bytes between from and to of the underlying stream, returning zeros in place of the others.
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+
+		private final long from;
+		private final long to;
+		private final long size;
+		private long position = 0;
+
+		/**
+		 * @param in null if there are no bytes to read.
+		 * @param from
+		 * @param to
+		 * @param size the number of bytes returned in total.
+		 * @throws IOException
+		 */
+		public RangeInputStream(InputStream in, long from, long to, long size) throws IOException {
+			super(in);
+			this.from = from;
+			this.to = to;
+			this.size = size;
+			long skip = from;
+			while (in != null && skip > 0) {
+				long nrSkipped = in.skip(skip);
+				if (nrSkipped <= 0) {
+					if (in.read() < 0) {
+						break;
+					}
+					nrSkipped = 1;
+				}
+				skip -= nrSkipped;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			int nrRead = read(buffer, 0, 1);
+			return nrRead < 0 ? -1 : buffer[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (position >= size) {
+				return -1;
+			}
+			int result;
+			if (position < from) {
+				result = (int) Math.min(from - position, length);
+				Arrays.fill(buffer, offset, offset + result, (byte) 0);
+			} else if (position < to) {
+				result = in.read(buffer, offset, (int) Math.min(to - position, length));
+				if (result < 0) {
+					return -1;
+				}
+			} else {
+				result = (int) Math.min(size - position, length);
+				Arrays.fill(buffer, offset, offset + result, (byte) 0);
+			}
+			position += result;
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+}
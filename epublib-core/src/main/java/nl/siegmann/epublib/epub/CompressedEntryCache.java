@@ -0,0 +1,228 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.StringUtil;
+import nl.siegmann.epublib.util.zip.CompressedEntry;
+
+/**
+ * A size-bounded cache for the deflated entries of resources, so that writing the same resources again does not deflate them again.
+ *
+ * Entries are kept by name and compression level, up to a maximum number of compressed bytes, evicting the least recently used first.
+ * A cached entry is only used if the SHA-256 digest of the resource data is still the same,
+ * so resources that changed since they were cached, or other resources with the same name, are deflated again.
+ *
+ * A cache is shared by all the writes of an EpubWriter, see EpubWriter.setCompressedEntryCache(CompressedEntryCache).
+ * The versions of a book written by EpubWriter.write(Book, Map) do not need it, they share their deflated resources anyway.
+ *
+ * This class is thread-safe.
+ *
+ * @author paul
+ *
+ */
+public class CompressedEntryCache {
+
+	/**
+	 * The default maximum size: 64 MB of compressed data.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+	private final LinkedHashMap<String, CachedEntry> entries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true);
+	private long maxSize;
+	private long currentSize = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public CompressedEntryCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize the maximum number of compressed bytes kept by the cache.
+	 */
+	public CompressedEntryCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The entry with the given name and level, if it was deflated from data with the given digest.
+	 *
+	 * @param name
+	 * @param digest the digest of the resource data, see digest(Resource)
+	 * @param level
+	 * @return null if not found
+	 */
+	// package
+	synchronized CompressedEntry get(String name, byte[] digest, int level) {
+		CachedEntry cachedEntry = entries.get(name);
+		if (cachedEntry != null && cachedEntry.level == level && MessageDigest.isEqual(cachedEntry.digest, digest)) {
+			hitCount++;
+			return cachedEntry.entry;
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Stores the entry under its name, evicting the least recently used entries if needed.
+	 *
+	 * @param entry
+	 * @param digest the digest of the data the entry was deflated from.
+	 * @param level the level the entry was deflated with.
+	 */
+	// package
+	synchronized void put(CompressedEntry entry, byte[] digest, int level) {
+		remove(entry.getName());
+		if (entry.getCompressedSize() > maxSize) {
+			return;
+		}
+		if (entry.getData().length > entry.getCompressedSize()) {
+			entry = new CompressedEntry(entry.getName(), entry.getMethod(), entry.getCrc(), entry.getSize(), Arrays.copyOf(entry.getData(), (int) entry.getCompressedSize()), (int) entry.getCompressedSize());
+		}
+		entries.put(entry.getName(), new CachedEntry(entry, digest, level));
+		currentSize += entry.getCompressedSize();
+		evict();
+	}
+
+	public synchronized void remove(String name) {
+		CachedEntry previous = entries.remove(name);
+		if (previous != null) {
+			currentSize -= previous.entry.getCompressedSize();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		currentSize = 0;
+	}
+
+	private void evict() {
+		for (Iterator<CachedEntry> iter = entries.values().iterator(); currentSize > maxSize && iter.hasNext();) {
+			CachedEntry cachedEntry = iter.next();
+			iter.remove();
+			currentSize -= cachedEntry.entry.getCompressedSize();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * The SHA-256 digest of the resource data, which identifies the data of a cached entry.
+	 *
+	 * The resource data is read for this, so it should be called outside the lock of the cache.
+	 *
+	 * @param resource
+	 * @return
+	 * @throws IOException
+	 */
+	// package
+	static byte[] digest(Resource resource) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+		if (resource.isInitialized()) {
+			digest.update(resource.getData());
+		} else {
+			InputStream in = resource.getInputStream();
+			try {
+				byte[] buffer = new byte[IOUtil.IO_COPY_BUFFER_SIZE];
+				for (int nrRead = in.read(buffer); nrRead >= 0; nrRead = in.read(buffer)) {
+					digest.update(buffer, 0, nrRead);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * The maximum number of compressed bytes kept by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * The number of compressed bytes currently kept by the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getCurrentSize() {
+		return currentSize;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * The number of entries that were not deflated because they were found in the cache.
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * The number of entries that were evicted to stay within the maximum size.
+	 *
+	 * @return
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized void resetStatistics() {
+		hitCount = 0;
+		missCount = 0;
+		evictionCount = 0;
+	}
+
+	public synchronized String toString() {
+		return StringUtil.toString("maxSize", maxSize,
+				"currentSize", currentSize,
+				"entries", entries.size(),
+				"hits", hitCount,
+				"misses", missCount,
+				"evictions", evictionCount);
+	}
+
+	private static class CachedEntry {
+
+		final CompressedEntry entry;
+		final byte[] digest;
+		final int level;
+
+		public CachedEntry(CompressedEntry entry, byte[] digest, int level) {
+			this.entry = entry;
+			this.digest = digest;
+			this.level = level;
+		}
+	}
+}
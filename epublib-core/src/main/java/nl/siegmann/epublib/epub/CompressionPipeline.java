@@ -0,0 +1,494 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.CompressedEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveWriter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compresses entries and writes them to a ZipArchiveWriter in the order in which they were added.
+ *
+ * The CompressionPolicy decides per resource whether it is stored or deflated, and with which level.
+ *
+ * If an executorService is set the entries are deflated ahead of time on the executor,
+ * each entry independent of the others, while at most IN_FLIGHT_SIZE bytes are waiting to be written.
+ * Without an executorService every entry is deflated when it is written.
+ * Either way an entry is deflated the same way, so both give the same archive.
+ *
+ * Entries larger than STREAMING_SIZE are not kept in memory but compressed while being written.
+ * Generated documents, like the table of contents and the package document, are serialized straight into their entry when it is written.
+ *
+ * Resources that were read from a zip file and not changed since are not compressed again if the source entry uses the same method,
+ * the compressed data of their source entry is copied instead.
+ *
+ * If a compressedEntryCache is set, deflated resources are taken from and added to it.
+ * If a map of pinned entries is set, every deflated resource is kept in it, also the large ones up to MAX_PINNED_SIZE.
+ *
+ * @author paul
+ *
+ */
+// package
+class CompressionPipeline implements EntrySink {
+
+	private static final Logger log = LoggerFactory.getLogger(CompressionPipeline.class);
+
+	/**
+	 * Entries bigger than this are deflated straight into the archive.
+	 */
+	static final long STREAMING_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * The maximum uncompressed size of the entries that are deflated ahead of time.
+	 */
+	static final long IN_FLIGHT_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The maximum size of the large entries that are deflated in memory to be pinned, larger ones may not fit in a byte array.
+	 */
+	static final long MAX_PINNED_SIZE = 1024 * 1024 * 1024;
+
+	private final ZipArchiveWriter zipWriter;
+	private final ExecutorService executorService;
+	private final CompressionPolicy compressionPolicy;
+	private boolean copyCompressedEntries = true;
+	private CompressedEntryCache compressedEntryCache = null;
+	private Map<Resource, CompressedEntry> pinnedEntries = null;
+	private final ConcurrentMap<Integer, ConcurrentLinkedQueue<Deflater>> deflaters = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Deflater>>();
+	private final List<PendingEntry> entries = new ArrayList<PendingEntry>();
+	private int writeIndex = 0;
+	private int submitIndex = 0;
+	private long inFlightSize = 0;
+
+	public CompressionPipeline(ZipArchiveWriter zipWriter, ExecutorService executorService, CompressionPolicy compressionPolicy) {
+		this.zipWriter = zipWriter;
+		this.executorService = executorService;
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	/**
+	 * Sets whether the compressed data of unchanged resources is copied from the zip file they were read from.
+	 *
+	 * @param copyCompressedEntries
+	 */
+	public void setCopyCompressedEntries(boolean copyCompressedEntries) {
+		this.copyCompressedEntries = copyCompressedEntries;
+	}
+
+	/**
+	 * Sets the cache of deflated resources, null to deflate every resource.
+	 *
+	 * @param compressedEntryCache
+	 */
+	public void setCompressedEntryCache(CompressedEntryCache compressedEntryCache) {
+		this.compressedEntryCache = compressedEntryCache;
+	}
+
+	/**
+	 * Sets the map in which every deflated resource is kept, whatever the size of the compressedEntryCache.
+	 *
+	 * The pipelines of the versions of a book share it, so that every resource is deflated once for all versions.
+	 *
+	 * @param pinnedEntries a synchronized map by resource identity, null to pin nothing.
+	 */
+	public void setPinnedEntries(Map<Resource, CompressedEntry> pinnedEntries) {
+		this.pinnedEntries = pinnedEntries;
+	}
+
+	/**
+	 * Adds the resource as an entry with the given name.
+	 *
+	 * @param name
+	 * @param resource
+	 */
+	public void add(String name, Resource resource) {
+		entries.add(new PendingEntry(name, resource, null, resource.getSize()));
+		submit();
+	}
+
+	/**
+	 * Adds the given data as an entry with the given name.
+	 *
+	 * @param name
+	 * @param data
+	 */
+	public void add(String name, byte[] data) {
+		entries.add(new PendingEntry(name, null, data, data.length));
+		submit();
+	}
+
+	/**
+	 * Writes all entries that have been added.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		while (writeIndex < entries.size()) {
+			PendingEntry entry = entries.get(writeIndex);
+			entries.set(writeIndex, null);
+			writeIndex++;
+			write(entry);
+			submit();
+		}
+	}
+
+	/**
+	 * Cancels the entries that have not been written and releases the deflaters.
+	 */
+	public void close() {
+		for (int i = writeIndex; i < entries.size(); i++) {
+			PendingEntry entry = entries.get(i);
+			if (entry != null && entry.future != null) {
+				entry.future.cancel(true);
+			}
+		}
+		entries.clear();
+		writeIndex = 0;
+		submitIndex = 0;
+		inFlightSize = 0;
+		// deflaters of tasks that are still running are ended by the garbage collector
+		for (ConcurrentLinkedQueue<Deflater> levelDeflaters: deflaters.values()) {
+			for (Deflater deflater = levelDeflaters.poll(); deflater != null; deflater = levelDeflaters.poll()) {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Starts compressing the entries that fit in the in flight size on the executorService.
+	 */
+	private void submit() {
+		if (executorService == null) {
+			return;
+		}
+		submitIndex = Math.max(submitIndex, writeIndex);
+		while (submitIndex < entries.size()) {
+			final PendingEntry entry = entries.get(submitIndex);
+			if (entry.document || entry.size > STREAMING_SIZE) {
+				submitIndex++;
+				continue;
+			}
+			if (inFlightSize > 0 && inFlightSize + entry.size > IN_FLIGHT_SIZE) {
+				break;
+			}
+			entry.future = executorService.submit(new Callable<CompressedEntry>() {
+				public CompressedEntry call() throws IOException {
+					return compress(entry);
+				}
+			});
+			inFlightSize += entry.size;
+			submitIndex++;
+		}
+	}
+
+	private void write(PendingEntry entry) throws IOException {
+		if (entry.future != null) {
+			inFlightSize -= entry.size;
+			CompressedEntry compressedEntry;
+			try {
+				compressedEntry = entry.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while deflating " + entry.name);
+			} catch (ExecutionException e) {
+				log.error(e.getCause().getMessage(), e.getCause());
+				return;
+			}
+			zipWriter.write(compressedEntry);
+		} else if (entry.document) {
+			writeDocument(entry);
+		} else if (entry.size > STREAMING_SIZE) {
+			writeStreaming(entry);
+		} else {
+			CompressedEntry compressedEntry;
+			try {
+				compressedEntry = compress(entry);
+			} catch (Exception e) {
+				log.error(e.getMessage(), e);
+				return;
+			}
+			zipWriter.write(compressedEntry);
+		}
+	}
+
+	private void writeStreaming(PendingEntry entry) throws IOException {
+		int level;
+		ZipArchiveEntry sourceEntry;
+		boolean pinned;
+		InputStream in;
+		try {
+			level = getLevel(entry);
+			sourceEntry = getUnchangedSourceEntry(entry, level);
+			pinned = pinnedEntries != null && entry.resource != null && entry.size <= MAX_PINNED_SIZE;
+			if (sourceEntry != null) {
+				in = entry.resource.getSourceZipArchive().getRawInputStream(sourceEntry);
+			} else if (level == CompressionPolicy.STORED || pinned) {
+				in = null;
+			} else {
+				in = entry.getInputStream();
+			}
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+		if (sourceEntry != null) {
+			try {
+				zipWriter.write(entry.name, sourceEntry.getMethod(), sourceEntry.getCrc(), sourceEntry.getSize(), sourceEntry.getCompressedSize(), in);
+			} finally {
+				in.close();
+			}
+		} else if (level == CompressionPolicy.STORED) {
+			writeStoredStreaming(entry);
+		} else if (pinned) {
+			// deflated in memory, so that the other versions of the book do not deflate it again
+			CompressedEntry compressedEntry;
+			try {
+				compressedEntry = compress(entry);
+			} catch (Exception e) {
+				log.error(e.getMessage(), e);
+				return;
+			}
+			zipWriter.write(compressedEntry);
+		} else {
+			Deflater deflater = getDeflater(level);
+			try {
+				zipWriter.write(entry.name, in, deflater, entry.size);
+			} finally {
+				in.close();
+				releaseDeflater(level, deflater);
+			}
+		}
+	}
+
+	/**
+	 * Serializes the document into its entry, without keeping it in memory unless it is stored.
+	 */
+	private void writeDocument(PendingEntry entry) throws IOException {
+		DocumentResource document = (DocumentResource) entry.resource;
+		// generated documents are not sampled, that would generate them twice
+		int level = compressionPolicy.getLevel(document.getMediaTypeProperty());
+		if (level == CompressionPolicy.STORED) {
+			zipWriter.write(CompressedEntry.stored(entry.name, document.getData()));
+			return;
+		}
+		Deflater deflater = getDeflater(level);
+		try {
+			OutputStream out = zipWriter.startEntry(entry.name, deflater);
+			document.write(out);
+			out.close();
+		} finally {
+			releaseDeflater(level, deflater);
+		}
+	}
+
+	/**
+	 * Stores a large entry, reading it twice: first to calculate the crc and size that precede the data, then to copy it.
+	 */
+	private void writeStoredStreaming(PendingEntry entry) throws IOException {
+		CRC32 crc = new CRC32();
+		long size = 0;
+		try {
+			InputStream in = entry.getInputStream();
+			try {
+				byte[] buffer = new byte[IOUtil.IO_COPY_BUFFER_SIZE];
+				for (int nrRead = in.read(buffer); nrRead >= 0; nrRead = in.read(buffer)) {
+					crc.update(buffer, 0, nrRead);
+					size += nrRead;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+		InputStream in = entry.getInputStream();
+		try {
+			zipWriter.write(entry.name, ZipEntry.STORED, crc.getValue(), size, size, in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private CompressedEntry compress(PendingEntry entry) throws IOException {
+		int level = getLevel(entry);
+		ZipArchiveEntry sourceEntry = getUnchangedSourceEntry(entry, level);
+		if (sourceEntry != null) {
+			byte[] data = new byte[(int) sourceEntry.getCompressedSize()];
+			DataInputStream in = new DataInputStream(entry.resource.getSourceZipArchive().getRawInputStream(sourceEntry));
+			try {
+				in.readFully(data);
+			} finally {
+				in.close();
+			}
+			return new CompressedEntry(entry.name, sourceEntry.getMethod(), sourceEntry.getCrc(), sourceEntry.getSize(), data, data.length);
+		}
+		if (level == CompressionPolicy.STORED) {
+			return CompressedEntry.stored(entry.name, entry.getData());
+		}
+		CompressedEntry result = null;
+		if (pinnedEntries != null && entry.resource != null) {
+			result = pinnedEntries.get(entry.resource);
+			if (result != null) {
+				return result;
+			}
+		}
+		byte[] digest = null;
+		if (compressedEntryCache != null && entry.resource != null) {
+			// the resource data is read outside the lock of the cache
+			digest = CompressedEntryCache.digest(entry.resource);
+			result = compressedEntryCache.get(entry.name, digest, level);
+		}
+		if (result == null) {
+			InputStream in = entry.getInputStream();
+			Deflater deflater = getDeflater(level);
+			try {
+				result = CompressedEntry.deflate(entry.name, in, deflater, entry.size);
+			} finally {
+				in.close();
+				releaseDeflater(level, deflater);
+			}
+			if (digest != null) {
+				compressedEntryCache.put(result, digest, level);
+			}
+		}
+		if (pinnedEntries != null && entry.resource != null) {
+			pinnedEntries.put(entry.resource, result);
+		}
+		return result;
+	}
+
+	private int getLevel(PendingEntry entry) throws IOException {
+		if (entry.resource == null) {
+			return compressionPolicy.getDefaultLevel();
+		}
+		return compressionPolicy.getLevel(entry.resource);
+	}
+
+	/**
+	 * The entry the resource was read from, if its compressed data can be copied.
+	 *
+	 * @param level the level the resource would be compressed with
+	 * @return null if the resource has to be compressed.
+	 */
+	private ZipArchiveEntry getUnchangedSourceEntry(PendingEntry entry, int level) throws IOException {
+		if (! copyCompressedEntries || entry.resource == null) {
+			return null;
+		}
+		return getUnchangedSourceEntry(entry.resource, level);
+	}
+
+	/**
+	 * The entry the resource was read from, if its compressed data can be copied.
+	 *
+	 * @param level the level the resource would be compressed with
+	 * @return null if the resource has to be compressed.
+	 */
+	// package
+	static ZipArchiveEntry getUnchangedSourceEntry(Resource resource, int level) throws IOException {
+		if (resource.getSourceZipArchive() == null) {
+			return null;
+		}
+		ZipArchiveEntry result = resource.getSourceZipEntry();
+		if (result == null || result.getMethod() != (level == CompressionPolicy.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED)) {
+			return null;
+		}
+		if (resource.isInitialized()) {
+			// the data in memory may have been changed without setData
+			byte[] data = resource.getData();
+			if (data.length != result.getSize()) {
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if (crc.getValue() != result.getCrc()) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deflaters are kept per level, so every entry is deflated by a deflater that was created with its level.
+	 */
+	private Deflater getDeflater(int level) {
+		ConcurrentLinkedQueue<Deflater> levelDeflaters = deflaters.get(level);
+		Deflater result = levelDeflaters == null ? null : levelDeflaters.poll();
+		if (result == null) {
+			result = new Deflater(level, true);
+		}
+		return result;
+	}
+
+	private void releaseDeflater(int level, Deflater deflater) {
+		ConcurrentLinkedQueue<Deflater> levelDeflaters = deflaters.get(level);
+		if (levelDeflaters == null) {
+			deflaters.putIfAbsent(level, new ConcurrentLinkedQueue<Deflater>());
+			levelDeflaters = deflaters.get(level);
+		}
+		levelDeflaters.offer(deflater);
+	}
+
+	private static class PendingEntry {
+
+		final String name;
+		final Resource resource;
+		final byte[] data;
+		final long size;
+		final boolean document;
+		Future<CompressedEntry> future;
+
+		public PendingEntry(String name, Resource resource, byte[] data, long size) {
+			this.name = name;
+			this.resource = resource;
+			this.data = data;
+			this.size = size;
+			this.document = resource instanceof DocumentResource && ! resource.isInitialized();
+		}
+
+		public InputStream getInputStream() throws IOException {
+			if (data != null) {
+				return new ByteArrayInputStream(data);
+			}
+			return resource.getInputStream();
+		}
+
+		public byte[] getData() throws IOException {
+			if (data != null) {
+				return data;
+			}
+			if (resource.isInitialized()) {
+				return resource.getData();
+			}
+			InputStream in = resource.getInputStream();
+			try {
+				return IOUtil.toByteArray(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.service.MediatypeService;
+
+/**
+ * Decides per MediaType how the EpubWriter compresses resources.
+ *
+ * Every MediaType can have its own deflate level, or STORED to store it without compression.
+ * By default the already compressed images, fonts and audio are stored and everything else is deflated with the default level.
+ *
+ * Resources of MediaTypes without level of their own can be sampled:
+ * if the first bytes look random they are stored, otherwise they are deflated with the default level.
+ *
+ * @author paul
+ *
+ */
+public class CompressionPolicy {
+
+	/**
+	 * The level of entries that are stored without compression.
+	 */
+	public static final int STORED = -2;
+
+	/**
+	 * The number of bytes that is sampled to determine the entropy.
+	 */
+	public static final int SAMPLE_SIZE = 32 * 1024;
+
+	/**
+	 * Samples with at least this many bits of entropy per byte are considered incompressible.
+	 */
+	public static final double DEFAULT_ENTROPY_THRESHOLD = 7.8;
+
+	private final Map<MediaTypeProperty, Integer> levels = new HashMap<MediaTypeProperty, Integer>();
+	private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+	private boolean sampleEntropy = false;
+	private double entropyThreshold = DEFAULT_ENTROPY_THRESHOLD;
+
+	public CompressionPolicy() {
+		MediaTypeProperty[] compressedMediaTypes = new MediaTypeProperty[] {
+			MediatypeService.JPG, MediatypeService.PNG, MediatypeService.GIF, MediatypeService.WOFF,
+			MediatypeService.MP3, MediatypeService.MP4, MediatypeService.OGG, MediatypeService.EPUB
+		};
+		for (MediaTypeProperty mediaTypeProperty: compressedMediaTypes) {
+			levels.put(mediaTypeProperty, STORED);
+		}
+	}
+
+	/**
+	 * The level of resources of the given MediaType.
+	 *
+	 * @param mediaTypeProperty
+	 * @return the level of the MediaType, or the default level if it has no level of its own.
+	 */
+	public int getLevel(MediaTypeProperty mediaTypeProperty) {
+		Integer result = levels.get(mediaTypeProperty);
+		if (result == null) {
+			return defaultLevel;
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the level of resources of the given MediaType.
+	 *
+	 * @param mediaTypeProperty
+	 * @param level STORED or a Deflater level
+	 */
+	public void setLevel(MediaTypeProperty mediaTypeProperty, int level) {
+		checkLevel(level);
+		levels.put(mediaTypeProperty, level);
+	}
+
+	/**
+	 * Gives the MediaType the default level again.
+	 *
+	 * @param mediaTypeProperty
+	 */
+	public void removeLevel(MediaTypeProperty mediaTypeProperty) {
+		levels.remove(mediaTypeProperty);
+	}
+
+	/**
+	 * Whether the given MediaType has a level of its own.
+	 *
+	 * @param mediaTypeProperty
+	 * @return
+	 */
+	public boolean hasLevel(MediaTypeProperty mediaTypeProperty) {
+		return levels.containsKey(mediaTypeProperty);
+	}
+
+	/**
+	 * The level of the given resource.
+	 *
+	 * If the resource's MediaType has no level of its own and sampleEntropy is set, the start of the resource is sampled.
+	 *
+	 * @param resource
+	 * @return STORED or a Deflater level
+	 * @throws IOException
+	 */
+	public int getLevel(Resource resource) throws IOException {
+		MediaTypeProperty mediaTypeProperty = resource.getMediaTypeProperty();
+		if (! sampleEntropy || levels.containsKey(mediaTypeProperty)) {
+			return getLevel(mediaTypeProperty);
+		}
+		byte[] sample = new byte[SAMPLE_SIZE];
+		int sampleLength = 0;
+		InputStream in = resource.getInputStream();
+		try {
+			while (sampleLength < sample.length) {
+				int nrRead = in.read(sample, sampleLength, sample.length - sampleLength);
+				if (nrRead < 0) {
+					break;
+				}
+				sampleLength += nrRead;
+			}
+		} finally {
+			in.close();
+		}
+		if (calculateEntropy(sample, sampleLength) >= entropyThreshold) {
+			return STORED;
+		}
+		return defaultLevel;
+	}
+
+	/**
+	 * The Shannon entropy of the first length bytes of the given data.
+	 *
+	 * @param data
+	 * @param length
+	 * @return the entropy in bits per byte, between 0 and 8.
+	 */
+	public static double calculateEntropy(byte[] data, int length) {
+		if (length == 0) {
+			return 0;
+		}
+		int[] counts = new int[256];
+		for (int i = 0; i < length; i++) {
+			counts[data[i] & 0xFF]++;
+		}
+		double result = 0;
+		for (int count: counts) {
+			if (count > 0) {
+				double probability = (double) count / length;
+				result -= probability * Math.log(probability);
+			}
+		}
+		return result / Math.log(2);
+	}
+
+	/**
+	 * The level of resources without level of their own and of the other entries of the epub.
+	 *
+	 * @return
+	 */
+	public int getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/**
+	 * Sets the level of resources without level of their own and of the other entries of the epub.
+	 *
+	 * @param defaultLevel STORED or a Deflater level, Deflater.DEFAULT_COMPRESSION by default.
+	 */
+	public void setDefaultLevel(int defaultLevel) {
+		checkLevel(defaultLevel);
+		this.defaultLevel = defaultLevel;
+	}
+
+	public boolean isSampleEntropy() {
+		return sampleEntropy;
+	}
+
+	/**
+	 * Sets whether resources of MediaTypes without level of their own are sampled to choose between storing and deflating.
+	 *
+	 * @param sampleEntropy false by default
+	 */
+	public void setSampleEntropy(boolean sampleEntropy) {
+		this.sampleEntropy = sampleEntropy;
+	}
+
+	public double getEntropyThreshold() {
+		return entropyThreshold;
+	}
+
+	/**
+	 * Sets the entropy in bits per byte above which a sampled resource is stored.
+	 *
+	 * @param entropyThreshold DEFAULT_ENTROPY_THRESHOLD by default
+	 */
+	public void setEntropyThreshold(double entropyThreshold) {
+		this.entropyThreshold = entropyThreshold;
+	}
+
+	private static void checkLevel(int level) {
+		if (level != STORED && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+	}
+}
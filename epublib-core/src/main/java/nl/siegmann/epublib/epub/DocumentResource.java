@@ -0,0 +1,94 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+
+/**
+ * A Resource for a document that is generated from the book, like the ncx or nav document.
+ *
+ * The document is not kept in memory but written again every time it is needed.
+ * The EpubWriter writes it straight into its zip entry.
+ * Data that is set using setData(byte[]) is used instead of the generated document.
+ *
+ * @author paul
+ *
+ */
+// package
+abstract class DocumentResource extends Resource {
+
+	private static final long serialVersionUID = -3829171316447620414L;
+
+	private final boolean indentXml;
+
+	public DocumentResource(String id, String href, MediaTypeProperty mediaTypeProperty, boolean indentXml) {
+		super(id, null, href, mediaTypeProperty);
+		this.indentXml = indentXml;
+	}
+
+	/**
+	 * Whether the generated xml is indented.
+	 *
+	 * @return
+	 */
+	public boolean isIndentXml() {
+		return indentXml;
+	}
+
+	/**
+	 * Generates the document.
+	 *
+	 * @param out is not closed.
+	 * @throws IOException
+	 */
+	protected abstract void writeDocument(OutputStream out) throws IOException;
+
+	/**
+	 * Writes the contents of the resource to the given OutputStream.
+	 *
+	 * @param out is not closed.
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		byte[] currentData = data;
+		if (currentData != null) {
+			out.write(currentData);
+		} else {
+			writeDocument(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Generates the document into a byte[], unless data was set.
+	 */
+	public byte[] getData() throws IOException {
+		byte[] currentData = data;
+		if (currentData != null) {
+			return currentData;
+		}
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		writeDocument(result);
+		return result.toByteArray();
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return new ByteArrayInputStream(getData());
+	}
+
+	/**
+	 * The size of the data that was set, 0 if the document is generated.
+	 */
+	public long getSize() {
+		byte[] currentData = data;
+		if (currentData != null) {
+			return currentData.length;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,26 @@
+package nl.siegmann.epublib.epub;
+
+/**
+ * The order in which the EpubWriter writes the entries of an epub file.
+ *
+ * Both start with the mimetype and META-INF/container.xml.
+ *
+ * @author paul
+ *
+ */
+public enum EntryOrder {
+
+	/**
+	 * The resources in the order of the book's Resources, followed by the table of contents, nav document and package document.
+	 */
+	RESOURCES,
+
+	/**
+	 * The package document, table of contents and nav document first,
+	 * then the stylesheets and fonts, then the spine items in reading order each followed by the images it refers to,
+	 * then everything else.
+	 *
+	 * A reader that receives the epub file from the start can open the first chapter after receiving only the head of the file.
+	 */
+	PROGRESSIVE
+}
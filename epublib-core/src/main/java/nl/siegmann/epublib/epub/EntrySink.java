@@ -0,0 +1,32 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.Resource;
+
+/**
+ * Receives the entries of an epub file in the order in which they end up in the archive.
+ *
+ * @see CompressionPipeline
+ * @see ArchivePlan
+ *
+ * @author paul
+ *
+ */
+// package
+interface EntrySink {
+
+	/**
+	 * Adds the resource as an entry with the given name.
+	 *
+	 * @param name
+	 * @param resource
+	 */
+	void add(String name, Resource resource);
+
+	/**
+	 * Adds the given data as an entry with the given name.
+	 *
+	 * @param name
+	 * @param data
+	 */
+	void add(String name, byte[] data);
+}
@@ -1,24 +1,29 @@
 package nl.siegmann.epublib.epub;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.util.IOUtil;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
@@ -33,6 +38,9 @@ public class EpubProcessorSupport {
 	private static final Logger log = LoggerFactory.getLogger(EpubProcessorSupport.class);
 	
 	protected static DocumentBuilderFactory documentBuilderFactory;
+	private static volatile XmlPullParserFactory xmlPullParserFactory;
+	private static final ConcurrentMap<String, byte[]> dtdResources = new ConcurrentHashMap<String, byte[]>();
+	private static volatile boolean resolveDtds = true;
 	
 	static {
 		init();
@@ -44,6 +52,10 @@ public class EpubProcessorSupport {
 		@Override
 		public InputSource resolveEntity(String publicId, String systemId)
 				throws SAXException, IOException {
+			if (! resolveDtds) {
+				// only the named entities of the dtd are needed to parse the document
+				return new InputSource(new ByteArrayInputStream(XhtmlEntities.getDtd()));
+			}
 			String resourcePath;
 			if (systemId.startsWith("http:")) {
 				URL url = new URL(systemId);
@@ -53,15 +65,62 @@ public class EpubProcessorSupport {
 				resourcePath = previousLocation + systemId.substring(systemId.lastIndexOf('/'));
 			}
 			
-			if (this.getClass().getClassLoader().getResource(resourcePath) == null) {
+			byte[] data = getDtdResource(resourcePath);
+			if (data == null) {
 				throw new RuntimeException("remote resource is not cached : [" + systemId + "] cannot continue");
 			}
-
-			InputStream in = EpubProcessorSupport.class.getClassLoader().getResourceAsStream(resourcePath);
-			return new InputSource(in);
+			return new InputSource(new ByteArrayInputStream(data));
 		}
 	}
 	
+	/**
+	 * The dtd or module at the given path of epublib's classpath, kept in memory after it has been read once.
+	 * 
+	 * @param resourcePath
+	 * @return null if not found.
+	 * @throws IOException
+	 */
+	// package
+	static byte[] getDtdResource(String resourcePath) throws IOException {
+		byte[] result = dtdResources.get(resourcePath);
+		if (result != null) {
+			return result;
+		}
+		// paths that are not found are not kept, they could come from any document
+		InputStream in = EpubProcessorSupport.class.getClassLoader().getResourceAsStream(resourcePath);
+		if (in == null) {
+			return null;
+		}
+		try {
+			result = IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+		dtdResources.putIfAbsent(resourcePath, result);
+		return result;
+	}
+
+	/**
+	 * Whether dtd's are loaded when parsing documents with a DocumentBuilder. True by default.
+	 * 
+	 * @return
+	 */
+	public static boolean isResolveDtds() {
+		return resolveDtds;
+	}
+
+	/**
+	 * Sets whether dtd's are loaded when parsing documents with a DocumentBuilder.
+	 * 
+	 * If false no dtd is loaded, the named XHTML entities like &amp;nbsp; are resolved from a table instead.
+	 * Parsing a document with a DOCTYPE then costs about the same as parsing it without,
+	 * but default attribute values from the dtd, like the namespace of the XHTML html element, are not added.
+	 * 
+	 * @param resolveDtds
+	 */
+	public static void setResolveDtds(boolean resolveDtds) {
+		EpubProcessorSupport.resolveDtds = resolveDtds;
+	}
 	
 	private static void init() {
 		EpubProcessorSupport.documentBuilderFactory = DocumentBuilderFactory.newInstance();
@@ -69,17 +128,34 @@ public class EpubProcessorSupport {
 		documentBuilderFactory.setValidating(false);
 	}
 	
+	/**
+	 * Creates an indenting XmlSerializer that writes UTF-8 to the given OutputStream.
+	 * 
+	 * @param out
+	 * @return
+	 */
 	public static XmlSerializer createXmlSerializer(OutputStream out) throws UnsupportedEncodingException {
-		return createXmlSerializer(new OutputStreamWriter(out, Constants.CHARACTER_ENCODING));
+		return createXmlSerializer(out, true);
 	}
-	
+
+	/**
+	 * Creates an XmlSerializer that encodes UTF-8 straight into the given OutputStream.
+	 * 
+	 * The XmlSerializer can be reused for another document with setOutput(OutputStream, String).
+	 * 
+	 * @param out
+	 * @param indent whether the elements are indented, compact documents are smaller and faster to write.
+	 * @return
+	 */
+	public static XmlSerializer createXmlSerializer(OutputStream out, boolean indent) {
+		return new Utf8XmlSerializer(out, indent);
+	}
+
 	public static XmlSerializer createXmlSerializer(Writer out) {
 		XmlSerializer result = null;
 		try {
-			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-			factory.setValidating(true);
-			result = factory.newSerializer();
-			result.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+			result = getXmlPullParserFactory().newSerializer();
+			result.setFeature(Utf8XmlSerializer.FEATURE_INDENT_OUTPUT, true);
 			result.setOutput(out);
 		} catch (Exception e) {
 			log.error("When creating XmlSerializer: " + e.getClass().getName() + ": " + e.getMessage());
@@ -87,6 +163,28 @@ public class EpubProcessorSupport {
 		return result;
 	}
 
+	/**
+	 * Creates a non-validating XmlPullParser.
+	 * 
+	 * @return
+	 * @throws XmlPullParserException if no XmlPullParser implementation is available.
+	 */
+	public static XmlPullParser createXmlPullParser() throws XmlPullParserException {
+		return getXmlPullParserFactory().newPullParser();
+	}
+
+	/**
+	 * The factory is looked up once, newInstance() searches the classpath every time it is called.
+	 */
+	private static XmlPullParserFactory getXmlPullParserFactory() throws XmlPullParserException {
+		XmlPullParserFactory result = xmlPullParserFactory;
+		if (result == null) {
+			result = XmlPullParserFactory.newInstance();
+			xmlPullParserFactory = result;
+		}
+		return result;
+	}
+
 	/**
 	 * Gets an EntityResolver that loads dtd's and such from the epublib classpath.
 	 * In order to enable the loading of relative urls the given EntityResolver contains the previousLocation.
@@ -106,6 +204,8 @@ public class EpubProcessorSupport {
 	/**
 	 * Creates a DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
 	 * 
+	 * @see XmlParserPool#acquireDocumentBuilder() to reuse DocumentBuilders.
+	 * 
 	 * @return
 	 */
 	public static DocumentBuilder createDocumentBuilder() {
@@ -6,6 +6,8 @@ import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.IOUtil;
 import nl.siegmann.epublib.util.ResourceUtil;
 import nl.siegmann.epublib.util.StringUtil;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+import nl.siegmann.epublib.util.zip.ZipArchiveEntry;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,11 +15,17 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -29,9 +37,17 @@ import java.util.zip.ZipInputStream;
 public class EpubReader {
 
 	private static final Logger log = LoggerFactory.getLogger(EpubReader.class);
-    private static final String UNZIP_PATH = "tmp/";
     private static final int LIMIT_SIZE = 100 * 1024 * 1024;
+
+    /**
+     * The minimum number of compressed bytes that are inflated by one task when reading in parallel.
+     */
+    private static final int PARALLEL_BATCH_SIZE = 256 * 1024;
     private BookProcessor bookProcessor = BookProcessor.IDENTITY_BOOKPROCESSOR;
+    private ResourceDataCache resourceDataCache = null;
+    private boolean streamingPackageReader = true;
+    private boolean streamingTocReader = true;
+    private ExecutorService executorService = null;
 
     /**
 	 * Reads this EPUB if file size bigger than LIMIT_SIZE, will read lazily, else will all read into memory
@@ -79,17 +95,138 @@ public class EpubReader {
      * @throws IOException
      */
     public Book readEpub( String fileName, String encoding, List<MediaTypeProperty> lazyLoadedTypes ) throws IOException {
-        Book result = new Book();
-        Resources resources;
         if (FileUtils.sizeOf(new File(fileName)) >= LIMIT_SIZE) {
-            String outPath = UNZIP_PATH + Thread.currentThread().getId() + "_" + System.currentTimeMillis();
-            unZip(new File(fileName), outPath);
-            resources = readLazyResources(fileName, outPath, encoding, lazyLoadedTypes);
-            result.setZipPath(outPath);
-        } else {
-            resources = readResources(new ZipInputStream(new FileInputStream(fileName)), Constants.CHARACTER_ENCODING);
+            return readEpubLazy(fileName, encoding, lazyLoadedTypes);
+        }
+        if (executorService != null) {
+            ZipArchive zipArchive = new ZipArchive(fileName);
+            try {
+                List<MediaTypeProperty> noLazyLoadedTypes = Collections.emptyList();
+                return readEpub(readLazyResources(zipArchive, Constants.CHARACTER_ENCODING, noLazyLoadedTypes));
+            } finally {
+                zipArchive.close();
+            }
+        }
+        ZipInputStream in = new ZipInputStream(new FileInputStream(fileName));
+        try {
+            return readEpub(readResources(in, Constants.CHARACTER_ENCODING));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads this EPUB without loading the resources of the given MediaTypes into memory.
+     *
+     * The lazy resources read their data straight from the epub file when it is first needed.
+     * Nothing is extracted to disk.
+     *
+     * The epub file is closed when the book has been read.
+     * The lazy resources open it again to read their data, and keep it open from then on.
+     * Whoever holds the book owns that file handle and releases it with closeLazyResources.
+     *
+     * @param fileName the file to load
+     * @param encoding the encoding for XHTML files
+     * @param lazyLoadedTypes a list of the MediaType to load lazily
+     * @return book
+     * @throws IOException
+     */
+    public Book readEpubLazy( String fileName, String encoding, List<MediaTypeProperty> lazyLoadedTypes ) throws IOException {
+        ZipArchive zipArchive = new ZipArchive(fileName);
+        try {
+            Resources resources = readLazyResources(zipArchive, encoding, lazyLoadedTypes);
+            return readEpub(resources);
+        } finally {
+            zipArchive.close();
+        }
+    }
+
+    /**
+     * Releases the file handles of the epub files that the lazy resources of the given book read from.
+     *
+     * The lazy resources stay usable: a file is opened again when their data is read.
+     *
+     * @param book
+     * @throws IOException
+     */
+    public static void closeLazyResources(Book book) throws IOException {
+        Set<ZipArchive> zipArchives = Collections.newSetFromMap(new IdentityHashMap<ZipArchive, Boolean>());
+        for (Resource resource: book.getResources().getAll()) {
+            if (resource instanceof LazyResource) {
+                zipArchives.add(((LazyResource) resource).getZipArchive());
+            }
+        }
+        for (ZipArchive zipArchive: zipArchives) {
+            zipArchive.close();
+        }
+    }
+
+    /**
+     * Reads the metadata of this EPUB, without reading its contents.
+     *
+     * @param fileName the file to read
+     * @return the book's summary
+     * @throws IOException
+     */
+    public BookSummary readBookSummary(String fileName) throws IOException {
+        return readBookSummary(fileName, false);
+    }
+
+    /**
+     * Reads the metadata of this EPUB, without reading its contents.
+     *
+     * Only the container and the package document are read, optionally followed by the cover image.
+     * None of the other entries are read or inflated.
+     *
+     * @param fileName the file to read
+     * @param includeCoverImage whether to read the cover image
+     * @return the book's summary
+     * @throws IOException
+     */
+    public BookSummary readBookSummary(String fileName, boolean includeCoverImage) throws IOException {
+        ZipArchive zipArchive = new ZipArchive(fileName);
+        try {
+            String packageResourceHref = getPackageResourceHref(readResource(zipArchive, "META-INF/container.xml"));
+            Resource packageResource = readResource(zipArchive, packageResourceHref);
+            if (packageResource == null) {
+                throw new IOException("Package document " + packageResourceHref + " not found in " + fileName);
+            }
+            BookSummary result;
+            try {
+                result = PackageDocumentReader.readBookSummary(packageResource, this);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Unable to read package document " + packageResourceHref + " in " + fileName, e);
+            }
+            if (includeCoverImage && result.getCoverImageHref() != null) {
+                // the cover href is relative to the package document
+                String coverImageEntryName = packageResourceHref.substring(0, packageResourceHref.lastIndexOf('/') + 1) + result.getCoverImageHref();
+                Resource coverImage = readResource(zipArchive, coverImageEntryName);
+                if (coverImage == null) {
+                    log.error("Cover image " + coverImageEntryName + " not found");
+                } else {
+                    coverImage.setHref(result.getCoverImageHref());
+                    result.setCoverImage(coverImage);
+                }
+            }
+            return result;
+        } finally {
+            zipArchive.close();
+        }
+    }
+
+    private static Resource readResource(ZipArchive zipArchive, String href) throws IOException {
+        ZipArchiveEntry zipEntry = zipArchive.getEntry(href);
+        if (zipEntry == null) {
+            return null;
+        }
+        InputStream in = zipArchive.getInputStream(zipEntry);
+        try {
+            return new Resource(in, href);
+        } finally {
+            in.close();
         }
-        return readEpub(resources);
     }
 
     public Book readEpub(Resources resources) {
@@ -118,7 +255,7 @@ public class EpubReader {
 	}
 
     private Resource processNavResource(Book book) {
-        return NavDocument.read(book);
+        return NavDocument.read(book, this);
     }
 
 	private Resource processPackageResource(String packageResourceHref, Book book, Resources resources) {
@@ -132,10 +269,13 @@ public class EpubReader {
 	}
 
 	private String getPackageResourceHref(Resources resources) {
+		return getPackageResourceHref(resources.remove("META-INF/container.xml"));
+	}
+
+	private String getPackageResourceHref(Resource containerResource) {
 		String defaultResult = "OEBPS/content.opf";
 		String result = defaultResult;
 
-		Resource containerResource = resources.remove("META-INF/container.xml");
 		if(containerResource == null) {
 			return result;
 		}
@@ -156,36 +296,134 @@ public class EpubReader {
 		resources.remove("mimetype");
 	}
 	
-	private Resources readLazyResources( String fileName, String outPath, String defaultHtmlEncoding,
+	/**
+	 * Reads the resources from the zipArchive's central directory.
+	 *
+	 * If an executorService is set the resources that are not lazy loaded are inflated in parallel.
+	 */
+	private Resources readLazyResources( ZipArchive zipArchive, String defaultHtmlEncoding,
 			List<MediaTypeProperty> lazyLoadedTypes) throws IOException {
-				
-		ZipInputStream in = new ZipInputStream(new FileInputStream(fileName));
-		
-		Resources result = new Resources();
-		for(ZipEntry zipEntry = in.getNextEntry(); zipEntry != null; zipEntry = in.getNextEntry()) {
+
+		List<ZipArchiveEntry> zipEntries = new ArrayList<ZipArchiveEntry>();
+		List<ZipArchiveEntry> entriesToLoad = new ArrayList<ZipArchiveEntry>();
+		for(ZipArchiveEntry zipEntry: zipArchive.getEntries()) {
 			if(zipEntry.isDirectory()) {
 				continue;
 			}
-			
+			zipEntries.add(zipEntry);
+			if ( ! lazyLoadedTypes.contains(MediatypeService.determineMediaType(zipEntry.getName())) && zipEntry.getSize() <= Integer.MAX_VALUE ) {
+				entriesToLoad.add(zipEntry);
+			}
+		}
+
+		List<Resource> loadedResources;
+		if (executorService == null) {
+			loadedResources = loadResources(zipArchive, entriesToLoad);
+		} else {
+			loadedResources = loadResourcesParallel(zipArchive, entriesToLoad);
+		}
+
+		Resources result = new Resources();
+		int loadedIndex = 0;
+		for(ZipArchiveEntry zipEntry: zipEntries) {
 			String href = zipEntry.getName();
-			MediaTypeProperty mediaTypeProperty = MediatypeService.determineMediaType(href);
-			
-			Resource resource;
-			
-			if ( lazyLoadedTypes.contains(mediaTypeProperty) ) {
-				resource = new Resource(outPath + "/" + href, zipEntry.getSize(), href);
-			} else {			
-				resource = new Resource( in, outPath + "/" + href, (int) zipEntry.getSize(), href );
+			Resource resource = null;
+			if (loadedIndex < entriesToLoad.size() && entriesToLoad.get(loadedIndex) == zipEntry) {
+				resource = loadedResources.get(loadedIndex);
+				loadedIndex++;
+			}
+
+			// not in the list of types to read directly or too big to fit in memory
+			if (resource == null) {
+				resource = new LazyResource(zipArchive, zipEntry, href, resourceDataCache);
 			}
-			
+
 			if(resource.getMediaTypeProperty() == MediatypeService.XHTML) {
 				resource.setInputEncoding(defaultHtmlEncoding);
 			}
 			result.add(resource);
 		}
-		
+
+		return result;
+	}
+
+	/**
+	 * Reads the given entries into memory.
+	 *
+	 * @return per entry the Resource, or null if it did not fit in memory.
+	 */
+	private static List<Resource> loadResources(ZipArchive zipArchive, List<ZipArchiveEntry> zipEntries) throws IOException {
+		List<Resource> result = new ArrayList<Resource>(zipEntries.size());
+		for (ZipArchiveEntry zipEntry: zipEntries) {
+			String href = zipEntry.getName();
+			Resource resource = null;
+			InputStream in = zipArchive.getInputStream(zipEntry);
+			try {
+				byte[] data = IOUtil.toByteArray(in, (int) zipEntry.getSize());
+				if (data != null) {
+					resource = new Resource(null, data, href, MediatypeService.determineMediaType(href));
+					resource.setSourceZipEntry(zipArchive, zipEntry);
+				}
+			} finally {
+				in.close();
+			}
+			result.add(resource);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the given entries into memory using the executorService.
+	 *
+	 * The entries are divided into batches of at least PARALLEL_BATCH_SIZE compressed bytes, one task per batch.
+	 *
+	 * @return per entry the Resource, or null if it did not fit in memory.
+	 */
+	private List<Resource> loadResourcesParallel(final ZipArchive zipArchive, List<ZipArchiveEntry> zipEntries) throws IOException {
+		List<Future<List<Resource>>> futures = new ArrayList<Future<List<Resource>>>();
+		int batchStart = 0;
+		long batchSize = 0;
+		for (int i = 0; i < zipEntries.size(); i++) {
+			batchSize += zipEntries.get(i).getCompressedSize();
+			if (batchSize >= PARALLEL_BATCH_SIZE || i == zipEntries.size() - 1) {
+				final List<ZipArchiveEntry> batch = zipEntries.subList(batchStart, i + 1);
+				futures.add(executorService.submit(new Callable<List<Resource>>() {
+					public List<Resource> call() throws IOException {
+						return loadResources(zipArchive, batch);
+					}
+				}));
+				batchStart = i + 1;
+				batchSize = 0;
+			}
+		}
+
+		List<Resource> result = new ArrayList<Resource>(zipEntries.size());
+		try {
+			for (Future<List<Resource>> future: futures) {
+				result.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading " + zipArchive);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Unable to read " + zipArchive, cause);
+		} finally {
+			for (Future<List<Resource>> future: futures) {
+				future.cancel(true);
+			}
+		}
 		return result;
-	}	
+	}
 
 	private Resources readResources(ZipInputStream in, String defaultHtmlEncoding) throws IOException {
 		Resources result = new Resources();
@@ -202,25 +440,81 @@ public class EpubReader {
 		return result;
 	}
 
-    public static void unZip(File file, String destDir) throws IOException {
-        ZipFile zipFile;
-        zipFile = new ZipFile(file);
-        Enumeration enumeration = zipFile.entries();
-        ZipEntry zipEntry;
-        while (enumeration.hasMoreElements()) {
-            zipEntry = (ZipEntry) enumeration.nextElement();
-            File loadFile = new File(destDir + "/" + zipEntry.getName());
-            if (zipEntry.isDirectory()) {
-                loadFile.mkdirs();
-            } else {
-                if (!loadFile.getParentFile().exists())
-                    loadFile.getParentFile().mkdirs();
-                OutputStream outputStream = new FileOutputStream(loadFile);
-                InputStream inputStream = zipFile.getInputStream(zipEntry);
-                IOUtil.copy(inputStream, outputStream);
-                inputStream.close();
-                outputStream.close();
-            }
-        }
+    /**
+     * The cache for the data of the lazy loaded resources.
+     *
+     * @return null if the lazy resources use ResourceDataCache.getDefault()
+     */
+    public ResourceDataCache getResourceDataCache() {
+        return resourceDataCache;
+    }
+
+    /**
+     * Sets the cache for the data of the lazy loaded resources of the books read from now on.
+     * If null the resources use ResourceDataCache.getDefault().
+     *
+     * @param resourceDataCache
+     */
+    public void setResourceDataCache(ResourceDataCache resourceDataCache) {
+        this.resourceDataCache = resourceDataCache;
+    }
+
+    /**
+     * Whether the package document is read in a single streaming pass instead of as a DOM.
+     *
+     * @return true by default
+     */
+    public boolean isStreamingPackageReader() {
+        return streamingPackageReader;
+    }
+
+    /**
+     * Sets whether the package document is read in a single streaming pass.
+     * If the streaming pass fails the package document is read as a DOM anyway.
+     *
+     * @param streamingPackageReader
+     */
+    public void setStreamingPackageReader(boolean streamingPackageReader) {
+        this.streamingPackageReader = streamingPackageReader;
+    }
+
+    /**
+     * Whether the ncx and nav documents are read in a single streaming pass instead of as a DOM.
+     *
+     * @return true by default
+     */
+    public boolean isStreamingTocReader() {
+        return streamingTocReader;
+    }
+
+    /**
+     * Sets whether the ncx and nav documents are read in a single streaming pass.
+     * If the streaming pass fails the document is read as a DOM anyway.
+     *
+     * @param streamingTocReader
+     */
+    public void setStreamingTocReader(boolean streamingTocReader) {
+        this.streamingTocReader = streamingTocReader;
+    }
+
+    /**
+     * The executor used to inflate the entries of an epub file in parallel.
+     *
+     * @return null if the entries are inflated one by one.
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Sets the executor used to inflate the entries of epub files in parallel.
+     *
+     * Only used when reading from a file, since an InputStream can only be read sequentially.
+     * The executor is not shut down by the EpubReader.
+     *
+     * @param executorService if null the entries are inflated one by one.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
     }
 }
@@ -1,24 +1,35 @@
 package nl.siegmann.epublib.epub;
 
+import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.*;
 import nl.siegmann.epublib.epub.impl.Epub2PackageDocumentWriter;
 import nl.siegmann.epublib.epub.impl.Epub3PackageDocumentWriter;
 import nl.siegmann.epublib.service.MediatypeService;
-import nl.siegmann.epublib.util.IOUtil;
 import nl.siegmann.epublib.util.StringUtil;
+import nl.siegmann.epublib.util.zip.CompressedEntry;
+import nl.siegmann.epublib.util.zip.ZipArchiveWriter;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.*;
-import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Generates an epub file. Not thread-safe, single use object.
  * 
+ * If an executorService is set the entries are compressed in parallel, with the same result.
+ * 
  * @author paul
  *
  */
@@ -30,6 +41,14 @@ public class EpubWriter {
 	static final String EMPTY_NAMESPACE_PREFIX = "";
 	
 	private BookProcessor bookProcessor = BookProcessor.IDENTITY_BOOKPROCESSOR;
+	private ExecutorService executorService = null;
+	private CompressionPolicy compressionPolicy = new CompressionPolicy();
+	private boolean copyCompressedEntries = true;
+	private boolean indentXml = true;
+	private EntryOrder entryOrder = EntryOrder.RESOURCES;
+	private long entryTime = -1;
+	private boolean deterministic = false;
+	private CompressedEntryCache compressedEntryCache = null;
 
 	public EpubWriter() {
 		this(BookProcessor.IDENTITY_BOOKPROCESSOR);
@@ -51,21 +70,111 @@ public class EpubWriter {
 
     public void write(Book book, OutputStream out, Version version) throws IOException{
         book = processBook(book);
-        ZipOutputStream resultStream = new ZipOutputStream(out);
-        writeMimeType(resultStream);
-        writeContainer(resultStream);
-        initTOCResource(book);
-        if (version == Version.V3) {
-            initNavResource(book);
+        writeBook(book, out, version, null);
+        if (StringUtil.isNotBlank(book.getZipPath())) {
+            FileUtils.deleteQuietly(new File(book.getZipPath()));
+        }
+    }
+
+    /**
+     * Writes the book as several versions, each to its own OutputStream.
+     *
+     * The book is processed once and the resources are deflated once for all versions,
+     * only the table of contents, nav document and package document are generated for every version.
+     * The versions are written one after the other, in the iteration order of the map.
+     *
+     * The deflated resources are kept in memory until all versions are written, whatever the size of the compressedEntryCache.
+     * Only resources larger than 1 GB are deflated again for every version.
+     *
+     * @param book
+     * @param outputs the OutputStream for every version, they are closed when written.
+     * @throws IOException
+     */
+    public void write(Book book, Map<Version, OutputStream> outputs) throws IOException {
+        book = processBook(book);
+        Map<Resource, CompressedEntry> pinnedEntries = Collections.synchronizedMap(new IdentityHashMap<Resource, CompressedEntry>());
+        for (Map.Entry<Version, OutputStream> output: outputs.entrySet()) {
+            writeBook(book, output.getValue(), output.getKey(), pinnedEntries);
         }
-        writeResources(book, resultStream);
-        writePackageDocument(book, resultStream, version);
-        resultStream.close();
         if (StringUtil.isNotBlank(book.getZipPath())) {
             FileUtils.deleteQuietly(new File(book.getZipPath()));
         }
     }
 
+    private void writeBook(Book book, OutputStream out, Version version, Map<Resource, CompressedEntry> pinnedEntries) throws IOException {
+        ZipArchiveWriter zipWriter = new ZipArchiveWriter(out);
+        zipWriter.setTime(resolveEntryTime());
+        CompressionPipeline pipeline = new CompressionPipeline(zipWriter, executorService, compressionPolicy);
+        pipeline.setCopyCompressedEntries(copyCompressedEntries);
+        pipeline.setCompressedEntryCache(compressedEntryCache);
+        pipeline.setPinnedEntries(pinnedEntries);
+        try {
+            writeMimeType(zipWriter);
+            writeContainer(pipeline);
+            if (entryOrder == EntryOrder.PROGRESSIVE) {
+                writeResourcesProgressive(book, pipeline, version);
+            } else {
+                writeResources(book, pipeline, version);
+            }
+            pipeline.flush();
+        } finally {
+            pipeline.close();
+        }
+        zipWriter.close();
+    }
+
+	/**
+	 * Plans the epub file of the book, so that its size is known before it is written.
+	 *
+	 * @see ArchivePlan
+	 *
+	 * @param book
+	 * @return
+	 * @throws IOException
+	 */
+	public ArchivePlan plan(Book book) throws IOException {
+		return plan(book, Version.V2);
+	}
+
+	/**
+	 * Plans the epub file of the book, so that its size is known before it is written.
+	 *
+	 * Resources that would be compressed are stored if they are not in memory and can not be copied from the zip file they were read from.
+	 * The executorService is not used.
+	 *
+	 * @see ArchivePlan
+	 *
+	 * @param book
+	 * @param version
+	 * @return
+	 * @throws IOException
+	 */
+	public ArchivePlan plan(Book book, Version version) throws IOException {
+		book = processBook(book);
+		ArchivePlan.Builder builder = new ArchivePlan.Builder(compressionPolicy, copyCompressedEntries);
+		builder.add(createMimeTypeEntry());
+		writeContainer(builder);
+		if (entryOrder == EntryOrder.PROGRESSIVE) {
+			writeResourcesProgressive(book, builder, version);
+		} else {
+			writeResources(book, builder, version);
+		}
+		return builder.build(resolveEntryTime());
+	}
+
+	/**
+	 * The time of the entries: the entryTime if set, otherwise 1 january 1980 if deterministic or else the current time.
+	 */
+	private long resolveEntryTime() {
+		if (entryTime >= 0) {
+			return entryTime;
+		}
+		if (deterministic) {
+			return new GregorianCalendar(1980, Calendar.JANUARY, 1).getTimeInMillis();
+		}
+		return System.currentTimeMillis();
+	}
+
 	private Book processBook(Book book) {
 		if (bookProcessor != null) {
 			book = bookProcessor.processBook(book);
@@ -73,118 +182,135 @@ public class EpubWriter {
 		return book;
 	}
 
-	private void initTOCResource(Book book) {
-		Resource tocResource;
-		try {
-			tocResource = NCXDocument.createNCXResource(book);
-			Resource currentTocResource = book.getSpine().getTocResource();
-			if (currentTocResource != null) {
-				book.getResources().remove(currentTocResource.getHref());
-                book.getManifest().removeManifestItem(currentTocResource.getHref());
-            }
-			book.getSpine().setTocResource(tocResource);
-			book.getResources().add(tocResource);
-            book.getManifest().addReference(new ManifestItemReference(tocResource, null));
-        } catch (Exception e) {
-			log.error("Error writing table of contents: " + e.getClass().getName() + ": " + e.getMessage());
+	/**
+	 * Adds the resources, the table of contents and the package document to the pipeline.
+	 *
+	 * The resources are added first, so that they are being compressed
+	 * while the table of contents and the package document are created.
+	 * The table of contents, nav document and package document are written straight into their zip entries.
+	 */
+	private void writeResources(Book book, EntrySink pipeline, Version version) throws IOException {
+		GeneratedDocuments documents = GeneratedDocuments.create(book, version, indentXml);
+		for(Resource resource: getResources(book)) {
+			if (! documents.isReplaced(resource)) {
+				pipeline.add("OEBPS/" + resource.getHref(), resource);
+			}
+		}
+		for (Resource document: documents.getResources()) {
+			pipeline.add("OEBPS/" + document.getHref(), document);
 		}
+		pipeline.add("OEBPS/content.opf", createPackageDocument(book, version, documents, indentXml));
 	}
 
-    private void initNavResource(Book book) {
-        if (book.getNavResource() != null)
-            return;
-        Resource navResource;
-        try {
-            navResource = NavDocument.createNavResource(book);
-            book.getResources().add(navResource);
-            book.getManifest().addReference(new ManifestItemReference(navResource, ManifestItemProperties.NAV));
-        } catch (IOException e) {
-            log.error("Error writeing nav document: " + e.getClass().getName() + ": " + e.getMessage());
-        }
-    }
-
-
-    private void writeResources(Book book, ZipOutputStream resultStream) throws IOException {
-		for(Resource resource: book.getResources().getAll()) {
-			writeResource(resource, resultStream);
+	/**
+	 * Adds the package document, the table of contents and the resources to the pipeline in progressive order.
+	 *
+	 * @see EntryOrder#PROGRESSIVE
+	 */
+	private void writeResourcesProgressive(Book book, EntrySink pipeline, Version version) throws IOException {
+		GeneratedDocuments documents = GeneratedDocuments.create(book, version, indentXml);
+		List<Resource> firstResources = documents.getResources();
+		if (version == Version.V3 && documents.getNavResource() == null) {
+			firstResources.add(book.getNavResource());
+		}
+		pipeline.add("OEBPS/content.opf", createPackageDocument(book, version, documents, indentXml));
+		for (Resource resource: ProgressiveEntryOrder.order(book, getResources(book), firstResources)) {
+			if (! documents.isReplaced(resource)) {
+				pipeline.add("OEBPS/" + resource.getHref(), resource);
+			}
 		}
 	}
 
 	/**
-	 * Writes the resource to the resultStream.
-	 * 
-	 * @param resource
-	 * @param resultStream
-	 * @throws IOException
+	 * The resources of the book, ordered by href if the epub is written deterministically.
 	 */
-	private void writeResource(Resource resource, ZipOutputStream resultStream)
-			throws IOException {
-		if(resource == null) {
-			return;
-		}
-		try {
-			resultStream.putNextEntry(new ZipEntry("OEBPS/" + resource.getHref()));
-			InputStream inputStream = resource.getInputStream();
-			IOUtil.copy(inputStream, resultStream);
-			inputStream.close();
-		} catch(Exception e) {
-			log.error(e.getMessage(), e);
+	private Collection<Resource> getResources(Book book) {
+		if (! deterministic) {
+			return book.getResources().getAll();
 		}
+		List<Resource> result = new ArrayList<Resource>(book.getResources().getAll());
+		Collections.sort(result, new Comparator<Resource>() {
+			public int compare(Resource resource1, Resource resource2) {
+				return StringUtil.defaultIfNull(resource1.getHref()).compareTo(StringUtil.defaultIfNull(resource2.getHref()));
+			}
+		});
+		return result;
 	}
-	
 
-	private void writePackageDocument(Book book, ZipOutputStream resultStream, Version version) throws IOException {
-		resultStream.putNextEntry(new ZipEntry("OEBPS/content.opf"));
-		XmlSerializer xmlSerializer = EpubProcessorSupport.createXmlSerializer(resultStream);
-        PackageDocumentWriter writer;
-        if (version == Version.V2) {
-            writer = new Epub2PackageDocumentWriter(book, xmlSerializer);
-       } else {
-            writer = new Epub3PackageDocumentWriter(book, xmlSerializer);
-        }
+	/**
+	 * The package document of the book with the given generated documents, generated when it is written.
+	 */
+	// package
+	static Resource createPackageDocument(Book book, Version version, GeneratedDocuments documents, boolean indentXml) {
+		return new PackageDocumentResource(book, version, documents, indentXml);
+	}
+
+	private static class PackageDocumentResource extends DocumentResource {
 
-        writer.write();
-		xmlSerializer.flush();
+		private static final long serialVersionUID = 7163375380532184326L;
+
+		private final Book book;
+		private final Version version;
+		private final GeneratedDocuments documents;
+
+		public PackageDocumentResource(Book book, Version version, GeneratedDocuments documents, boolean indentXml) {
+			super(null, "content.opf", null, indentXml);
+			this.book = book;
+			this.version = version;
+			this.documents = documents;
+		}
+
+		protected void writeDocument(OutputStream out) throws IOException {
+			XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+			XmlSerializer xmlSerializer = xmlParserPool.acquireXmlSerializer(out, isIndentXml());
+			try {
+				PackageDocumentWriter writer;
+				if (version == Version.V2) {
+					writer = new Epub2PackageDocumentWriter(book, xmlSerializer);
+				} else {
+					writer = new Epub3PackageDocumentWriter(book, xmlSerializer);
+				}
+				writer.setGeneratedDocuments(documents);
+				writer.write();
+				xmlSerializer.flush();
+			} finally {
+				xmlParserPool.release(xmlSerializer);
+			}
+		}
 	}
 
 	/**
-	 * Writes the META-INF/container.xml file.
+	 * Adds the META-INF/container.xml file.
 	 * 
-	 * @param resultStream
+	 * @param pipeline
 	 * @throws IOException
 	 */
-	private void writeContainer(ZipOutputStream resultStream) throws IOException {
-		resultStream.putNextEntry(new ZipEntry("META-INF/container.xml"));
-		Writer out = new OutputStreamWriter(resultStream);
-		out.write("<?xml version=\"1.0\"?>\n");
-		out.write("<container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n");
-		out.write("\t<rootfiles>\n");
-		out.write("\t\t<rootfile full-path=\"OEBPS/content.opf\" media-type=\"application/oebps-package+xml\"/>\n");
-		out.write("\t</rootfiles>\n");
-		out.write("</container>");
-		out.flush();
+	// package
+	static void writeContainer(EntrySink pipeline) throws IOException {
+		StringBuilder out = new StringBuilder();
+		out.append("<?xml version=\"1.0\"?>\n");
+		out.append("<container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">\n");
+		out.append("\t<rootfiles>\n");
+		out.append("\t\t<rootfile full-path=\"OEBPS/content.opf\" media-type=\"application/oebps-package+xml\"/>\n");
+		out.append("\t</rootfiles>\n");
+		out.append("</container>");
+		pipeline.add("META-INF/container.xml", out.toString().getBytes(Constants.CHARACTER_ENCODING));
 	}
 
 	/**
-	 * Stores the mimetype as an uncompressed file in the ZipOutputStream.
+	 * Stores the mimetype as an uncompressed file in the zip file.
 	 * 
-	 * @param resultStream
+	 * @param zipWriter
 	 * @throws IOException
 	 */
-	private void writeMimeType(ZipOutputStream resultStream) throws IOException {
-		ZipEntry mimetypeZipEntry = new ZipEntry("mimetype");
-		mimetypeZipEntry.setMethod(ZipEntry.STORED);
-		byte[] mimetypeBytes = MediatypeService.EPUB.getName().getBytes();
-		mimetypeZipEntry.setSize(mimetypeBytes.length);
-		mimetypeZipEntry.setCrc(calculateCrc(mimetypeBytes));
-		resultStream.putNextEntry(mimetypeZipEntry);
-		resultStream.write(mimetypeBytes);
+	// package
+	static void writeMimeType(ZipArchiveWriter zipWriter) throws IOException {
+		zipWriter.write(createMimeTypeEntry());
 	}
 
-	private long calculateCrc(byte[] data) {
-		CRC32 crc = new CRC32();
-		crc.update(data);
-		return crc.getValue();
+	// package
+	static CompressedEntry createMimeTypeEntry() {
+		return CompressedEntry.stored("mimetype", MediatypeService.EPUB.getName().getBytes());
 	}
 
 	String getNcxId() {
@@ -207,5 +333,147 @@ public class EpubWriter {
 	public void setBookProcessor(BookProcessor bookProcessor) {
 		this.bookProcessor = bookProcessor;
 	}
+
+	/**
+	 * The executor used to compress the entries of the epub file in parallel.
+	 *
+	 * @return null if the entries are compressed one by one.
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * Sets the executor used to compress the entries of the epub file in parallel.
+	 *
+	 * Every entry is compressed on its own and the entries are written in the same order either way,
+	 * so the epub file is the same with or without executor.
+	 * The executor is not shut down by the EpubWriter.
+	 *
+	 * @param executorService if null the entries are compressed one by one.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	public int getCompressionLevel() {
+		return compressionPolicy.getDefaultLevel();
+	}
+
+	/**
+	 * Sets the default level of the compressionPolicy, Deflater.DEFAULT_COMPRESSION by default.
+	 *
+	 * @param compressionLevel
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		compressionPolicy.setDefaultLevel(compressionLevel);
+	}
+
+	public CompressionPolicy getCompressionPolicy() {
+		return compressionPolicy;
+	}
+
+	/**
+	 * Sets how the resources are compressed per MediaType.
+	 *
+	 * By default images, fonts and audio that are already compressed are stored without compression.
+	 *
+	 * @param compressionPolicy
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	public boolean isCopyCompressedEntries() {
+		return copyCompressedEntries;
+	}
+
+	/**
+	 * Sets whether resources that were read from an epub file and not changed since are copied as they are,
+	 * instead of being compressed again. True by default.
+	 *
+	 * Set it to false to compress every resource with the current compressionLevel.
+	 *
+	 * @param copyCompressedEntries
+	 */
+	public void setCopyCompressedEntries(boolean copyCompressedEntries) {
+		this.copyCompressedEntries = copyCompressedEntries;
+	}
+
+	public boolean isIndentXml() {
+		return indentXml;
+	}
+
+	/**
+	 * Sets whether the table of contents, nav document and package document are indented. True by default.
+	 *
+	 * Without indenting they are smaller and faster to write.
+	 *
+	 * @param indentXml
+	 */
+	public void setIndentXml(boolean indentXml) {
+		this.indentXml = indentXml;
+	}
+
+	public EntryOrder getEntryOrder() {
+		return entryOrder;
+	}
+
+	/**
+	 * Sets the order in which the entries are written, EntryOrder.RESOURCES by default.
+	 *
+	 * @param entryOrder
+	 */
+	public void setEntryOrder(EntryOrder entryOrder) {
+		this.entryOrder = entryOrder;
+	}
+
+	public long getEntryTime() {
+		return entryTime;
+	}
+
+	/**
+	 * Sets the time of all entries.
+	 *
+	 * By default the time the epub file is written, or 1 january 1980 if it is written deterministically.
+	 * Zip files store the local time, so the same time gives the same bytes only in the same time zone.
+	 *
+	 * @param entryTime the time in milliseconds, -1 for the default.
+	 */
+	public void setEntryTime(long entryTime) {
+		this.entryTime = entryTime;
+	}
+
+	public CompressedEntryCache getCompressedEntryCache() {
+		return compressedEntryCache;
+	}
+
+	/**
+	 * Sets the cache of deflated resources that is shared by all the epub files this EpubWriter writes. Null by default.
+	 *
+	 * A resource that is written again unchanged, by any book, is then not deflated again.
+	 *
+	 * @param compressedEntryCache
+	 */
+	public void setCompressedEntryCache(CompressedEntryCache compressedEntryCache) {
+		this.compressedEntryCache = compressedEntryCache;
+	}
+
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	/**
+	 * Sets whether writing the same book twice gives the same bytes. False by default.
+	 *
+	 * The resources are written ordered by href and all entries get the same time.
+	 * The package document and table of contents are always written the same way for the same book.
+	 * With an executorService the entries are still compressed in parallel, that does not change the result.
+	 *
+	 * @param deterministic
+	 */
+	public void setDeterministic(boolean deterministic) {
+		this.deterministic = deterministic;
+	}
 	
 }
@@ -0,0 +1,147 @@
+package nl.siegmann.epublib.epub;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.ManifestItemProperties;
+import nl.siegmann.epublib.domain.ManifestItemReference;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.util.StringUtil;
+
+/**
+ * The table of contents and, for epub 3 books without one, the nav document that are generated for a single epub file.
+ *
+ * They are not added to the book, so the same book can be written as several versions and a frozen book can be written.
+ * They take the place of the book's own table of contents and of the resources with the same href.
+ *
+ * @author paul
+ *
+ */
+// package
+class GeneratedDocuments {
+
+	private final Book book;
+	private final Resource tocResource;
+	private final Resource navResource;
+	private final List<ManifestItemReference> manifestReferences = new ArrayList<ManifestItemReference>(2);
+
+	private GeneratedDocuments(Book book, Version version, boolean indentXml) {
+		this.book = book;
+		this.tocResource = NCXDocument.createNCXDocumentResource(book, indentXml);
+		if (version == Version.V3 && book.getNavResource() == null) {
+			this.navResource = NavDocument.createNavDocumentResource(book, indentXml);
+		} else {
+			this.navResource = null;
+		}
+		addManifestReference(tocResource, null);
+		if (navResource != null) {
+			addManifestReference(navResource, ManifestItemProperties.NAV);
+		}
+	}
+
+	private void addManifestReference(Resource document, ManifestItemProperties properties) {
+		document.setId(createUniqueId(document.getId()));
+		manifestReferences.add(new ManifestItemReference(document, properties));
+	}
+
+	/**
+	 * Creates the documents of the epub file of the given version, the book is not changed.
+	 *
+	 * @param book
+	 * @param version
+	 * @param indentXml
+	 * @return
+	 */
+	public static GeneratedDocuments create(Book book, Version version, boolean indentXml) {
+		return new GeneratedDocuments(book, version, indentXml);
+	}
+
+	/**
+	 * The given id if no other resource in the epub file has it, otherwise a unique one based on it.
+	 */
+	private String createUniqueId(String id) {
+		String result = id;
+		for (int i = 1; isTaken(result); i++) {
+			result = id + "_" + i;
+		}
+		return result;
+	}
+
+	private boolean isTaken(String id) {
+		for (ManifestItemReference reference: manifestReferences) {
+			if (id.equals(reference.getResource().getId())) {
+				return true;
+			}
+		}
+		Resource resource = book.getResources().getById(id);
+		return resource != null && ! isReplaced(resource);
+	}
+
+	public Resource getTocResource() {
+		return tocResource;
+	}
+
+	/**
+	 * The nav document.
+	 *
+	 * @return null if the book has its own nav document or is written as epub 2.
+	 */
+	public Resource getNavResource() {
+		return navResource;
+	}
+
+	/**
+	 * The generated documents, the table of contents first.
+	 *
+	 * @return
+	 */
+	public List<Resource> getResources() {
+		List<Resource> result = new ArrayList<Resource>(2);
+		result.add(tocResource);
+		if (navResource != null) {
+			result.add(navResource);
+		}
+		return result;
+	}
+
+	/**
+	 * Whether the given resource of the book is left out of the epub file because a generated document takes its place.
+	 *
+	 * @param resource
+	 * @return
+	 */
+	public boolean isReplaced(Resource resource) {
+		if (resource == null || resource == tocResource || resource == navResource) {
+			return false;
+		}
+		if (resource == book.getSpine().getTocResource()) {
+			return true;
+		}
+		return isGeneratedHref(resource.getHref());
+	}
+
+	private boolean isGeneratedHref(String href) {
+		return StringUtil.equals(href, tocResource.getHref())
+				|| (navResource != null && StringUtil.equals(href, navResource.getHref()));
+	}
+
+	/**
+	 * The manifest items of the epub file: those of the book without the replaced resources, and those of the generated documents.
+	 *
+	 * @param bookReferences the manifest items of the book
+	 * @return
+	 */
+	public List<ManifestItemReference> getManifestReferences(Collection<ManifestItemReference> bookReferences) {
+		List<ManifestItemReference> result = new ArrayList<ManifestItemReference>(bookReferences.size() + manifestReferences.size());
+		for (ManifestItemReference reference: bookReferences) {
+			if (! isReplaced(reference.getResource()) && ! isGeneratedHref(reference.getHref())) {
+				result.add(reference);
+			}
+		}
+		result.addAll(manifestReferences);
+		return result;
+	}
+}
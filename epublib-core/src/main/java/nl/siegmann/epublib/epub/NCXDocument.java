@@ -12,11 +12,13 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import javax.xml.stream.FactoryConfigurationError;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
@@ -40,7 +42,7 @@ public class NCXDocument {
 	
 	private static final Logger log = LoggerFactory.getLogger(NCXDocument.class);
 
-	private interface NCXTags {
+	interface NCXTags {
 		String ncx = "ncx";
 		String meta = "meta";
 		String navPoint = "navPoint";
@@ -53,7 +55,7 @@ public class NCXDocument {
 		String head = "head";
 	}
 	
-	private interface NCXAttributes {
+	interface NCXAttributes {
 		String src = "src";
 		String name = "name";
 		String content = "content";
@@ -81,9 +83,23 @@ public class NCXDocument {
 			if(ncxResource == null) {
 				return ncxResource;
 			}
-			Document ncxDocument = ResourceUtil.getAsDocument(ncxResource);
-			Element navMapElement = DOMUtil.getFirstElementByTagNameNS(ncxDocument.getDocumentElement(), NAMESPACE_NCX, NCXTags.navMap);
-			TableOfContents tableOfContents = new TableOfContents(readTOCReferences(navMapElement.getChildNodes(), book));
+			TableOfContents tableOfContents = null;
+			if (epubReader == null || epubReader.isStreamingTocReader()) {
+				try {
+					tableOfContents = NCXDocumentPullReader.read(ncxResource, book);
+					if (tableOfContents == null) {
+						log.error("NCX document " + ncxResource.getHref() + " does not contain element " + NCXTags.navMap);
+						return ncxResource;
+					}
+				} catch (XmlPullParserException e) {
+					log.error("Unable to stream NCX document " + ncxResource.getHref() + ", reading it as DOM instead: " + e.getMessage());
+				}
+			}
+			if (tableOfContents == null) {
+				Document ncxDocument = ResourceUtil.getAsDocument(ncxResource);
+				Element navMapElement = DOMUtil.getFirstElementByTagNameNS(ncxDocument.getDocumentElement(), NAMESPACE_NCX, NCXTags.navMap);
+				tableOfContents = new TableOfContents(readTOCReferences(navMapElement.getChildNodes(), book));
+			}
 			book.setTableOfContents(tableOfContents);
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
@@ -112,29 +128,40 @@ public class NCXDocument {
 
 	private static TOCReference readTOCReference(Element navpointElement, Book book) {
 		String label = readNavLabel(navpointElement);
-		String reference = FilenameUtils.getPath(book.getSpine().getTocResource().getHref())+readNavReference(navpointElement);
+		TOCReference result = createTOCReference(label, readNavReference(navpointElement), book);
+		readTOCReferences(navpointElement.getChildNodes(), book);
+		result.setChildren(readTOCReferences(navpointElement.getChildNodes(), book));
+		return result;
+	}
+
+	/**
+	 * Creates a TOCReference to the resource the src of a navPoint's content refers to.
+	 *
+	 * @param label
+	 * @param src the src, relative to the ncx document
+	 * @param book
+	 * @return
+	 */
+	static TOCReference createTOCReference(String label, String src, Book book) {
+		try {
+			src = URLDecoder.decode(src, Constants.CHARACTER_ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			log.error(e.getMessage());
+		}
+		String reference = FilenameUtils.getPath(book.getSpine().getTocResource().getHref())+src;
 		String href = StringUtil.substringBefore(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
 		String fragmentId = StringUtil.substringAfter(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
 		Resource resource = book.getResources().getByHref(href);
 		if (resource == null) {
 			log.error("Resource with href " + href + " in NCX document not found");
 		}
-		TOCReference result = new TOCReference(label, resource, fragmentId);
-		readTOCReferences(navpointElement.getChildNodes(), book);
-		result.setChildren(readTOCReferences(navpointElement.getChildNodes(), book));
-		return result;
+		return new TOCReference(label, resource, fragmentId);
 	}
 
 	
 	private static String readNavReference(Element navpointElement) {
 		Element contentElement = DOMUtil.getFirstElementByTagNameNS(navpointElement, NAMESPACE_NCX, NCXTags.content);
-		String result = DOMUtil.getAttribute(contentElement, NAMESPACE_NCX, NCXAttributes.src);
-		try {
-			result = URLDecoder.decode(result, Constants.CHARACTER_ENCODING);
-		} catch (UnsupportedEncodingException e) {
-			log.error(e.getMessage());
-		}
-		return result;
+		return DOMUtil.getAttribute(contentElement, NAMESPACE_NCX, NCXAttributes.src);
 	}
 
 	private static String readNavLabel(Element navpointElement) {
@@ -170,6 +197,30 @@ public class NCXDocument {
 	public static Resource createNCXResource(Book book) throws IllegalArgumentException, IllegalStateException, IOException {
 		return createNCXResource(book.getMetadata().getIdentifiers(), book.getTitle(), book.getMetadata().getAuthors(), book.getTableOfContents());
 	}
+	/**
+	 * Creates a resource for the ncx document of the book that is not kept in memory.
+	 *
+	 * The document is generated from the book every time its data is needed,
+	 * the EpubWriter writes it straight into the epub file.
+	 *
+	 * @param book
+	 * @return
+	 */
+	public static Resource createNCXDocumentResource(Book book) {
+		return createNCXDocumentResource(book, true);
+	}
+
+	/**
+	 * Creates a resource for the ncx document of the book that is not kept in memory.
+	 *
+	 * @param book
+	 * @param indentXml whether the xml is indented
+	 * @return
+	 */
+	public static Resource createNCXDocumentResource(Book book, boolean indentXml) {
+		return new NCXResource(book, indentXml);
+	}
+
 	public static Resource createNCXResource(List<Identifier> identifiers, DcmesElement title, List<Author> authors, TableOfContents tableOfContents) throws IllegalArgumentException, IllegalStateException, IOException {
 		ByteArrayOutputStream data = new ByteArrayOutputStream();
 		XmlSerializer out = EpubProcessorSupport.createXmlSerializer(data);
@@ -269,4 +320,27 @@ public class NCXDocument {
 	private static void writeNavPointEnd(TOCReference tocReference, XmlSerializer serializer) throws IllegalArgumentException, IllegalStateException, IOException  {
 		serializer.endTag(NAMESPACE_NCX, NCXTags.navPoint);
 	}
+
+	private static class NCXResource extends DocumentResource {
+
+		private static final long serialVersionUID = 2964512098154231371L;
+
+		private final Book book;
+
+		public NCXResource(Book book, boolean indentXml) {
+			super(NCX_ITEM_ID, DEFAULT_NCX_HREF, MediatypeService.NCX, indentXml);
+			this.book = book;
+		}
+
+		protected void writeDocument(OutputStream out) throws IOException {
+			XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+			XmlSerializer serializer = xmlParserPool.acquireXmlSerializer(out, isIndentXml());
+			try {
+				NCXDocument.write(serializer, book);
+				serializer.flush();
+			} finally {
+				xmlParserPool.release(serializer);
+			}
+		}
+	}
 }
@@ -0,0 +1,214 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.domain.TableOfContents;
+import nl.siegmann.epublib.epub.NCXDocument.NCXAttributes;
+import nl.siegmann.epublib.epub.NCXDocument.NCXTags;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the table of contents from an ncx document in a single pass, without building a DOM.
+ *
+ * The navPoints are kept on an explicit stack instead of being read recursively,
+ * so the depth of the table of contents does not matter and only the TOCReferences themselves are kept in memory.
+ * Reading stops at the end of the navMap.
+ *
+ * Gives the same table of contents as reading the ncx document as a DOM,
+ * except that a navPoint without a navLabel or content is kept instead of failing the whole table of contents.
+ *
+ * @see nl.siegmann.epublib.epub.NCXDocument
+ *
+ * @author paul
+ *
+ */
+// package
+class NCXDocumentPullReader {
+
+	private static final Logger log = LoggerFactory.getLogger(NCXDocumentPullReader.class);
+
+	private final Book book;
+	private final List<TOCReference> result = new ArrayList<TOCReference>();
+	private final List<NavPoint> navPoints = new ArrayList<NavPoint>();
+	private int navMapDepth = -1;
+
+	/**
+	 * The navPoints that get their label from the navLabel that is being read.
+	 */
+	private final List<NavPoint> labelNavPoints = new ArrayList<NavPoint>();
+	private int navLabelDepth = -1;
+	private int textDepth = -1;
+	private boolean textFound = false;
+	private final StringBuilder text = new StringBuilder();
+
+	private NCXDocumentPullReader(Book book) {
+		this.book = book;
+	}
+
+	/**
+	 * Reads the table of contents from the given ncx resource.
+	 *
+	 * @param ncxResource
+	 * @param book
+	 * @return null if the ncx document does not contain a navMap.
+	 * @throws XmlPullParserException if the document can not be parsed.
+	 * @throws IOException
+	 */
+	public static TableOfContents read(Resource ncxResource, Book book) throws XmlPullParserException, IOException {
+		Reader reader = ncxResource.getReader();
+		XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+		XmlPullParser parser = null;
+		try {
+			parser = xmlParserPool.acquireXmlPullParser();
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+			parser.setInput(reader);
+			return new NCXDocumentPullReader(book).read(parser);
+		} finally {
+			xmlParserPool.release(parser);
+			reader.close();
+		}
+	}
+
+	private TableOfContents read(XmlPullParser parser) throws XmlPullParserException, IOException {
+		for (int eventType = parser.nextToken(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.nextToken()) {
+			switch (eventType) {
+				case XmlPullParser.START_TAG:
+					startElement(parser);
+					break;
+				case XmlPullParser.END_TAG:
+					if (parser.getDepth() == navMapDepth) {
+						return new TableOfContents(result);
+					}
+					endElement(parser.getDepth());
+					break;
+				case XmlPullParser.TEXT:
+				case XmlPullParser.ENTITY_REF:
+					// only the Text nodes that are children of the text element, like DOMUtil.getTextChildrenContent
+					if (textDepth >= 0 && parser.getDepth() == textDepth) {
+						text.append(parser.getText());
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		return null;
+	}
+
+	private void startElement(XmlPullParser parser) {
+		int depth = parser.getDepth();
+		String localName = parser.getName();
+		if (navMapDepth < 0) {
+			if (depth > 1 && NCXTags.navMap.equals(localName) && NCXDocument.NAMESPACE_NCX.equals(parser.getNamespace())) {
+				navMapDepth = depth;
+			}
+			return;
+		}
+		if (NCXTags.navPoint.equals(localName)) {
+			// only navPoints that are children of the navMap or of another navPoint are part of the table of contents
+			if (depth == navMapDepth + 1
+					|| (! navPoints.isEmpty() && navPoints.get(navPoints.size() - 1).depth == depth - 1)) {
+				navPoints.add(new NavPoint(depth));
+			}
+			return;
+		}
+		if (! NCXDocument.NAMESPACE_NCX.equals(parser.getNamespace())) {
+			return;
+		}
+		if (NCXTags.navLabel.equals(localName)) {
+			if (navLabelDepth < 0) {
+				// the label of a navPoint is the first navLabel in it
+				for (NavPoint navPoint: navPoints) {
+					if (! navPoint.labelFound) {
+						navPoint.labelFound = true;
+						labelNavPoints.add(navPoint);
+					}
+				}
+				if (! labelNavPoints.isEmpty()) {
+					navLabelDepth = depth;
+					textFound = false;
+				}
+			}
+		} else if (NCXTags.text.equals(localName)) {
+			if (navLabelDepth >= 0 && ! textFound) {
+				textFound = true;
+				textDepth = depth;
+				text.setLength(0);
+			}
+		} else if (NCXTags.content.equals(localName)) {
+			String src = getSrc(parser);
+			for (NavPoint navPoint: navPoints) {
+				if (! navPoint.contentFound) {
+					navPoint.contentFound = true;
+					navPoint.src = src;
+				}
+			}
+		}
+	}
+
+	private void endElement(int depth) {
+		if (depth == textDepth) {
+			String label = text.toString().trim();
+			for (NavPoint navPoint: labelNavPoints) {
+				navPoint.label = label;
+			}
+			textDepth = -1;
+		} else if (depth == navLabelDepth) {
+			labelNavPoints.clear();
+			navLabelDepth = -1;
+		} else if (! navPoints.isEmpty() && navPoints.get(navPoints.size() - 1).depth == depth) {
+			NavPoint navPoint = navPoints.remove(navPoints.size() - 1);
+			if (! navPoint.labelFound) {
+				log.error("navPoint without " + NCXTags.navLabel + " in NCX document");
+			}
+			if (! navPoint.contentFound) {
+				log.error("navPoint without " + NCXTags.content + " in NCX document");
+			}
+			TOCReference tocReference = NCXDocument.createTOCReference(navPoint.label, navPoint.src, book);
+			tocReference.setChildren(navPoint.children);
+			if (navPoints.isEmpty()) {
+				result.add(tocReference);
+			} else {
+				navPoints.get(navPoints.size() - 1).children.add(tocReference);
+			}
+		}
+	}
+
+	/**
+	 * The src attribute in the ncx namespace, or else the one without namespace, like DOMUtil.getAttribute.
+	 */
+	private static String getSrc(XmlPullParser parser) {
+		String result = parser.getAttributeValue(NCXDocument.NAMESPACE_NCX, NCXAttributes.src);
+		if (result == null) {
+			result = parser.getAttributeValue("", NCXAttributes.src);
+		}
+		if (result == null) {
+			result = "";
+		}
+		return result;
+	}
+
+	private static class NavPoint {
+
+		final int depth;
+		final List<TOCReference> children = new ArrayList<TOCReference>();
+		boolean labelFound = false;
+		String label;
+		boolean contentFound = false;
+		String src = "";
+
+		public NavPoint(int depth) {
+			this.depth = depth;
+		}
+	}
+}
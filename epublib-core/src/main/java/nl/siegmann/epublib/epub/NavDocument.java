@@ -12,10 +12,12 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -35,7 +37,7 @@ public class NavDocument {
     public static final String NAV_ITEM_ID = "nav";
     public static final String DEFAULT_NAV_HREF = "nav.xhtml";
 
-    private interface NAVTags {
+    interface NAVTags {
         String html = "html";
         String head = "head";
         String title = "title";
@@ -52,19 +54,30 @@ public class NavDocument {
         String span = "span";
     }
 
-    private interface NAVAttributes {
+    interface NAVAttributes {
         String epubType = "epub:type";
         String href = "href";
         String id = "id";
         String charset = "charset";
     }
 
-    private interface NAVAttributeValues {
+    interface NAVAttributeValues {
         String toc = "toc";
         String utf8 = "utf-8";
     }
 
     public static Resource read(Book book) {
+        return read(book, null);
+    }
+
+    /**
+     * Reads the table of contents from the book's nav resource, if the book does not have one yet.
+     *
+     * @param book
+     * @param epubReader decides whether the nav document is read in a single streaming pass. If null it is.
+     * @return the nav resource
+     */
+    public static Resource read(Book book, EpubReader epubReader) {
         Resource navResource = null;
         Manifest manifest = book.getManifest();
         for (ManifestItemReference reference : manifest.getReferences()) {
@@ -80,7 +93,7 @@ public class NavDocument {
         }
 
         if (book.getTableOfContents().getTocReferences().size() == 0) {
-            List<TOCReference> tocReferences = read(navResource, book);
+            List<TOCReference> tocReferences = read(navResource, book, epubReader);
             book.setTableOfContents(new TableOfContents(tocReferences));
         }
 
@@ -88,6 +101,20 @@ public class NavDocument {
         return navResource;
     }
 
+    public static List<TOCReference> read(Resource navResource, Book book, EpubReader epubReader) {
+        if (navResource != null && (epubReader == null || epubReader.isStreamingTocReader())) {
+            try {
+                return NavDocumentPullReader.read(navResource, book);
+            } catch (XmlPullParserException e) {
+                log.error("Unable to stream nav document " + navResource.getHref() + ", reading it as DOM instead: " + e.getMessage());
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                return Collections.emptyList();
+            }
+        }
+        return read(navResource, book);
+    }
+
     public static List<TOCReference> read(Resource navResource, Book book) {
         try {
             Document navDocument = ResourceUtil.getAsDocument(navResource);
@@ -132,17 +159,9 @@ public class NavDocument {
         Element aElement = DOMUtil.getFirstElementByTagNameNS(liElement, NAMESPACE_HTML, NAVTags.a);
         Element olElement = DOMUtil.getFirstElementByTagNameNS(liElement, NAMESPACE_HTML, NAVTags.ol);
         if (aElement != null) {
-            String path = FilenameUtils.getPathNoEndSeparator(book.getNavResource().getHref());
-            String reference = aElement.getAttribute(NAVAttributes.href);
-            reference = FilenameUtils.concat(path, reference);
-            reference = FilenameUtils.separatorsToUnix(reference);
-            String href = StringUtil.substringBefore(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
-            String fragmentId = StringUtil.substringAfter(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
-            Resource resource = book.getResources().getByHref(href);
+            setReference(tocReference, aElement.getAttribute(NAVAttributes.href), book);
             String title = aElement.getTextContent();
             tocReference.setTitle(title);
-            tocReference.setResource(resource);
-            tocReference.setFragmentId(fragmentId);
         }
         if (olElement != null) {
             if (StringUtil.isBlank(tocReference.getTitle())) {
@@ -158,6 +177,24 @@ public class NavDocument {
         return tocReference;
     }
 
+    /**
+     * Sets the resource and fragment the href of a link in the nav document refers to.
+     *
+     * @param tocReference
+     * @param reference the href, relative to the nav document
+     * @param book
+     */
+    static void setReference(TOCReference tocReference, String reference, Book book) {
+        String path = FilenameUtils.getPathNoEndSeparator(book.getNavResource().getHref());
+        reference = FilenameUtils.concat(path, reference);
+        reference = FilenameUtils.separatorsToUnix(reference);
+        String href = StringUtil.substringBefore(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
+        String fragmentId = StringUtil.substringAfter(reference, Constants.FRAGMENT_SEPARATOR_CHAR);
+        Resource resource = book.getResources().getByHref(href);
+        tocReference.setResource(resource);
+        tocReference.setFragmentId(fragmentId);
+    }
+
     public static Resource createNavResource(Book book) throws IOException {
         ByteArrayOutputStream data = new ByteArrayOutputStream();
         XmlSerializer out = EpubProcessorSupport.createXmlSerializer(data);
@@ -166,6 +203,30 @@ public class NavDocument {
         return new Resource(NAV_ITEM_ID, data.toByteArray(), DEFAULT_NAV_HREF, MediatypeService.XHTML);
     }
 
+    /**
+     * Creates a resource for the nav document of the book that is not kept in memory.
+     *
+     * The document is generated from the book every time its data is needed,
+     * the EpubWriter writes it straight into the epub file.
+     *
+     * @param book
+     * @return
+     */
+    public static Resource createNavDocumentResource(Book book) {
+        return createNavDocumentResource(book, true);
+    }
+
+    /**
+     * Creates a resource for the nav document of the book that is not kept in memory.
+     *
+     * @param book
+     * @param indentXml whether the xml is indented
+     * @return
+     */
+    public static Resource createNavDocumentResource(Book book, boolean indentXml) {
+        return new NavResource(book, indentXml);
+    }
+
     public static void write(XmlSerializer serializer, Book book) throws IOException {
         serializer.startDocument(Constants.CHARACTER_ENCODING, false);
         serializer.setPrefix("", NAMESPACE_HTML);
@@ -214,4 +275,27 @@ public class NavDocument {
             }
         }
     }
+
+    private static class NavResource extends DocumentResource {
+
+        private static final long serialVersionUID = -5238861093527418562L;
+
+        private final Book book;
+
+        public NavResource(Book book, boolean indentXml) {
+            super(NAV_ITEM_ID, DEFAULT_NAV_HREF, MediatypeService.XHTML, indentXml);
+            this.book = book;
+        }
+
+        protected void writeDocument(OutputStream out) throws IOException {
+            XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+            XmlSerializer serializer = xmlParserPool.acquireXmlSerializer(out, isIndentXml());
+            try {
+                NavDocument.write(serializer, book);
+                serializer.flush();
+            } finally {
+                xmlParserPool.release(serializer);
+            }
+        }
+    }
 }
@@ -0,0 +1,259 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.epub.NavDocument.NAVAttributeValues;
+import nl.siegmann.epublib.epub.NavDocument.NAVAttributes;
+import nl.siegmann.epublib.epub.NavDocument.NAVTags;
+import nl.siegmann.epublib.util.StringUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the table of contents from a nav document in a single pass, without building a DOM.
+ *
+ * The list items are kept on an explicit stack instead of being read recursively,
+ * so the depth of the table of contents does not matter and only the TOCReferences themselves are kept in memory.
+ * Reading stops at the end of the table of contents' list.
+ *
+ * Gives the same table of contents as reading the nav document as a DOM.
+ *
+ * @see nl.siegmann.epublib.epub.NavDocument
+ *
+ * @author LinQ
+ */
+// package
+class NavDocumentPullReader {
+
+    private final Book book;
+    private final List<TOCReference> result = new ArrayList<TOCReference>();
+    private final List<ListItem> listItems = new ArrayList<ListItem>();
+    private final List<TextCollector> textCollectors = new ArrayList<TextCollector>();
+    private int navDepth = -1;
+    private int olDepth = -1;
+
+    private NavDocumentPullReader(Book book) {
+        this.book = book;
+    }
+
+    /**
+     * Reads the table of contents from the given nav resource.
+     *
+     * @param navResource
+     * @param book
+     * @return the TOCReferences, an empty list if the document contains no table of contents.
+     * @throws XmlPullParserException if the document can not be parsed.
+     * @throws IOException
+     */
+    public static List<TOCReference> read(Resource navResource, Book book) throws XmlPullParserException, IOException {
+        Reader reader = navResource.getReader();
+        XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+        XmlPullParser parser = null;
+        try {
+            parser = xmlParserPool.acquireXmlPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(reader);
+            // the nav document is XHTML, it may use entities like &nbsp;
+            XhtmlEntities.defineEntities(parser);
+            return new NavDocumentPullReader(book).read(parser);
+        } finally {
+            xmlParserPool.release(parser);
+            reader.close();
+        }
+    }
+
+    private List<TOCReference> read(XmlPullParser parser) throws XmlPullParserException, IOException {
+        for (int eventType = parser.nextToken(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.nextToken()) {
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    startElement(parser);
+                    break;
+                case XmlPullParser.END_TAG:
+                    if (parser.getDepth() == olDepth || parser.getDepth() == navDepth) {
+                        // the first table of contents is the only one that is read
+                        return result;
+                    }
+                    endElement(parser.getDepth());
+                    break;
+                case XmlPullParser.TEXT:
+                case XmlPullParser.ENTITY_REF:
+                case XmlPullParser.CDSECT:
+                    for (TextCollector textCollector: textCollectors) {
+                        textCollector.text.append(parser.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private void startElement(XmlPullParser parser) {
+        int depth = parser.getDepth();
+        String localName = parser.getName();
+        if (navDepth < 0) {
+            if (depth > 1 && NAVTags.nav.equals(getQualifiedName(parser))
+                    && NAVAttributeValues.toc.equals(getAttributeValue(parser, NAVAttributes.epubType))) {
+                navDepth = depth;
+            }
+            return;
+        }
+        if (olDepth < 0) {
+            if (NAVTags.ol.equals(getQualifiedName(parser))) {
+                olDepth = depth;
+            }
+            return;
+        }
+        if (NAVTags.li.equals(localName)) {
+            // only list items that are children of the table of contents' list or of the list of another list item are part of the table of contents
+            ListItem parent = listItems.isEmpty() ? null : listItems.get(listItems.size() - 1);
+            if (depth == olDepth + 1) {
+                ListItem listItem = new ListItem(depth);
+                result.add(listItem.tocReference);
+                listItems.add(listItem);
+            } else if (parent != null && parent.olOpen && parent.olDepth == depth - 1) {
+                ListItem listItem = new ListItem(depth);
+                parent.children.add(listItem.tocReference);
+                listItems.add(listItem);
+            }
+            return;
+        }
+        if (! NavDocument.NAMESPACE_HTML.equals(parser.getNamespace())) {
+            return;
+        }
+        if (NAVTags.a.equals(localName)) {
+            TextCollector textCollector = null;
+            for (ListItem listItem: listItems) {
+                if (listItem.aFound) {
+                    continue;
+                }
+                listItem.aFound = true;
+                NavDocument.setReference(listItem.tocReference, getAttributeValue(parser, NAVAttributes.href), book);
+                if (textCollector == null) {
+                    textCollector = new TextCollector(depth);
+                    textCollectors.add(textCollector);
+                }
+                textCollector.titleListItems.add(listItem);
+            }
+        } else if (NAVTags.span.equals(localName)) {
+            TextCollector textCollector = null;
+            for (ListItem listItem: listItems) {
+                if (listItem.spanFound) {
+                    continue;
+                }
+                listItem.spanFound = true;
+                if (textCollector == null) {
+                    textCollector = new TextCollector(depth);
+                    textCollectors.add(textCollector);
+                }
+                textCollector.spanListItems.add(listItem);
+            }
+        } else if (NAVTags.ol.equals(localName)) {
+            for (ListItem listItem: listItems) {
+                if (listItem.olDepth < 0) {
+                    listItem.olDepth = depth;
+                    listItem.olOpen = true;
+                }
+            }
+        }
+    }
+
+    private void endElement(int depth) {
+        for (int i = textCollectors.size() - 1; i >= 0; i--) {
+            TextCollector textCollector = textCollectors.get(i);
+            if (textCollector.depth == depth) {
+                textCollectors.remove(i);
+                textCollector.finish();
+            }
+        }
+        for (int i = listItems.size() - 1; i >= 0; i--) {
+            ListItem listItem = listItems.get(i);
+            if (listItem.olDepth == depth) {
+                listItem.olOpen = false;
+            }
+        }
+        if (! listItems.isEmpty() && listItems.get(listItems.size() - 1).depth == depth) {
+            ListItem listItem = listItems.remove(listItems.size() - 1);
+            if (listItem.olDepth >= 0) {
+                if (StringUtil.isBlank(listItem.tocReference.getTitle()) && listItem.spanTitle != null) {
+                    listItem.tocReference.setTitle(listItem.spanTitle);
+                }
+                listItem.tocReference.setChildren(listItem.children);
+            }
+        }
+    }
+
+    private static String getQualifiedName(XmlPullParser parser) {
+        String prefix = parser.getPrefix();
+        if (prefix == null) {
+            return parser.getName();
+        }
+        return prefix + ":" + parser.getName();
+    }
+
+    /**
+     * The value of the attribute with the given qualified name, the empty string if not found.
+     */
+    private static String getAttributeValue(XmlPullParser parser, String qualifiedName) {
+        for (int i = 0; i < parser.getAttributeCount(); i++) {
+            String prefix = parser.getAttributePrefix(i);
+            String name = parser.getAttributeName(i);
+            if (prefix != null) {
+                name = prefix + ":" + name;
+            }
+            if (qualifiedName.equals(name)) {
+                return parser.getAttributeValue(i);
+            }
+        }
+        return "";
+    }
+
+    private static class ListItem {
+
+        final int depth;
+        final TOCReference tocReference = new TOCReference();
+        final List<TOCReference> children = new ArrayList<TOCReference>();
+        boolean aFound = false;
+        boolean spanFound = false;
+        String spanTitle;
+        int olDepth = -1;
+        boolean olOpen = false;
+
+        public ListItem(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Collects the text content of an a or span element for the list items that take their title from it.
+     */
+    private static class TextCollector {
+
+        final int depth;
+        final StringBuilder text = new StringBuilder();
+        final List<ListItem> titleListItems = new ArrayList<ListItem>();
+        final List<ListItem> spanListItems = new ArrayList<ListItem>();
+
+        public TextCollector(int depth) {
+            this.depth = depth;
+        }
+
+        public void finish() {
+            String value = text.toString();
+            for (ListItem listItem: titleListItems) {
+                listItem.tocReference.setTitle(value);
+            }
+            for (ListItem listItem: spanListItems) {
+                listItem.spanTitle = value;
+            }
+        }
+    }
+}
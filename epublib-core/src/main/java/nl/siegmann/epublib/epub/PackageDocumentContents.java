@@ -0,0 +1,314 @@
+package nl.siegmann.epublib.epub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.siegmann.epublib.util.StringUtil;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+/**
+ * The parts of a package document that are needed to read a book.
+ *
+ * Can be created from a DOM Document or in a single pass by the PackageDocumentPullReader.
+ * Both result in the same contents, so PackageDocumentReader and PackageDocumentMetadataReader
+ * give the same results no matter how the package document was parsed.
+ *
+ * The element lists follow the queries the readers used to do on the DOM:
+ * 'first metadata/manifest/guide/spine/bindings element' means the first one below the root element in document order,
+ * the items, itemrefs and cover hints are searched for in the whole document.
+ *
+ * @see nl.siegmann.epublib.epub.PackageDocumentPullReader
+ *
+ * @author paul
+ *
+ */
+// package
+class PackageDocumentContents extends PackageDocumentBase {
+
+	private static final List<ElementRecord> NO_ELEMENTS = Collections.emptyList();
+
+	ElementRecord packageElement = new ElementRecord(null, null, new String[0]);
+
+	boolean metadataFound = false;
+	final Map<String, List<ElementRecord>> dublinCoreElements = new HashMap<String, List<ElementRecord>>();
+	final List<ElementRecord> metas = new ArrayList<ElementRecord>();
+	final List<ElementRecord> links = new ArrayList<ElementRecord>();
+
+	boolean manifestFound = false;
+	final List<ElementRecord> manifestItems = new ArrayList<ElementRecord>();
+	final List<ElementRecord> items = new ArrayList<ElementRecord>();
+
+	boolean guideFound = false;
+	final List<ElementRecord> guideReferences = new ArrayList<ElementRecord>();
+
+	ElementRecord spineElement;
+	final List<ElementRecord> itemrefs = new ArrayList<ElementRecord>();
+
+	boolean bindingsFound = false;
+	final List<ElementRecord> bindingsMediaTypes = new ArrayList<ElementRecord>();
+
+	/**
+	 * The content of the first meta tag with name 'cover' and a non-blank content.
+	 */
+	String coverMetaContent;
+
+	/**
+	 * The href of the first reference with type 'cover' and a non-blank href.
+	 */
+	String coverReferenceHref;
+
+	/**
+	 * The dublin core elements with the given tag within the first metadata element.
+	 *
+	 * @param tag
+	 * @return
+	 */
+	List<ElementRecord> getDublinCoreElements(String tag) {
+		List<ElementRecord> result = dublinCoreElements.get(tag);
+		if (result == null) {
+			result = NO_ELEMENTS;
+		}
+		return result;
+	}
+
+	void addDublinCoreElement(ElementRecord element) {
+		List<ElementRecord> elements = dublinCoreElements.get(element.getLocalName());
+		if (elements == null) {
+			elements = new ArrayList<ElementRecord>();
+			dublinCoreElements.put(element.getLocalName(), elements);
+		}
+		elements.add(element);
+	}
+
+	/**
+	 * Finds the first item with the given id (ignoring case) and a non-blank href and returns its href.
+	 *
+	 * @param id
+	 * @return null if not found.
+	 */
+	String findItemHref(String id) {
+		for (ElementRecord item: items) {
+			if (id.equalsIgnoreCase(item.getAttribute(OPFAttributes.id))
+					&& StringUtil.isNotBlank(item.getAttribute(OPFAttributes.href))) {
+				return item.getAttribute(OPFAttributes.href);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the contents from the given DOM Document.
+	 *
+	 * @param document
+	 * @return
+	 */
+	static PackageDocumentContents fromDocument(Document document) {
+		PackageDocumentContents result = new PackageDocumentContents();
+		Element documentElement = document.getDocumentElement();
+		result.packageElement = ElementRecord.fromElement(documentElement, false);
+
+		Element metadataElement = DOMUtil.getFirstElementByTagNameNS(documentElement, NAMESPACE_OPF, OPFTags.metadata);
+		if (metadataElement != null) {
+			result.metadataFound = true;
+			NodeList nodes = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, "*");
+			for (int i = 0; i < nodes.getLength(); i++) {
+				result.addDublinCoreElement(ElementRecord.fromElement((Element) nodes.item(i), true));
+			}
+			addElements(metadataElement, OPFTags.meta, true, result.metas);
+			addElements(metadataElement, OPFTags.link, false, result.links);
+		}
+
+		Element manifestElement = DOMUtil.getFirstElementByTagNameNS(documentElement, NAMESPACE_OPF, OPFTags.manifest);
+		if (manifestElement != null) {
+			result.manifestFound = true;
+			addElements(manifestElement, OPFTags.item, false, result.manifestItems);
+		}
+		NodeList itemElements = document.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.item);
+		for (int i = 0; i < itemElements.getLength(); i++) {
+			result.items.add(ElementRecord.fromElement((Element) itemElements.item(i), false));
+		}
+
+		Element guideElement = DOMUtil.getFirstElementByTagNameNS(documentElement, NAMESPACE_OPF, OPFTags.guide);
+		if (guideElement != null) {
+			result.guideFound = true;
+			addElements(guideElement, OPFTags.reference, false, result.guideReferences);
+		}
+
+		Element spineElement = DOMUtil.getFirstElementByTagNameNS(documentElement, NAMESPACE_OPF, OPFTags.spine);
+		if (spineElement != null) {
+			result.spineElement = ElementRecord.fromElement(spineElement, false);
+		}
+		NodeList itemrefElements = document.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.itemref);
+		for (int i = 0; i < itemrefElements.getLength(); i++) {
+			result.itemrefs.add(ElementRecord.fromElement((Element) itemrefElements.item(i), false));
+		}
+
+		Element bindingsElement = DOMUtil.getFirstElementByTagNameNS(documentElement, NAMESPACE_OPF, OPFTags.bindings);
+		if (bindingsElement != null) {
+			result.bindingsFound = true;
+			addElements(bindingsElement, OPFTags.mediaType, false, result.bindingsMediaTypes);
+		}
+
+		result.coverMetaContent = DOMUtil.getFindAttributeValue(document, NAMESPACE_OPF,
+				OPFTags.meta, OPFAttributes.name, OPFValues.meta_cover,
+				OPFAttributes.content);
+		result.coverReferenceHref = DOMUtil.getFindAttributeValue(document, NAMESPACE_OPF,
+				OPFTags.reference, OPFAttributes.type, OPFValues.reference_cover,
+				OPFAttributes.href);
+		return result;
+	}
+
+	private static void addElements(Element parentElement, String tagName, boolean readText, List<ElementRecord> result) {
+		NodeList nodes = parentElement.getElementsByTagNameNS(NAMESPACE_OPF, tagName);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			result.add(ElementRecord.fromElement((Element) nodes.item(i), readText));
+		}
+	}
+
+	/**
+	 * The name, attributes and optionally the text of an element.
+	 *
+	 * Answers the same questions about the element as the DOM does.
+	 */
+	static class ElementRecord {
+
+		private static final String[] NO_ATTRIBUTES = new String[0];
+
+		private final String namespace;
+		private final String localName;
+
+		/**
+		 * Per attribute its namespace, localName, qualified name and value.
+		 */
+		private final String[] attributes;
+		private String textChildrenContent;
+		private String textContent;
+
+		public ElementRecord(String namespace, String localName, String[] attributes) {
+			this.namespace = namespace;
+			this.localName = localName;
+			this.attributes = attributes;
+		}
+
+		static ElementRecord fromElement(Element element, boolean readText) {
+			NamedNodeMap attributeNodes = element.getAttributes();
+			String[] attributes = NO_ATTRIBUTES;
+			if (attributeNodes.getLength() > 0) {
+				attributes = new String[attributeNodes.getLength() * 4];
+				for (int i = 0; i < attributeNodes.getLength(); i++) {
+					Attr attribute = (Attr) attributeNodes.item(i);
+					attributes[i * 4] = attribute.getNamespaceURI();
+					attributes[i * 4 + 1] = attribute.getLocalName();
+					attributes[i * 4 + 2] = attribute.getName();
+					attributes[i * 4 + 3] = attribute.getValue();
+				}
+			}
+			ElementRecord result = new ElementRecord(element.getNamespaceURI(), element.getLocalName(), attributes);
+			if (readText) {
+				result.setText(DOMUtil.getTextChildrenContent(element), element.getTextContent());
+			}
+			return result;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+
+		public String getLocalName() {
+			return localName;
+		}
+
+		/**
+		 * The value of the attribute with the given qualified name.
+		 *
+		 * @param qualifiedName
+		 * @return the empty string if not found, like the DOM does.
+		 */
+		public String getAttribute(String qualifiedName) {
+			for (int i = 0; i < attributes.length; i += 4) {
+				if (qualifiedName.equals(attributes[i + 2])) {
+					return attributes[i + 3];
+				}
+			}
+			return "";
+		}
+
+		/**
+		 * The value of the attribute with the given namespace and local name.
+		 *
+		 * @param namespace
+		 * @param localName
+		 * @return the empty string if not found, like the DOM does.
+		 */
+		public String getAttributeNS(String namespace, String localName) {
+			for (int i = 0; i < attributes.length; i += 4) {
+				if (localName.equals(attributes[i + 1]) && namespace.equals(attributes[i])) {
+					return attributes[i + 3];
+				}
+			}
+			return "";
+		}
+
+		/**
+		 * First tries to get the attribute value with the given namespace, if that is empty it gets the one without namespace.
+		 *
+		 * @see nl.siegmann.epublib.epub.DOMUtil#getAttribute(Element, String, String)
+		 *
+		 * @param namespace
+		 * @param attribute
+		 * @return
+		 */
+		public String getAttribute(String namespace, String attribute) {
+			String result = getAttributeNS(namespace, attribute);
+			if (StringUtil.isEmpty(result)) {
+				result = getAttribute(attribute);
+			}
+			return result;
+		}
+
+		public int getAttributeCount() {
+			return attributes.length / 4;
+		}
+
+		public String getAttributeName(int index) {
+			return attributes[index * 4 + 2];
+		}
+
+		public String getAttributeValue(int index) {
+			return attributes[index * 4 + 3];
+		}
+
+		void setText(String textChildrenContent, String textContent) {
+			this.textChildrenContent = textChildrenContent;
+			this.textContent = textContent;
+		}
+
+		/**
+		 * The trimmed contents of the Text nodes that are children of this element.
+		 *
+		 * @see nl.siegmann.epublib.epub.DOMUtil#getTextChildrenContent(Element)
+		 * @return
+		 */
+		public String getTextChildrenContent() {
+			return textChildrenContent;
+		}
+
+		/**
+		 * The text of this element and its descendants.
+		 *
+		 * @see org.w3c.dom.Node#getTextContent()
+		 * @return
+		 */
+		public String getTextContent() {
+			return textContent;
+		}
+	}
+}
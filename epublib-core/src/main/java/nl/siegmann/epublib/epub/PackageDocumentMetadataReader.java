@@ -4,7 +4,9 @@ import nl.siegmann.epublib.domain.*;
 import nl.siegmann.epublib.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.*;
+import nl.siegmann.epublib.epub.PackageDocumentContents.ElementRecord;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -27,36 +29,37 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
             DCAttributes.id, DCAttributes.scheme, DCAttributes.lang);
 
 	public static Metadata readMetadata(Document packageDocument, Resources resources) {
+		return readMetadata(PackageDocumentContents.fromDocument(packageDocument));
+	}
+
+	static Metadata readMetadata(PackageDocumentContents packageDocument) {
 		Metadata result = new Metadata();
-		Element metadataElement = DOMUtil.getFirstElementByTagNameNS(packageDocument.getDocumentElement(), NAMESPACE_OPF, OPFTags.metadata);
-		if(metadataElement == null) {
+		if(! packageDocument.metadataFound) {
 			log.error("Package does not contain element " + OPFTags.metadata);
 			return result;
 		}
-        result.setIdentifiers(readIdentifiers(metadataElement));
-        result.setTitles(readDcmesElements(DCTags.title, metadataElement, result));
-        result.setLanguages(readDcmesElements(DCTags.language, metadataElement, result));
-        result.setContributors(readContributors(metadataElement, result));
-        result.setAuthors(readCreators(metadataElement, result));
-        result.setDates(readDates(metadataElement));
-        result.setSource(readDcmesElement(DCTags.source, metadataElement, result));
-        result.setTypes(readDcmesElements(DCTags.type, metadataElement, result));
-        result.setPublishers(readDcmesElements(DCTags.publisher, metadataElement, result));
-		result.setDescriptions(readDcmesElements(DCTags.description, metadataElement, result));
-		result.setRights(readDcmesElements(DCTags.rights, metadataElement, result));
-		result.setSubjects(readDcmesElements(DCTags.subject, metadataElement, result));
-        result.setMetas(readMetas(metadataElement));
+        result.setIdentifiers(readIdentifiers(packageDocument));
+        result.setTitles(readDcmesElements(DCTags.title, packageDocument, result));
+        result.setLanguages(readDcmesElements(DCTags.language, packageDocument, result));
+        result.setContributors(readContributors(packageDocument, result));
+        result.setAuthors(readCreators(packageDocument, result));
+        result.setDates(readDates(packageDocument));
+        result.setSource(readDcmesElement(DCTags.source, packageDocument, result));
+        result.setTypes(readDcmesElements(DCTags.type, packageDocument, result));
+        result.setPublishers(readDcmesElements(DCTags.publisher, packageDocument, result));
+		result.setDescriptions(readDcmesElements(DCTags.description, packageDocument, result));
+		result.setRights(readDcmesElements(DCTags.rights, packageDocument, result));
+		result.setSubjects(readDcmesElements(DCTags.subject, packageDocument, result));
+        result.setMetas(readMetas(packageDocument));
         resolveRefines(result.getMetas(), result);
-        result.setLinks(readLinks(metadataElement));
+        result.setLinks(readLinks(packageDocument));
 
 		return result;
 	}
 
-    private static List<Link> readLinks(Element metadataElement) {
-        NodeList nodeList = metadataElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.link);
+    private static List<Link> readLinks(PackageDocumentContents packageDocument) {
         List<Link> result = new ArrayList<Link>();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Element element = (Element) nodeList.item(i);
+        for (ElementRecord element: packageDocument.links) {
             Link link = new Link();
             link.setHref(element.getAttribute(DCAttributes.href));
             link.setRel(element.getAttribute(DCAttributes.rel));
@@ -84,11 +87,9 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
         }
     }
 
-    private static List<DcmesElement> readDcmesElements(String tag, Element metadataElement, Metadata metadata) {
-        NodeList nodeList = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, tag);
+    private static List<DcmesElement> readDcmesElements(String tag, PackageDocumentContents packageDocument, Metadata metadata) {
         List<DcmesElement> result = new ArrayList<DcmesElement>();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Element element = (Element) nodeList.item(i);
+        for (ElementRecord element: packageDocument.getDublinCoreElements(tag)) {
             DcmesElement dcmes = makeDcmesElement(element);
             result.add(dcmes);
             metadata.addDcmesMap(dcmes.getId(), dcmes);
@@ -96,18 +97,18 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
         return result;
     }
 
-    private static DcmesElement makeDcmesElement(Element element) {
+    private static DcmesElement makeDcmesElement(ElementRecord element) {
         DcmesElement dcmes = new DcmesElement();
         readDcmesCommonProperties(element, dcmes);
         dcmes.setValue(element.getTextContent());
         return dcmes;
     }
 
-    private static DcmesElement readDcmesElement(String tag, Element metadataElement, Metadata metadata) {
-        NodeList nodeList = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, tag);
-        if (nodeList.getLength() < 1)
+    private static DcmesElement readDcmesElement(String tag, PackageDocumentContents packageDocument, Metadata metadata) {
+        List<ElementRecord> elements = packageDocument.getDublinCoreElements(tag);
+        if (elements.size() < 1)
             return null;
-        Element element = (Element) nodeList.item(0);
+        ElementRecord element = elements.get(0);
         DcmesElement dcmes = makeDcmesElement(element);
         metadata.addDcmesMap(dcmes.getId(), dcmes);
         return dcmes;
@@ -116,15 +117,13 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
     /**
 	 * consumes meta tags that have a property attribute as defined in the standard. For example:
 	 * &lt;meta property="rendition:layout"&gt;pre-paginated&lt;/meta&gt;
-	 * @param metadataElement metadataElement
+	 * @param packageDocument packageDocument
 	 * @return Meta list
 	 */
-	private static List<Meta> readMetas(Element metadataElement) {
+	private static List<Meta> readMetas(PackageDocumentContents packageDocument) {
 		List<Meta> result = new ArrayList<Meta>();
 		
-		NodeList metaTags = metadataElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.meta);
-		for (int i = 0; i < metaTags.getLength(); i++) {
-			Element element = (Element) metaTags.item(i);
+		for (ElementRecord element: packageDocument.metas) {
             String id = element.getAttribute(DCAttributes.id);
             String property = element.getAttribute(DCAttributes.property);
             Meta meta = new Meta();
@@ -143,36 +142,29 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
 		return result;
 	}
 
-    private static void readCustomProperties(Element element, Meta meta) {
-        NamedNodeMap attributes = element.getAttributes();
-        for (int i = 0; i < attributes.getLength(); i++) {
-            Node item = attributes.item(i);
-            meta.addCustomProperties(item.getNodeName(), item.getNodeValue());
+    private static void readCustomProperties(ElementRecord element, Meta meta) {
+        for (int i = 0; i < element.getAttributeCount(); i++) {
+            meta.addCustomProperties(element.getAttributeName(i), element.getAttributeValue(i));
         }
     }
 
 
-    private static String getBookIdId(Document document) {
-        Element packageElement = document.getDocumentElement();
-        if(packageElement == null) {
-            return null;
-        }
-        return packageElement.getAttribute(OPFAttributes.uniqueIdentifier);
+    private static String getBookIdId(PackageDocumentContents packageDocument) {
+        return packageDocument.packageElement.getAttribute(OPFAttributes.uniqueIdentifier);
 	}
 		
-	private static List<Author> readCreators(Element metadataElement, Metadata result) {
-		return readAuthors(DCTags.creator, metadataElement, result);
+	private static List<Author> readCreators(PackageDocumentContents packageDocument, Metadata result) {
+		return readAuthors(DCTags.creator, packageDocument, result);
 	}
 	
-	private static List<Author> readContributors(Element metadataElement, Metadata result) {
-		return readAuthors(DCTags.contributor, metadataElement, result);
+	private static List<Author> readContributors(PackageDocumentContents packageDocument, Metadata result) {
+		return readAuthors(DCTags.contributor, packageDocument, result);
 	}
 	
-	private static List<Author> readAuthors(String authorTag, Element metadataElement, Metadata metadata) {
-		NodeList elements = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, authorTag);
-		List<Author> result = new ArrayList<Author>(elements.getLength());
-		for(int i = 0; i < elements.getLength(); i++) {
-			Element authorElement = (Element) elements.item(i);
+	private static List<Author> readAuthors(String authorTag, PackageDocumentContents packageDocument, Metadata metadata) {
+		List<ElementRecord> elements = packageDocument.getDublinCoreElements(authorTag);
+		List<Author> result = new ArrayList<Author>(elements.size());
+		for(ElementRecord authorElement: elements) {
 			Author author = createAuthor(authorElement);
 			if (author != null) {
 				result.add(author);
@@ -183,14 +175,13 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
 		
 	}
 
-	private static List<Date> readDates(Element metadataElement) {
-		NodeList elements = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, DCTags.date);
-		List<Date> result = new ArrayList<Date>(elements.getLength());
-		for(int i = 0; i < elements.getLength(); i++) {
-			Element dateElement = (Element) elements.item(i);
+	private static List<Date> readDates(PackageDocumentContents packageDocument) {
+		List<ElementRecord> elements = packageDocument.getDublinCoreElements(DCTags.date);
+		List<Date> result = new ArrayList<Date>(elements.size());
+		for(ElementRecord dateElement: elements) {
 			Date date;
 			try {
-				date = new Date(DOMUtil.getTextChildrenContent(dateElement), dateElement.getAttributeNS(NAMESPACE_OPF, OPFAttributes.event));
+				date = new Date(dateElement.getTextChildrenContent(), dateElement.getAttributeNS(NAMESPACE_OPF, OPFAttributes.event));
                 readDcmesCommonProperties(dateElement, date);
 				result.add(date);
 			} catch(IllegalArgumentException e) {
@@ -201,8 +192,8 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
 		
 	}
 
-	private static Author createAuthor(Element authorElement) {
-		String authorString = DOMUtil.getTextChildrenContent(authorElement);
+	private static Author createAuthor(ElementRecord authorElement) {
+		String authorString = authorElement.getTextChildrenContent();
 		if (StringUtil.isBlank(authorString)) {
 			return null;
 		}
@@ -219,6 +210,12 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
 	}
 
     public static void readDcmesCommonProperties(Element element, DcmesElement result) {
+        if (element == null)
+            return;
+        readDcmesCommonProperties(ElementRecord.fromElement(element, false), result);
+    }
+
+    static void readDcmesCommonProperties(ElementRecord element, DcmesElement result) {
         if (element == null)
             return;
         result.setId(element.getAttributeNS(NAMESPACE_OPF, DCAttributes.id));
@@ -227,18 +224,17 @@ class PackageDocumentMetadataReader extends PackageDocumentBase {
     }
 
 
-    private static List<Identifier> readIdentifiers(Element metadataElement) {
-		NodeList identifierElements = metadataElement.getElementsByTagNameNS(NAMESPACE_DUBLIN_CORE, DCTags.identifier);
-		if(identifierElements.getLength() == 0) {
+    private static List<Identifier> readIdentifiers(PackageDocumentContents packageDocument) {
+		List<ElementRecord> identifierElements = packageDocument.getDublinCoreElements(DCTags.identifier);
+		if(identifierElements.size() == 0) {
 			log.error("Package does not contain element " + DCTags.identifier);
 			return new ArrayList<Identifier>();
 		}
-		String bookIdId = getBookIdId(metadataElement.getOwnerDocument());
-		List<Identifier> result = new ArrayList<Identifier>(identifierElements.getLength());
-		for(int i = 0; i < identifierElements.getLength(); i++) {
-			Element identifierElement = (Element) identifierElements.item(i);
+		String bookIdId = getBookIdId(packageDocument);
+		List<Identifier> result = new ArrayList<Identifier>(identifierElements.size());
+		for(ElementRecord identifierElement: identifierElements) {
 			String schemeName = identifierElement.getAttributeNS(NAMESPACE_OPF, DCAttributes.scheme);
-			String identifierValue = DOMUtil.getTextChildrenContent(identifierElement);
+			String identifierValue = identifierElement.getTextChildrenContent();
 			if (StringUtil.isBlank(identifierValue)) {
 				continue;
 			}
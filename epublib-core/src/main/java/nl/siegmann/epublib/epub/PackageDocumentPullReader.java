@@ -0,0 +1,368 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.siegmann.epublib.epub.PackageDocumentContents.ElementRecord;
+import nl.siegmann.epublib.util.StringUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the contents of a package document in a single pass, without building a DOM.
+ *
+ * Only the elements that the PackageDocumentReader and the PackageDocumentMetadataReader need are kept,
+ * and only those inside the metadata keep their text.
+ *
+ * The parser is used without namespace processing, the namespaces are resolved here instead.
+ * This way the namespace declarations are available as attributes, just like in the DOM.
+ *
+ * Documents that use entities other than the predefined XML ones can not be read this way;
+ * a XmlPullParserException is thrown and the package document should be read using the DOM.
+ *
+ * @see nl.siegmann.epublib.epub.PackageDocumentContents
+ *
+ * @author paul
+ *
+ */
+// package
+class PackageDocumentPullReader extends PackageDocumentBase {
+
+	private static final String NAMESPACE_XML = "http://www.w3.org/XML/1998/namespace";
+	private static final String NAMESPACE_XMLNS = "http://www.w3.org/2000/xmlns/";
+	private static final String XMLNS = "xmlns";
+
+	private final PackageDocumentContents result = new PackageDocumentContents();
+
+	/**
+	 * The declared namespaces as prefix, namespace pairs.
+	 */
+	private final List<String> namespaces = new ArrayList<String>();
+
+	/**
+	 * Per open element the number of entries in the namespaces list before the element was opened.
+	 */
+	private int[] namespacesSizes = new int[16];
+
+	/**
+	 * Per open element the TextCollector that collects its text, null if its text is not needed.
+	 */
+	private final List<TextCollector> openElements = new ArrayList<TextCollector>();
+	private int nrOpenTextCollectors = 0;
+
+	private int metadataDepth = -1;
+	private int manifestDepth = -1;
+	private int guideDepth = -1;
+	private int bindingsDepth = -1;
+
+	private PackageDocumentPullReader() {
+	}
+
+	/**
+	 * Reads the package document from the given Reader.
+	 *
+	 * @param reader
+	 * @return the contents of the package document.
+	 * @throws XmlPullParserException if the document can not be parsed.
+	 * @throws IOException
+	 */
+	public static PackageDocumentContents read(Reader reader) throws XmlPullParserException, IOException {
+		XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+		XmlPullParser parser = xmlParserPool.acquireXmlPullParser();
+		try {
+			parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+			parser.setInput(reader);
+			return new PackageDocumentPullReader().read(parser);
+		} finally {
+			xmlParserPool.release(parser);
+		}
+	}
+
+	private PackageDocumentContents read(XmlPullParser parser) throws XmlPullParserException, IOException {
+		for (int eventType = parser.nextToken(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.nextToken()) {
+			switch (eventType) {
+				case XmlPullParser.START_TAG:
+					startElement(parser);
+					break;
+				case XmlPullParser.END_TAG:
+					endElement();
+					break;
+				case XmlPullParser.TEXT:
+				case XmlPullParser.ENTITY_REF:
+				case XmlPullParser.IGNORABLE_WHITESPACE:
+					addText(parser.getText(), true);
+					break;
+				case XmlPullParser.CDSECT:
+					// CDATA sections are part of the text content, but they are not Text nodes
+					addText(parser.getText(), false);
+					break;
+				default:
+					break;
+			}
+		}
+		return result;
+	}
+
+	private void startElement(XmlPullParser parser) throws XmlPullParserException {
+		int depth = openElements.size();
+		if (depth == namespacesSizes.length) {
+			int[] newNamespacesSizes = new int[depth * 2];
+			System.arraycopy(namespacesSizes, 0, newNamespacesSizes, 0, depth);
+			namespacesSizes = newNamespacesSizes;
+		}
+		namespacesSizes[depth] = namespaces.size();
+
+		int attributeCount = parser.getAttributeCount();
+		for (int i = 0; i < attributeCount; i++) {
+			String attributeName = parser.getAttributeName(i);
+			if (XMLNS.equals(attributeName)) {
+				namespaces.add("");
+				namespaces.add(parser.getAttributeValue(i));
+			} else if (attributeName.startsWith("xmlns:")) {
+				namespaces.add(attributeName.substring(XMLNS.length() + 1));
+				namespaces.add(parser.getAttributeValue(i));
+			}
+		}
+
+		String qualifiedName = parser.getName();
+		String prefix = "";
+		String localName = qualifiedName;
+		int colonPos = qualifiedName.indexOf(':');
+		if (colonPos > 0) {
+			prefix = qualifiedName.substring(0, colonPos);
+			localName = qualifiedName.substring(colonPos + 1);
+		}
+		String namespace = getNamespace(prefix, parser);
+
+		TextCollector textCollector = null;
+		if (depth == 0) {
+			result.packageElement = createRecord(namespace, localName, parser);
+		} else if (NAMESPACE_OPF.equals(namespace)) {
+			textCollector = startOpfElement(localName, depth, parser);
+		} else if (NAMESPACE_DUBLIN_CORE.equals(namespace) && metadataDepth >= 0) {
+			ElementRecord record = createRecord(namespace, localName, parser);
+			result.addDublinCoreElement(record);
+			textCollector = new TextCollector(record);
+		}
+		if (NAMESPACE_OPF.equals(namespace)) {
+			findCoverHints(localName, parser);
+			if (depth == 0) {
+				// the document element is only part of the document wide searches
+				if (OPFTags.item.equals(localName)) {
+					result.items.add(result.packageElement);
+				} else if (OPFTags.itemref.equals(localName)) {
+					result.itemrefs.add(result.packageElement);
+				}
+			}
+		}
+		openElements.add(textCollector);
+		if (textCollector != null) {
+			nrOpenTextCollectors++;
+		}
+	}
+
+	private TextCollector startOpfElement(String localName, int depth, XmlPullParser parser) throws XmlPullParserException {
+		TextCollector textCollector = null;
+		if (OPFTags.metadata.equals(localName)) {
+			if (! result.metadataFound) {
+				result.metadataFound = true;
+				metadataDepth = depth;
+			}
+		} else if (OPFTags.manifest.equals(localName)) {
+			if (! result.manifestFound) {
+				result.manifestFound = true;
+				manifestDepth = depth;
+			}
+		} else if (OPFTags.guide.equals(localName)) {
+			if (! result.guideFound) {
+				result.guideFound = true;
+				guideDepth = depth;
+			}
+		} else if (OPFTags.bindings.equals(localName)) {
+			if (! result.bindingsFound) {
+				result.bindingsFound = true;
+				bindingsDepth = depth;
+			}
+		} else if (OPFTags.spine.equals(localName)) {
+			if (result.spineElement == null) {
+				result.spineElement = createRecord(NAMESPACE_OPF, localName, parser);
+			}
+		} else if (OPFTags.item.equals(localName)) {
+			ElementRecord record = createRecord(NAMESPACE_OPF, localName, parser);
+			result.items.add(record);
+			if (manifestDepth >= 0) {
+				result.manifestItems.add(record);
+			}
+		} else if (OPFTags.itemref.equals(localName)) {
+			result.itemrefs.add(createRecord(NAMESPACE_OPF, localName, parser));
+		} else if (OPFTags.reference.equals(localName)) {
+			if (guideDepth >= 0) {
+				result.guideReferences.add(createRecord(NAMESPACE_OPF, localName, parser));
+			}
+		} else if (OPFTags.mediaType.equals(localName)) {
+			if (bindingsDepth >= 0) {
+				result.bindingsMediaTypes.add(createRecord(NAMESPACE_OPF, localName, parser));
+			}
+		} else if (OPFTags.meta.equals(localName)) {
+			if (metadataDepth >= 0) {
+				ElementRecord record = createRecord(NAMESPACE_OPF, localName, parser);
+				result.metas.add(record);
+				textCollector = new TextCollector(record);
+			}
+		} else if (OPFTags.link.equals(localName)) {
+			if (metadataDepth >= 0) {
+				result.links.add(createRecord(NAMESPACE_OPF, localName, parser));
+			}
+		}
+		return textCollector;
+	}
+
+	/**
+	 * Looks for the cover hints in the whole document, like DOMUtil.getFindAttributeValue does.
+	 */
+	private void findCoverHints(String localName, XmlPullParser parser) {
+		if (result.coverMetaContent == null && OPFTags.meta.equals(localName)) {
+			String content = getAttributeValue(parser, OPFAttributes.content);
+			if (OPFValues.meta_cover.equalsIgnoreCase(getAttributeValue(parser, OPFAttributes.name))
+					&& StringUtil.isNotBlank(content)) {
+				result.coverMetaContent = content;
+			}
+		} else if (result.coverReferenceHref == null && OPFTags.reference.equals(localName)) {
+			String href = getAttributeValue(parser, OPFAttributes.href);
+			if (OPFValues.reference_cover.equalsIgnoreCase(getAttributeValue(parser, OPFAttributes.type))
+					&& StringUtil.isNotBlank(href)) {
+				result.coverReferenceHref = href;
+			}
+		}
+	}
+
+	/**
+	 * The value of the attribute with the given qualified name, the empty string if not found.
+	 */
+	private static String getAttributeValue(XmlPullParser parser, String qualifiedName) {
+		for (int i = 0; i < parser.getAttributeCount(); i++) {
+			if (qualifiedName.equals(parser.getAttributeName(i))) {
+				return normalizeAttributeValue(parser.getAttributeValue(i));
+			}
+		}
+		return "";
+	}
+
+	private void endElement() {
+		int depth = openElements.size() - 1;
+		TextCollector textCollector = openElements.remove(depth);
+		if (textCollector != null) {
+			textCollector.finish();
+			nrOpenTextCollectors--;
+		}
+		int namespacesSize = namespacesSizes[depth];
+		while (namespaces.size() > namespacesSize) {
+			namespaces.remove(namespaces.size() - 1);
+		}
+		if (depth == metadataDepth) {
+			metadataDepth = -1;
+		} else if (depth == manifestDepth) {
+			manifestDepth = -1;
+		} else if (depth == guideDepth) {
+			guideDepth = -1;
+		} else if (depth == bindingsDepth) {
+			bindingsDepth = -1;
+		}
+	}
+
+	private void addText(String text, boolean isTextNode) {
+		if (nrOpenTextCollectors == 0 || text == null) {
+			return;
+		}
+		int depth = openElements.size() - 1;
+		for (int i = depth; i >= 0; i--) {
+			TextCollector textCollector = openElements.get(i);
+			if (textCollector != null) {
+				textCollector.addText(text, isTextNode && i == depth);
+			}
+		}
+	}
+
+	private ElementRecord createRecord(String namespace, String localName, XmlPullParser parser) throws XmlPullParserException {
+		int attributeCount = parser.getAttributeCount();
+		String[] attributes = new String[attributeCount * 4];
+		for (int i = 0; i < attributeCount; i++) {
+			String qualifiedName = parser.getAttributeName(i);
+			String attributeNamespace;
+			String attributeLocalName;
+			int colonPos = qualifiedName.indexOf(':');
+			if (XMLNS.equals(qualifiedName)) {
+				attributeNamespace = NAMESPACE_XMLNS;
+				attributeLocalName = qualifiedName;
+			} else if (colonPos > 0) {
+				attributeNamespace = getNamespace(qualifiedName.substring(0, colonPos), parser);
+				attributeLocalName = qualifiedName.substring(colonPos + 1);
+			} else {
+				attributeNamespace = null;
+				attributeLocalName = qualifiedName;
+			}
+			attributes[i * 4] = attributeNamespace;
+			attributes[i * 4 + 1] = attributeLocalName;
+			attributes[i * 4 + 2] = qualifiedName;
+			attributes[i * 4 + 3] = normalizeAttributeValue(parser.getAttributeValue(i));
+		}
+		return new ElementRecord(namespace, localName, attributes);
+	}
+
+	private String getNamespace(String prefix, XmlPullParser parser) throws XmlPullParserException {
+		if (XMLNS.equals(prefix)) {
+			return NAMESPACE_XMLNS;
+		}
+		if ("xml".equals(prefix)) {
+			return NAMESPACE_XML;
+		}
+		for (int i = namespaces.size() - 2; i >= 0; i -= 2) {
+			if (prefix.equals(namespaces.get(i))) {
+				String result = namespaces.get(i + 1);
+				return StringUtil.isEmpty(result) ? null : result;
+			}
+		}
+		if (prefix.length() > 0) {
+			throw new XmlPullParserException("Undeclared namespace prefix " + prefix, parser, null);
+		}
+		return null;
+	}
+
+	/**
+	 * The parser already turns line breaks in attribute values into spaces, the DOM parser does the same with tabs.
+	 */
+	private static String normalizeAttributeValue(String value) {
+		if (value == null) {
+			return null;
+		}
+		return value.replace('\t', ' ');
+	}
+
+	/**
+	 * Collects the text of an element that is part of the metadata.
+	 */
+	private static class TextCollector {
+
+		private final ElementRecord record;
+		private final StringBuilder textChildrenContent = new StringBuilder();
+		private final StringBuilder textContent = new StringBuilder();
+
+		public TextCollector(ElementRecord record) {
+			this.record = record;
+		}
+
+		public void addText(String text, boolean isTextChild) {
+			textContent.append(text);
+			if (isTextChild) {
+				textChildrenContent.append(text);
+			}
+		}
+
+		public void finish() {
+			record.setText(textChildrenContent.toString().trim(), textContent.toString());
+		}
+	}
+}
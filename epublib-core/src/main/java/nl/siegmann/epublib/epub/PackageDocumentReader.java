@@ -2,6 +2,7 @@ package nl.siegmann.epublib.epub;
 
 import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.*;
+import nl.siegmann.epublib.epub.PackageDocumentContents.ElementRecord;
 import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.ResourceUtil;
 import nl.siegmann.epublib.util.StringUtil;
@@ -11,9 +12,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.*;
@@ -31,7 +34,7 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	
 	
 	public static void read(Resource packageResource, EpubReader epubReader, Book book, Resources resources) throws UnsupportedEncodingException, SAXException, IOException, ParserConfigurationException {
-		Document packageDocument = ResourceUtil.getAsDocument(packageResource);
+		PackageDocumentContents packageDocument = readContents(packageResource, epubReader);
 		String packageHref = packageResource.getHref();
 		resources = fixHrefs(packageHref, resources);
         readPackageProperties(packageDocument, book);
@@ -42,7 +45,7 @@ public class PackageDocumentReader extends PackageDocumentBase {
 		
 		readManifest(packageDocument, resources, book, idMapping);
         readCover(packageDocument, book);
-        book.setMetadata(PackageDocumentMetadataReader.readMetadata(packageDocument, book.getResources()));
+        book.setMetadata(PackageDocumentMetadataReader.readMetadata(packageDocument));
 		book.setSpine(readSpine(packageDocument, epubReader, book.getResources(), idMapping));
         book.setNavResource(readNav(book.getManifest()));
         book.setBindings(readBindings(packageDocument));
@@ -54,6 +57,29 @@ public class PackageDocumentReader extends PackageDocumentBase {
 		}
 	}
 
+	/**
+	 * Reads the parts of the package document that are needed to read the book.
+	 *
+	 * Uses a single streaming pass if the epubReader allows it, falls back to the DOM if that fails.
+	 *
+	 * @param packageResource
+	 * @param epubReader
+	 * @return
+	 */
+	static PackageDocumentContents readContents(Resource packageResource, EpubReader epubReader) throws UnsupportedEncodingException, SAXException, IOException, ParserConfigurationException {
+		if (epubReader == null || epubReader.isStreamingPackageReader()) {
+			Reader reader = packageResource.getReader();
+			try {
+				return PackageDocumentPullReader.read(reader);
+			} catch (XmlPullParserException e) {
+				log.error("Unable to stream package document " + packageResource.getHref() + ", reading it as DOM instead: " + e.getMessage());
+			} finally {
+				reader.close();
+			}
+		}
+		return PackageDocumentContents.fromDocument(ResourceUtil.getAsDocument(packageResource));
+	}
+
     private static String readPackageId(Metadata metadata) {
         String result = Identifier.getBookIdIdentifier(metadata.getIdentifiers()).getValue();
         for (Meta meta : metadata.getMetas()) {
@@ -67,16 +93,101 @@ public class PackageDocumentReader extends PackageDocumentBase {
         return result;
     }
 
-    private static void readPackageProperties(Document packageDocument, Book book) {
-        String version = packageDocument.getDocumentElement().getAttribute(OPFAttributes.version);
-        String uniqueId = packageDocument.getDocumentElement().getAttribute(OPFAttributes.uniqueIdentifier);
+    private static void readPackageProperties(PackageDocumentContents packageDocument, Book book) {
+        String version = packageDocument.packageElement.getAttribute(OPFAttributes.version);
         if (StringUtil.isNotBlank(version)) {
             book.setVersion(Version.findVersion(version));
         }
+        book.setUniqueId(readUniqueId(packageDocument));
+    }
+
+    private static String readUniqueId(PackageDocumentContents packageDocument) {
+        String uniqueId = packageDocument.packageElement.getAttribute(OPFAttributes.uniqueIdentifier);
         if (StringUtil.isBlank(uniqueId)) {
             uniqueId = BOOK_ID_ID;
         }
-        book.setUniqueId(uniqueId);
+        return uniqueId;
+    }
+
+    /**
+     * Reads the metadata, the cover hrefs and the number of spine items from the package document.
+     *
+     * Only the package document itself is read, none of the resources it refers to.
+     *
+     * @param packageResource
+     * @param epubReader
+     * @return
+     */
+    public static BookSummary readBookSummary(Resource packageResource, EpubReader epubReader) throws UnsupportedEncodingException, SAXException, IOException, ParserConfigurationException {
+        PackageDocumentContents packageDocument = readContents(packageResource, epubReader);
+        BookSummary result = new BookSummary();
+        result.setPackageHref(packageResource.getHref());
+        String version = packageDocument.packageElement.getAttribute(OPFAttributes.version);
+        if (StringUtil.isNotBlank(version)) {
+            result.setVersion(Version.findVersion(version));
+        }
+        result.setUniqueId(readUniqueId(packageDocument));
+        result.setMetadata(PackageDocumentMetadataReader.readMetadata(packageDocument));
+
+        // the manifest items, as far as needed to resolve the spine and the cover
+        Map<String, String> hrefsById = new HashMap<String, String>();
+        Map<String, MediaTypeProperty> mediaTypesByHref = new HashMap<String, MediaTypeProperty>();
+        Set<String> coverHrefs = new LinkedHashSet<String>();
+        addCoverHrefs(packageDocument, coverHrefs);
+        for (ElementRecord itemElement: packageDocument.manifestItems) {
+            String href = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.href);
+            try {
+                href = URLDecoder.decode(href, Constants.CHARACTER_ENCODING);
+            } catch (UnsupportedEncodingException e) {
+                log.error(e.getMessage());
+            }
+            hrefsById.put(itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.id), href);
+            String mediaTypeName = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.media_type);
+            mediaTypesByHref.put(href, MediatypeService.getMediaType(href, mediaTypeName));
+            String properties = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.properties);
+            if (ManifestItemProperties.findProperties(properties) == ManifestItemProperties.COVER_IMAGE) {
+                coverHrefs.add(href);
+            }
+        }
+
+        for (String coverHref: coverHrefs) {
+            coverHref = StringUtil.substringBefore(coverHref, Constants.FRAGMENT_SEPARATOR_CHAR);
+            MediaTypeProperty mediaTypeProperty = mediaTypesByHref.get(coverHref);
+            if (mediaTypeProperty == null) {
+                mediaTypeProperty = MediatypeService.determineMediaType(coverHref);
+            }
+            if (mediaTypeProperty == MediatypeService.XHTML) {
+                if (result.getCoverPageHref() == null) {
+                    result.setCoverPageHref(coverHref);
+                }
+            } else if (MediatypeService.isBitmapImage(mediaTypeProperty)) {
+                if (result.getCoverImageHref() == null) {
+                    result.setCoverImageHref(coverHref);
+                }
+            }
+        }
+
+        if (packageDocument.spineElement == null) {
+            // the spine will be generated from the xhtml resources
+            int spineSize = 0;
+            for (MediaTypeProperty mediaTypeProperty: mediaTypesByHref.values()) {
+                if (mediaTypeProperty == MediatypeService.XHTML) {
+                    spineSize++;
+                }
+            }
+            result.setSpineSize(spineSize);
+        } else {
+            int spineSize = 0;
+            for (ElementRecord spineItem: packageDocument.itemrefs) {
+                String itemref = spineItem.getAttribute(NAMESPACE_OPF, OPFAttributes.idref);
+                if (StringUtil.isNotBlank(itemref)
+                        && (hrefsById.containsKey(itemref) || mediaTypesByHref.containsKey(itemref))) {
+                    spineSize++;
+                }
+            }
+            result.setSpineSize(spineSize);
+        }
+        return result;
     }
 
 //	private static Resource readCoverImage(Element metadataElement, Resources resources) {
@@ -89,8 +200,11 @@ public class PackageDocumentReader extends PackageDocumentBase {
 //	}
 
     public static void readManifest(Document packageDocument, Resources resources, Book book, Map<String, String> idMapping) {
-        Element manifestElement = DOMUtil.getFirstElementByTagNameNS(packageDocument.getDocumentElement(), NAMESPACE_OPF, OPFTags.manifest);
-        if(manifestElement == null) {
+        readManifest(PackageDocumentContents.fromDocument(packageDocument), resources, book, idMapping);
+    }
+
+    static void readManifest(PackageDocumentContents packageDocument, Resources resources, Book book, Map<String, String> idMapping) {
+        if(! packageDocument.manifestFound) {
             log.error("Package document does not contain element " + OPFTags.manifest);
             return;
         }
@@ -98,20 +212,18 @@ public class PackageDocumentReader extends PackageDocumentBase {
         Manifest manifest = book.getManifest();
         book.setResources(manifest.getResources());
 
-        NodeList itemElements = manifestElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.item);
-        for(int i = 0; i < itemElements.getLength(); i++) {
-            Element itemElement = (Element) itemElements.item(i);
-            String id = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.id);
-            String href = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.href);
-            String properties = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.properties);
-            String fallback = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.fallback);
-            String mediaOverlay = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.mediaOverlay);
+        for(ElementRecord itemElement: packageDocument.manifestItems) {
+            String id = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.id);
+            String href = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.href);
+            String properties = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.properties);
+            String fallback = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.fallback);
+            String mediaOverlay = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.mediaOverlay);
             try {
                 href = URLDecoder.decode(href, Constants.CHARACTER_ENCODING);
             } catch (UnsupportedEncodingException e) {
                 log.error(e.getMessage());
             }
-            String mediaTypeName = DOMUtil.getAttribute(itemElement, NAMESPACE_OPF, OPFAttributes.media_type);
+            String mediaTypeName = itemElement.getAttribute(NAMESPACE_OPF, OPFAttributes.media_type);
             Resource resource = resources.remove(href);
             if(resource == null) {
                 log.error("resource with href '" + href + "' not found");
@@ -189,17 +301,14 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	 * @param book
 	 * @param resources
 	 */
-	private static void readGuide(Document packageDocument,
+	private static void readGuide(PackageDocumentContents packageDocument,
 			EpubReader epubReader, Book book, Resources resources) {
-		Element guideElement = DOMUtil.getFirstElementByTagNameNS(packageDocument.getDocumentElement(), NAMESPACE_OPF, OPFTags.guide);
-		if(guideElement == null) {
+		if(! packageDocument.guideFound) {
 			return;
 		}
 		Guide guide = book.getGuide();
-		NodeList guideReferences = guideElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.reference);
-		for (int i = 0; i < guideReferences.getLength(); i++) {
-			Element referenceElement = (Element) guideReferences.item(i);
-			String resourceHref = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.href);
+		for (ElementRecord referenceElement: packageDocument.guideReferences) {
+			String resourceHref = referenceElement.getAttribute(NAMESPACE_OPF, OPFAttributes.href);
 			if (StringUtil.isBlank(resourceHref)) {
 				continue;
 			}
@@ -208,12 +317,12 @@ public class PackageDocumentReader extends PackageDocumentBase {
 				log.error("Guide is referencing resource with href " + resourceHref + " which could not be found");
 				continue;
 			}
-			String type = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.type);
+			String type = referenceElement.getAttribute(NAMESPACE_OPF, OPFAttributes.type);
 			if (StringUtil.isBlank(type)) {
 				log.error("Guide is referencing resource with href " + resourceHref + " which is missing the 'type' attribute");
 				continue;
 			}
-			String title = DOMUtil.getAttribute(referenceElement, NAMESPACE_OPF, OPFAttributes.title);
+			String title = referenceElement.getAttribute(NAMESPACE_OPF, OPFAttributes.title);
 			if (GuideReference.COVER.equalsIgnoreCase(type)) {
 				continue; // cover is handled elsewhere
 			}
@@ -259,9 +368,9 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	 * @param idMapping
 	 * @return
 	 */
-	private static Spine readSpine(Document packageDocument, EpubReader epubReader, Resources resources, Map<String, String> idMapping) {
+	private static Spine readSpine(PackageDocumentContents packageDocument, EpubReader epubReader, Resources resources, Map<String, String> idMapping) {
 		
-		Element spineElement = DOMUtil.getFirstElementByTagNameNS(packageDocument.getDocumentElement(), NAMESPACE_OPF, OPFTags.spine);
+		ElementRecord spineElement = packageDocument.spineElement;
 		if (spineElement == null) {
 			log.error("Element " + OPFTags.spine + " not found in package document, generating one automatically");
 			return generateSpineFromResources(resources);
@@ -270,11 +379,9 @@ public class PackageDocumentReader extends PackageDocumentBase {
         result.setId(spineElement.getAttribute(OPFAttributes.id));
         result.setDirection(PageProgressionDirection.findDirection(spineElement.getAttribute(OPFAttributes.pageProgressionDirection)));
 		result.setTocResource(findTableOfContentsResource(spineElement, resources));
-		NodeList spineNodes = packageDocument.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.itemref);
-		List<SpineReference> spineReferences = new ArrayList<SpineReference>(spineNodes.getLength());
-		for(int i = 0; i < spineNodes.getLength(); i++) {
-			Element spineItem = (Element) spineNodes.item(i);
-			String itemref = DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.idref);
+		List<SpineReference> spineReferences = new ArrayList<SpineReference>(packageDocument.itemrefs.size());
+		for(ElementRecord spineItem: packageDocument.itemrefs) {
+			String itemref = spineItem.getAttribute(NAMESPACE_OPF, OPFAttributes.idref);
 			if(StringUtil.isBlank(itemref)) {
 				log.error("itemref with missing or empty idref"); // XXX
 				continue;
@@ -291,9 +398,9 @@ public class PackageDocumentReader extends PackageDocumentBase {
 			
 			SpineReference spineReference = new SpineReference(resource);
             spineReference.setIdref(itemref);
-            String properties = DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.properties);
+            String properties = spineItem.getAttribute(NAMESPACE_OPF, OPFAttributes.properties);
             spineReference.setProperties(SpineItemRefProperties.findProperties(properties));
-			if (OPFValues.no.equalsIgnoreCase(DOMUtil.getAttribute(spineItem, NAMESPACE_OPF, OPFAttributes.linear))) {
+			if (OPFValues.no.equalsIgnoreCase(spineItem.getAttribute(NAMESPACE_OPF, OPFAttributes.linear))) {
 				spineReference.setLinear(false);
 			}
 			spineReferences.add(spineReference);
@@ -312,16 +419,17 @@ public class PackageDocumentReader extends PackageDocumentBase {
     }
 
     public static Bindings readBindings(Document packageDocument) {
+        return readBindings(PackageDocumentContents.fromDocument(packageDocument));
+    }
+
+    static Bindings readBindings(PackageDocumentContents packageDocument) {
         Bindings result = new Bindings();
-        Element bindingsElement = DOMUtil.getFirstElementByTagNameNS(packageDocument.getDocumentElement(), NAMESPACE_OPF, OPFTags.bindings);
-        if (bindingsElement != null) {
-            NodeList nodeList = bindingsElement.getElementsByTagNameNS(NAMESPACE_OPF, OPFTags.mediaType);
-            for (int i = 0; i < nodeList.getLength(); i++) {
+        if (packageDocument.bindingsFound) {
+            for (ElementRecord element: packageDocument.bindingsMediaTypes) {
                 MediaType mediaType = new MediaType();
                 result.addMediaType(mediaType);
-                Element element = (Element) nodeList.item(i);
-                String mediaTypeName = DOMUtil.getAttribute(element, NAMESPACE_OPF, OPFAttributes.media_type);
-                String handler = DOMUtil.getAttribute(element, NAMESPACE_OPF, OPFAttributes.handler);
+                String mediaTypeName = element.getAttribute(NAMESPACE_OPF, OPFAttributes.media_type);
+                String handler = element.getAttribute(NAMESPACE_OPF, OPFAttributes.handler);
                 mediaType.setMediaTypeProperty(MediatypeService.getMediaTypeByName(mediaTypeName));
                 mediaType.setHandler(handler);
             }
@@ -364,8 +472,8 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	 * @param resources
 	 * @return
 	 */
-	private static Resource findTableOfContentsResource(Element spineElement, Resources resources) {
-		String tocResourceId = DOMUtil.getAttribute(spineElement, NAMESPACE_OPF, OPFAttributes.toc);
+	private static Resource findTableOfContentsResource(ElementRecord spineElement, Resources resources) {
+		String tocResourceId = spineElement.getAttribute(NAMESPACE_OPF, OPFAttributes.toc);
 		Resource tocResource = null;
 		if (StringUtil.isNotBlank(tocResourceId)) {
 			tocResource = resources.getByIdOrHref(tocResourceId);
@@ -405,18 +513,34 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	 */
 	// package
 	static Set<String> findCoverHrefs(Document packageDocument, Manifest manifest) {
+		return findCoverHrefs(PackageDocumentContents.fromDocument(packageDocument), manifest);
+	}
+
+	static Set<String> findCoverHrefs(PackageDocumentContents packageDocument, Manifest manifest) {
 		
 		Set<String> result = new HashSet<String>();
-		
+		addCoverHrefs(packageDocument, result);
+
+        for (ManifestItemReference reference : manifest.getReferences()) {
+            if (reference.getProperties() == ManifestItemProperties.COVER_IMAGE) {
+                result.add(reference.getResource().getHref());
+            }
+        }
+        return result;
+	}
+
+	/**
+	 * Adds the hrefs of the cover resources found in the meta tags and the guide references.
+	 *
+	 * @param packageDocument
+	 * @param result
+	 */
+	private static void addCoverHrefs(PackageDocumentContents packageDocument, Set<String> result) {
 		// try and find a meta tag with name = 'cover' and a non-blank id
-		String coverResourceId = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
-											OPFTags.meta, OPFAttributes.name, OPFValues.meta_cover,
-											OPFAttributes.content);
+		String coverResourceId = packageDocument.coverMetaContent;
 
 		if (StringUtil.isNotBlank(coverResourceId)) {
-			String coverHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
-					OPFTags.item, OPFAttributes.id, coverResourceId,
-					OPFAttributes.href);
+			String coverHref = packageDocument.findItemHref(coverResourceId);
 			if (StringUtil.isNotBlank(coverHref)) {
 				result.add(coverHref);
 			} else {
@@ -424,19 +548,10 @@ public class PackageDocumentReader extends PackageDocumentBase {
 			}
 		}
 		// try and find a reference tag with type is 'cover' and reference is not blank
-		String coverHref = DOMUtil.getFindAttributeValue(packageDocument, NAMESPACE_OPF,
-											OPFTags.reference, OPFAttributes.type, OPFValues.reference_cover,
-											OPFAttributes.href);
+		String coverHref = packageDocument.coverReferenceHref;
         if (StringUtil.isNotBlank(coverHref)) {
 			result.add(coverHref);
 		}
-
-        for (ManifestItemReference reference : manifest.getReferences()) {
-            if (reference.getProperties() == ManifestItemProperties.COVER_IMAGE) {
-                result.add(reference.getResource().getHref());
-            }
-        }
-        return result;
 	}
 
 	/**
@@ -446,7 +561,7 @@ public class PackageDocumentReader extends PackageDocumentBase {
 	 * @param book
 	 * @return
 	 */
-	private static void readCover(Document packageDocument, Book book) {
+	private static void readCover(PackageDocumentContents packageDocument, Book book) {
 		
 		Collection<String> coverHrefs = findCoverHrefs(packageDocument, book.getManifest());
 		for (String coverHref: coverHrefs) {
@@ -2,9 +2,16 @@ package nl.siegmann.epublib.epub;
 
 import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.ManifestItemReference;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.StringUtil;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 
 /**
@@ -17,6 +24,7 @@ public abstract class PackageDocumentWriter extends PackageDocumentBase {
 
     protected Book book;
     protected XmlSerializer serializer;
+    private GeneratedDocuments generatedDocuments;
 
     public PackageDocumentWriter(Book book, XmlSerializer serializer) {
         this.book = book;
@@ -81,4 +89,53 @@ public abstract class PackageDocumentWriter extends PackageDocumentBase {
     public Book getBook() {
         return book;
     }
+
+    /**
+     * Sets the table of contents and nav document generated for the epub file, they are written instead of the book's own.
+     *
+     * @param generatedDocuments
+     */
+    // package
+    void setGeneratedDocuments(GeneratedDocuments generatedDocuments) {
+        this.generatedDocuments = generatedDocuments;
+    }
+
+    /**
+     * The table of contents the spine refers to.
+     *
+     * @return
+     */
+    protected Resource getTocResource() {
+        if (generatedDocuments != null) {
+            return generatedDocuments.getTocResource();
+        }
+        return book.getSpine().getTocResource();
+    }
+
+    /**
+     * The manifest items ordered by href, so the same book always gives the same package document.
+     *
+     * @return
+     */
+    protected List<ManifestItemReference> getManifestReferences() {
+        List<ManifestItemReference> result;
+        if (generatedDocuments != null) {
+            result = generatedDocuments.getManifestReferences(book.getManifest().getReferences());
+        } else {
+            result = new ArrayList<ManifestItemReference>(book.getManifest().getReferences());
+        }
+        Collections.sort(result, new Comparator<ManifestItemReference>() {
+            public int compare(ManifestItemReference reference1, ManifestItemReference reference2) {
+                return getHref(reference1).compareTo(getHref(reference2));
+            }
+        });
+        return result;
+    }
+
+    private static String getHref(ManifestItemReference reference) {
+        if (reference.getResource() == null) {
+            return "";
+        }
+        return StringUtil.defaultIfNull(reference.getHref());
+    }
 }
\ No newline at end of file
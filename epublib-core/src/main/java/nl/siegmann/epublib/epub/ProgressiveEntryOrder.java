@@ -0,0 +1,124 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.StringUtil;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders the resources of a book for EntryOrder.PROGRESSIVE.
+ *
+ * Only spine items whose data is in memory are searched for the images they refer to,
+ * lazy resources are not loaded for it. Images that are not found that way end up with everything else.
+ *
+ * @author paul
+ *
+ */
+// package
+class ProgressiveEntryOrder {
+
+	private static final Logger log = LoggerFactory.getLogger(ProgressiveEntryOrder.class);
+
+	private static final Pattern REFERENCE_PATTERN = Pattern.compile("(?:src|href)\\s*=\\s*[\"']([^\"'#?]+)", Pattern.CASE_INSENSITIVE);
+
+	private static final MediaTypeProperty[] STYLE_MEDIA_TYPES = new MediaTypeProperty[] {
+		MediatypeService.CSS, MediatypeService.TTF, MediatypeService.OPENTYPE, MediatypeService.WOFF
+	};
+
+	private final Book book;
+	private final List<Resource> result = new ArrayList<Resource>();
+	private final Set<Resource> added = Collections.newSetFromMap(new IdentityHashMap<Resource, Boolean>());
+
+	private ProgressiveEntryOrder(Book book) {
+		this.book = book;
+	}
+
+	/**
+	 * The resources of the book in progressive order.
+	 *
+	 * @param book
+	 * @param resources the resources of the book, in the order in which the stylesheets and the rest are written.
+	 * @param documents the table of contents and nav document, written before all other resources.
+	 * @return
+	 */
+	public static List<Resource> order(Book book, Collection<Resource> resources, List<Resource> documents) {
+		ProgressiveEntryOrder entryOrder = new ProgressiveEntryOrder(book);
+		for (Resource document: documents) {
+			entryOrder.add(document);
+		}
+		for (Resource resource: resources) {
+			if (isStyle(resource.getMediaTypeProperty())) {
+				entryOrder.add(resource);
+			}
+		}
+		for (int i = 0; i < book.getSpine().size(); i++) {
+			Resource spineResource = book.getSpine().getResource(i);
+			if (entryOrder.add(spineResource)) {
+				entryOrder.addReferencedImages(spineResource);
+			}
+		}
+		for (Resource resource: resources) {
+			entryOrder.add(resource);
+		}
+		return entryOrder.result;
+	}
+
+	private static boolean isStyle(MediaTypeProperty mediaTypeProperty) {
+		for (MediaTypeProperty styleMediaType: STYLE_MEDIA_TYPES) {
+			if (styleMediaType == mediaTypeProperty) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean add(Resource resource) {
+		if (resource == null || ! added.add(resource)) {
+			return false;
+		}
+		result.add(resource);
+		return true;
+	}
+
+	private void addReferencedImages(Resource resource) {
+		if (! resource.isInitialized() || resource.getMediaTypeProperty() != MediatypeService.XHTML) {
+			return;
+		}
+		String html;
+		try {
+			html = new String(resource.getData(), StringUtil.defaultIfNull(resource.getInputEncoding(), Constants.CHARACTER_ENCODING));
+		} catch (IOException e) {
+			log.error(e.getMessage(), e);
+			return;
+		}
+		String path = FilenameUtils.getPathNoEndSeparator(resource.getHref());
+		Matcher matcher = REFERENCE_PATTERN.matcher(html);
+		while (matcher.find()) {
+			String href = FilenameUtils.concat(path, matcher.group(1));
+			if (href == null) {
+				continue;
+			}
+			Resource referencedResource = book.getResources().getByHref(FilenameUtils.separatorsToUnix(href));
+			if (referencedResource != null && (MediatypeService.isBitmapImage(referencedResource.getMediaTypeProperty())
+					|| referencedResource.getMediaTypeProperty() == MediatypeService.SVG)) {
+				add(referencedResource);
+			}
+		}
+	}
+}
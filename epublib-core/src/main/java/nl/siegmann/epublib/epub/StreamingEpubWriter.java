@@ -0,0 +1,260 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Guide;
+import nl.siegmann.epublib.domain.Metadata;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.util.zip.ZipArchiveWriter;
+
+/**
+ * Writes an epub file one resource at a time, without keeping the resources' data in memory.
+ *
+ * The mimetype and container are written when the StreamingEpubWriter is created.
+ * Every resource that is added is written to the epub file right away.
+ * Only a record of it is kept: a Resource with the same id, href, MediaType and title but without data.
+ * The table of contents, nav document and package document are written on close,
+ * so the memory needed depends on the number of resources and size of the table of contents, not on the size of the content.
+ *
+ * The records returned by the add methods can be used for the Guide and for TOCReferences.
+ * Resources that are added to the book's Resources directly are not written.
+ *
+ * Usage:
+ * <pre>
+ * StreamingEpubWriter epubWriter = new StreamingEpubWriter(out, Version.V3);
+ * epubWriter.getMetadata().addTitle(title);
+ * epubWriter.addResource(new Resource(css, "style.css"));
+ * for (Chapter chapter: chapters) {
+ *     epubWriter.addSection(chapter.getTitle(), new Resource(chapter.getHtml(), chapter.getHref()));
+ * }
+ * epubWriter.close();
+ * </pre>
+ *
+ * Not thread-safe.
+ *
+ * @author paul
+ *
+ */
+public class StreamingEpubWriter implements Closeable {
+
+	private final Version version;
+	private final Book book = new Book();
+	private final ZipArchiveWriter zipWriter;
+	private final CompressionPipeline pipeline;
+	private boolean indentXml = true;
+	private boolean closed = false;
+
+	public StreamingEpubWriter(OutputStream out) throws IOException {
+		this(out, Version.V2);
+	}
+
+	public StreamingEpubWriter(OutputStream out, Version version) throws IOException {
+		this(out, version, new CompressionPolicy());
+	}
+
+	/**
+	 * Starts the epub file by writing the mimetype and container.
+	 *
+	 * @param out is closed on close()
+	 * @param version the version of the package document and whether a nav document is written.
+	 * @param compressionPolicy
+	 * @throws IOException
+	 */
+	public StreamingEpubWriter(OutputStream out, Version version, CompressionPolicy compressionPolicy) throws IOException {
+		this.version = version;
+		this.zipWriter = new ZipArchiveWriter(out);
+		this.pipeline = new CompressionPipeline(zipWriter, null, compressionPolicy);
+		book.setVersion(version);
+		EpubWriter.writeMimeType(zipWriter);
+		EpubWriter.writeContainer(pipeline);
+		pipeline.flush();
+	}
+
+	/**
+	 * The metadata of the book, written to the package document on close.
+	 *
+	 * @return
+	 */
+	public Metadata getMetadata() {
+		return book.getMetadata();
+	}
+
+	/**
+	 * The guide of the book, written to the package document on close.
+	 *
+	 * @return
+	 */
+	public Guide getGuide() {
+		return book.getGuide();
+	}
+
+	/**
+	 * The book with the records of the resources that were written.
+	 *
+	 * @return
+	 */
+	public Book getBook() {
+		return book;
+	}
+
+	public boolean isIndentXml() {
+		return indentXml;
+	}
+
+	/**
+	 * Sets whether the table of contents, nav document and package document are indented. True by default.
+	 *
+	 * @param indentXml
+	 */
+	public void setIndentXml(boolean indentXml) {
+		this.indentXml = indentXml;
+	}
+
+	/**
+	 * Writes the resource and adds it to the manifest.
+	 *
+	 * @param resource
+	 * @return the record of the resource, with the id and href it got in the epub.
+	 * @throws IOException
+	 */
+	public Resource addResource(Resource resource) throws IOException {
+		Resource result = createRecord(resource);
+		book.addResource(result);
+		writeResource(result, resource);
+		return result;
+	}
+
+	/**
+	 * Writes the resource and adds it to the manifest and spine, without adding it to the table of contents.
+	 *
+	 * @param resource
+	 * @return the record of the resource, with the id and href it got in the epub.
+	 * @throws IOException
+	 */
+	public Resource addSpineResource(Resource resource) throws IOException {
+		Resource result = createRecord(resource);
+		book.addResource(result);
+		book.getSpine().addResource(result);
+		writeResource(result, resource);
+		return result;
+	}
+
+	/**
+	 * Writes the resource and adds it to the manifest, spine and table of contents.
+	 *
+	 * @param title
+	 * @param resource
+	 * @return the TOCReference to the record of the resource.
+	 * @throws IOException
+	 */
+	public TOCReference addSection(String title, Resource resource) throws IOException {
+		Resource record = createRecord(resource);
+		TOCReference result = book.addSection(title, record);
+		writeResource(record, resource);
+		return result;
+	}
+
+	/**
+	 * Writes the resource and adds it to the manifest, spine and as child of the given section to the table of contents.
+	 *
+	 * @param parentSection
+	 * @param title
+	 * @param resource
+	 * @return the TOCReference to the record of the resource.
+	 * @throws IOException
+	 */
+	public TOCReference addSection(TOCReference parentSection, String title, Resource resource) throws IOException {
+		Resource record = createRecord(resource);
+		TOCReference result = book.addSection(parentSection, title, record);
+		writeResource(record, resource);
+		return result;
+	}
+
+	/**
+	 * Writes the cover image.
+	 *
+	 * @param coverImage
+	 * @return the record of the cover image.
+	 * @throws IOException
+	 */
+	public Resource setCoverImage(Resource coverImage) throws IOException {
+		Resource result = createRecord(coverImage);
+		book.setCoverImage(result);
+		writeResource(result, coverImage);
+		return result;
+	}
+
+	/**
+	 * Writes the cover page.
+	 *
+	 * @param coverPage
+	 * @return the record of the cover page.
+	 * @throws IOException
+	 */
+	public Resource setCoverPage(Resource coverPage) throws IOException {
+		Resource result = createRecord(coverPage);
+		book.setCoverPage(result);
+		writeResource(result, coverPage);
+		return result;
+	}
+
+	/**
+	 * Writes the table of contents, the nav document for epub 3 and the package document and closes the epub file.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		boolean written = false;
+		try {
+			GeneratedDocuments documents = GeneratedDocuments.create(book, version, indentXml);
+			for (Resource document: documents.getResources()) {
+				pipeline.add("OEBPS/" + document.getHref(), document);
+			}
+			pipeline.add("OEBPS/content.opf", EpubWriter.createPackageDocument(book, version, documents, indentXml));
+			pipeline.flush();
+			written = true;
+		} finally {
+			pipeline.close();
+			if (written) {
+				zipWriter.close();
+			} else {
+				closeIncomplete();
+			}
+		}
+	}
+
+	/**
+	 * Closes the epub file after writing it failed, without hiding the exception that made it fail.
+	 */
+	private void closeIncomplete() {
+		try {
+			zipWriter.close();
+		} catch (Exception e) {
+			// the epub file is incomplete either way
+		}
+	}
+
+	private Resource createRecord(Resource resource) {
+		if (closed) {
+			throw new IllegalStateException("StreamingEpubWriter is closed");
+		}
+		if (book.getResources().containsByHref(resource.getHref())) {
+			throw new IllegalArgumentException("Resource with href " + resource.getHref() + " was already written");
+		}
+		Resource result = new Resource(resource.getId(), null, resource.getHref(), resource.getMediaTypeProperty(), resource.getInputEncoding());
+		result.setTitle(resource.getTitle());
+		return result;
+	}
+
+	private void writeResource(Resource record, Resource resource) throws IOException {
+		pipeline.add("OEBPS/" + record.getHref(), resource);
+		pipeline.flush();
+	}
+}
@@ -0,0 +1,522 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import nl.siegmann.epublib.Constants;
+
+import org.apache.commons.io.output.WriterOutputStream;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * An XmlSerializer that encodes UTF-8 straight into a byte buffer, without an OutputStreamWriter in between.
+ *
+ * Writes the same output as the kxml2 serializer, including the way it declares namespaces and indents,
+ * but only in UTF-8.
+ * Output to a Writer goes through a WriterOutputStream that decodes the UTF-8 again, so it is slower.
+ * Indenting is on by default and can be switched off with the indent-output feature for compact documents.
+ *
+ * A Utf8XmlSerializer can be reused for the next document by calling setOutput again,
+ * this keeps its buffer and namespace stacks.
+ *
+ * Not thread-safe.
+ *
+ * @author paul
+ *
+ */
+// package
+class Utf8XmlSerializer implements XmlSerializer {
+
+	static final String FEATURE_INDENT_OUTPUT = "http://xmlpull.org/v1/doc/features.html#indent-output";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final String LINE_SEPARATOR = "\r\n";
+	private static final String INDENT = "  ";
+
+	private OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int count = 0;
+	private boolean indentOutput = true;
+	private boolean pending;
+	private int auto;
+	private int depth;
+	private String encoding;
+	// namespace, prefix and name of every open element
+	private String[] elementStack = new String[12];
+	// the number of namespace declarations in scope per depth
+	private int[] nspCounts = new int[4];
+	// prefix and namespace of every declaration
+	private String[] nspStack = new String[8];
+	private boolean[] indent = new boolean[4];
+
+	public Utf8XmlSerializer() {
+	}
+
+	public Utf8XmlSerializer(OutputStream out, boolean indentOutput) {
+		this.indentOutput = indentOutput;
+		setOutput(out);
+	}
+
+	/**
+	 * Starts a new document on the given OutputStream.
+	 *
+	 * Whatever was not flushed to the previous OutputStream is discarded.
+	 *
+	 * @param out
+	 */
+	public void setOutput(OutputStream out) {
+		if (out == null) {
+			throw new IllegalArgumentException("out must not be null");
+		}
+		this.out = out;
+		count = 0;
+		nspCounts[0] = 2;
+		nspCounts[1] = 2;
+		nspStack[0] = "";
+		nspStack[1] = "";
+		nspStack[2] = "xml";
+		nspStack[3] = "http://www.w3.org/XML/1998/namespace";
+		indent[0] = indentOutput;
+		pending = false;
+		auto = 0;
+		depth = 0;
+		encoding = null;
+	}
+
+	/**
+	 * Drops the OutputStream and whatever was not flushed to it, until setOutput is called again.
+	 */
+	// package
+	void clearOutput() {
+		out = null;
+		count = 0;
+	}
+
+	public void setOutput(OutputStream os, String encoding) throws IOException {
+		if (encoding != null && ! Constants.CHARACTER_ENCODING.equalsIgnoreCase(encoding) && ! "UTF8".equalsIgnoreCase(encoding)) {
+			throw new UnsupportedEncodingException("Utf8XmlSerializer only writes " + Constants.CHARACTER_ENCODING + ", not " + encoding);
+		}
+		setOutput(os);
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Starts a new document on the given Writer.
+	 *
+	 * @param writer
+	 */
+	public void setOutput(Writer writer) {
+		if (writer == null) {
+			throw new IllegalArgumentException("writer must not be null");
+		}
+		setOutput(new WriterOutputStream(writer, Constants.CHARACTER_ENCODING));
+	}
+
+	public void setFeature(String name, boolean state) {
+		if (! FEATURE_INDENT_OUTPUT.equals(name)) {
+			throw new IllegalStateException("Unsupported feature " + name);
+		}
+		indentOutput = state;
+		indent[depth] = state;
+	}
+
+	public boolean getFeature(String name) {
+		return FEATURE_INDENT_OUTPUT.equals(name) && indent[depth];
+	}
+
+	public void setProperty(String name, Object value) {
+		throw new IllegalStateException("Unsupported property " + name);
+	}
+
+	public Object getProperty(String name) {
+		return null;
+	}
+
+	public void startDocument(String encoding, Boolean standalone) throws IOException {
+		write("<?xml version='1.0' ");
+		if (encoding != null) {
+			this.encoding = encoding;
+		}
+		if (this.encoding != null) {
+			write("encoding='");
+			write(this.encoding);
+			write("' ");
+		}
+		if (standalone != null) {
+			write("standalone='");
+			write(standalone.booleanValue() ? "yes" : "no");
+			write("' ");
+		}
+		write("?>");
+	}
+
+	public void endDocument() throws IOException {
+		while (depth > 0) {
+			endTag(elementStack[depth * 3 - 3], elementStack[depth * 3 - 1]);
+		}
+		flush();
+	}
+
+	public void setPrefix(String prefix, String namespace) throws IOException {
+		closeStartTag(false);
+		if (prefix == null) {
+			prefix = "";
+		}
+		if (namespace == null) {
+			namespace = "";
+		}
+		if (prefix.equals(getPrefix(namespace, true, false))) {
+			return;
+		}
+		int position = (nspCounts[depth + 1]++) << 1;
+		if (nspStack.length < position + 2) {
+			nspStack = Arrays.copyOf(nspStack, nspStack.length + 16);
+		}
+		nspStack[position] = prefix;
+		nspStack[position + 1] = namespace;
+	}
+
+	public String getPrefix(String namespace, boolean generatePrefix) {
+		return getPrefix(namespace, false, generatePrefix);
+	}
+
+	private String getPrefix(String namespace, boolean includeDefault, boolean create) {
+		for (int i = nspCounts[depth + 1] * 2 - 2; i >= 0; i -= 2) {
+			if (nspStack[i + 1].equals(namespace) && (includeDefault || ! nspStack[i].equals(""))) {
+				String candidate = nspStack[i];
+				// the prefix may have been redeclared for another namespace
+				for (int j = i + 2; j < nspCounts[depth + 1] * 2; j++) {
+					if (nspStack[j].equals(candidate)) {
+						candidate = null;
+						break;
+					}
+				}
+				if (candidate != null) {
+					return candidate;
+				}
+			}
+		}
+		if (! create) {
+			return null;
+		}
+		String prefix;
+		if ("".equals(namespace)) {
+			prefix = "";
+		} else {
+			do {
+				prefix = "n" + (auto++);
+				for (int i = nspCounts[depth + 1] * 2 - 2; i >= 0; i -= 2) {
+					if (prefix.equals(nspStack[i])) {
+						prefix = null;
+						break;
+					}
+				}
+			} while (prefix == null);
+		}
+		boolean wasPending = pending;
+		pending = false;
+		try {
+			setPrefix(prefix, namespace);
+		} catch (IOException e) {
+			// not pending, so nothing is written
+			throw new IllegalStateException(e);
+		}
+		pending = wasPending;
+		return prefix;
+	}
+
+	public int getDepth() {
+		return pending ? depth + 1 : depth;
+	}
+
+	public String getNamespace() {
+		return getDepth() == 0 ? null : elementStack[getDepth() * 3 - 3];
+	}
+
+	public String getName() {
+		return getDepth() == 0 ? null : elementStack[getDepth() * 3 - 1];
+	}
+
+	public XmlSerializer startTag(String namespace, String name) throws IOException {
+		closeStartTag(false);
+		if (indent[depth]) {
+			writeLineSeparator(depth);
+		}
+		int esp = depth * 3;
+		if (elementStack.length < esp + 3) {
+			elementStack = Arrays.copyOf(elementStack, elementStack.length + 12);
+		}
+		String prefix = namespace == null ? "" : getPrefix(namespace, true, true);
+		if ("".equals(namespace)) {
+			for (int i = nspCounts[depth]; i < nspCounts[depth + 1]; i++) {
+				if ("".equals(nspStack[i * 2]) && ! "".equals(nspStack[i * 2 + 1])) {
+					throw new IllegalStateException("Cannot set default namespace for elements in no namespace");
+				}
+			}
+		}
+		elementStack[esp] = namespace;
+		elementStack[esp + 1] = prefix;
+		elementStack[esp + 2] = name;
+		write('<');
+		if (! "".equals(prefix)) {
+			write(prefix);
+			write(':');
+		}
+		write(name);
+		pending = true;
+		return this;
+	}
+
+	public XmlSerializer attribute(String namespace, String name, String value) throws IOException {
+		if (! pending) {
+			throw new IllegalStateException("illegal position for attribute");
+		}
+		if (namespace == null) {
+			namespace = "";
+		}
+		String prefix = "".equals(namespace) ? "" : getPrefix(namespace, false, true);
+		write(' ');
+		if (! "".equals(prefix)) {
+			write(prefix);
+			write(':');
+		}
+		write(name);
+		write('=');
+		char quote = value.indexOf('"') == -1 ? '"' : '\'';
+		write(quote);
+		writeEscaped(value, quote);
+		write(quote);
+		return this;
+	}
+
+	public XmlSerializer endTag(String namespace, String name) throws IOException {
+		if (! pending) {
+			depth--;
+		}
+		if ((namespace == null && elementStack[depth * 3] != null)
+				|| (namespace != null && ! namespace.equals(elementStack[depth * 3]))
+				|| ! elementStack[depth * 3 + 2].equals(name)) {
+			throw new IllegalArgumentException("</{" + namespace + "}" + name + "> does not match start");
+		}
+		if (pending) {
+			closeStartTag(true);
+			depth--;
+		} else {
+			if (indent[depth + 1]) {
+				writeLineSeparator(depth);
+			}
+			write("</");
+			String prefix = elementStack[depth * 3 + 1];
+			if (! "".equals(prefix)) {
+				write(prefix);
+				write(':');
+			}
+			write(name);
+			write('>');
+		}
+		nspCounts[depth + 1] = nspCounts[depth];
+		return this;
+	}
+
+	public XmlSerializer text(String text) throws IOException {
+		closeStartTag(false);
+		// no whitespace is added to mixed content
+		indent[depth] = false;
+		writeEscaped(text, -1);
+		return this;
+	}
+
+	public XmlSerializer text(char[] buf, int start, int len) throws IOException {
+		return text(new String(buf, start, len));
+	}
+
+	public void ignorableWhitespace(String text) throws IOException {
+		text(text);
+	}
+
+	public void cdsect(String text) throws IOException {
+		closeStartTag(false);
+		write("<![CDATA[");
+		write(text);
+		write("]]>");
+	}
+
+	public void comment(String text) throws IOException {
+		closeStartTag(false);
+		write("<!--");
+		write(text);
+		write("-->");
+	}
+
+	public void processingInstruction(String text) throws IOException {
+		closeStartTag(false);
+		write("<?");
+		write(text);
+		write("?>");
+	}
+
+	public void entityRef(String text) throws IOException {
+		closeStartTag(false);
+		write('&');
+		write(text);
+		write(';');
+	}
+
+	public void docdecl(String text) throws IOException {
+		write("<!DOCTYPE");
+		write(text);
+		write('>');
+	}
+
+	public void flush() throws IOException {
+		closeStartTag(false);
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Writes the namespace declarations of the pending start tag and closes it.
+	 */
+	private void closeStartTag(boolean empty) throws IOException {
+		if (! pending) {
+			return;
+		}
+		depth++;
+		pending = false;
+		if (indent.length <= depth) {
+			indent = Arrays.copyOf(indent, depth + 4);
+		}
+		indent[depth] = indent[depth - 1];
+		for (int i = nspCounts[depth - 1]; i < nspCounts[depth]; i++) {
+			write(" xmlns");
+			if (! "".equals(nspStack[i * 2])) {
+				write(':');
+				write(nspStack[i * 2]);
+			} else if ("".equals(getNamespace()) && ! "".equals(nspStack[i * 2 + 1])) {
+				throw new IllegalStateException("Cannot set default namespace for elements in no namespace");
+			}
+			write("=\"");
+			writeEscaped(nspStack[i * 2 + 1], '"');
+			write('"');
+		}
+		if (nspCounts.length <= depth + 1) {
+			nspCounts = Arrays.copyOf(nspCounts, depth + 8);
+		}
+		nspCounts[depth + 1] = nspCounts[depth];
+		write(empty ? " />" : ">");
+	}
+
+	private void writeLineSeparator(int level) throws IOException {
+		write(LINE_SEPARATOR);
+		for (int i = 0; i < level; i++) {
+			write(INDENT);
+		}
+	}
+
+	/**
+	 * Writes the text with the markup characters escaped.
+	 *
+	 * @param quote the quote around the attribute value, -1 for text content.
+	 */
+	private void writeEscaped(String text, int quote) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '\n':
+				case '\r':
+				case '\t':
+					if (quote == -1) {
+						write(c);
+					} else {
+						writeCharacterReference(c);
+					}
+					break;
+				case '&':
+					write("&amp;");
+					break;
+				case '>':
+					write("&gt;");
+					break;
+				case '<':
+					write("&lt;");
+					break;
+				case '"':
+				case '\'':
+					if (c == quote) {
+						write(c == '"' ? "&quot;" : "&apos;");
+						break;
+					}
+					write(c);
+					break;
+				default:
+					if (c >= ' ' && c != '@') {
+						if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+							writeCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+						} else {
+							write(c);
+						}
+					} else {
+						writeCharacterReference(c);
+					}
+			}
+		}
+	}
+
+	private void writeCharacterReference(char c) throws IOException {
+		write("&#");
+		write(Integer.toString(c));
+		write(';');
+	}
+
+	private void write(String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+				writeCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+			} else {
+				write(c);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a char that is not part of a surrogate pair, unpaired surrogates become '?'.
+	 */
+	private void write(char c) throws IOException {
+		if (count + 3 > buffer.length) {
+			flushBuffer();
+		}
+		if (c < 0x80) {
+			buffer[count++] = (byte) c;
+		} else if (c < 0x800) {
+			buffer[count++] = (byte) (0xC0 | (c >> 6));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+			buffer[count++] = '?';
+		} else {
+			buffer[count++] = (byte) (0xE0 | (c >> 12));
+			buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buffer[count++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	private void writeCodePoint(int codePoint) throws IOException {
+		if (count + 4 > buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+		buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+		buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+		buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
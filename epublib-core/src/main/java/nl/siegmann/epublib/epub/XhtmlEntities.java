@@ -0,0 +1,113 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.util.IOUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * The named character entities of XHTML, like &amp;nbsp; and &amp;eacute;.
+ *
+ * They are read once from the entity sets that come with epublib's XHTML dtd's,
+ * and kept both as a table and as a small dtd that declares only these entities.
+ * That dtd can be given to a parser instead of the XHTML dtd and its modules.
+ *
+ * @author paul
+ *
+ */
+// package
+class XhtmlEntities {
+
+	private static final String[] ENTITY_SETS = {
+		"dtd/www.w3.org/TR/xhtml1/DTD/xhtml-lat1.ent",
+		"dtd/www.w3.org/TR/xhtml1/DTD/xhtml-symbol.ent",
+		"dtd/www.w3.org/TR/xhtml1/DTD/xhtml-special.ent"
+	};
+
+	// the character reference of &amp; and &lt; is escaped again, as in xhtml-special.ent
+	private static final Pattern ENTITY_PATTERN = Pattern.compile("<!ENTITY\\s+(\\w+)\\s+\"&#(?:38;#)?(\\d+);\"");
+
+	private static final Map<String, String> entities;
+	private static final byte[] dtd;
+
+	static {
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		StringBuilder dtdBuilder = new StringBuilder();
+		for (String entitySet: ENTITY_SETS) {
+			Matcher matcher = ENTITY_PATTERN.matcher(readEntitySet(entitySet));
+			while (matcher.find()) {
+				int codePoint = Integer.parseInt(matcher.group(2));
+				result.put(matcher.group(1), new String(Character.toChars(codePoint)));
+				dtdBuilder.append("<!ENTITY ").append(matcher.group(1)).append(" \"&#");
+				if (codePoint == '&' || codePoint == '<') {
+					dtdBuilder.append("38;#");
+				}
+				dtdBuilder.append(codePoint).append(";\">\n");
+			}
+		}
+		entities = Collections.unmodifiableMap(result);
+		try {
+			dtd = dtdBuilder.toString().getBytes(Constants.CHARACTER_ENCODING);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private XhtmlEntities() {
+	}
+
+	/**
+	 * The replacement text of every named XHTML entity, by name.
+	 *
+	 * @return
+	 */
+	public static Map<String, String> getEntities() {
+		return entities;
+	}
+
+	/**
+	 * A dtd that declares the named XHTML entities and nothing else.
+	 *
+	 * @return a new copy of the dtd.
+	 */
+	public static byte[] getDtd() {
+		return dtd.clone();
+	}
+
+	/**
+	 * Lets the given parser resolve the named XHTML entities, must be called after setInput.
+	 *
+	 * @param parser
+	 * @throws XmlPullParserException
+	 */
+	public static void defineEntities(XmlPullParser parser) throws XmlPullParserException {
+		for (Map.Entry<String, String> entity: entities.entrySet()) {
+			parser.defineEntityReplacementText(entity.getKey(), entity.getValue());
+		}
+	}
+
+	private static String readEntitySet(String path) {
+		InputStream in = XhtmlEntities.class.getClassLoader().getResourceAsStream(path);
+		if (in == null) {
+			throw new IllegalStateException("Entity set " + path + " not found");
+		}
+		try {
+			try {
+				return new String(IOUtil.toByteArray(in), Constants.CHARACTER_ENCODING);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Entity set " + path + " could not be read", e);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import nl.siegmann.epublib.util.StringUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Keeps DocumentBuilders, XmlPullParsers and XmlSerializers for reuse, creating them is expensive compared to parsing a small document.
+ *
+ * Whatever is acquired from the pool must be given back with release when it is no longer used, preferably in a finally block.
+ * At most maxIdle instances of every kind are kept, more are left to the garbage collector.
+ * A maxIdle of 0 turns pooling off.
+ *
+ * The counters show how often an instance was created, reused or discarded.
+ *
+ * This class is thread-safe, the instances it hands out are not.
+ *
+ * @see EpubProcessorSupport
+ *
+ * @author paul
+ *
+ */
+public class XmlParserPool {
+
+	/**
+	 * The default maximum number of idle instances of every kind.
+	 */
+	public static final int DEFAULT_MAX_IDLE = 8;
+
+	private static volatile XmlParserPool defaultPool = new XmlParserPool(DEFAULT_MAX_IDLE);
+
+	private final List<DocumentBuilder> documentBuilders = new ArrayList<DocumentBuilder>();
+	private final List<XmlPullParser> xmlPullParsers = new ArrayList<XmlPullParser>();
+	private final List<Utf8XmlSerializer> xmlSerializers = new ArrayList<Utf8XmlSerializer>();
+	private int maxIdle;
+	private long createCount = 0;
+	private long reuseCount = 0;
+	private long discardCount = 0;
+
+	/**
+	 * @param maxIdle the maximum number of idle instances of every kind, 0 to turn pooling off.
+	 */
+	public XmlParserPool(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * The pool used by epublib's readers and writers.
+	 *
+	 * @return
+	 */
+	public static XmlParserPool getDefault() {
+		return defaultPool;
+	}
+
+	public static void setDefault(XmlParserPool xmlParserPool) {
+		defaultPool = xmlParserPool;
+	}
+
+	/**
+	 * A DocumentBuilder that looks up dtd's and schema's from epublib's classpath.
+	 *
+	 * @see EpubProcessorSupport#createDocumentBuilder()
+	 *
+	 * @return null if no DocumentBuilder could be created.
+	 */
+	public DocumentBuilder acquireDocumentBuilder() {
+		DocumentBuilder result = poll(documentBuilders);
+		if (result == null) {
+			result = EpubProcessorSupport.createDocumentBuilder();
+		}
+		return result;
+	}
+
+	/**
+	 * A non-validating XmlPullParser, its features have to be set before every use.
+	 *
+	 * @return
+	 * @throws XmlPullParserException if no XmlPullParser implementation is available.
+	 */
+	public XmlPullParser acquireXmlPullParser() throws XmlPullParserException {
+		XmlPullParser result = poll(xmlPullParsers);
+		if (result == null) {
+			result = EpubProcessorSupport.createXmlPullParser();
+		}
+		return result;
+	}
+
+	/**
+	 * An XmlSerializer that encodes UTF-8 straight into the given OutputStream.
+	 *
+	 * @see EpubProcessorSupport#createXmlSerializer(OutputStream, boolean)
+	 *
+	 * @param out
+	 * @param indent
+	 * @return
+	 */
+	public XmlSerializer acquireXmlSerializer(OutputStream out, boolean indent) {
+		Utf8XmlSerializer result = poll(xmlSerializers);
+		if (result == null) {
+			return EpubProcessorSupport.createXmlSerializer(out, indent);
+		}
+		result.setFeature(Utf8XmlSerializer.FEATURE_INDENT_OUTPUT, indent);
+		result.setOutput(out);
+		return result;
+	}
+
+	public void release(DocumentBuilder documentBuilder) {
+		if (documentBuilder == null) {
+			return;
+		}
+		documentBuilder.reset();
+		// reset may or may not remove the EntityResolver
+		documentBuilder.setEntityResolver(EpubProcessorSupport.getEntityResolver());
+		offer(documentBuilders, documentBuilder);
+	}
+
+	public void release(XmlPullParser xmlPullParser) {
+		if (xmlPullParser == null) {
+			return;
+		}
+		try {
+			// lets go of the Reader
+			xmlPullParser.setInput(null);
+		} catch (Exception e) {
+			discard();
+			return;
+		}
+		offer(xmlPullParsers, xmlPullParser);
+	}
+
+	/**
+	 * Takes back an XmlSerializer, only the ones created by acquireXmlSerializer are kept.
+	 *
+	 * @param xmlSerializer
+	 */
+	public void release(XmlSerializer xmlSerializer) {
+		if (! (xmlSerializer instanceof Utf8XmlSerializer)) {
+			return;
+		}
+		Utf8XmlSerializer utf8XmlSerializer = (Utf8XmlSerializer) xmlSerializer;
+		utf8XmlSerializer.clearOutput();
+		offer(xmlSerializers, utf8XmlSerializer);
+	}
+
+	private synchronized <T> T poll(List<T> idle) {
+		if (idle.isEmpty()) {
+			createCount++;
+			return null;
+		}
+		reuseCount++;
+		return idle.remove(idle.size() - 1);
+	}
+
+	private synchronized <T> void offer(List<T> idle, T instance) {
+		if (idle.size() >= maxIdle) {
+			discardCount++;
+			return;
+		}
+		idle.add(instance);
+	}
+
+	private synchronized void discard() {
+		discardCount++;
+	}
+
+	/**
+	 * The maximum number of idle instances of every kind.
+	 *
+	 * @return
+	 */
+	public synchronized int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public synchronized void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+		for (List<?> idle: new List<?>[] {documentBuilders, xmlPullParsers, xmlSerializers}) {
+			while (idle.size() > maxIdle) {
+				idle.remove(idle.size() - 1);
+				discardCount++;
+			}
+		}
+	}
+
+	/**
+	 * The number of instances that are currently waiting to be reused.
+	 *
+	 * @return
+	 */
+	public synchronized int getIdleCount() {
+		return documentBuilders.size() + xmlPullParsers.size() + xmlSerializers.size();
+	}
+
+	/**
+	 * The number of instances that were created because none was idle.
+	 *
+	 * @return
+	 */
+	public synchronized long getCreateCount() {
+		return createCount;
+	}
+
+	/**
+	 * The number of instances that were reused.
+	 *
+	 * @return
+	 */
+	public synchronized long getReuseCount() {
+		return reuseCount;
+	}
+
+	/**
+	 * The number of released instances that were not kept, because the pool was full or they could not be reset.
+	 *
+	 * @return
+	 */
+	public synchronized long getDiscardCount() {
+		return discardCount;
+	}
+
+	public synchronized void resetStatistics() {
+		createCount = 0;
+		reuseCount = 0;
+		discardCount = 0;
+	}
+
+	public synchronized String toString() {
+		return StringUtil.toString("maxIdle", maxIdle,
+				"idle", getIdleCount(),
+				"created", createCount,
+				"reused", reuseCount,
+				"discarded", discardCount);
+	}
+}
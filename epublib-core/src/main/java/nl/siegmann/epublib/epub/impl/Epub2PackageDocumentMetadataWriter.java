@@ -9,6 +9,7 @@ import org.xmlpull.v1.XmlSerializer;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * package document metadata writer for epub2
@@ -75,7 +76,7 @@ public class Epub2PackageDocumentMetadataWriter extends PackageDocumentMetadataW
         if(book.getMetadata().getMetas() != null) {
             for (Meta meta : book.getMetadata().getMetas()) {
                 serializer.startTag(NAMESPACE_OPF, OPFTags.meta);
-                for (Map.Entry<String, String> entry : meta.getCustomProperties().entrySet()) {
+                for (Map.Entry<String, String> entry : new TreeMap<String, String>(meta.getCustomProperties()).entrySet()) {
                     serializer.attribute(EMPTY_NAMESPACE_PREFIX, entry.getKey(), entry.getValue());
                 }
                 serializer.endTag(NAMESPACE_OPF, OPFTags.meta);
@@ -31,7 +31,7 @@ public class Epub2PackageDocumentWriter extends PackageDocumentWriter {
     protected void writeManifest() throws IOException {
         serializer.startTag(NAMESPACE_OPF, OPFTags.manifest);
 
-        for(ManifestItemReference reference : book.getManifest().getReferences()) {
+        for(ManifestItemReference reference : getManifestReferences()) {
             writeItem(book, reference, serializer);
         }
 
@@ -66,7 +66,7 @@ public class Epub2PackageDocumentWriter extends PackageDocumentWriter {
     @Override
     protected void writeSpine() throws IOException {
         serializer.startTag(NAMESPACE_OPF, OPFTags.spine);
-        serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, book.getSpine().getTocResource().getId());
+        serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, getTocResource().getId());
 
         if(book.getCoverPage() != null // there is a cover page
                 &&	book.getSpine().findFirstResourceById(book.getCoverPage().getId()) < 0) { // cover page is not already in the spine
@@ -34,7 +34,7 @@ public class Epub3PackageDocumentWriter extends PackageDocumentWriter {
             serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.id, book.getManifest().getId());
         }
 
-        for(ManifestItemReference reference : book.getManifest().getReferences()) {
+        for(ManifestItemReference reference : getManifestReferences()) {
             writeItem(reference);
         }
 
@@ -79,7 +79,7 @@ public class Epub3PackageDocumentWriter extends PackageDocumentWriter {
     protected void writeSpine() throws IOException {
         serializer.startTag(NAMESPACE_OPF, OPFTags.spine);
         Spine spine = book.getSpine();
-        serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, spine.getTocResource().getId());
+        serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.toc, getTocResource().getId());
         if (StringUtil.isNotBlank(spine.getId())) {
             serializer.attribute(EMPTY_NAMESPACE_PREFIX, OPFAttributes.id, spine.getId());
         }
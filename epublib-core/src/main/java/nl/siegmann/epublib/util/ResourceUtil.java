@@ -4,7 +4,7 @@ import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.MediaTypeProperty;
 import nl.siegmann.epublib.domain.Resource;
 import nl.siegmann.epublib.domain.Resources;
-import nl.siegmann.epublib.epub.EpubProcessorSupport;
+import nl.siegmann.epublib.epub.XmlParserPool;
 import nl.siegmann.epublib.service.MediatypeService;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
@@ -96,7 +96,13 @@ public class ResourceUtil {
 	 * Reads parses the xml therein and returns the result as a Document
 	 */
 	public static Document getAsDocument(Resource resource) throws UnsupportedEncodingException, SAXException, IOException, ParserConfigurationException {
-		return getAsDocument(resource, EpubProcessorSupport.createDocumentBuilder());
+		XmlParserPool xmlParserPool = XmlParserPool.getDefault();
+		DocumentBuilder documentBuilder = xmlParserPool.acquireDocumentBuilder();
+		try {
+			return getAsDocument(resource, documentBuilder);
+		} finally {
+			xmlParserPool.release(documentBuilder);
+		}
 	}
 	
 	
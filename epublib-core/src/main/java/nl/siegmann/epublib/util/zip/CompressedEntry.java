@@ -0,0 +1,140 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry whose data is already compressed, ready to be written by a ZipArchiveWriter.
+ *
+ * Compressing entries this way can be done on any thread, independent of the other entries.
+ *
+ * @see nl.siegmann.epublib.util.zip.ZipArchiveWriter
+ *
+ * @author paul
+ *
+ */
+public class CompressedEntry {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final String name;
+	private final int method;
+	private final long crc;
+	private final long size;
+	private final byte[] data;
+	private final int dataLength;
+
+	/**
+	 * @param name the name of the entry in the archive
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @param crc the crc of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param data the compressed data, the first dataLength bytes are used.
+	 * @param dataLength
+	 */
+	public CompressedEntry(String name, int method, long crc, long size, byte[] data, int dataLength) {
+		this.name = name;
+		this.method = method;
+		this.crc = crc;
+		this.size = size;
+		this.data = data;
+		this.dataLength = dataLength;
+	}
+
+	/**
+	 * Creates an entry that stores the given data uncompressed.
+	 *
+	 * @param name
+	 * @param data
+	 * @return
+	 */
+	public static CompressedEntry stored(String name, byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return new CompressedEntry(name, ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+	}
+
+	/**
+	 * Reads the given InputStream and deflates its contents with the given Deflater.
+	 *
+	 * The deflater must be created with nowrap set to true, as zip files require.
+	 * It is reset before it is used, so one deflater can be used for many entries.
+	 *
+	 * @param name
+	 * @param in is not closed.
+	 * @param deflater
+	 * @param expectedSize the expected uncompressed size, used to size the buffer.
+	 * @return
+	 * @throws IOException
+	 */
+	public static CompressedEntry deflate(String name, InputStream in, Deflater deflater, long expectedSize) throws IOException {
+		deflater.reset();
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] result = new byte[(int) Math.max(64, Math.min(expectedSize / 2 + 64, Integer.MAX_VALUE - 8))];
+		int resultLength = 0;
+		long size = 0;
+		for (int nrRead = in.read(buffer); nrRead >= 0; nrRead = in.read(buffer)) {
+			if (nrRead == 0) {
+				continue;
+			}
+			crc.update(buffer, 0, nrRead);
+			size += nrRead;
+			deflater.setInput(buffer, 0, nrRead);
+			while (! deflater.needsInput()) {
+				result = ensureCapacity(result, resultLength);
+				resultLength += deflater.deflate(result, resultLength, result.length - resultLength);
+			}
+		}
+		deflater.finish();
+		while (! deflater.finished()) {
+			result = ensureCapacity(result, resultLength);
+			resultLength += deflater.deflate(result, resultLength, result.length - resultLength);
+		}
+		return new CompressedEntry(name, ZipEntry.DEFLATED, crc.getValue(), size, result, resultLength);
+	}
+
+	private static byte[] ensureCapacity(byte[] buffer, int length) {
+		if (buffer.length - length >= 64) {
+			return buffer;
+		}
+		return Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, Integer.MAX_VALUE - 8));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMethod() {
+		return method;
+	}
+
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * The size of the uncompressed data.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * The size of the compressed data.
+	 */
+	public long getCompressedSize() {
+		return dataLength;
+	}
+
+	/**
+	 * The compressed data, only the first getCompressedSize() bytes are used.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+}
@@ -0,0 +1,439 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import nl.siegmann.epublib.Constants;
+
+/**
+ * Random access to the entries of a zip file.
+ *
+ * The central directory is read once when the archive is opened.
+ * After that the data of every entry can be read directly from its position in the file,
+ * using positional reads on a single shared FileChannel.
+ * This makes it possible to read the entries of an epub on demand without extracting them to disk.
+ *
+ * Reading entries is thread-safe.
+ * The FileChannel is opened on first use and is opened again when it was closed,
+ * so calling close() only releases the file handle until the next read.
+ *
+ * @author paul
+ *
+ */
+public class ZipArchive implements Closeable, Serializable {
+
+	private static final long serialVersionUID = 5403498162410945133L;
+
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+	private static final int LOCAL_FILE_HEADER_SIZE = 30;
+	private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	private final List<ZipArchiveEntry> entries;
+	private final Map<String, ZipArchiveEntry> entriesByName;
+
+	private transient RandomAccessFile randomAccessFile;
+	private transient FileChannel channel;
+
+	/**
+	 * Opens the given zip file and reads its central directory.
+	 *
+	 * @param file
+	 * @throws IOException if the file can not be read or is not a valid zip file
+	 */
+	public ZipArchive(File file) throws IOException {
+		this.file = file;
+		this.length = file.length();
+		this.lastModified = file.lastModified();
+		this.entries = Collections.unmodifiableList(readCentralDirectory());
+		this.entriesByName = new HashMap<String, ZipArchiveEntry>(entries.size() * 2);
+		for (ZipArchiveEntry entry: entries) {
+			if (! entriesByName.containsKey(entry.getName())) {
+				entriesByName.put(entry.getName(), entry);
+			}
+		}
+	}
+
+	public ZipArchive(String fileName) throws IOException {
+		this(new File(fileName));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * All the entries of the archive, in the order of the central directory.
+	 *
+	 * @return
+	 */
+	public List<ZipArchiveEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Gets the entry with the given name.
+	 *
+	 * @param name
+	 * @return null if not found.
+	 */
+	public ZipArchiveEntry getEntry(String name) {
+		return entriesByName.get(name);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns an InputStream with the uncompressed data of the given entry.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(ZipArchiveEntry entry) throws IOException {
+		long dataOffset = getDataOffset(entry);
+		switch (entry.getMethod()) {
+			case ZipEntry.STORED:
+				return new ChannelInputStream(dataOffset, entry.getCompressedSize(), false);
+			case ZipEntry.DEFLATED:
+				int bufferSize = (int) Math.max(64, Math.min(entry.getCompressedSize() + 1, 8 * 1024));
+				return new EntryInflaterInputStream(new ChannelInputStream(dataOffset, entry.getCompressedSize(), true), bufferSize);
+			default:
+				throw new ZipException("Unsupported compression method " + entry.getMethod() + " for entry " + entry.getName());
+		}
+	}
+
+	/**
+	 * Returns an InputStream with the data of the given entry as it is stored in the zip file, without inflating it.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getRawInputStream(ZipArchiveEntry entry) throws IOException {
+		return new ChannelInputStream(getDataOffset(entry), entry.getCompressedSize(), false);
+	}
+
+	/**
+	 * Releases the file handle.
+	 *
+	 * The archive remains usable: the file is opened again on the next read.
+	 */
+	public synchronized void close() throws IOException {
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+		}
+		randomAccessFile = null;
+		channel = null;
+	}
+
+	protected void finalize() throws Throwable {
+		try {
+			close();
+		} finally {
+			super.finalize();
+		}
+	}
+
+	public String toString() {
+		return file.toString();
+	}
+
+	private synchronized FileChannel getChannel() throws IOException {
+		if (channel == null || ! channel.isOpen()) {
+			if (randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+			randomAccessFile = new RandomAccessFile(file, "r");
+			channel = randomAccessFile.getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Reads exactly buffer.remaining() bytes starting at the given position.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int nrRead = getChannel().read(buffer, position);
+			if (nrRead < 0) {
+				throw new EOFException("Unexpected end of zip file " + file);
+			}
+			position += nrRead;
+		}
+	}
+
+	private ByteBuffer read(long position, int size) throws IOException {
+		ByteBuffer result = ByteBuffer.allocate(size);
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		readFully(result, position);
+		result.flip();
+		return result;
+	}
+
+	/**
+	 * The position of the entry's data is determined by the local file header,
+	 * whose extra field can differ from the one in the central directory.
+	 */
+	private long getDataOffset(ZipArchiveEntry entry) throws IOException {
+		long result = entry.getDataOffset();
+		if (result >= 0) {
+			return result;
+		}
+		ByteBuffer header = read(entry.getLocalHeaderOffset(), LOCAL_FILE_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local file header for entry " + entry.getName());
+		}
+		int nameLength = getUnsignedShort(header, 26);
+		int extraLength = getUnsignedShort(header, 28);
+		result = entry.getLocalHeaderOffset() + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+		entry.setDataOffset(result);
+		return result;
+	}
+
+	private List<ZipArchiveEntry> readCentralDirectory() throws IOException {
+		try {
+			long endOfCentralDirectoryOffset = findEndOfCentralDirectory();
+			ByteBuffer endOfCentralDirectory = read(endOfCentralDirectoryOffset, END_OF_CENTRAL_DIRECTORY_SIZE);
+			long nrEntries = getUnsignedShort(endOfCentralDirectory, 10);
+			long centralDirectorySize = getUnsignedInt(endOfCentralDirectory, 12);
+			long centralDirectoryOffset = getUnsignedInt(endOfCentralDirectory, 16);
+			if (nrEntries == ZIP64_MAGIC_SHORT || centralDirectorySize == ZIP64_MAGIC || centralDirectoryOffset == ZIP64_MAGIC) {
+				ByteBuffer zip64EndOfCentralDirectory = readZip64EndOfCentralDirectory(endOfCentralDirectoryOffset);
+				if (zip64EndOfCentralDirectory != null) {
+					nrEntries = zip64EndOfCentralDirectory.getLong(32);
+					centralDirectorySize = zip64EndOfCentralDirectory.getLong(40);
+					centralDirectoryOffset = zip64EndOfCentralDirectory.getLong(48);
+				}
+			}
+			if (centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset + centralDirectorySize > length) {
+				throw new ZipException("Invalid central directory in " + file);
+			}
+			return readEntries(read(centralDirectoryOffset, (int) centralDirectorySize), nrEntries);
+		} finally {
+			close();
+		}
+	}
+
+	private long findEndOfCentralDirectory() throws IOException {
+		if (length < END_OF_CENTRAL_DIRECTORY_SIZE) {
+			throw new ZipException("Not a zip file: " + file);
+		}
+		int tailSize = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+		long tailOffset = length - tailSize;
+		ByteBuffer tail = read(tailOffset, tailSize);
+		for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+				return tailOffset + i;
+			}
+		}
+		throw new ZipException("End of central directory not found in " + file);
+	}
+
+	private ByteBuffer readZip64EndOfCentralDirectory(long endOfCentralDirectoryOffset) throws IOException {
+		long locatorOffset = endOfCentralDirectoryOffset - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+		if (locatorOffset < 0) {
+			return null;
+		}
+		ByteBuffer locator = read(locatorOffset, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+		if (locator.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+			return null;
+		}
+		ByteBuffer result = read(locator.getLong(8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+		if (result.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+			throw new ZipException("Invalid zip64 end of central directory in " + file);
+		}
+		return result;
+	}
+
+	private List<ZipArchiveEntry> readEntries(ByteBuffer centralDirectory, long nrEntries) throws IOException {
+		List<ZipArchiveEntry> result = new ArrayList<ZipArchiveEntry>((int) Math.min(nrEntries, 1024 * 1024));
+		int position = 0;
+		while (position + CENTRAL_FILE_HEADER_SIZE <= centralDirectory.limit()
+				&& centralDirectory.getInt(position) == CENTRAL_FILE_HEADER_SIGNATURE) {
+			int method = getUnsignedShort(centralDirectory, position + 10);
+			long dosTime = getUnsignedInt(centralDirectory, position + 12);
+			long crc = getUnsignedInt(centralDirectory, position + 16);
+			long compressedSize = getUnsignedInt(centralDirectory, position + 20);
+			long size = getUnsignedInt(centralDirectory, position + 24);
+			int nameLength = getUnsignedShort(centralDirectory, position + 28);
+			int extraLength = getUnsignedShort(centralDirectory, position + 30);
+			int commentLength = getUnsignedShort(centralDirectory, position + 32);
+			long localHeaderOffset = getUnsignedInt(centralDirectory, position + 42);
+			int nameOffset = position + CENTRAL_FILE_HEADER_SIZE;
+			int extraOffset = nameOffset + nameLength;
+			if (extraOffset + extraLength + commentLength > centralDirectory.limit()) {
+				throw new ZipException("Invalid central directory entry in " + file);
+			}
+			String name = decodeName(centralDirectory, nameOffset, nameLength);
+
+			// the zip64 extra field contains only the values that did not fit in the central directory header
+			int extraPosition = extraOffset;
+			while (extraPosition + 4 <= extraOffset + extraLength) {
+				int headerId = getUnsignedShort(centralDirectory, extraPosition);
+				int dataSize = getUnsignedShort(centralDirectory, extraPosition + 2);
+				if (headerId == ZIP64_EXTRA_FIELD_ID) {
+					int valuePosition = extraPosition + 4;
+					if (size == ZIP64_MAGIC && valuePosition + 8 <= extraPosition + 4 + dataSize) {
+						size = centralDirectory.getLong(valuePosition);
+						valuePosition += 8;
+					}
+					if (compressedSize == ZIP64_MAGIC && valuePosition + 8 <= extraPosition + 4 + dataSize) {
+						compressedSize = centralDirectory.getLong(valuePosition);
+						valuePosition += 8;
+					}
+					if (localHeaderOffset == ZIP64_MAGIC && valuePosition + 8 <= extraPosition + 4 + dataSize) {
+						localHeaderOffset = centralDirectory.getLong(valuePosition);
+					}
+					break;
+				}
+				extraPosition += 4 + dataSize;
+			}
+			result.add(new ZipArchiveEntry(name, method, crc, compressedSize, size, localHeaderOffset, dosTime));
+			position = extraOffset + extraLength + commentLength;
+		}
+		if (result.size() != nrEntries && nrEntries != ZIP64_MAGIC_SHORT) {
+			throw new ZipException("Expected " + nrEntries + " entries but found " + result.size() + " in " + file);
+		}
+		return result;
+	}
+
+	private static String decodeName(ByteBuffer buffer, int offset, int nameLength) throws UnsupportedEncodingException {
+		byte[] nameBytes = new byte[nameLength];
+		for (int i = 0; i < nameLength; i++) {
+			nameBytes[i] = buffer.get(offset + i);
+		}
+		// java.util.zip also reads all entry names as UTF-8
+		return new String(nameBytes, Constants.CHARACTER_ENCODING);
+	}
+
+	private static int getUnsignedShort(ByteBuffer buffer, int index) {
+		return buffer.getShort(index) & 0xFFFF;
+	}
+
+	private static long getUnsignedInt(ByteBuffer buffer, int index) {
+		return buffer.getInt(index) & 0xFFFFFFFFL;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (file.length() != length || file.lastModified() != lastModified) {
+			throw new IOException("Zip file " + file + " was modified since it was read");
+		}
+	}
+
+	/**
+	 * Reads a range of the zip file.
+	 *
+	 * If addDummyByte is set it returns an extra 0 byte at the end of the range.
+	 * The Inflater in 'nowrap' mode needs this to detect the end of the compressed data.
+	 */
+	private class ChannelInputStream extends InputStream {
+
+		private long position;
+		private long remaining;
+		private boolean addDummyByte;
+
+		public ChannelInputStream(long position, long length, boolean addDummyByte) {
+			this.position = position;
+			this.remaining = length;
+			this.addDummyByte = addDummyByte;
+		}
+
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			int nrRead = read(buffer, 0, 1);
+			return nrRead < 0 ? -1 : (buffer[0] & 0xFF);
+		}
+
+		public int read(byte[] buffer, int offset, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining <= 0) {
+				if (addDummyByte) {
+					addDummyByte = false;
+					buffer[offset] = 0;
+					return 1;
+				}
+				return -1;
+			}
+			int nrToRead = (int) Math.min(len, remaining);
+			int nrRead = getChannel().read(ByteBuffer.wrap(buffer, offset, nrToRead), position);
+			if (nrRead < 0) {
+				throw new EOFException("Unexpected end of zip file " + file);
+			}
+			position += nrRead;
+			remaining -= nrRead;
+			return nrRead;
+		}
+
+		public long skip(long n) {
+			long result = Math.max(0, Math.min(n, remaining));
+			position += result;
+			remaining -= result;
+			return result;
+		}
+
+		public int available() {
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * An InflaterInputStream that releases its Inflater when closed.
+	 */
+	private static class EntryInflaterInputStream extends InflaterInputStream {
+
+		private boolean closed = false;
+
+		public EntryInflaterInputStream(InputStream in, int bufferSize) {
+			super(in, new Inflater(true), bufferSize);
+		}
+
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			super.close();
+			inf.end();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.Serializable;
+import java.util.zip.ZipEntry;
+
+/**
+ * An entry of a ZipArchive as described by the archive's central directory.
+ *
+ * Next to the name it knows where the entry's data starts within the archive
+ * and how it is stored, so that the data can be read without scanning the archive.
+ *
+ * @see nl.siegmann.epublib.util.zip.ZipArchive
+ *
+ * @author paul
+ *
+ */
+public class ZipArchiveEntry implements Serializable {
+
+	private static final long serialVersionUID = -2853290429466474718L;
+
+	private final String name;
+	private final int method;
+	private final long crc;
+	private final long compressedSize;
+	private final long size;
+	private final long localHeaderOffset;
+	private final long dosTime;
+	private volatile long dataOffset = -1;
+
+	public ZipArchiveEntry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset, long dosTime) {
+		this.name = name;
+		this.method = method;
+		this.crc = crc;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.localHeaderOffset = localHeaderOffset;
+		this.dosTime = dosTime;
+	}
+
+	/**
+	 * The name of the entry, for instance "OEBPS/chapter1.html".
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	/**
+	 * The compression method: ZipEntry.STORED or ZipEntry.DEFLATED
+	 *
+	 * @return
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * The CRC-32 of the uncompressed data.
+	 *
+	 * @return
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * The size of the entry's data as it is stored in the archive.
+	 *
+	 * @return
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * The size of the entry's uncompressed data.
+	 *
+	 * @return
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * The position of the entry's local file header within the archive.
+	 *
+	 * @return
+	 */
+	public long getLocalHeaderOffset() {
+		return localHeaderOffset;
+	}
+
+	/**
+	 * The modification time in MS-DOS date and time format, as stored in the archive.
+	 *
+	 * @return
+	 */
+	public long getDosTime() {
+		return dosTime;
+	}
+
+	/**
+	 * The position of the first byte of the entry's data within the archive.
+	 * Determined by ZipArchive when the entry is first read.
+	 *
+	 * @return -1 if not yet known
+	 */
+	long getDataOffset() {
+		return dataOffset;
+	}
+
+	void setDataOffset(long dataOffset) {
+		this.dataOffset = dataOffset;
+	}
+
+	public boolean isDeflated() {
+		return method == ZipEntry.DEFLATED;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
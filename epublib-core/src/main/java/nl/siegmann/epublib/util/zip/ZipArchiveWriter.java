@@ -0,0 +1,540 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import nl.siegmann.epublib.Constants;
+
+/**
+ * Writes a zip file to an OutputStream.
+ *
+ * Unlike java.util.zip.ZipOutputStream it can write entries whose data was already compressed,
+ * for instance on other threads, and it gives every entry the same time.
+ * Writing the same entries in the same order with the same time therefore always gives the same bytes.
+ *
+ * Entries with known sizes are written without data descriptor.
+ * Zip64 extensions are used for entries, offsets and archives that do not fit the original zip format.
+ *
+ * Not thread-safe.
+ *
+ * @see nl.siegmann.epublib.util.zip.CompressedEntry
+ *
+ * @author paul
+ *
+ */
+public class ZipArchiveWriter implements Closeable {
+
+	private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Streamed entries that are expected to be this large get zip64 headers, deflating can make the data a little larger.
+	 */
+	private static final long ZIP64_STREAMING_SIZE = ZIP64_MAGIC - 16 * 1024 * 1024;
+
+	private final OutputStream out;
+	private final List<EntryRecord> entries = new ArrayList<EntryRecord>();
+	private long position = 0;
+	private long time;
+	private boolean finished = false;
+	private EntryOutputStream currentEntry = null;
+
+	public ZipArchiveWriter(OutputStream out) {
+		this.out = out;
+		this.time = System.currentTimeMillis();
+	}
+
+	/**
+	 * The last modification time of all entries, the time the writer was created by default.
+	 *
+	 * @return
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * Writes an entry whose compressed data is known.
+	 *
+	 * @param entry
+	 * @throws IOException
+	 */
+	public void write(CompressedEntry entry) throws IOException {
+		write(entry.getName(), entry.getMethod(), entry.getCrc(), entry.getSize(), entry.getData(), 0, (int) entry.getCompressedSize());
+	}
+
+	/**
+	 * Writes an entry whose compressed data is known.
+	 *
+	 * @param name
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @param crc the crc of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param data the compressed data
+	 * @param offset
+	 * @param length the size of the compressed data
+	 * @throws IOException
+	 */
+	public void write(String name, int method, long crc, long size, byte[] data, int offset, int length) throws IOException {
+		EntryRecord entry = startEntry(name, method, crc, length, size, false);
+		out.write(data, offset, length);
+		position += length;
+		entries.add(entry);
+	}
+
+	/**
+	 * Writes an entry whose compressed data is read from the given InputStream.
+	 *
+	 * @param name
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @param crc the crc of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param compressedSize the size of the compressed data
+	 * @param compressedData is not closed.
+	 * @throws IOException
+	 */
+	public void write(String name, int method, long crc, long size, long compressedSize, InputStream compressedData) throws IOException {
+		EntryRecord entry = startEntry(name, method, crc, compressedSize, size, false);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long remaining = compressedSize;
+		while (remaining > 0) {
+			int nrRead = compressedData.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (nrRead < 0) {
+				throw new ZipException("Compressed data of entry " + name + " is " + (compressedSize - remaining) + " bytes instead of " + compressedSize);
+			}
+			out.write(buffer, 0, nrRead);
+			remaining -= nrRead;
+		}
+		position += compressedSize;
+		entries.add(entry);
+	}
+
+	/**
+	 * Deflates the contents of the given InputStream while writing it.
+	 *
+	 * The sizes and crc are written in a data descriptor after the data.
+	 * The deflater must be created with nowrap set to true, it is reset before it is used.
+	 * The entry must stay below 4 GB, see write(String, InputStream, Deflater, long).
+	 *
+	 * @param name
+	 * @param in is not closed.
+	 * @param deflater
+	 * @throws IOException
+	 */
+	public void write(String name, InputStream in, Deflater deflater) throws IOException {
+		write(name, in, deflater, -1);
+	}
+
+	/**
+	 * Deflates the contents of the given InputStream while writing it.
+	 *
+	 * The sizes and crc are written in a data descriptor after the data.
+	 * The deflater must be created with nowrap set to true, it is reset before it is used.
+	 *
+	 * @param name
+	 * @param in is not closed.
+	 * @param deflater
+	 * @param size the expected size of the uncompressed data, -1 if unknown, see startEntry(String, Deflater, long).
+	 * @throws IOException
+	 */
+	public void write(String name, InputStream in, Deflater deflater, long size) throws IOException {
+		OutputStream entryOut = startEntry(name, deflater, size);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (int nrRead = in.read(buffer); nrRead >= 0; nrRead = in.read(buffer)) {
+			entryOut.write(buffer, 0, nrRead);
+		}
+		entryOut.close();
+	}
+
+	/**
+	 * Starts an entry whose contents are deflated while they are written to the returned OutputStream.
+	 *
+	 * Closing the returned OutputStream finishes the entry, the archive itself stays open.
+	 * No other entries can be written until then.
+	 * The sizes and crc are written in a data descriptor after the data.
+	 * The deflater must be created with nowrap set to true, it is reset before it is used.
+	 * The entry must stay below 4 GB, see startEntry(String, Deflater, long).
+	 *
+	 * @param name
+	 * @param deflater
+	 * @return
+	 * @throws IOException
+	 */
+	public OutputStream startEntry(String name, Deflater deflater) throws IOException {
+		return startEntry(name, deflater, -1);
+	}
+
+	/**
+	 * Starts an entry whose contents are deflated while they are written to the returned OutputStream.
+	 *
+	 * An entry that is expected to be close to 4 GB or larger gets a zip64 extra field with zero sizes in its local header
+	 * and a zip64 data descriptor, so both have the same format.
+	 * Other entries get the original formats, which java.util.zip.ZipInputStream expects for them,
+	 * and can not become 4 GB or larger.
+	 *
+	 * @param name
+	 * @param deflater
+	 * @param size the expected size of the uncompressed data, -1 if unknown.
+	 * @return
+	 * @throws IOException
+	 */
+	public OutputStream startEntry(String name, Deflater deflater, long size) throws IOException {
+		EntryRecord entry = createEntry(name, ZipEntry.DEFLATED, 0, 0, 0, true);
+		entry.zip64 = size >= ZIP64_STREAMING_SIZE;
+		writeBuffer(createLocalHeader(entry));
+		deflater.reset();
+		currentEntry = new EntryOutputStream(name, entry, deflater);
+		return currentEntry;
+	}
+
+	/**
+	 * Adds an entry to the central directory without writing its header and data.
+	 *
+	 * The entry is counted as written, getPosition() is the same as when it would have been written.
+	 * Used to calculate the size of an archive and to write only part of an archive.
+	 *
+	 * @param name
+	 * @param method ZipEntry.STORED or ZipEntry.DEFLATED
+	 * @param crc the crc of the uncompressed data
+	 * @param size the size of the uncompressed data
+	 * @param compressedSize the size of the compressed data
+	 * @throws IOException
+	 */
+	public void skip(String name, int method, long crc, long size, long compressedSize) throws IOException {
+		EntryRecord entry = createEntry(name, method, crc, compressedSize, size, false);
+		position += createLocalHeader(entry).position() + compressedSize;
+		entries.add(entry);
+	}
+
+	/**
+	 * The number of bytes written so far.
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Writes the central directory, after which no more entries can be written.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (currentEntry != null) {
+			throw new IllegalStateException("Entry " + currentEntry.name + " is not closed");
+		}
+		finished = true;
+		long centralDirectoryOffset = position;
+		for (EntryRecord entry: entries) {
+			writeCentralDirectoryEntry(entry);
+		}
+		long centralDirectorySize = position - centralDirectoryOffset;
+		boolean zip64 = entries.size() >= ZIP64_MAGIC_SHORT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+		if (zip64) {
+			long zip64EndOfCentralDirectoryOffset = position;
+			ByteBuffer zip64EndOfCentralDirectory = createBuffer(56);
+			zip64EndOfCentralDirectory.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+			zip64EndOfCentralDirectory.putLong(44);
+			zip64EndOfCentralDirectory.putShort((short) VERSION_ZIP64);
+			zip64EndOfCentralDirectory.putShort((short) VERSION_ZIP64);
+			zip64EndOfCentralDirectory.putInt(0);
+			zip64EndOfCentralDirectory.putInt(0);
+			zip64EndOfCentralDirectory.putLong(entries.size());
+			zip64EndOfCentralDirectory.putLong(entries.size());
+			zip64EndOfCentralDirectory.putLong(centralDirectorySize);
+			zip64EndOfCentralDirectory.putLong(centralDirectoryOffset);
+			writeBuffer(zip64EndOfCentralDirectory);
+
+			ByteBuffer locator = createBuffer(20);
+			locator.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+			locator.putInt(0);
+			locator.putLong(zip64EndOfCentralDirectoryOffset);
+			locator.putInt(1);
+			writeBuffer(locator);
+		}
+		ByteBuffer endOfCentralDirectory = createBuffer(22);
+		endOfCentralDirectory.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		endOfCentralDirectory.putShort((short) 0);
+		endOfCentralDirectory.putShort((short) 0);
+		endOfCentralDirectory.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+		endOfCentralDirectory.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_SHORT));
+		endOfCentralDirectory.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+		endOfCentralDirectory.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+		endOfCentralDirectory.putShort((short) 0);
+		writeBuffer(endOfCentralDirectory);
+		out.flush();
+	}
+
+	/**
+	 * Finishes the archive and closes the underlying OutputStream.
+	 */
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private EntryRecord startEntry(String name, int method, long crc, long compressedSize, long size, boolean dataDescriptor) throws IOException {
+		EntryRecord entry = createEntry(name, method, crc, compressedSize, size, dataDescriptor);
+		writeBuffer(createLocalHeader(entry));
+		return entry;
+	}
+
+	private EntryRecord createEntry(String name, int method, long crc, long compressedSize, long size, boolean dataDescriptor) throws IOException {
+		if (finished) {
+			throw new IllegalStateException("Zip archive is already finished");
+		}
+		if (currentEntry != null) {
+			throw new IllegalStateException("Entry " + currentEntry.name + " is not closed");
+		}
+		if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + method + " for entry " + name);
+		}
+		if (method == ZipEntry.STORED && (dataDescriptor || size != compressedSize)) {
+			throw new ZipException("Stored entry " + name + " must have the same size and compressed size");
+		}
+		EntryRecord entry = new EntryRecord();
+		entry.name = name.getBytes(Constants.CHARACTER_ENCODING);
+		entry.method = method;
+		entry.flags = FLAG_UTF8 | (dataDescriptor ? FLAG_DATA_DESCRIPTOR : 0);
+		entry.dosTime = toDosTime(time);
+		entry.crc = crc;
+		entry.compressedSize = compressedSize;
+		entry.size = size;
+		entry.offset = position;
+		return entry;
+	}
+
+	private static ByteBuffer createLocalHeader(EntryRecord entry) {
+		boolean zip64 = entry.zip64 || entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+		ByteBuffer header = createBuffer(30 + entry.name.length + (zip64 ? 20 : 0));
+		header.putInt(LOCAL_FILE_HEADER_SIGNATURE);
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : getVersion(entry.method)));
+		header.putShort((short) entry.flags);
+		header.putShort((short) entry.method);
+		header.putInt((int) entry.dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize));
+		header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.size));
+		header.putShort((short) entry.name.length);
+		header.putShort((short) (zip64 ? 20 : 0));
+		header.put(entry.name);
+		if (zip64) {
+			header.putShort((short) ZIP64_EXTRA_FIELD_ID);
+			header.putShort((short) 16);
+			header.putLong(entry.size);
+			header.putLong(entry.compressedSize);
+		}
+		return header;
+	}
+
+	private void writeCentralDirectoryEntry(EntryRecord entry) throws IOException {
+		boolean zip64Size = entry.size >= ZIP64_MAGIC;
+		boolean zip64CompressedSize = entry.compressedSize >= ZIP64_MAGIC;
+		boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+		int extraLength = (zip64Size || zip64CompressedSize || zip64Offset) ? 4 : 0;
+		extraLength += (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+		int version = extraLength > 0 || entry.zip64 ? VERSION_ZIP64 : getVersion(entry.method);
+
+		ByteBuffer header = createBuffer(46 + entry.name.length + extraLength);
+		header.putInt(CENTRAL_FILE_HEADER_SIGNATURE);
+		header.putShort((short) version);
+		header.putShort((short) version);
+		header.putShort((short) entry.flags);
+		header.putShort((short) entry.method);
+		header.putInt((int) entry.dosTime);
+		header.putInt((int) entry.crc);
+		header.putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : entry.compressedSize));
+		header.putInt((int) (zip64Size ? ZIP64_MAGIC : entry.size));
+		header.putShort((short) entry.name.length);
+		header.putShort((short) extraLength);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		header.putInt((int) (zip64Offset ? ZIP64_MAGIC : entry.offset));
+		header.put(entry.name);
+		if (extraLength > 0) {
+			// only the values that did not fit, in this order
+			header.putShort((short) ZIP64_EXTRA_FIELD_ID);
+			header.putShort((short) (extraLength - 4));
+			if (zip64Size) {
+				header.putLong(entry.size);
+			}
+			if (zip64CompressedSize) {
+				header.putLong(entry.compressedSize);
+			}
+			if (zip64Offset) {
+				header.putLong(entry.offset);
+			}
+		}
+		writeBuffer(header);
+	}
+
+	private static int getVersion(int method) {
+		return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+	}
+
+	private static ByteBuffer createBuffer(int size) {
+		ByteBuffer result = ByteBuffer.allocate(size);
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		return result;
+	}
+
+	private void writeBuffer(ByteBuffer buffer) throws IOException {
+		out.write(buffer.array(), 0, buffer.position());
+		position += buffer.position();
+	}
+
+	/**
+	 * Converts the given time to the MS-DOS date and time format, in the local time zone like java.util.zip does.
+	 */
+	static long toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25)
+				| ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+				| (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5)
+				| (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * Deflates the data of an entry that is being written and finishes the entry on close.
+	 */
+	private class EntryOutputStream extends OutputStream {
+
+		private final String name;
+		private final EntryRecord entry;
+		private final Deflater deflater;
+		private final CRC32 crc = new CRC32();
+		private final byte[] compressed = new byte[BUFFER_SIZE];
+		private long size = 0;
+		private long compressedSize = 0;
+		private boolean closed = false;
+
+		public EntryOutputStream(String name, EntryRecord entry, Deflater deflater) {
+			this.name = name;
+			this.entry = entry;
+			this.deflater = deflater;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed) {
+				throw new IOException("Entry " + name + " is closed");
+			}
+			if (length == 0) {
+				return;
+			}
+			crc.update(buffer, offset, length);
+			size += length;
+			deflater.setInput(buffer, offset, length);
+			while (! deflater.needsInput()) {
+				deflate();
+			}
+		}
+
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			deflater.finish();
+			while (! deflater.finished()) {
+				deflate();
+			}
+			boolean zip64 = entry.zip64;
+			if (! zip64 && (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC)) {
+				// the local header has already been written without zip64 extra field
+				throw new ZipException("Entry " + name + " is 4 GB or larger, its size must be given when it is started");
+			}
+			position += compressedSize;
+			entry.crc = crc.getValue();
+			entry.size = size;
+			entry.compressedSize = compressedSize;
+
+			ByteBuffer dataDescriptor = createBuffer(zip64 ? 24 : 16);
+			dataDescriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+			dataDescriptor.putInt((int) entry.crc);
+			if (zip64) {
+				dataDescriptor.putLong(compressedSize);
+				dataDescriptor.putLong(size);
+			} else {
+				dataDescriptor.putInt((int) compressedSize);
+				dataDescriptor.putInt((int) size);
+			}
+			writeBuffer(dataDescriptor);
+			entries.add(entry);
+			currentEntry = null;
+		}
+
+		private void deflate() throws IOException {
+			int length = deflater.deflate(compressed, 0, compressed.length);
+			out.write(compressed, 0, length);
+			compressedSize += length;
+		}
+	}
+
+	/**
+	 * What is needed of a written entry to write the central directory.
+	 */
+	private static class EntryRecord {
+		byte[] name;
+		int method;
+		int flags;
+		long dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+		long offset;
+		// whether the local header has a zip64 extra field even though the sizes fit
+		boolean zip64;
+	}
+}
@@ -1,5 +1,13 @@
 package nl.siegmann.epublib.domain;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.siegmann.epublib.browsersupport.Navigator;
 import nl.siegmann.epublib.service.MediatypeService;
 import junit.framework.TestCase;
 
@@ -46,4 +54,103 @@ public class BookTest extends TestCase {
 
 		assertEquals(3, book.getContents().size());
 	}
+
+	public void testFreeze() {
+		Book book = createBook(3);
+		Resource chapter2 = book.getResources().getByHref("chapter2.html");
+		assertSame(book, book.freeze());
+		assertTrue(book.isFrozen());
+		assertTrue(book.getResources().isFrozen());
+		assertTrue(book.getSpine().isFrozen());
+		assertTrue(book.getTableOfContents().isFrozen());
+		assertTrue(book.getGuide().isFrozen());
+		assertTrue(book.getManifest().isFrozen());
+		assertTrue(chapter2.isFrozen());
+
+		// the indexes work as before
+		assertSame(chapter2, book.getResources().getById("chapter2"));
+		assertEquals(1, book.getSpine().getResourceIndex(chapter2));
+		assertEquals(2, book.getSpine().findFirstResourceById("chapter3"));
+		assertEquals(2, book.getTableOfContents().getTocReferencePath(chapter2).size());
+		assertEquals("chapter1.html", book.getCoverPage().getHref());
+
+		try {
+			book.addSection("Chapter 4", new Resource("chapter 4".getBytes(), "chapter4.html"));
+			fail("a frozen book can not be changed");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			book.getResources().remove("chapter2.html");
+			fail("frozen resources can not be changed");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			book.getSpine().addResource(chapter2);
+			fail("a frozen spine can not be changed");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			chapter2.setHref("other.html");
+			fail("a frozen resource can not be changed");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			book.getTableOfContents().getTocReferences().get(0).getChildren().clear();
+			fail("the children of a frozen table of contents can not be changed");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			book.getResources().getResourceMap().clear();
+			fail("the map of frozen resources can not be changed");
+		} catch (UnsupportedOperationException expected) {
+		}
+		assertEquals(3, book.getResources().size());
+		assertEquals("chapter2.html", chapter2.getHref());
+	}
+
+	public void testFrozenBookSharedByNavigators() throws Exception {
+		final int nrChapters = 50;
+		final Book book = createBook(nrChapters).freeze();
+		ExecutorService executorService = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 32; i++) {
+				results.add(executorService.submit(new Callable<Integer>() {
+
+					public Integer call() throws Exception {
+						Navigator navigator = new Navigator(book);
+						int nrVisited = 0;
+						for (int chapter = 1; chapter <= nrChapters; chapter++) {
+							navigator.gotoResource("chapter" + chapter + ".html", this);
+							assertEquals(chapter - 1, navigator.getCurrentSpinePos());
+							assertEquals("chapter" + chapter, navigator.getCurrentResource().getId());
+							assertEquals(chapter % 2 == 1 ? 1 : 2, book.getTableOfContents().getTocReferencePath(navigator.getCurrentResource()).size());
+							nrVisited++;
+						}
+						return nrVisited;
+					}
+				}));
+			}
+			for (Future<Integer> result: results) {
+				assertEquals(nrChapters, result.get().intValue());
+			}
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private static Book createBook(int nrChapters) {
+		Book book = new Book();
+		TOCReference part = null;
+		for (int i = 1; i <= nrChapters; i++) {
+			Resource chapter = new Resource("chapter" + i, ("chapter " + i).getBytes(), "chapter" + i + ".html", MediatypeService.XHTML);
+			if (i % 2 == 1) {
+				part = book.addSection("Chapter " + i, chapter);
+			} else {
+				book.addSection(part, "Chapter " + i, chapter);
+			}
+		}
+		book.setCoverPage(book.getResources().getByHref("chapter1.html"));
+		return book;
+	}
 }
@@ -0,0 +1,171 @@
+package nl.siegmann.epublib.domain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.service.MediatypeService;
+
+public class ConcurrentResourcesTest extends TestCase {
+
+	private static final int NR_THREADS = 8;
+	private static final int NR_RESOURCES_PER_THREAD = 500;
+
+	public void testAdd() {
+		Resources resources = new ConcurrentResources();
+		Resource chapter1 = resources.add(new Resource("foo".getBytes(), "text/chapter1.html"));
+		assertEquals("chapter1", chapter1.getId());
+		// the id from the href is taken
+		Resource otherChapter1 = resources.add(new Resource("bar".getBytes(), "other/chapter1.html"));
+		assertEquals("item_1", otherChapter1.getId());
+		Resource image = resources.add(new Resource("baz".getBytes(), MediatypeService.PNG));
+		assertTrue(image.getHref().startsWith("image_"));
+		assertTrue(image.getId().startsWith("image_"));
+
+		assertEquals(3, resources.size());
+		assertSame(chapter1, resources.getById("chapter1"));
+		assertSame(chapter1, resources.getByHref("text/chapter1.html#section1"));
+		assertSame(otherChapter1, resources.getByIdOrHref("other/chapter1.html"));
+		assertEquals(1, resources.getResourcesByMediaType(MediatypeService.PNG).size());
+		assertEquals(2, resources.getResourcesByMediaTypes(new MediaTypeProperty[] {MediatypeService.XHTML}).size());
+
+		// the index follows changes of the id
+		chapter1.setId("intro");
+		assertNull(resources.getById("chapter1"));
+		assertSame(chapter1, resources.getById("intro"));
+
+		// removing a resource frees its id
+		assertSame(chapter1, resources.remove("text/chapter1.html"));
+		assertFalse(resources.containsId("intro"));
+		assertEquals("intro", resources.add(new Resource("intro", "foo".getBytes(), "intro.html", MediatypeService.XHTML)).getId());
+	}
+
+	public void testDuplicateIds() {
+		Resources resources = new ConcurrentResources();
+		List<Resource> duplicates = new ArrayList<Resource>();
+		duplicates.add(new Resource("chapter", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML));
+		duplicates.add(new Resource("chapter", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML));
+		resources.addAll(duplicates);
+		assertSame(duplicates.get(0), resources.getById("chapter"));
+		resources.remove("chapter1.html");
+		assertSame(duplicates.get(1), resources.getById("chapter"));
+	}
+
+	public void testSetOwnResources() {
+		Resources resources = new ConcurrentResources();
+		resources.add(new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML));
+		resources.set(resources.getResourceMap());
+		assertEquals(1, resources.size());
+		assertTrue(resources.containsId("chapter1"));
+		resources.set(resources.getAll());
+		assertEquals(1, resources.size());
+		assertTrue(resources.containsId("chapter1"));
+	}
+
+	public void testConcurrentAdd() throws Exception {
+		final Resources resources = new ConcurrentResources();
+		List<Future<List<Resource>>> results = runInParallel(new ResourceAdder() {
+
+			public Resource add(Resource resource) {
+				return resources.add(resource);
+			}
+		});
+		Set<String> ids = new HashSet<String>();
+		Set<String> hrefs = new HashSet<String>();
+		for (Future<List<Resource>> result: results) {
+			for (Resource resource: result.get()) {
+				assertTrue(ids.add(resource.getId()));
+				assertTrue(hrefs.add(resource.getHref()));
+				assertSame(resource, resources.getById(resource.getId()));
+				assertSame(resource, resources.getByHref(resource.getHref()));
+			}
+		}
+		assertEquals(NR_THREADS * NR_RESOURCES_PER_THREAD, ids.size());
+		assertEquals(NR_THREADS * NR_RESOURCES_PER_THREAD, resources.size());
+	}
+
+	public void testConcurrentBookAssembly() throws Exception {
+		final Book book = new Book();
+		book.setResources(new ConcurrentResources());
+		final AtomicInteger nrAdded = new AtomicInteger();
+		runInParallel(new ResourceAdder() {
+
+			public Resource add(Resource resource) {
+				Resource result = book.addResource(resource);
+				if (nrAdded.incrementAndGet() % 100 == 0) {
+					// the references can be iterated while the other threads add to them
+					for (ManifestItemReference reference: book.getManifest().getReferences()) {
+						assertNotNull(reference.getResource());
+					}
+				}
+				return result;
+			}
+		});
+		assertEquals(NR_THREADS * NR_RESOURCES_PER_THREAD, book.getResources().size());
+		assertEquals(NR_THREADS * NR_RESOURCES_PER_THREAD, book.getManifest().getReferences().size());
+	}
+
+	public void testFreeze() {
+		Book book = new Book();
+		book.setResources(new ConcurrentResources());
+		Resource chapter1 = book.addResource(new Resource("foo".getBytes(), "chapter1.html"));
+		book.freeze();
+		assertTrue(book.getResources().isFrozen());
+		assertTrue(chapter1.isFrozen());
+		try {
+			book.getResources().add(new Resource("bar".getBytes(), "chapter2.html"));
+			fail("frozen resources can not be changed");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	/**
+	 * Every thread adds resources with the same hrefs in its own folder, so the ids made from the hrefs collide,
+	 * and resources without an href.
+	 */
+	private List<Future<List<Resource>>> runInParallel(final ResourceAdder resourceAdder) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executorService = Executors.newFixedThreadPool(NR_THREADS);
+		try {
+			List<Future<List<Resource>>> results = new ArrayList<Future<List<Resource>>>();
+			for (int i = 0; i < NR_THREADS; i++) {
+				final String folder = "thread" + i + "/";
+				results.add(executorService.submit(new Callable<List<Resource>>() {
+
+					public List<Resource> call() throws Exception {
+						start.await();
+						List<Resource> result = new ArrayList<Resource>();
+						for (int j = 0; j < NR_RESOURCES_PER_THREAD; j++) {
+							if (j % 2 == 0) {
+								result.add(resourceAdder.add(new Resource("chapter".getBytes(), folder + "chapter" + j + ".html")));
+							} else {
+								result.add(resourceAdder.add(new Resource("image".getBytes(), MediatypeService.PNG)));
+							}
+						}
+						return result;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<List<Resource>> result: results) {
+				result.get();
+			}
+			return results;
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private interface ResourceAdder {
+
+		Resource add(Resource resource);
+	}
+}
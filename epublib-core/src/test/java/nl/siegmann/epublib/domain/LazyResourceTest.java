@@ -0,0 +1,137 @@
+package nl.siegmann.epublib.domain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+
+public class LazyResourceTest extends TestCase {
+
+	private static final byte[] CHAPTER = "<html><body>chapter 1</body></html>".getBytes();
+
+	private File zipFile;
+	private ZipArchive zipArchive;
+
+	protected void setUp() throws Exception {
+		zipFile = File.createTempFile("lazyresource", ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+		out.putNextEntry(new ZipEntry("chapter1.html"));
+		out.write(CHAPTER);
+		out.close();
+		zipArchive = new ZipArchive(zipFile);
+	}
+
+	protected void tearDown() throws Exception {
+		zipArchive.close();
+		zipFile.delete();
+	}
+
+	public void testConcurrentReadersShareOneRead() throws Exception {
+		final int nrReaders = 32;
+		ResourceDataCache cache = new ResourceDataCache(1024);
+		final CountingLazyResource resource = new CountingLazyResource(cache);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executorService = Executors.newFixedThreadPool(nrReaders);
+		try {
+			List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < nrReaders; i++) {
+				results.add(executorService.submit(new Callable<byte[]>() {
+
+					public byte[] call() throws Exception {
+						start.await();
+						return resource.getData();
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<byte[]> result: results) {
+				assertTrue(Arrays.equals(CHAPTER, result.get()));
+			}
+		} finally {
+			executorService.shutdown();
+		}
+		assertEquals(1, resource.readCount.get());
+		assertEquals(1, cache.getLoadCount());
+		assertTrue(resource.isInitialized());
+	}
+
+	public void testGetDataAsync() throws Exception {
+		ResourceDataCache cache = new ResourceDataCache(1024);
+		CountingLazyResource resource = new CountingLazyResource(cache);
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		};
+		Future<byte[]> first = resource.getDataAsync(executor);
+		Future<byte[]> second = resource.getDataAsync(executor);
+		assertSame(first, second);
+		assertEquals(1, cache.getSharedLoadCount());
+		assertFalse(first.isDone());
+
+		for (Runnable task: tasks) {
+			task.run();
+		}
+		assertTrue(Arrays.equals(CHAPTER, first.get()));
+		assertSame(first.get(), resource.getData());
+		assertTrue(resource.getDataAsync(executor).isDone());
+		assertEquals(1, resource.readCount.get());
+	}
+
+	public void testLoadError() throws Exception {
+		ResourceDataCache cache = new ResourceDataCache(1024);
+		CountingLazyResource resource = new CountingLazyResource(cache);
+		resource.fail = true;
+		try {
+			resource.getData();
+			fail("the read error is passed on");
+		} catch (IOException expected) {
+		}
+		// a failed load is not kept
+		resource.fail = false;
+		assertTrue(Arrays.equals(CHAPTER, resource.getData()));
+		assertEquals(2, resource.readCount.get());
+	}
+
+	private class CountingLazyResource extends LazyResource {
+
+		private static final long serialVersionUID = 1L;
+
+		final AtomicInteger readCount = new AtomicInteger();
+		volatile boolean fail = false;
+
+		public CountingLazyResource(ResourceDataCache cache) {
+			super(zipArchive, zipArchive.getEntry("chapter1.html"), "chapter1.html", cache);
+		}
+
+		protected byte[] readData() throws IOException {
+			readCount.incrementAndGet();
+			if (fail) {
+				throw new IOException("read error");
+			}
+			try {
+				// give the other readers time to ask for the data
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.readData();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package nl.siegmann.epublib.domain;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RunnableFuture;
+
+import junit.framework.TestCase;
+
+public class ResourceDataCacheTest extends TestCase {
+
+	public void testHitAndMiss() {
+		ResourceDataCache cache = new ResourceDataCache(100);
+		assertNull(cache.get("a"));
+		byte[] data = new byte[10];
+		cache.put("a", data);
+		assertSame(data, cache.get("a"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(10, cache.getCurrentSize());
+		assertTrue(cache.contains("a"));
+		cache.remove("a");
+		assertFalse(cache.contains("a"));
+		assertEquals(0, cache.getCurrentSize());
+	}
+
+	public void testEvictLeastRecentlyUsed() {
+		ResourceDataCache cache = new ResourceDataCache(100);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		cache.get("a");
+		cache.put("c", new byte[40]);
+		assertTrue(cache.contains("a"));
+		assertFalse(cache.contains("b"));
+		assertTrue(cache.contains("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(80, cache.getCurrentSize());
+		assertEquals(2, cache.getEntryCount());
+	}
+
+	public void testTooLargeForCache() {
+		ResourceDataCache cache = new ResourceDataCache(100);
+		cache.put("a", new byte[101]);
+		assertFalse(cache.contains("a"));
+		assertEquals(0, cache.getCurrentSize());
+	}
+
+	public void testSoftReferenceFallback() {
+		ResourceDataCache cache = new ResourceDataCache(100, true);
+		byte[] a = new byte[60];
+		cache.put("a", a);
+		cache.put("b", new byte[60]);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(60, cache.getCurrentSize());
+
+		// a is still strongly referenced by this test, so it can not have been collected
+		assertSame(a, cache.get("a"));
+		assertEquals(1, cache.getSoftHitCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0, cache.getMissCount());
+		assertEquals(60, cache.getCurrentSize());
+	}
+
+	public void testSetMaxSize() {
+		ResourceDataCache cache = new ResourceDataCache(100);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		cache.setMaxSize(50);
+		assertFalse(cache.contains("a"));
+		assertTrue(cache.contains("b"));
+		assertEquals(40, cache.getCurrentSize());
+	}
+
+	public void testLoad() throws Exception {
+		ResourceDataCache cache = new ResourceDataCache(100);
+		final byte[] data = new byte[10];
+		Callable<byte[]> loader = new Callable<byte[]>() {
+
+			public byte[] call() {
+				return data;
+			}
+		};
+		RunnableFuture<byte[]> load = cache.load("a", loader);
+		assertSame(load, cache.load("a", loader));
+		assertFalse(cache.contains("a"));
+		load.run();
+		load.run();
+		assertSame(data, load.get());
+		assertTrue(cache.contains("a"));
+		assertTrue(cache.load("a", loader).isDone());
+		assertEquals(1, cache.getLoadCount());
+		assertEquals(1, cache.getSharedLoadCount());
+
+		// data that is removed while it is loaded is not stored
+		load = cache.load("b", loader);
+		cache.remove("b");
+		load.run();
+		assertSame(data, load.get());
+		assertFalse(cache.contains("b"));
+
+		// nor is data that is cleared while it is loaded
+		load = cache.load("c", loader);
+		cache.clear();
+		load.run();
+		assertSame(data, load.get());
+		assertFalse(cache.contains("c"));
+		assertNotSame(load, cache.load("c", loader));
+	}
+}
@@ -1,5 +1,12 @@
 package nl.siegmann.epublib.domain;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import junit.framework.TestCase;
 import nl.siegmann.epublib.service.MediatypeService;
 
@@ -25,4 +32,103 @@ public class ResourcesTest extends TestCase {
 		assertEquals(3, resources.getResourcesByMediaTypes(new MediaTypeProperty[] {MediatypeService.XHTML, MediatypeService.PNG}).size());
 		assertEquals(3, resources.getResourcesByMediaTypes(new MediaTypeProperty[] {MediatypeService.CSS, MediatypeService.XHTML, MediatypeService.PNG}).size());
 	}
+
+	public void testIdIndexFollowsChanges() {
+		Resources resources = new Resources();
+		Resource chapter1 = resources.add(new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML));
+		Resource chapter2 = resources.add(new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML));
+		assertSame(chapter1, resources.getById("chapter1"));
+
+		chapter1.setId("intro");
+		assertNull(resources.getById("chapter1"));
+		assertSame(chapter1, resources.getById("intro"));
+		assertTrue(resources.containsId("intro"));
+
+		resources.remove("chapter2.html");
+		assertNull(resources.getById("chapter2"));
+		chapter2.setId("intro");
+		assertSame(chapter1, resources.getById("intro"));
+
+		Resource image = resources.add(new Resource("image", "baz".getBytes(), "image.png", MediatypeService.PNG));
+		assertEquals(1, resources.getResourcesByMediaType(MediatypeService.PNG).size());
+		image.setMediaTypeProperty(MediatypeService.JPG);
+		assertEquals(0, resources.getResourcesByMediaType(MediatypeService.PNG).size());
+		assertSame(image, resources.findFirstResourceByMediaType(MediatypeService.JPG));
+	}
+
+	public void testDuplicateIds() {
+		Resources resources = new Resources();
+		Resource chapter1 = new Resource("chapter", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML);
+		Resource chapter2 = new Resource("chapter", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML);
+		// addAll does not fix the ids
+		resources.addAll(Arrays.asList(chapter1, chapter2));
+		Resource first = resources.getById("chapter");
+		assertNotNull(first);
+		resources.remove(first.getHref());
+		Resource second = resources.getById("chapter");
+		assertNotNull(second);
+		assertNotSame(first, second);
+		resources.remove(second.getHref());
+		assertNull(resources.getById("chapter"));
+	}
+
+	public void testChangesThroughResourceMap() {
+		Resources resources = new Resources();
+		resources.add(new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML));
+		assertTrue(resources.containsId("chapter1"));
+		resources.getResourceMap().remove("chapter1.html");
+		assertFalse(resources.containsId("chapter1"));
+		resources.getResourceMap().put("chapter2.html", new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML));
+		assertTrue(resources.containsId("chapter2"));
+		// replacing a resource keeps the size the same
+		resources.getResourceMap().put("chapter2.html", new Resource("chapter3", "baz".getBytes(), "chapter2.html", MediatypeService.XHTML));
+		assertFalse(resources.containsId("chapter2"));
+		assertTrue(resources.containsId("chapter3"));
+		for (Map.Entry<String, Resource> entry: resources.getResourceMap().entrySet()) {
+			entry.setValue(new Resource("chapter4", "qux".getBytes(), entry.getKey(), MediatypeService.XHTML));
+		}
+		assertFalse(resources.containsId("chapter3"));
+		assertTrue(resources.containsId("chapter4"));
+	}
+
+	public void testSetOwnResources() {
+		Resources resources = new Resources();
+		resources.add(new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML));
+		resources.add(new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML));
+		resources.set(resources.getResourceMap());
+		assertEquals(2, resources.size());
+		assertTrue(resources.containsId("chapter1"));
+		resources.set(resources.getAll());
+		assertEquals(2, resources.size());
+		assertTrue(resources.containsId("chapter2"));
+	}
+
+	public void testResourcesByMediaTypeInOrderAdded() {
+		Resources resources = new Resources();
+		List<Resource> chapters = new ArrayList<Resource>();
+		for (int i = 0; i < 100; i++) {
+			chapters.add(resources.add(new Resource(new byte[0], "chapter" + i + ".html")));
+		}
+		assertEquals(chapters, resources.getResourcesByMediaType(MediatypeService.XHTML));
+		assertSame(chapters.get(0), resources.findFirstResourceByMediaType(MediatypeService.XHTML));
+		chapters.get(0).setMediaTypeProperty(MediatypeService.CSS);
+		chapters.get(0).setMediaTypeProperty(MediatypeService.XHTML);
+		chapters.add(chapters.remove(0));
+		assertEquals(chapters, resources.getResourcesByMediaType(MediatypeService.XHTML));
+	}
+
+	public void testManyResources() {
+		Resources resources = new Resources();
+		int nrResources = 50000;
+		for (int i = 0; i < nrResources; i++) {
+			resources.add(new Resource(null, new byte[0], "text/chapter" + i + ".html", MediatypeService.XHTML));
+		}
+		assertEquals(nrResources, resources.size());
+		assertEquals(nrResources, resources.getResourcesByMediaType(MediatypeService.XHTML).size());
+		Set<String> ids = new HashSet<String>();
+		for (Resource resource: resources.getAll()) {
+			assertTrue(ids.add(resource.getId()));
+			assertSame(resource, resources.getById(resource.getId()));
+		}
+	}
 }
@@ -0,0 +1,111 @@
+package nl.siegmann.epublib.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.service.MediatypeService;
+
+public class SpineTest extends TestCase {
+
+	public void testGetResourceIndex() {
+		Spine spine = new Spine();
+		Resource chapter1 = new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML);
+		Resource chapter2 = new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML);
+		spine.addResource(chapter1);
+		spine.addResource(chapter2);
+		spine.addResource(chapter1);
+		assertEquals(0, spine.getResourceIndex(chapter1));
+		assertEquals(1, spine.getResourceIndex("chapter2.html"));
+		assertEquals(1, spine.findFirstResourceById("chapter2"));
+		assertEquals(-1, spine.getResourceIndex("chapter3.html"));
+		assertEquals(-1, spine.findFirstResourceById("chapter3"));
+		assertEquals(-1, spine.getResourceIndex((Resource) null));
+	}
+
+	public void testResourceChanges() {
+		Spine spine = new Spine();
+		Resource chapter1 = new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML);
+		Resource chapter2 = new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML);
+		spine.addResource(chapter1);
+		spine.addResource(chapter2);
+		assertEquals(1, spine.getResourceIndex("chapter2.html"));
+
+		chapter2.setHref("text/chapter2.html");
+		chapter2.setId("intro");
+		assertEquals(-1, spine.getResourceIndex("chapter2.html"));
+		assertEquals(1, spine.getResourceIndex("text/chapter2.html"));
+		assertEquals(-1, spine.findFirstResourceById("chapter2"));
+		assertEquals(1, spine.findFirstResourceById("intro"));
+	}
+
+	public void testListChanges() {
+		Spine spine = new Spine();
+		Resource chapter1 = new Resource("chapter1", "foo".getBytes(), "chapter1.html", MediatypeService.XHTML);
+		Resource chapter2 = new Resource("chapter2", "bar".getBytes(), "chapter2.html", MediatypeService.XHTML);
+		spine.addResource(chapter1);
+		spine.addResource(chapter2);
+		assertEquals(1, spine.getResourceIndex(chapter2));
+
+		spine.getSpineReferences().remove(0);
+		assertEquals(-1, spine.getResourceIndex(chapter1));
+		assertEquals(0, spine.getResourceIndex(chapter2));
+
+		List<SpineReference> spineReferences = new ArrayList<SpineReference>();
+		spineReferences.add(new SpineReference(chapter2));
+		spineReferences.add(new SpineReference(chapter1));
+		spine.setSpineReferences(spineReferences);
+		assertEquals(1, spine.getResourceIndex(chapter1));
+		assertEquals(0, spine.findFirstResourceById("chapter2"));
+
+		// same size, different order
+		spineReferences.set(0, new SpineReference(chapter1));
+		spineReferences.set(1, new SpineReference(chapter2));
+		assertEquals(1, spine.getResourceIndex(chapter2));
+	}
+
+	/**
+	 * Spines sharing resources build their indexes at the same time, every spine still notices the changes of the resources.
+	 */
+	public void testConcurrentIndexes() throws Exception {
+		final List<Resource> chapters = new ArrayList<Resource>();
+		for (int i = 0; i < 20; i++) {
+			chapters.add(new Resource("chapter" + i, "foo".getBytes(), "chapter" + i + ".html", MediatypeService.XHTML));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<Spine>> futures = new ArrayList<Future<Spine>>();
+		try {
+			for (int i = 0; i < 400; i++) {
+				futures.add(executor.submit(new Callable<Spine>() {
+					public Spine call() {
+						Spine spine = new Spine();
+						for (Resource chapter: chapters) {
+							spine.addResource(chapter);
+						}
+						spine.getResourceIndex("chapter0.html");
+						return spine;
+					}
+				}));
+			}
+			for (Future<Spine> future: futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		for (int i = 0; i < chapters.size(); i++) {
+			chapters.get(i).setHref("text/chapter" + i + ".html");
+		}
+		for (Future<Spine> future: futures) {
+			Spine spine = future.get();
+			for (int i = 0; i < chapters.size(); i++) {
+				assertEquals(-1, spine.getResourceIndex("chapter" + i + ".html"));
+				assertEquals(i, spine.getResourceIndex("text/chapter" + i + ".html"));
+			}
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package nl.siegmann.epublib.domain;
 
+import java.util.Arrays;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 public class TableOfContentsTest extends TestCase {
@@ -87,4 +90,39 @@ public class TableOfContentsTest extends TestCase {
 		assertEquals("Section 1.1", toc.getTocReferences().get(0).getChildren().get(0).getTitle());
 		assertEquals(1, toc.getTocReferences().get(0).getChildren().size());
 	}
+
+	public void testGetTocReferencePath() {
+		TableOfContents toc = new TableOfContents();
+		Resource chapter1 = new Resource("chapter1.html");
+		Resource chapter2 = new Resource("chapter2.html");
+		TOCReference part1 = toc.addTOCReference(new TOCReference("part 1", chapter1));
+		TOCReference section1 = part1.addChildSection(new TOCReference("section 1", chapter1, "section1"));
+		TOCReference section2 = section1.addChildSection(new TOCReference("section 2", chapter2));
+		TOCReference part2 = toc.addTOCReference(new TOCReference("part 2", chapter2));
+
+		assertEquals(Arrays.asList(part1), toc.getTocReferencePath(chapter1));
+		assertEquals(Arrays.asList(part1, section1, section2), toc.getTocReferencePath("chapter2.html"));
+		assertTrue(toc.getTocReferencePath("chapter3.html").isEmpty());
+		assertTrue(toc.getTocReferencePath((Resource) null).isEmpty());
+
+		chapter2.setHref("chapter3.html");
+		assertTrue(toc.getTocReferencePath("chapter2.html").isEmpty());
+		assertEquals(Arrays.asList(part1, section1, section2), toc.getTocReferencePath("chapter3.html"));
+
+		part1.getChildren().clear();
+		assertEquals(Arrays.asList(part2), toc.getTocReferencePath("chapter3.html"));
+	}
+
+	public void testGetTocReferencePathDeep() {
+		TableOfContents toc = new TableOfContents();
+		Resource resource = new Resource("deep.html");
+		TOCReference tocReference = toc.addTOCReference(new TOCReference("level 0", null));
+		for (int i = 1; i < 5000; i++) {
+			tocReference = tocReference.addChildSection(new TOCReference("level " + i, null));
+		}
+		tocReference.setResource(resource);
+		List<TOCReference> path = toc.getTocReferencePath(resource);
+		assertEquals(5000, path.size());
+		assertSame(tocReference, path.get(4999));
+	}
 }
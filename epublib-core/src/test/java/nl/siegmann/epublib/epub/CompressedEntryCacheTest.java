@@ -0,0 +1,44 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.zip.CompressedEntry;
+
+public class CompressedEntryCacheTest extends TestCase {
+
+	public void testGet() throws IOException {
+		CompressedEntryCache cache = new CompressedEntryCache();
+		Resource chapter = new Resource("plumless".getBytes(), "chapter1.html");
+		byte[] digest = CompressedEntryCache.digest(chapter);
+		CompressedEntry entry = CompressedEntry.stored("chapter1.html", chapter.getData());
+		cache.put(entry, digest, Deflater.BEST_SPEED);
+
+		assertSame(entry, cache.get("chapter1.html", CompressedEntryCache.digest(new Resource("plumless".getBytes(), "chapter1.html")), Deflater.BEST_SPEED));
+		assertNull(cache.get("chapter1.html", digest, Deflater.BEST_COMPRESSION));
+		assertNull(cache.get("chapter2.html", digest, Deflater.BEST_SPEED));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	/**
+	 * A resource of another book with the same name, size and crc is not taken for the cached one.
+	 */
+	public void testSameCrc() throws IOException {
+		assertEquals(crc("plumless"), crc("buckeroo"));
+		CompressedEntryCache cache = new CompressedEntryCache();
+		Resource chapter = new Resource("plumless".getBytes(), "chapter1.html");
+		cache.put(CompressedEntry.stored("chapter1.html", chapter.getData()), CompressedEntryCache.digest(chapter), Deflater.BEST_SPEED);
+		Resource otherChapter = new Resource("buckeroo".getBytes(), "chapter1.html");
+		assertNull(cache.get("chapter1.html", CompressedEntryCache.digest(otherChapter), Deflater.BEST_SPEED));
+	}
+
+	private static long crc(String data) {
+		CRC32 crc = new CRC32();
+		crc.update(data.getBytes());
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,93 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.MediaTypeProperty;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.ZipArchive;
+
+public class CompressionPolicyTest extends TestCase {
+
+	public void testDefaults() {
+		CompressionPolicy compressionPolicy = new CompressionPolicy();
+		assertEquals(CompressionPolicy.STORED, compressionPolicy.getLevel(MediatypeService.JPG));
+		assertEquals(CompressionPolicy.STORED, compressionPolicy.getLevel(MediatypeService.MP3));
+		assertEquals(Deflater.DEFAULT_COMPRESSION, compressionPolicy.getLevel(MediatypeService.XHTML));
+		assertEquals(Deflater.DEFAULT_COMPRESSION, compressionPolicy.getLevel((MediaTypeProperty) null));
+		compressionPolicy.setDefaultLevel(Deflater.BEST_COMPRESSION);
+		compressionPolicy.setLevel(MediatypeService.CSS, Deflater.BEST_SPEED);
+		compressionPolicy.removeLevel(MediatypeService.JPG);
+		assertEquals(Deflater.BEST_COMPRESSION, compressionPolicy.getLevel(MediatypeService.JPG));
+		assertEquals(Deflater.BEST_SPEED, compressionPolicy.getLevel(MediatypeService.CSS));
+		try {
+			compressionPolicy.setLevel(MediatypeService.CSS, 10);
+			fail("invalid level should not be accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testEntropy() throws IOException {
+		byte[] random = new byte[CompressionPolicy.SAMPLE_SIZE * 2];
+		new Random(1).nextBytes(random);
+		byte[] text = IOUtil.toByteArray(getClass().getResourceAsStream("/book1/chapter1.html"));
+		assertTrue(CompressionPolicy.calculateEntropy(random, random.length) > 7.9);
+		assertTrue(CompressionPolicy.calculateEntropy(text, text.length) < 6);
+		assertEquals(0.0, CompressionPolicy.calculateEntropy(new byte[100], 100));
+
+		CompressionPolicy compressionPolicy = new CompressionPolicy();
+		Resource randomResource = new Resource(random, "data.bin");
+		Resource textResource = new Resource(text, "data.txt");
+		assertEquals(Deflater.DEFAULT_COMPRESSION, compressionPolicy.getLevel(randomResource));
+		compressionPolicy.setSampleEntropy(true);
+		assertEquals(CompressionPolicy.STORED, compressionPolicy.getLevel(randomResource));
+		assertEquals(Deflater.DEFAULT_COMPRESSION, compressionPolicy.getLevel(textResource));
+
+		// types with a level of their own are not sampled
+		compressionPolicy.setLevel(MediatypeService.XHTML, Deflater.BEST_SPEED);
+		assertEquals(Deflater.BEST_SPEED, compressionPolicy.getLevel(new Resource(random, "random.html")));
+	}
+
+	public void testWrite() throws IOException {
+		Book book = new Book();
+		book.addSection("Chapter 1", new Resource(getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		book.addResource(new Resource(getClass().getResourceAsStream("/book1/flowers_320x240.jpg"), "flowers.jpg"));
+		byte[] random = new byte[(int) CompressionPipeline.STREAMING_SIZE + 1];
+		new Random(1).nextBytes(random);
+		book.addResource(new Resource(random, "random.bin"));
+		book.addResource(new Resource(random, "random.mp3"));
+
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.getCompressionPolicy().setSampleEntropy(true);
+		File file = File.createTempFile("CompressionPolicyTest", ".epub");
+		try {
+			epubWriter.write(book, new FileOutputStream(file));
+			ZipArchive zipArchive = new ZipArchive(file);
+			assertEquals(ZipEntry.DEFLATED, zipArchive.getEntry("OEBPS/chapter1.html").getMethod());
+			assertEquals(ZipEntry.STORED, zipArchive.getEntry("OEBPS/flowers.jpg").getMethod());
+			assertEquals(ZipEntry.STORED, zipArchive.getEntry("OEBPS/random.bin").getMethod());
+			assertEquals(ZipEntry.STORED, zipArchive.getEntry("OEBPS/random.mp3").getMethod());
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			IOUtil.copy(zipArchive.getInputStream(zipArchive.getEntry("OEBPS/random.mp3")), data);
+			assertTrue(Arrays.equals(random, data.toByteArray()));
+			zipArchive.close();
+
+			Book readBook = new EpubReader().readEpub(new FileInputStream(file));
+			assertEquals(random.length, readBook.getResources().getByHref("random.mp3").getSize());
+		} finally {
+			file.delete();
+		}
+	}
+}
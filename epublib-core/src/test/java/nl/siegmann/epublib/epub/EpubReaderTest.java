@@ -1,11 +1,21 @@
 package nl.siegmann.epublib.epub;
 
 import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Author;
 import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.BookSummary;
+import nl.siegmann.epublib.domain.DcmesElement;
+import nl.siegmann.epublib.domain.LazyResource;
+import nl.siegmann.epublib.domain.MediaTypeProperty;
 import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.ResourceDataCache;
 import nl.siegmann.epublib.service.MediatypeService;
+import nl.siegmann.epublib.util.IOUtil;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class EpubReaderTest extends TestCase {
 	
@@ -75,6 +85,122 @@ public class EpubReaderTest extends TestCase {
 		}
 	}
 
+	public void testReadEpubLazy() throws IOException {
+		Book book = new Book();
+		book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+		book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		book.generateSpineFromTableOfContents();
+
+		File epubFile = File.createTempFile("EpubReaderTest", ".epub");
+		try {
+			FileOutputStream out = new FileOutputStream(epubFile);
+			(new EpubWriter()).write(book, out);
+			out.close();
+
+			EpubReader epubReader = new EpubReader();
+			ResourceDataCache resourceDataCache = new ResourceDataCache(1024 * 1024);
+			epubReader.setResourceDataCache(resourceDataCache);
+			Book readBook = epubReader.readEpubLazy(epubFile.getPath(), "UTF-8", Arrays.<MediaTypeProperty>asList(MediatypeService.PNG));
+			assertEquals(1, readBook.getSpine().size());
+			assertEquals(1, readBook.getTableOfContents().size());
+
+			Resource coverImage = readBook.getCoverImage();
+			assertTrue(coverImage instanceof LazyResource);
+			assertFalse(coverImage.isInitialized());
+			byte[] expected = IOUtil.toByteArray(this.getClass().getResourceAsStream("/book1/cover.png"));
+			assertEquals(expected.length, coverImage.getSize());
+			assertTrue(Arrays.equals(expected, coverImage.getData()));
+			assertTrue(coverImage.isInitialized());
+			assertSame(coverImage.getData(), coverImage.getData());
+			assertEquals(1, resourceDataCache.getMissCount());
+			assertEquals(2, resourceDataCache.getHitCount());
+			coverImage.close();
+			assertFalse(coverImage.isInitialized());
+			assertTrue(Arrays.equals(expected, IOUtil.toByteArray(coverImage.getInputStream())));
+
+			assertFalse(readBook.getSpine().getResource(0) instanceof LazyResource);
+			assertTrue(readBook.getSpine().getResource(0).isInitialized());
+			EpubReader.closeLazyResources(readBook);
+			// the epub file is opened again
+			assertTrue(Arrays.equals(expected, IOUtil.toByteArray(coverImage.getInputStream())));
+			EpubReader.closeLazyResources(readBook);
+		} finally {
+			epubFile.delete();
+		}
+	}
+
+	public void testReadEpubParallel() throws IOException {
+		Book book = new Book();
+		book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+		book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		book.addSection("Second chapter", new Resource(this.getClass().getResourceAsStream("/book1/chapter2.html"), "chapter2.html"));
+		book.getResources().add(new Resource(this.getClass().getResourceAsStream("/book1/flowers_320x240.jpg"), "flowers.jpg"));
+		book.generateSpineFromTableOfContents();
+
+		File epubFile = File.createTempFile("EpubReaderTest", ".epub");
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			FileOutputStream out = new FileOutputStream(epubFile);
+			(new EpubWriter()).write(book, out);
+			out.close();
+
+			Book expected = new EpubReader().readEpub(epubFile.getPath(), "UTF-8");
+			EpubReader epubReader = new EpubReader();
+			epubReader.setExecutorService(executorService);
+			Book actual = epubReader.readEpub(epubFile.getPath(), "UTF-8");
+
+			assertEquals(expected.getResources().size(), actual.getResources().size());
+			for (Resource expectedResource: expected.getResources().getAll()) {
+				Resource actualResource = actual.getResources().getByHref(expectedResource.getHref());
+				assertNotNull(expectedResource.getHref(), actualResource);
+				assertFalse(actualResource instanceof LazyResource);
+				assertEquals(expectedResource.getId(), actualResource.getId());
+				assertEquals(expectedResource.getMediaTypeProperty(), actualResource.getMediaTypeProperty());
+				assertTrue(Arrays.equals(expectedResource.getData(), actualResource.getData()));
+			}
+			assertEquals(2, actual.getSpine().size());
+			assertEquals(expected.getCoverImage().getHref(), actual.getCoverImage().getHref());
+		} finally {
+			executorService.shutdown();
+			epubFile.delete();
+		}
+	}
+
+	public void testReadBookSummary() throws IOException {
+		Book book = new Book();
+		DcmesElement title = new DcmesElement();
+		title.setValue("Summary test");
+		book.getMetadata().addTitle(title);
+		book.getMetadata().addAuthor(new Author("Joe", "Tester"));
+		book.setCoverImage(new Resource(this.getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+		book.addSection("Introduction", new Resource(this.getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		book.addSection("Second chapter", new Resource(this.getClass().getResourceAsStream("/book1/chapter2.html"), "chapter2.html"));
+		book.generateSpineFromTableOfContents();
+
+		File epubFile = File.createTempFile("EpubReaderTest", ".epub");
+		try {
+			FileOutputStream out = new FileOutputStream(epubFile);
+			(new EpubWriter()).write(book, out);
+			out.close();
+
+			BookSummary summary = new EpubReader().readBookSummary(epubFile.getPath());
+			assertEquals("Summary test", summary.getTitle().getValue());
+			assertEquals(book.getMetadata().getAuthors(), summary.getMetadata().getAuthors());
+			assertEquals("OEBPS/content.opf", summary.getPackageHref());
+			assertEquals(2, summary.getSpineSize());
+			assertEquals("cover.png", summary.getCoverImageHref());
+			assertNull(summary.getCoverImage());
+
+			summary = new EpubReader().readBookSummary(epubFile.getPath(), true);
+			assertNotNull(summary.getCoverImage());
+			assertEquals("cover.png", summary.getCoverImage().getHref());
+			byte[] expected = IOUtil.toByteArray(this.getClass().getResourceAsStream("/book1/cover.png"));
+			assertTrue(Arrays.equals(expected, summary.getCoverImage().getData()));
+		} finally {
+			epubFile.delete();
+		}
+	}
+
     public static void main(String[] args) throws IOException {
 //        Book book = new EpubReader().readEpub(new FileInputStream("F:\\TDDOWNLOAD\\epub3\\cc-shared-culture-20120130.epub"));
         Book book = new EpubReader().readEpub(new FileInputStream("F:\\TDDOWNLOAD\\epub2.epub"));
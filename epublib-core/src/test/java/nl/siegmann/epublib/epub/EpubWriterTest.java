@@ -1,10 +1,25 @@
 package nl.siegmann.epublib.epub;
 
 import junit.framework.TestCase;
+import nl.siegmann.epublib.Constants;
 import nl.siegmann.epublib.domain.*;
+import nl.siegmann.epublib.service.MediatypeService;
 import nl.siegmann.epublib.util.CollectionUtil;
+import nl.siegmann.epublib.util.IOUtil;
+import nl.siegmann.epublib.util.zip.ZipArchive;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class EpubWriterTest extends TestCase {
 
@@ -64,6 +79,416 @@ public class EpubWriterTest extends TestCase {
 		}
 	}
 	
+	public void testParallelSameAsSequential() throws IOException {
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setEntryTime(1234567890000L);
+		ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+		epubWriter.write(createTestBook(), sequential);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		try {
+			epubWriter.setExecutorService(executorService);
+			ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+			epubWriter.write(createTestBook(), parallel);
+			assertTrue(Arrays.equals(sequential.toByteArray(), parallel.toByteArray()));
+		} finally {
+			executorService.shutdown();
+		}
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(sequential.toByteArray()));
+		assertEquals(5, readBook.getSpine().size());
+		assertEquals(4, readBook.getTableOfContents().size());
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(sequential.toByteArray()));
+		assertEquals("mimetype", zipInputStream.getNextEntry().getName());
+		assertEquals("META-INF/container.xml", zipInputStream.getNextEntry().getName());
+		zipInputStream.close();
+	}
+
+	public void testCopyCompressedEntries() throws IOException {
+		File original = File.createTempFile("EpubWriterTest", ".epub");
+		File copy = File.createTempFile("EpubWriterTest", ".epub");
+		try {
+			FileOutputStream out = new FileOutputStream(original);
+			new EpubWriter().write(createTestBook(), out);
+			Book book = new EpubReader().readEpubLazy(original.getPath(), Constants.CHARACTER_ENCODING, Arrays.asList(MediatypeService.JPG));
+			assertTrue(book.getResources().getByHref("flowers.jpg") instanceof LazyResource);
+			book.getResources().getByHref("chapter1.html").setData("<html/>".getBytes());
+			book.getResources().getByHref("chapter2.html").getData()[0] = ' ';
+
+			EpubWriter epubWriter = new EpubWriter();
+			epubWriter.setCompressionLevel(Deflater.NO_COMPRESSION);
+			out = new FileOutputStream(copy);
+			epubWriter.write(book, out);
+
+			ZipArchive originalArchive = new ZipArchive(original);
+			ZipArchive copyArchive = new ZipArchive(copy);
+			for (String name: new String[] {"OEBPS/flowers.jpg", "OEBPS/cover.png", "OEBPS/chapter3.html", "OEBPS/book1.css"}) {
+				assertEquals(name, originalArchive.getEntry(name).getCompressedSize(), copyArchive.getEntry(name).getCompressedSize());
+				assertEquals(name, originalArchive.getEntry(name).getCrc(), copyArchive.getEntry(name).getCrc());
+			}
+			for (String name: new String[] {"OEBPS/chapter1.html", "OEBPS/chapter2.html"}) {
+				assertTrue(name, copyArchive.getEntry(name).getCompressedSize() > copyArchive.getEntry(name).getSize());
+			}
+			originalArchive.close();
+			copyArchive.close();
+
+			Book readBook = new EpubReader().readEpub(new FileInputStream(copy));
+			assertEquals("<html/>", new String(readBook.getResources().getByHref("chapter1.html").getData()));
+			assertEquals(' ', readBook.getResources().getByHref("chapter2.html").getData()[0]);
+			assertTrue(Arrays.equals(IOUtil.toByteArray(getClass().getResourceAsStream("/book1/flowers_320x240.jpg")), readBook.getResources().getByHref("flowers.jpg").getData()));
+		} finally {
+			original.delete();
+			copy.delete();
+		}
+	}
+
+	public void testDocumentsWrittenIntoEntries() throws IOException {
+		Book book = createTestBook();
+		DcmesElement title = new DcmesElement();
+		title.setValue("Large table of contents");
+		book.getMetadata().addTitle(title);
+		Resource chapter = book.getResources().getByHref("chapter1.html");
+		for (int i = 0; i < 2000; i++) {
+			book.getTableOfContents().addTOCReference(new TOCReference("Section " + i, chapter, "section" + i));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EpubWriter().writeEpub3(book, out);
+		byte[] epub = out.toByteArray();
+
+		// the table of contents and nav document are generated for the epub file only
+		assertNull(book.getSpine().getTocResource());
+		assertNull(book.getResources().getByHref(NavDocument.DEFAULT_NAV_HREF));
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(epub));
+		assertEquals(2003, readBook.getTableOfContents().getTocReferences().size());
+		assertEquals("Section 1999", readBook.getTableOfContents().getTocReferences().get(2002).getTitle());
+		assertTrue(new String(readBook.getSpine().getTocResource().getData(), Constants.CHARACTER_ENCODING).contains("Section 1999"));
+		assertNotNull(readBook.getNavResource());
+	}
+
+	public void testProgressiveEntryOrder() throws IOException {
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setEntryOrder(EntryOrder.PROGRESSIVE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		epubWriter.write(createTestBook(), out);
+
+		List<String> names = new ArrayList<String>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+		for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry()) {
+			names.add(entry.getName());
+		}
+		zipInputStream.close();
+		assertEquals(Arrays.asList("mimetype", "META-INF/container.xml", "OEBPS/content.opf", "OEBPS/toc.ncx", "OEBPS/book1.css"), names.subList(0, 5));
+		int chapter2 = names.indexOf("OEBPS/chapter2.html");
+		assertTrue(names.indexOf("OEBPS/chapter1.html") < chapter2);
+		assertEquals("OEBPS/flowers.jpg", names.get(chapter2 + 1));
+		assertEquals("OEBPS/chapter2_1.html", names.get(chapter2 + 2));
+		assertEquals(12, names.size());
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(5, readBook.getSpine().size());
+		assertEquals(4, readBook.getTableOfContents().size());
+	}
+
+	public void testDeterministic() throws IOException, InterruptedException {
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setDeterministic(true);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		epubWriter.write(createTestBook(), first);
+
+		// the same book, but with its resources in a bigger hash map
+		Book book = createTestBook();
+		for (int i = 0; i < 100; i++) {
+			book.getResources().add(new Resource(("<html>" + i + "</html>").getBytes(), "extra" + i + ".html"));
+		}
+		for (int i = 0; i < 100; i++) {
+			book.getResources().remove("extra" + i + ".html");
+		}
+		Thread.sleep(2000);
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		epubWriter.write(book, second);
+		assertTrue(Arrays.equals(first.toByteArray(), second.toByteArray()));
+
+		List<String> names = new ArrayList<String>();
+		ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(first.toByteArray()));
+		for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry()) {
+			names.add(entry.getName());
+		}
+		zipInputStream.close();
+		List<String> sortedNames = new ArrayList<String>(names.subList(2, names.size() - 2));
+		Collections.sort(sortedNames);
+		assertEquals(sortedNames, names.subList(2, names.size() - 2));
+	}
+
+	public void testPlan() throws IOException {
+		Book book = createTitledTestBook();
+		int resourceCount = book.getResources().size();
+		int manifestCount = book.getManifest().getReferences().size();
+		ArchivePlan plan = new EpubWriter().plan(book, Version.V3);
+		// the table of contents and nav document are planned without adding them to the book
+		assertNull(book.getSpine().getTocResource());
+		assertEquals(resourceCount, book.getResources().size());
+		assertEquals(manifestCount, book.getManifest().getReferences().size());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		plan.write(out);
+		byte[] epub = out.toByteArray();
+		assertEquals(plan.getSize(), epub.length);
+		for (ArchivePlan.Entry entry: plan.getEntries()) {
+			assertEquals(entry.getName(), 0x04034b50, ((epub[(int) entry.getOffset() + 3] & 0xff) << 24) | ((epub[(int) entry.getOffset() + 2] & 0xff) << 16) | ((epub[(int) entry.getOffset() + 1] & 0xff) << 8) | (epub[(int) entry.getOffset()] & 0xff));
+		}
+		assertEquals("mimetype", plan.getEntries().get(0).getName());
+		assertEquals("application/epub+zip", new String(epub, (int) plan.getEntries().get(0).getDataOffset(), (int) plan.getEntries().get(0).getCompressedSize()));
+
+		// every range is the same as that part of the whole epub file
+		long[][] ranges = {{0, 0}, {0, 10}, {5, 100}, {plan.getEntries().get(3).getDataOffset() + 1, 2000}, {1000, epub.length - 2000}, {epub.length - 30, 30}, {0, epub.length}};
+		for (long[] range: ranges) {
+			ByteArrayOutputStream rangeOut = new ByteArrayOutputStream();
+			plan.write(rangeOut, range[0], range[1]);
+			assertTrue(range[0] + "-" + range[1], Arrays.equals(Arrays.copyOfRange(epub, (int) range[0], (int) (range[0] + range[1])), rangeOut.toByteArray()));
+		}
+		try {
+			plan.write(new ByteArrayOutputStream(), epub.length - 10, 11);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(epub));
+		assertEquals(5, readBook.getSpine().size());
+		assertNotNull(readBook.getNavResource());
+		assertTrue(Arrays.equals(IOUtil.toByteArray(getClass().getResourceAsStream("/book1/flowers_320x240.jpg")), readBook.getResources().getByHref("flowers.jpg").getData()));
+	}
+
+	/**
+	 * A range that ends within the data of an entry reads that entry up to the end of the range only.
+	 */
+	public void testPlanRangeEnd() throws IOException {
+		Book book = createTitledTestBook();
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31 / 7);
+		}
+		StreamedResource large = new StreamedResource(data, "large.html");
+		book.getResources().add(large);
+		ArchivePlan plan = new EpubWriter().plan(book);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		plan.write(out);
+		byte[] epub = out.toByteArray();
+
+		ArchivePlan.Entry entry = null;
+		for (ArchivePlan.Entry planEntry: plan.getEntries()) {
+			if (planEntry.getName().equals("OEBPS/large.html")) {
+				entry = planEntry;
+			}
+		}
+		assertEquals(ZipEntry.STORED, entry.getMethod());
+		long end = entry.getDataOffset() + 1000;
+		large.nrRead = 0;
+		ByteArrayOutputStream rangeOut = new ByteArrayOutputStream();
+		plan.write(rangeOut, 10, end - 10);
+		assertTrue(Arrays.equals(Arrays.copyOfRange(epub, 10, (int) end), rangeOut.toByteArray()));
+		assertEquals(1000, large.nrRead);
+
+		// only the local header of the entry lies in the range
+		large.nrRead = 0;
+		rangeOut = new ByteArrayOutputStream();
+		plan.write(rangeOut, 0, entry.getDataOffset());
+		assertTrue(Arrays.equals(Arrays.copyOfRange(epub, 0, (int) entry.getDataOffset()), rangeOut.toByteArray()));
+		assertEquals(0, large.nrRead);
+	}
+
+	public void testPlanLazyBook() throws IOException {
+		File original = File.createTempFile("EpubWriterTest", ".epub");
+		try {
+			FileOutputStream out = new FileOutputStream(original);
+			new EpubWriter().write(createTestBook(), out);
+			Book book = new EpubReader().readEpubLazy(original.getPath(), Constants.CHARACTER_ENCODING, Arrays.asList(MediatypeService.XHTML, MediatypeService.JPG));
+			EpubWriter epubWriter = new EpubWriter();
+			epubWriter.setCopyCompressedEntries(false);
+			ArchivePlan plan = epubWriter.plan(book);
+
+			// resources that are not in memory are stored, unless they are copied
+			for (ArchivePlan.Entry entry: plan.getEntries()) {
+				if (entry.getName().equals("OEBPS/chapter3.html")) {
+					assertEquals(ZipEntry.STORED, entry.getMethod());
+				} else if (entry.getName().equals("OEBPS/book1.css")) {
+					assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+				}
+			}
+			ByteArrayOutputStream epub = new ByteArrayOutputStream();
+			plan.write(epub);
+			assertEquals(plan.getSize(), epub.size());
+			ByteArrayOutputStream end = new ByteArrayOutputStream();
+			plan.write(end, plan.getSize() / 2, plan.getSize() - plan.getSize() / 2);
+			assertTrue(Arrays.equals(Arrays.copyOfRange(epub.toByteArray(), (int) (plan.getSize() / 2), (int) plan.getSize()), end.toByteArray()));
+
+			Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(epub.toByteArray()));
+			assertTrue(Arrays.equals(IOUtil.toByteArray(getClass().getResourceAsStream("/book1/chapter3.html")), readBook.getResources().getByHref("chapter3.html").getData()));
+			assertEquals(4, readBook.getTableOfContents().size());
+		} finally {
+			original.delete();
+		}
+	}
+
+	public void testWriteVersions() throws IOException {
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setDeterministic(true);
+		CompressedEntryCache cache = new CompressedEntryCache();
+		epubWriter.setCompressedEntryCache(cache);
+		Book book = createTitledTestBook();
+		ByteArrayOutputStream epub2 = new ByteArrayOutputStream();
+		ByteArrayOutputStream epub3 = new ByteArrayOutputStream();
+		Map<Version, OutputStream> outputs = new LinkedHashMap<Version, OutputStream>();
+		outputs.put(Version.V2, epub2);
+		outputs.put(Version.V3, epub3);
+		epubWriter.write(book, outputs);
+
+		// the html and css resources are deflated once, the second version does not even look them up
+		assertEquals(6, cache.getEntryCount());
+		assertEquals(6, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+
+		// the same as writing the versions one after the other
+		EpubWriter separateWriter = new EpubWriter();
+		separateWriter.setDeterministic(true);
+		Book separateBook = createTitledTestBook();
+		ByteArrayOutputStream separateEpub2 = new ByteArrayOutputStream();
+		separateWriter.write(separateBook, separateEpub2);
+		ByteArrayOutputStream separateEpub3 = new ByteArrayOutputStream();
+		separateWriter.writeEpub3(separateBook, separateEpub3);
+		assertTrue(Arrays.equals(separateEpub2.toByteArray(), epub2.toByteArray()));
+		assertTrue(Arrays.equals(separateEpub3.toByteArray(), epub3.toByteArray()));
+
+		// a changed resource is deflated again
+		book.getResources().getByHref("chapter1.html").setData("<html/>".getBytes());
+		ByteArrayOutputStream changed = new ByteArrayOutputStream();
+		epubWriter.write(book, changed);
+		assertEquals(7, cache.getMissCount());
+		assertEquals(5, cache.getHitCount());
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(changed.toByteArray()));
+		assertEquals("<html/>", new String(readBook.getResources().getByHref("chapter1.html").getData()));
+		assertNotNull(new EpubReader().readEpub(new ByteArrayInputStream(epub3.toByteArray())).getNavResource());
+	}
+
+	/**
+	 * The table of contents and nav document are generated for the epub file, the book is not changed.
+	 */
+	public void testWriteFrozenBook() throws IOException {
+		Book book = createTitledTestBook().freeze();
+		int resourceCount = book.getResources().size();
+		int manifestCount = book.getManifest().getReferences().size();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EpubWriter().writeEpub3(book, out);
+		assertEquals(resourceCount, book.getResources().size());
+		assertEquals(manifestCount, book.getManifest().getReferences().size());
+		assertNull(book.getSpine().getTocResource());
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("Test book", readBook.getMetadata().getFirstTitle().getValue());
+		assertEquals(5, readBook.getSpine().size());
+		assertEquals("toc.ncx", readBook.getSpine().getTocResource().getHref());
+		assertEquals("nav.xhtml", readBook.getNavResource().getHref());
+		assertEquals(resourceCount + 2, readBook.getResources().size());
+	}
+
+	/**
+	 * The epub 2 file written after the epub 3 file has no nav document.
+	 */
+	public void testWriteVersionsEpub3First() throws IOException {
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setDeterministic(true);
+		ByteArrayOutputStream epub3 = new ByteArrayOutputStream();
+		ByteArrayOutputStream epub2 = new ByteArrayOutputStream();
+		Map<Version, OutputStream> outputs = new LinkedHashMap<Version, OutputStream>();
+		outputs.put(Version.V3, epub3);
+		outputs.put(Version.V2, epub2);
+		epubWriter.write(createTitledTestBook(), outputs);
+
+		ByteArrayOutputStream separateEpub3 = new ByteArrayOutputStream();
+		epubWriter.writeEpub3(createTitledTestBook(), separateEpub3);
+		ByteArrayOutputStream separateEpub2 = new ByteArrayOutputStream();
+		epubWriter.write(createTitledTestBook(), separateEpub2);
+		assertTrue(Arrays.equals(separateEpub3.toByteArray(), epub3.toByteArray()));
+		assertTrue(Arrays.equals(separateEpub2.toByteArray(), epub2.toByteArray()));
+		assertNull(new EpubReader().readEpub(new ByteArrayInputStream(epub2.toByteArray())).getResources().getByHref("nav.xhtml"));
+	}
+
+	/**
+	 * Every resource is deflated once for all versions, also when the cache is too small to keep them and when they are streamed otherwise.
+	 */
+	public void testWriteVersionsSmallCache() throws IOException {
+		EpubWriter epubWriter = new EpubWriter();
+		CompressedEntryCache cache = new CompressedEntryCache(256);
+		epubWriter.setCompressedEntryCache(cache);
+		Book book = createTitledTestBook();
+		byte[] data = new byte[(int) CompressionPipeline.STREAMING_SIZE + 1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) ('a' + i % 26);
+		}
+		book.addResource(new Resource(data, "large.html"));
+		ByteArrayOutputStream epub2 = new ByteArrayOutputStream();
+		ByteArrayOutputStream epub3 = new ByteArrayOutputStream();
+		Map<Version, OutputStream> outputs = new LinkedHashMap<Version, OutputStream>();
+		outputs.put(Version.V2, epub2);
+		outputs.put(Version.V3, epub3);
+		epubWriter.write(book, outputs);
+
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(7, cache.getMissCount());
+		assertEquals(0, cache.getHitCount());
+		for (ByteArrayOutputStream epub: Arrays.asList(epub2, epub3)) {
+			Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(epub.toByteArray()));
+			assertTrue(Arrays.equals(data, readBook.getResources().getByHref("large.html").getData()));
+		}
+	}
+
+	/**
+	 * A resource that is not in memory, counting the bytes read from it.
+	 */
+	private static class StreamedResource extends Resource {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] streamedData;
+		int nrRead = 0;
+
+		public StreamedResource(byte[] streamedData, String href) {
+			super(null, null, href, MediatypeService.XHTML);
+			this.streamedData = streamedData;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(streamedData) {
+
+				@Override
+				public synchronized int read() {
+					int result = super.read();
+					if (result >= 0) {
+						nrRead++;
+					}
+					return result;
+				}
+
+				@Override
+				public synchronized int read(byte[] buffer, int offset, int length) {
+					int result = super.read(buffer, offset, length);
+					if (result > 0) {
+						nrRead += result;
+					}
+					return result;
+				}
+			};
+		}
+	}
+
+	private Book createTitledTestBook() throws IOException {
+		Book book = createTestBook();
+		DcmesElement title = new DcmesElement();
+		title.setValue("Test book");
+		book.getMetadata().addTitle(title);
+		return book;
+	}
+
 	private Book createTestBook() throws IOException {
 		Book book = new Book();
 		
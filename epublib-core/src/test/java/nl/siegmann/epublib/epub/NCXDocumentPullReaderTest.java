@@ -0,0 +1,87 @@
+package nl.siegmann.epublib.epub;
+
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.service.MediatypeService;
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class NCXDocumentPullReaderTest {
+
+    byte[] ncxData;
+
+    @Before
+    public void setUp() throws IOException {
+        ncxData = FileUtils.readFileToByteArray(new File("src/test/resources/toc.xml"));
+    }
+
+    @Test
+    public void testStreamingSameAsDOM() {
+        Book book = createBook(ncxData);
+        EpubReader epubReader = new EpubReader();
+        epubReader.setStreamingTocReader(false);
+        NCXDocument.read(book, epubReader);
+        List<TOCReference> expected = book.getTableOfContents().getTocReferences();
+
+        book = createBook(ncxData);
+        NCXDocument.read(book, new EpubReader());
+        List<TOCReference> actual = book.getTableOfContents().getTocReferences();
+
+        assertEquals(3, actual.size());
+        assertEquals("Chapter 2, section 1", actual.get(1).getChildren().get(0).getTitle());
+        assertSameTOCReferences(expected, actual);
+    }
+
+    @Test
+    public void testStreamingDeepNesting() {
+        StringBuilder ncx = new StringBuilder("<ncx xmlns=\"http://www.daisy.org/z3986/2005/ncx/\"><navMap>");
+        int depth = 5000;
+        for (int i = 0; i < depth; i++) {
+            ncx.append("<navPoint><navLabel><text>").append(i).append("</text></navLabel><content src=\"chapter1.html#").append(i).append("\"/>");
+        }
+        for (int i = 0; i < depth; i++) {
+            ncx.append("</navPoint>");
+        }
+        ncx.append("</navMap></ncx>");
+        Book book = createBook(ncx.toString().getBytes());
+        NCXDocument.read(book, new EpubReader());
+        TOCReference tocReference = book.getTableOfContents().getTocReferences().get(0);
+        int actualDepth = 1;
+        for (TOCReference child = tocReference; ! child.getChildren().isEmpty(); child = child.getChildren().get(0)) {
+            actualDepth++;
+        }
+        assertEquals(depth, actualDepth);
+        assertNotNull(tocReference.getResource());
+        assertEquals("0", tocReference.getTitle());
+        assertEquals("1", tocReference.getChildren().get(0).getFragmentId());
+    }
+
+    private static Book createBook(byte[] ncxData) {
+        Book book = new Book();
+        Resource ncxResource = new Resource(ncxData, "xhtml/toc.ncx");
+        Resource chapterResource = new Resource("id1", "Hello, world !".getBytes(), "xhtml/chapter1.html", MediatypeService.XHTML);
+        book.addResource(chapterResource);
+        book.getSpine().addResource(chapterResource);
+        book.setNcxResource(ncxResource);
+        book.getSpine().setTocResource(ncxResource);
+        return book;
+    }
+
+    static void assertSameTOCReferences(List<TOCReference> expected, List<TOCReference> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTitle(), actual.get(i).getTitle());
+            assertEquals(expected.get(i).getResource(), actual.get(i).getResource());
+            assertEquals(expected.get(i).getFragmentId(), actual.get(i).getFragmentId());
+            assertSameTOCReferences(expected.get(i).getChildren(), actual.get(i).getChildren());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package nl.siegmann.epublib.epub;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.ManifestItemProperties;
+import nl.siegmann.epublib.domain.ManifestItemReference;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.service.MediatypeService;
+
+public class NavDocumentTest extends TestCase {
+
+	private static final String NAV_DOCUMENT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+		+ "<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:epub=\"http://www.idpf.org/2007/ops\"><head><title>nav</title></head><body>"
+		+ "<nav epub:type=\"landmarks\"><ol><li><a href=\"chapter2.html\">Landmark</a></li></ol></nav>"
+		+ "<nav epub:type=\"toc\"><h1>Contents</h1><ol>"
+		+ "<li><a href=\"chapter1.html\">Chapter <em>1</em> &amp; <![CDATA[more]]></a></li>"
+		+ "<li><span>Part 2</span><ol>"
+		+ "<li><a href=\"chapter2.html#section1\">Section 1</a></li>"
+		+ "<li><ol><li><a href=\"chapter2.html#section2\">Section 2</a></li></ol></li>"
+		+ "</ol><ol><li><a href=\"chapter1.html\">Not read</a></li></ol></li>"
+		+ "</ol></nav>"
+		+ "<nav epub:type=\"toc\"><ol><li><a href=\"chapter1.html\">Second toc</a></li></ol></nav>"
+		+ "</body></html>";
+
+	public void testStreamingSameAsDOM() throws Exception {
+		Book book = createBook();
+		List<TOCReference> expected = NavDocument.read(book.getNavResource(), book);
+		List<TOCReference> actual = NavDocumentPullReader.read(book.getNavResource(), book);
+
+		assertEquals(2, actual.size());
+		assertEquals("Chapter 1 & more", actual.get(0).getTitle());
+		assertEquals("text/chapter1.html", actual.get(0).getCompleteHref());
+		// a list item without a link of its own gets the first link below it
+		assertEquals("Section 1", actual.get(1).getTitle());
+		assertEquals(2, actual.get(1).getChildren().size());
+		assertEquals("section1", actual.get(1).getChildren().get(0).getFragmentId());
+		assertEquals("Section 2", actual.get(1).getChildren().get(1).getTitle());
+		NCXDocumentPullReaderTest.assertSameTOCReferences(expected, actual);
+	}
+
+	public void testReadBook() {
+		Book book = createBook();
+		NavDocument.read(book, new EpubReader());
+		assertEquals(2, book.getTableOfContents().getTocReferences().size());
+	}
+
+	private static Book createBook() {
+		Book book = new Book();
+		book.addResource(new Resource("chapter1", "Hello, world !".getBytes(), "text/chapter1.html", MediatypeService.XHTML));
+		book.addResource(new Resource("chapter2", "Hello, world !".getBytes(), "text/chapter2.html", MediatypeService.XHTML));
+		Resource navResource = new Resource(NavDocument.NAV_ITEM_ID, NAV_DOCUMENT.getBytes(), "text/nav.xhtml", MediatypeService.XHTML);
+		book.setNavResource(navResource);
+		book.getManifest().addReference(new ManifestItemReference(navResource, ManifestItemProperties.NAV));
+		return book;
+	}
+}
@@ -0,0 +1,118 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Metadata;
+import nl.siegmann.epublib.epub.PackageDocumentContents.ElementRecord;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParserException;
+
+public class PackageDocumentPullReaderTest extends TestCase {
+
+	private static final String[] PACKAGE_DOCUMENTS = new String[] {
+		"/opf/test1.opf", "/opf/test2.opf", "/opf/test3.opf", "/opf/test_language.opf", "/opf/test_default_language.opf"
+	};
+
+	public void testSameAsDocument() throws Exception {
+		for (String packageDocument: PACKAGE_DOCUMENTS) {
+			Document document = EpubProcessorSupport.createDocumentBuilder().parse(getClass().getResourceAsStream(packageDocument));
+			PackageDocumentContents expected = PackageDocumentContents.fromDocument(document);
+			PackageDocumentContents actual = PackageDocumentPullReader.read(new InputStreamReader(getClass().getResourceAsStream(packageDocument), Constants.CHARACTER_ENCODING));
+			assertSameContents(packageDocument, expected, actual);
+		}
+	}
+
+	public void testMetadata() throws Exception {
+		PackageDocumentContents contents = PackageDocumentPullReader.read(new InputStreamReader(getClass().getResourceAsStream("/opf/test3.opf"), Constants.CHARACTER_ENCODING));
+		Metadata metadata = PackageDocumentMetadataReader.readMetadata(contents);
+		assertEquals("Creative Commons - A Shared Culture", metadata.getTitles().get(0).getValue());
+		assertEquals("Jesse Dylan", metadata.getAuthors().get(0).getValue());
+		assertEquals("code.google.com.epub-samples.cc-shared-culture", metadata.getIdentifiers().get(0).getValue());
+		assertEquals(3, metadata.getLinks().size());
+		assertEquals(2, metadata.getMetas().size());
+	}
+
+	public void testNamespacePrefixes() throws Exception {
+		String packageDocument = "<?xml version=\"1.0\"?>"
+			+ "<opf:package xmlns:opf=\"http://www.idpf.org/2007/opf\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\" version=\"2.0\" unique-identifier=\"BookId\">"
+			+ "<opf:metadata><dc:title>A &amp; <![CDATA[B]]></dc:title><dc:identifier id=\"BookId\" opf:scheme=\"uuid\"> 1234 </dc:identifier></opf:metadata>"
+			+ "<opf:manifest><opf:item id=\"chapter1\" href=\"chapter1.html\" media-type=\"application/xhtml+xml\"/></opf:manifest>"
+			+ "<opf:spine toc=\"ncx\"><opf:itemref idref=\"chapter1\"/></opf:spine>"
+			+ "<item xmlns=\"http://www.idpf.org/2007/opf\" id=\"outside\" href=\"outside.html\"/>"
+			+ "</opf:package>";
+		PackageDocumentContents expected = PackageDocumentContents.fromDocument(EpubProcessorSupport.createDocumentBuilder().parse(new InputSource(new StringReader(packageDocument))));
+		PackageDocumentContents actual = PackageDocumentPullReader.read(new StringReader(packageDocument));
+		assertSameContents("prefixes", expected, actual);
+		assertEquals(1, actual.manifestItems.size());
+		assertEquals(2, actual.items.size());
+		assertEquals("A & B", actual.getDublinCoreElements("title").get(0).getTextContent());
+		assertEquals("1234", actual.getDublinCoreElements("identifier").get(0).getTextChildrenContent());
+		assertEquals("uuid", actual.getDublinCoreElements("identifier").get(0).getAttributeNS(PackageDocumentBase.NAMESPACE_OPF, "scheme"));
+	}
+
+	public void testUnboundPrefix() throws Exception {
+		try {
+			PackageDocumentPullReader.read(new StringReader("<package><foo:metadata/></package>"));
+			fail("unbound prefix should not be accepted");
+		} catch (XmlPullParserException e) {
+			// expected
+		}
+	}
+
+	private static void assertSameContents(String message, PackageDocumentContents expected, PackageDocumentContents actual) {
+		assertSameElement(message, expected.packageElement, actual.packageElement);
+		assertEquals(message, expected.metadataFound, actual.metadataFound);
+		assertEquals(message, expected.dublinCoreElements.keySet(), actual.dublinCoreElements.keySet());
+		for (String tag: expected.dublinCoreElements.keySet()) {
+			assertSameElements(message + " dc:" + tag, expected.getDublinCoreElements(tag), actual.getDublinCoreElements(tag));
+		}
+		assertSameElements(message + " metas", expected.metas, actual.metas);
+		assertSameElements(message + " links", expected.links, actual.links);
+		assertEquals(message, expected.manifestFound, actual.manifestFound);
+		assertSameElements(message + " manifest", expected.manifestItems, actual.manifestItems);
+		assertSameElements(message + " items", expected.items, actual.items);
+		assertEquals(message, expected.guideFound, actual.guideFound);
+		assertSameElements(message + " guide", expected.guideReferences, actual.guideReferences);
+		assertEquals(message, expected.spineElement == null, actual.spineElement == null);
+		if (expected.spineElement != null) {
+			assertSameElement(message + " spine", expected.spineElement, actual.spineElement);
+		}
+		assertSameElements(message + " itemrefs", expected.itemrefs, actual.itemrefs);
+		assertEquals(message, expected.bindingsFound, actual.bindingsFound);
+		assertSameElements(message + " bindings", expected.bindingsMediaTypes, actual.bindingsMediaTypes);
+		assertEquals(message, expected.coverMetaContent, actual.coverMetaContent);
+		assertEquals(message, expected.coverReferenceHref, actual.coverReferenceHref);
+	}
+
+	private static void assertSameElements(String message, List<ElementRecord> expected, List<ElementRecord> actual) {
+		assertEquals(message, expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSameElement(message + "[" + i + "]", expected.get(i), actual.get(i));
+		}
+	}
+
+	private static void assertSameElement(String message, ElementRecord expected, ElementRecord actual) {
+		assertEquals(message, expected.getNamespace(), actual.getNamespace());
+		assertEquals(message, expected.getLocalName(), actual.getLocalName());
+		assertEquals(message, getAttributes(expected), getAttributes(actual));
+		assertEquals(message, expected.getTextChildrenContent(), actual.getTextChildrenContent());
+		assertEquals(message, expected.getTextContent(), actual.getTextContent());
+	}
+
+	// the DOM sorts the attributes by name, so the order is not compared
+	private static Map<String, String> getAttributes(ElementRecord element) {
+		Map<String, String> result = new HashMap<String, String>();
+		for (int i = 0; i < element.getAttributeCount(); i++) {
+			result.put(element.getAttributeName(i), element.getAttributeValue(i));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.domain.Author;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.DcmesElement;
+import nl.siegmann.epublib.domain.GuideReference;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.domain.Version;
+import nl.siegmann.epublib.util.IOUtil;
+
+public class StreamingEpubWriterTest extends TestCase {
+
+	public void testWrite() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamingEpubWriter epubWriter = new StreamingEpubWriter(out, Version.V3);
+		DcmesElement title = new DcmesElement();
+		title.setValue("Streaming test book");
+		epubWriter.getMetadata().addTitle(title);
+		epubWriter.getMetadata().addAuthor(new Author("Joe", "Tester"));
+		Resource coverPage = epubWriter.setCoverPage(new Resource(getClass().getResourceAsStream("/book1/cover.html"), "cover.html"));
+		epubWriter.setCoverImage(new Resource(getClass().getResourceAsStream("/book1/cover.png"), "cover.png"));
+		epubWriter.addResource(new Resource(getClass().getResourceAsStream("/book1/book1.css"), "book1.css"));
+		epubWriter.addSection("Chapter 1", new Resource(getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		TOCReference chapter2 = epubWriter.addSection("Chapter 2", new Resource(getClass().getResourceAsStream("/book1/chapter2.html"), "chapter2.html"));
+		Resource chapter21 = new Resource(getClass().getResourceAsStream("/book1/chapter2_1.html"), "chapter2_1.html");
+		byte[] chapter21Data = chapter21.getData();
+		epubWriter.addSection(chapter2, "Chapter 2.1", chapter21);
+		Resource chapter3 = epubWriter.addSpineResource(new Resource(getClass().getResourceAsStream("/book1/chapter3.html"), "chapter3.html"));
+		epubWriter.getGuide().addReference(new GuideReference(coverPage, GuideReference.COVER, "Cover"));
+
+		// only records are kept
+		assertFalse(chapter3.isInitialized());
+		assertFalse(chapter2.getResource().isInitialized());
+		try {
+			epubWriter.addResource(new Resource("<html/>".getBytes(), "chapter1.html"));
+			fail("a resource can only be written once");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		epubWriter.close();
+
+		Book book = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("Streaming test book", book.getMetadata().getFirstTitle().getValue());
+		assertEquals(5, book.getSpine().size());
+		assertEquals("cover.html", book.getSpine().getResource(0).getHref());
+		assertEquals("chapter3.html", book.getSpine().getResource(4).getHref());
+		assertEquals(2, book.getTableOfContents().getTocReferences().size());
+		assertEquals(1, book.getTableOfContents().getTocReferences().get(1).getChildren().size());
+		assertEquals("Chapter 2.1", book.getTableOfContents().getTocReferences().get(1).getChildren().get(0).getTitle());
+		assertTrue(Arrays.equals(chapter21Data, book.getResources().getByHref("chapter2_1.html").getData()));
+		assertTrue(Arrays.equals(IOUtil.toByteArray(getClass().getResourceAsStream("/book1/cover.png")), book.getCoverImage().getData()));
+		assertNotNull(book.getNavResource());
+	}
+
+	public void testEmptyBook() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new StreamingEpubWriter(out).close();
+		Book book = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(0, book.getSpine().size());
+	}
+
+	public void testCloseAfterFailure() throws IOException {
+		FailingOutputStream out = new FailingOutputStream();
+		StreamingEpubWriter epubWriter = new StreamingEpubWriter(out);
+		epubWriter.addSection("Chapter 1", new Resource("<html/>".getBytes(), "chapter1.html"));
+		out.failing = true;
+		try {
+			epubWriter.close();
+			fail("writing the package document fails");
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+		assertTrue(out.closed);
+	}
+
+	private static class FailingOutputStream extends OutputStream {
+
+		boolean failing = false;
+		boolean closed = false;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (failing) {
+				throw new IOException("disk full");
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
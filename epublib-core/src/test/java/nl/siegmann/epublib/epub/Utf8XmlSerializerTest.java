@@ -0,0 +1,150 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Author;
+import nl.siegmann.epublib.domain.Book;
+import nl.siegmann.epublib.domain.DcmesElement;
+import nl.siegmann.epublib.domain.Identifier;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.domain.TOCReference;
+import nl.siegmann.epublib.epub.impl.Epub2PackageDocumentWriter;
+import nl.siegmann.epublib.epub.impl.Epub3PackageDocumentWriter;
+
+import org.xmlpull.v1.XmlSerializer;
+
+public class Utf8XmlSerializerTest extends TestCase {
+
+	private static final String NAMESPACE = "urn:test";
+
+	public void testSameAsKXmlSerializer() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		OutputStreamWriter writer = new OutputStreamWriter(expected, Constants.CHARACTER_ENCODING);
+		writeTestDocument(EpubProcessorSupport.createXmlSerializer(writer));
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		writeTestDocument(EpubProcessorSupport.createXmlSerializer(actual));
+		assertEquals(new String(expected.toByteArray(), Constants.CHARACTER_ENCODING), new String(actual.toByteArray(), Constants.CHARACTER_ENCODING));
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+	}
+
+	public void testDocumentsSameAsKXmlSerializer() throws IOException {
+		Book book = createTestBook();
+		book.getSpine().setTocResource(NCXDocument.createNCXDocumentResource(book));
+		for (int i = 0; i < 4; i++) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			OutputStreamWriter writer = new OutputStreamWriter(expected, Constants.CHARACTER_ENCODING);
+			writeDocument(i, book, EpubProcessorSupport.createXmlSerializer(writer));
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			writeDocument(i, book, EpubProcessorSupport.createXmlSerializer(actual));
+			assertTrue("document " + i, Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+		}
+	}
+
+	public void testWriter() throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeTestDocument(new Utf8XmlSerializer(expected, true));
+		StringWriter actual = new StringWriter();
+		Utf8XmlSerializer serializer = new Utf8XmlSerializer();
+		serializer.setOutput(actual);
+		writeTestDocument(serializer);
+		assertEquals(new String(expected.toByteArray(), Constants.CHARACTER_ENCODING), actual.toString());
+	}
+
+	public void testCompact() throws IOException {
+		ByteArrayOutputStream indented = new ByteArrayOutputStream();
+		writeTestDocument(EpubProcessorSupport.createXmlSerializer(indented, true));
+		XmlSerializer serializer = EpubProcessorSupport.createXmlSerializer(new ByteArrayOutputStream(), false);
+		writeTestDocument(serializer);
+		ByteArrayOutputStream compact = new ByteArrayOutputStream();
+		// reused for another document
+		serializer.setOutput(compact, Constants.CHARACTER_ENCODING);
+		writeTestDocument(serializer);
+		String compactXml = new String(compact.toByteArray(), Constants.CHARACTER_ENCODING);
+		assertEquals(-1, compactXml.indexOf("\r\n  "));
+		assertTrue(compact.size() < indented.size());
+		assertEquals(new String(indented.toByteArray(), Constants.CHARACTER_ENCODING).replaceAll("\r\n *<", "<"), compactXml);
+	}
+
+	public void testCompactEpub() throws IOException {
+		Book book = createTestBook();
+		EpubWriter epubWriter = new EpubWriter();
+		epubWriter.setIndentXml(false);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		epubWriter.writeEpub3(book, out);
+
+		Book readBook = new EpubReader().readEpub(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(-1, new String(readBook.getSpine().getTocResource().getData(), Constants.CHARACTER_ENCODING).indexOf("\r\n  "));
+		assertEquals("Test book", readBook.getMetadata().getFirstTitle().getValue());
+		assertEquals(3, readBook.getSpine().size());
+		assertEquals(2, readBook.getTableOfContents().getTocReferences().size());
+		assertEquals("Chapter 1.1", readBook.getTableOfContents().getTocReferences().get(0).getChildren().get(0).getTitle());
+	}
+
+	private void writeTestDocument(XmlSerializer serializer) throws IOException {
+		serializer.startDocument(Constants.CHARACTER_ENCODING, false);
+		serializer.setPrefix("", NAMESPACE);
+		serializer.startTag(NAMESPACE, "package");
+		serializer.attribute("", "version", "2.0");
+		serializer.setPrefix("dc", "urn:dc");
+		serializer.startTag(NAMESPACE, "metadata");
+		serializer.startTag("urn:dc", "title");
+		serializer.text("a<b>&\"' é€😀@\u0001\t\n");
+		serializer.endTag("urn:dc", "title");
+		serializer.startTag(NAMESPACE, "item");
+		serializer.attribute("", "href", "q\"'<>&\t\n@é");
+		serializer.attribute("urn:dc", "id", "z");
+		serializer.endTag(NAMESPACE, "item");
+		serializer.startTag(NAMESPACE, "p");
+		serializer.text("mixed");
+		serializer.startTag(NAMESPACE, "b");
+		serializer.text("content");
+		serializer.endTag(NAMESPACE, "b");
+		serializer.endTag(NAMESPACE, "p");
+		serializer.endTag(NAMESPACE, "metadata");
+		serializer.startTag(NAMESPACE, "manifest");
+		serializer.startTag(NAMESPACE, "item");
+		serializer.endTag(NAMESPACE, "item");
+		serializer.endTag(NAMESPACE, "manifest");
+		serializer.startTag("urn:other", "generated");
+		serializer.endTag("urn:other", "generated");
+		serializer.endDocument();
+	}
+
+	private void writeDocument(int document, Book book, XmlSerializer serializer) throws IOException {
+		switch (document) {
+			case 0:
+				NCXDocument.write(serializer, book);
+				break;
+			case 1:
+				NavDocument.write(serializer, book);
+				break;
+			case 2:
+				new Epub2PackageDocumentWriter(book, serializer).write();
+				break;
+			default:
+				new Epub3PackageDocumentWriter(book, serializer).write();
+		}
+		serializer.flush();
+	}
+
+	private Book createTestBook() throws IOException {
+		Book book = new Book();
+		DcmesElement title = new DcmesElement();
+		title.setValue("Test book");
+		book.getMetadata().addTitle(title);
+		book.getMetadata().addIdentifier(new Identifier(Identifier.Scheme.ISBN, "987654321"));
+		book.getMetadata().addAuthor(new Author("Jöe", "Tester & Sons"));
+		TOCReference chapter1 = book.addSection("Chapter 1 <é>", new Resource(getClass().getResourceAsStream("/book1/chapter1.html"), "chapter1.html"));
+		book.addSection(chapter1, "Chapter 1.1", new Resource(getClass().getResourceAsStream("/book1/chapter2_1.html"), "chapter1_1.html"));
+		book.addSection("Chapter 2", new Resource(getClass().getResourceAsStream("/book1/chapter2.html"), "chapter2.html"));
+		book.addResource(new Resource(getClass().getResourceAsStream("/book1/book1.css"), "book1.css"));
+		return book;
+	}
+}
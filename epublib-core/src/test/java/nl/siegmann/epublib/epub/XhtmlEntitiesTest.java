@@ -0,0 +1,64 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParser;
+
+public class XhtmlEntitiesTest extends TestCase {
+
+	private static final String XHTML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">"
+			+ "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>a&nbsp;&eacute;&amp;&lt;&euro;&hellip;&#65;</p></body></html>";
+
+	public void testEntities() {
+		assertEquals(253, XhtmlEntities.getEntities().size());
+		assertEquals("\u00a0", XhtmlEntities.getEntities().get("nbsp"));
+		assertEquals("&", XhtmlEntities.getEntities().get("amp"));
+		assertEquals("<", XhtmlEntities.getEntities().get("lt"));
+		assertEquals("\u20ac", XhtmlEntities.getEntities().get("euro"));
+	}
+
+	public void testWithoutDtds() throws Exception {
+		String expected = parse();
+		assertEquals("a\u00a0\u00e9&<\u20ac\u2026A", expected);
+		EpubProcessorSupport.setResolveDtds(false);
+		try {
+			assertEquals(expected, parse());
+		} finally {
+			EpubProcessorSupport.setResolveDtds(true);
+		}
+	}
+
+	public void testDtdResourcesKept() throws Exception {
+		String path = "dtd/www.w3.org/TR/xhtml11/DTD/xhtml11.dtd";
+		byte[] dtd = EpubProcessorSupport.getDtdResource(path);
+		assertTrue(dtd.length > 0);
+		assertSame(dtd, EpubProcessorSupport.getDtdResource(path));
+		assertNull(EpubProcessorSupport.getDtdResource("dtd/example.com/unknown.dtd"));
+	}
+
+	public void testPullParser() throws Exception {
+		XmlPullParser parser = EpubProcessorSupport.createXmlPullParser();
+		parser.setInput(new StringReader(XHTML));
+		XhtmlEntities.defineEntities(parser);
+		StringBuilder text = new StringBuilder();
+		for (int eventType = parser.next(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.next()) {
+			if (eventType == XmlPullParser.TEXT) {
+				text.append(parser.getText());
+			}
+		}
+		assertEquals("a\u00a0\u00e9&<\u20ac\u2026A", text.toString());
+	}
+
+	private String parse() throws Exception {
+		DocumentBuilder documentBuilder = EpubProcessorSupport.createDocumentBuilder();
+		Document document = documentBuilder.parse(new InputSource(new StringReader(XHTML)));
+		return document.getDocumentElement().getTextContent();
+	}
+}
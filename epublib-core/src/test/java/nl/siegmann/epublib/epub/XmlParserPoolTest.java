@@ -0,0 +1,99 @@
+package nl.siegmann.epublib.epub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.Constants;
+import nl.siegmann.epublib.domain.Resource;
+import nl.siegmann.epublib.util.ResourceUtil;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+public class XmlParserPoolTest extends TestCase {
+
+	public void testDocumentBuilder() throws Exception {
+		XmlParserPool pool = new XmlParserPool(2);
+		DocumentBuilder documentBuilder = pool.acquireDocumentBuilder();
+		assertEquals("a", documentBuilder.parse(new InputSource(new StringReader("<a/>"))).getDocumentElement().getNodeName());
+		pool.release(documentBuilder);
+		assertSame(documentBuilder, pool.acquireDocumentBuilder());
+		// the dtd is still resolved from the classpath
+		Document document = documentBuilder.parse(new InputSource(new StringReader("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" \"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\"><html xmlns=\"http://www.w3.org/1999/xhtml\"><body>&nbsp;</body></html>")));
+		assertEquals("\u00a0", document.getDocumentElement().getTextContent());
+		assertEquals(1, pool.getCreateCount());
+		assertEquals(1, pool.getReuseCount());
+	}
+
+	public void testXmlPullParser() throws Exception {
+		XmlParserPool pool = new XmlParserPool(2);
+		XmlPullParser parser = pool.acquireXmlPullParser();
+		parser.setInput(new StringReader("<a><b/>"));
+		parser.next();
+		pool.release(parser);
+		// a parser that was released in the middle of a document starts over
+		assertSame(parser, pool.acquireXmlPullParser());
+		parser.setInput(new StringReader("<c/>"));
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		assertEquals("c", parser.getName());
+	}
+
+	public void testXmlSerializer() throws IOException {
+		XmlParserPool pool = new XmlParserPool(2);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		XmlSerializer serializer = pool.acquireXmlSerializer(first, true);
+		writeDocument(serializer);
+		pool.release(serializer);
+
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		assertSame(serializer, pool.acquireXmlSerializer(second, false));
+		writeDocument(serializer);
+		assertEquals(new String(first.toByteArray(), Constants.CHARACTER_ENCODING).replaceAll("\r\n *<", "<"), new String(second.toByteArray(), Constants.CHARACTER_ENCODING));
+	}
+
+	public void testMaxIdle() throws Exception {
+		XmlParserPool pool = new XmlParserPool(1);
+		XmlPullParser parser1 = pool.acquireXmlPullParser();
+		XmlPullParser parser2 = pool.acquireXmlPullParser();
+		pool.release(parser1);
+		pool.release(parser2);
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(1, pool.getDiscardCount());
+		pool.setMaxIdle(0);
+		assertEquals(0, pool.getIdleCount());
+		assertNotSame(parser1, pool.acquireXmlPullParser());
+		assertEquals(3, pool.getCreateCount());
+	}
+
+	public void testDefaultPool() throws Exception {
+		XmlParserPool defaultPool = XmlParserPool.getDefault();
+		XmlParserPool pool = new XmlParserPool(XmlParserPool.DEFAULT_MAX_IDLE);
+		XmlParserPool.setDefault(pool);
+		try {
+			for (int i = 0; i < 3; i++) {
+				Document document = ResourceUtil.getAsDocument(new Resource("<html><body/></html>".getBytes(), "chapter.html"));
+				assertEquals("html", document.getDocumentElement().getNodeName());
+			}
+			assertEquals(1, pool.getCreateCount());
+			assertEquals(2, pool.getReuseCount());
+		} finally {
+			XmlParserPool.setDefault(defaultPool);
+		}
+	}
+
+	private void writeDocument(XmlSerializer serializer) throws IOException {
+		serializer.startDocument(Constants.CHARACTER_ENCODING, false);
+		serializer.startTag("", "a");
+		serializer.startTag("", "b");
+		serializer.text("text");
+		serializer.endTag("", "b");
+		serializer.endTag("", "a");
+		serializer.endDocument();
+	}
+}
@@ -0,0 +1,106 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.util.IOUtil;
+
+public class ZipArchiveTest extends TestCase {
+
+	private File zipFile;
+
+	protected void setUp() throws Exception {
+		zipFile = File.createTempFile("ZipArchiveTest", ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+		byte[] mimetype = "application/epub+zip".getBytes("US-ASCII");
+		ZipEntry storedEntry = new ZipEntry("mimetype");
+		storedEntry.setMethod(ZipEntry.STORED);
+		storedEntry.setSize(mimetype.length);
+		CRC32 crc = new CRC32();
+		crc.update(mimetype);
+		storedEntry.setCrc(crc.getValue());
+		out.putNextEntry(storedEntry);
+		out.write(mimetype);
+		out.putNextEntry(new ZipEntry("OEBPS/"));
+		out.putNextEntry(new ZipEntry("OEBPS/chapter1.html"));
+		IOUtil.copy(getClass().getResourceAsStream("/book1/chapter1.html"), out);
+		out.putNextEntry(new ZipEntry("OEBPS/flowers.jpg"));
+		IOUtil.copy(getClass().getResourceAsStream("/book1/flowers_320x240.jpg"), out);
+		out.putNextEntry(new ZipEntry("OEBPS/empty.txt"));
+		out.putNextEntry(new ZipEntry("OEBPS/héllo wörld.css"));
+		out.write("body { color: black; }".getBytes("UTF-8"));
+		out.close();
+	}
+
+	protected void tearDown() throws Exception {
+		zipFile.delete();
+	}
+
+	public void testEntries() throws IOException {
+		ZipArchive zipArchive = new ZipArchive(zipFile);
+		assertEquals(6, zipArchive.size());
+		assertEquals("mimetype", zipArchive.getEntries().get(0).getName());
+		assertEquals(ZipEntry.STORED, zipArchive.getEntry("mimetype").getMethod());
+		assertTrue(zipArchive.getEntry("OEBPS/").isDirectory());
+		assertNotNull(zipArchive.getEntry("OEBPS/héllo wörld.css"));
+		assertNull(zipArchive.getEntry("OEBPS/unknown.html"));
+		zipArchive.close();
+	}
+
+	public void testSameContentAsZipFile() throws IOException {
+		ZipArchive zipArchive = new ZipArchive(zipFile);
+		ZipFile expected = new ZipFile(zipFile);
+		for (ZipArchiveEntry entry: zipArchive.getEntries()) {
+			ZipEntry expectedEntry = expected.getEntry(entry.getName());
+			assertNotNull(entry.getName(), expectedEntry);
+			assertEquals(expectedEntry.getSize(), entry.getSize());
+			assertEquals(expectedEntry.getCompressedSize(), entry.getCompressedSize());
+			assertEquals(expectedEntry.getCrc(), entry.getCrc());
+			byte[] expectedData = IOUtil.toByteArray(expected.getInputStream(expectedEntry));
+			assertTrue(entry.getName(), Arrays.equals(expectedData, read(zipArchive, entry)));
+		}
+		expected.close();
+		zipArchive.close();
+	}
+
+	public void testReadAfterClose() throws IOException {
+		ZipArchive zipArchive = new ZipArchive(zipFile);
+		ZipArchiveEntry entry = zipArchive.getEntry("OEBPS/chapter1.html");
+		byte[] data = read(zipArchive, entry);
+		zipArchive.close();
+		assertTrue(Arrays.equals(data, read(zipArchive, entry)));
+		zipArchive.close();
+	}
+
+	public void testNotAZipFile() throws IOException {
+		File file = File.createTempFile("ZipArchiveTest", ".txt");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a zip file".getBytes("US-ASCII"));
+		out.close();
+		try {
+			new ZipArchive(file);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// expected
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] read(ZipArchive zipArchive, ZipArchiveEntry entry) throws IOException {
+		InputStream in = zipArchive.getInputStream(entry);
+		try {
+			return IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+}
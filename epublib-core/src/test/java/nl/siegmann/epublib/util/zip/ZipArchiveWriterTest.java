@@ -0,0 +1,173 @@
+package nl.siegmann.epublib.util.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+import nl.siegmann.epublib.util.IOUtil;
+
+public class ZipArchiveWriterTest extends TestCase {
+
+	private File zipFile;
+	private byte[] chapter;
+	private byte[] image;
+
+	protected void setUp() throws Exception {
+		zipFile = File.createTempFile("ZipArchiveWriterTest", ".zip");
+		chapter = IOUtil.toByteArray(getClass().getResourceAsStream("/book1/chapter1.html"));
+		image = IOUtil.toByteArray(getClass().getResourceAsStream("/book1/flowers_320x240.jpg"));
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ZipArchiveWriter out = new ZipArchiveWriter(new FileOutputStream(zipFile));
+		out.write(CompressedEntry.stored("mimetype", "application/epub+zip".getBytes("US-ASCII")));
+		out.write(CompressedEntry.deflate("OEBPS/chapter1.html", new ByteArrayInputStream(chapter), deflater, chapter.length));
+		out.write("OEBPS/flowers.jpg", new ByteArrayInputStream(image), deflater);
+		out.write(CompressedEntry.deflate("OEBPS/empty.txt", new ByteArrayInputStream(new byte[0]), deflater, 0));
+		out.write(CompressedEntry.stored("OEBPS/héllo wörld.css", "body { color: black; }".getBytes("UTF-8")));
+		out.close();
+		deflater.end();
+	}
+
+	protected void tearDown() throws Exception {
+		zipFile.delete();
+	}
+
+	public void testZipFile() throws IOException {
+		ZipFile zip = new ZipFile(zipFile);
+		assertEquals(5, zip.size());
+		assertEquals(ZipEntry.STORED, zip.getEntry("mimetype").getMethod());
+		assertEquals(ZipEntry.DEFLATED, zip.getEntry("OEBPS/flowers.jpg").getMethod());
+		assertTrue(Arrays.equals(chapter, read(zip.getInputStream(zip.getEntry("OEBPS/chapter1.html")))));
+		assertTrue(Arrays.equals(image, read(zip.getInputStream(zip.getEntry("OEBPS/flowers.jpg")))));
+		assertEquals(0, read(zip.getInputStream(zip.getEntry("OEBPS/empty.txt"))).length);
+		assertEquals("body { color: black; }", new String(read(zip.getInputStream(zip.getEntry("OEBPS/héllo wörld.css"))), "UTF-8"));
+		zip.close();
+	}
+
+	public void testZipInputStream() throws IOException {
+		ZipInputStream in = new ZipInputStream(new FileInputStream(zipFile));
+		assertEquals("mimetype", in.getNextEntry().getName());
+		assertEquals("application/epub+zip", new String(IOUtil.toByteArray(in), "US-ASCII"));
+		assertEquals("OEBPS/chapter1.html", in.getNextEntry().getName());
+		assertTrue(Arrays.equals(chapter, IOUtil.toByteArray(in)));
+		assertEquals("OEBPS/flowers.jpg", in.getNextEntry().getName());
+		assertTrue(Arrays.equals(image, IOUtil.toByteArray(in)));
+		assertEquals("OEBPS/empty.txt", in.getNextEntry().getName());
+		assertEquals("OEBPS/héllo wörld.css", in.getNextEntry().getName());
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	public void testZipArchive() throws IOException {
+		ZipArchive zipArchive = new ZipArchive(zipFile);
+		assertEquals(5, zipArchive.size());
+		ZipArchiveEntry entry = zipArchive.getEntry("OEBPS/flowers.jpg");
+		assertEquals(image.length, entry.getSize());
+		assertTrue(Arrays.equals(image, read(zipArchive.getInputStream(entry))));
+		assertTrue(Arrays.equals(chapter, read(zipArchive.getInputStream(zipArchive.getEntry("OEBPS/chapter1.html")))));
+		zipArchive.close();
+	}
+
+	public void testSameTimeSameBytes() throws IOException {
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ZipArchiveWriter out = new ZipArchiveWriter(first);
+		out.setTime(0);
+		out.write(CompressedEntry.stored("mimetype", "application/epub+zip".getBytes("US-ASCII")));
+		out.close();
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		out = new ZipArchiveWriter(second);
+		out.setTime(0);
+		out.write(CompressedEntry.stored("mimetype", "application/epub+zip".getBytes("US-ASCII")));
+		out.close();
+		assertTrue(Arrays.equals(first.toByteArray(), second.toByteArray()));
+	}
+
+	public void testStartEntry() throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ZipArchiveWriter out = new ZipArchiveWriter(result);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		OutputStream entryOut = out.startEntry("OEBPS/chapter1.html", deflater);
+		for (int i = 0; i < chapter.length; i += 100) {
+			entryOut.write(chapter, i, Math.min(100, chapter.length - i));
+		}
+		try {
+			out.write(CompressedEntry.stored("mimetype", "application/epub+zip".getBytes("US-ASCII")));
+			fail("no entries can be written while an entry is open");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		entryOut.close();
+		out.write(CompressedEntry.stored("mimetype", "application/epub+zip".getBytes("US-ASCII")));
+		out.close();
+		deflater.end();
+
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(result.toByteArray()));
+		assertEquals("OEBPS/chapter1.html", in.getNextEntry().getName());
+		assertTrue(Arrays.equals(chapter, IOUtil.toByteArray(in)));
+		assertEquals("mimetype", in.getNextEntry().getName());
+		in.close();
+	}
+
+	/**
+	 * An entry that may become 4 GB or larger has zip64 sizes in both its local header and its data descriptor.
+	 */
+	public void testStartZip64Entry() throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		ZipArchiveWriter out = new ZipArchiveWriter(result);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		OutputStream entryOut = out.startEntry("OEBPS/chapter1.html", deflater, 5L * 1024 * 1024 * 1024);
+		entryOut.write(chapter);
+		entryOut.close();
+		out.close();
+		deflater.end();
+
+		ByteBuffer zip = ByteBuffer.wrap(result.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		int nameLength = zip.getShort(26);
+		assertEquals(45, zip.getShort(4));
+		assertEquals(0xFFFFFFFF, zip.getInt(18));
+		assertEquals(0xFFFFFFFF, zip.getInt(22));
+		assertEquals(20, zip.getShort(28));
+		int extraOffset = 30 + nameLength;
+		assertEquals(0x0001, zip.getShort(extraOffset));
+		assertEquals(16, zip.getShort(extraOffset + 2));
+		assertEquals(0, zip.getLong(extraOffset + 4));
+		assertEquals(0, zip.getLong(extraOffset + 12));
+
+		File file = File.createTempFile("ZipArchiveWriterTest", ".zip");
+		try {
+			FileOutputStream fileOut = new FileOutputStream(file);
+			fileOut.write(result.toByteArray());
+			fileOut.close();
+			ZipFile zipFile = new ZipFile(file);
+			ZipEntry entry = zipFile.getEntry("OEBPS/chapter1.html");
+			assertTrue(Arrays.equals(chapter, read(zipFile.getInputStream(entry))));
+			int dataDescriptorOffset = extraOffset + 20 + (int) entry.getCompressedSize();
+			assertEquals(0x08074b50, zip.getInt(dataDescriptorOffset));
+			assertEquals(entry.getCompressedSize(), zip.getLong(dataDescriptorOffset + 8));
+			assertEquals(chapter.length, zip.getLong(dataDescriptorOffset + 16));
+			zipFile.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			return IOUtil.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+}